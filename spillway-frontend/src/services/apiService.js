@@ -82,7 +82,14 @@ export const videoAPI = {
   getVideo: (videoId) => apiClient.get(`/video/${videoId}`),
   updateVideo: (videoId, updates) => apiClient.put(`/video/${videoId}`, updates),
   getUserVideos: () => apiClient.get('/video/my-videos'),
-  getVideoStatus: (videoId) => apiClient.get(`/video/${videoId}/status`)
+  getVideoStatus: (videoId) => apiClient.get(`/video/${videoId}/status`),
+  getVideoStatusStreamUrl: (videoId) => `${API_BASE_URL}/video/${videoId}/status/stream`,
+  openPlaybackSession: (videoId, decryptionKey) => apiClient.post(`/video/${videoId}/playback-session`, null, {
+    headers: { 'X-Decryption-Key': decryptionKey }
+  }),
+  closePlaybackSession: (videoId, sessionToken) => apiClient.delete(`/video/${videoId}/playback-session`, {
+    headers: { 'X-Playback-Session': sessionToken }
+  })
 }
 
 /**
@@ -11,7 +11,9 @@ export const useVideoStore = defineStore('video', {
     isLoading: false,
     error: null,
     uploadProgress: 0,
-    videoStatusPolling: null
+    videoStatusPolling: null,
+    videoStatusStream: null,
+    conversionProgress: null
   }),
   
   getters: {
@@ -257,6 +259,43 @@ export const useVideoStore = defineStore('video', {
     },
     
     // Video conversion monitoring
+    // Streams status over Server-Sent Events, falling back to polling when the stream cannot be opened
+    async watchVideoConversionStatus(videoId) {
+      if (typeof EventSource === 'undefined') {
+        return this.pollVideoConversionStatus(videoId)
+      }
+      
+      this.stopPolling()
+      
+      return new Promise((resolve, reject) => {
+        const source = new EventSource(videoAPI.getVideoStatusStreamUrl(videoId))
+        let received = false
+        this.videoStatusStream = source
+        
+        source.addEventListener('progress', (event) => {
+          received = true
+          const status = JSON.parse(event.data)
+          this.conversionProgress = status
+          
+          if (status.status === 'COMPLETED') {
+            this.stopPolling()
+            resolve(status)
+          } else if (status.status === 'FAILED') {
+            this.stopPolling()
+            reject(new Error('Video conversion failed'))
+          }
+        })
+        
+        source.onerror = () => {
+          // Once events have arrived the browser reconnects on its own
+          if (!received) {
+            this.stopPolling()
+            this.pollVideoConversionStatus(videoId).then(resolve, reject)
+          }
+        }
+      })
+    },
+    
     async pollVideoConversionStatus(videoId, interval = 2000, maxAttempts = 60) {
       return new Promise((resolve, reject) => {
         let attempts = 0
@@ -275,6 +314,7 @@ export const useVideoStore = defineStore('video', {
               return
             }
             
+            this.conversionProgress = status
             const currentStatus = status.status || status.conversionStatus
             
             if (currentStatus === 'COMPLETED') {
@@ -316,6 +356,10 @@ export const useVideoStore = defineStore('video', {
         clearTimeout(this.videoStatusPolling)
         this.videoStatusPolling = null
       }
+      if (this.videoStatusStream) {
+        this.videoStatusStream.close()
+        this.videoStatusStream = null
+      }
     },
     
     clearError() {
@@ -0,0 +1,58 @@
+#!/bin/bash
+
+# Load benchmark for HLS segment serving.
+#
+# Fires REQUESTS segment downloads at CONCURRENCY and reports how many bytes the
+# server JVM allocated on the heap per request, using the jvm.gc.memory.allocated
+# counter from the actuator. Run it once against a build of the previous commit and
+# once against the current one to compare.
+#
+# The metrics endpoint must be exposed on the server under test, e.g.
+#   ./mvnw spring-boot:run -Dspring-boot.run.arguments=--management.endpoints.web.exposure.include=health,info,metrics
+#
+# The allocation counter only advances when a young collection runs, so use enough
+# requests to move several eden generations (the defaults do for 1-2 MB segments).
+#
+# Usage:
+#   TOKEN=<jwt> ./benchmark-segments.sh <video-id> <segment-filename>
+
+set -euo pipefail
+
+BASE_URL=${BASE_URL:-http://localhost:8081}
+REQUESTS=${REQUESTS:-2000}
+CONCURRENCY=${CONCURRENCY:-200}
+VIDEO_ID=${1:?video id required}
+SEGMENT=${2:?segment filename required, e.g. 720p_000.ts}
+TOKEN=${TOKEN:?TOKEN must hold a JWT for a user with access to the video}
+
+SEGMENT_URL="$BASE_URL/video/$VIDEO_ID/segments/$SEGMENT"
+METRIC_URL="$BASE_URL/actuator/metrics/jvm.gc.memory.allocated"
+
+allocated_bytes() {
+    curl -sf "$METRIC_URL" | sed -n 's/.*"value":\([0-9.Ee+]*\).*/\1/p'
+}
+
+if ! curl -sf -o /dev/null -H "Authorization: Bearer $TOKEN" "$SEGMENT_URL"; then
+    echo "Cannot fetch $SEGMENT_URL" >&2
+    exit 1
+fi
+
+SEGMENT_BYTES=$(curl -s -o /dev/null -w '%{size_download}' -H "Authorization: Bearer $TOKEN" "$SEGMENT_URL")
+BEFORE=$(allocated_bytes)
+START=$(date +%s.%N)
+
+seq "$REQUESTS" | xargs -P "$CONCURRENCY" -I{} \
+    curl -s -o /dev/null -H "Authorization: Bearer $TOKEN" "$SEGMENT_URL"
+
+END=$(date +%s.%N)
+AFTER=$(allocated_bytes)
+
+awk -v before="$BEFORE" -v after="$AFTER" -v n="$REQUESTS" -v size="$SEGMENT_BYTES" \
+    -v start="$START" -v end="$END" 'BEGIN {
+    per_request = (after - before) / n
+    elapsed = end - start
+    printf "Segment size:            %d bytes\n", size
+    printf "Requests:                %d in %.2fs (%.1f req/s)\n", n, elapsed, n / elapsed
+    printf "Heap allocated:          %.0f bytes total\n", after - before
+    printf "Heap allocated/request:  %.0f bytes (%.2fx segment size)\n", per_request, per_request / size
+}'
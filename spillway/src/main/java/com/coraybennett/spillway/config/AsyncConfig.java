@@ -35,11 +35,38 @@ public class AsyncConfig {
     @Value("${video.conversion.thread-pool.max-size:5}")
     private int videoConversionMaxSize;
     
-    @Value("${video.conversion.thread-pool.queue-capacity:10}")
+    @Value("${video.conversion.thread-pool.queue-capacity:0}")
     private int videoConversionQueueCapacity;
 
+    @Value("${video.conversion.rendition-pool.size:10}")
+    private int renditionPoolSize;
+
+    @Value("${video.conversion.rendition-pool.queue-capacity:50}")
+    private int renditionQueueCapacity;
+
+    @Value("${video.encryption.segment-pool.size:2}")
+    private int segmentEncryptionPoolSize;
+
+    @Value("${video.encryption.segment-pool.queue-capacity:500}")
+    private int segmentEncryptionQueueCapacity;
+
+    @Value("${video.conversion.progress.stream-pool.size:4}")
+    private int progressStreamPoolSize;
+
+    @Value("${video.conversion.progress.stream-pool.queue-capacity:1000}")
+    private int progressStreamQueueCapacity;
+
+    @Value("${video.prefetch.pool.size:2}")
+    private int prefetchPoolSize;
+
+    @Value("${video.prefetch.pool.queue-capacity:64}")
+    private int prefetchQueueCapacity;
+
     /**
-     * Thread pool for video conversion tasks with optimized settings
+     * Thread pool for video conversion tasks. Jobs are only submitted by the transcode
+     * scheduler once it has reserved their CPU cores, so a full pool means the scheduler's
+     * budget and this pool disagree; the task is rejected and the job goes back to the queue
+     * instead of running on the scheduler's thread.
      */
     @Bean(name = "videoConversionExecutor")
     public Executor videoConversionExecutor() {
@@ -48,10 +75,7 @@ public class AsyncConfig {
         executor.setMaxPoolSize(videoConversionMaxSize);
         executor.setQueueCapacity(videoConversionQueueCapacity);
         executor.setThreadNamePrefix("VideoConversion-");
-        
-        // Use caller runs policy to ensure videos are processed even if queue is full
-        // This adds back-pressure instead of dropping tasks
-        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
         
         // Set a reasonable keep-alive time for additional threads
         executor.setKeepAliveSeconds(120);
@@ -62,7 +86,82 @@ public class AsyncConfig {
         executor.initialize();
         return executor;
     }
+
+    /**
+     * Thread pool for the per-rendition FFmpeg processes of a parallel conversion.
+     * Its threads only wait on FFmpeg, so it is sized by process count rather than cores.
+     */
+    @Bean(name = "renditionExecutor")
+    public Executor renditionExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(renditionPoolSize);
+        executor.setMaxPoolSize(renditionPoolSize);
+        executor.setQueueCapacity(renditionQueueCapacity);
+        executor.setThreadNamePrefix("Rendition-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setKeepAliveSeconds(120);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.initialize();
+        return executor;
+    }
     
+    /**
+     * Thread pool encrypting HLS segments while FFmpeg is still encoding. Its threads are
+     * CPU-bound but AES-GCM is far cheaper than encoding, so a couple of threads keep up
+     * with several conversions. When the queue is full the watcher encrypts the segment
+     * itself, which slows it down instead of dropping work.
+     */
+    @Bean(name = "segmentEncryptionExecutor")
+    public Executor segmentEncryptionExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(segmentEncryptionPoolSize);
+        executor.setMaxPoolSize(segmentEncryptionPoolSize);
+        executor.setQueueCapacity(segmentEncryptionQueueCapacity);
+        executor.setThreadNamePrefix("SegmentEncryption-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setKeepAliveSeconds(120);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.initialize();
+        return executor;
+    }
+    
+    /**
+     * Thread pool warming segments ahead of playback. Prefetching is best effort, so
+     * work that does not fit in the queue is rejected and the caller skips it.
+     */
+    @Bean(name = "prefetchExecutor")
+    public Executor prefetchExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(prefetchPoolSize);
+        executor.setMaxPoolSize(prefetchPoolSize);
+        executor.setQueueCapacity(prefetchQueueCapacity);
+        executor.setThreadNamePrefix("Prefetch-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setKeepAliveSeconds(120);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.initialize();
+        return executor;
+    }
+    
+    /**
+     * Thread pool writing conversion progress events to SSE clients, kept apart from the
+     * scheduler so a slow client can never delay lease heartbeats or job dispatch. Events
+     * that do not fit in the queue stay pending and are retried on the next push.
+     */
+    @Bean(name = "progressStreamExecutor")
+    public Executor progressStreamExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(progressStreamPoolSize);
+        executor.setMaxPoolSize(progressStreamPoolSize);
+        executor.setQueueCapacity(progressStreamQueueCapacity);
+        executor.setThreadNamePrefix("ProgressStream-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.setKeepAliveSeconds(120);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.initialize();
+        return executor;
+    }
+
     /**
      * General purpose thread pool for other async operations
      */
@@ -0,0 +1,12 @@
+package com.coraybennett.spillway.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Enables scheduled background work such as transcode job dispatch and lease renewal.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -2,6 +2,7 @@ package com.coraybennett.spillway.config;
 
 import com.coraybennett.spillway.security.JwtAuthenticationEntryPoint;
 import com.coraybennett.spillway.security.JwtRequestFilter;
+import com.coraybennett.spillway.security.SegmentUrlSigner;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
@@ -43,8 +44,10 @@ public class SecurityConfig {
                 .requestMatchers("/auth/**").permitAll()
                 .requestMatchers("/actuator/**").permitAll()
                 .requestMatchers("/search/**").authenticated()
+                .requestMatchers("/upload/**").authenticated()
                 .requestMatchers(HttpMethod.GET, "/video/*/playlist").authenticated()
                 .requestMatchers(HttpMethod.GET, "/video/*/playlist/*").authenticated()
+                .requestMatchers(SegmentUrlSigner::isSignedSegmentRequest).permitAll()
                 .requestMatchers(HttpMethod.GET, "/video/*/segments/*").authenticated()
                 .requestMatchers(HttpMethod.GET, "/video/*").authenticated()
                 .requestMatchers(HttpMethod.GET, "/playlist/*").authenticated()
@@ -0,0 +1,154 @@
+package com.coraybennett.spillway.controller;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.WebRequest;
+
+import com.coraybennett.spillway.model.ConversionStatus;
+import com.coraybennett.spillway.model.Playlist;
+import com.coraybennett.spillway.model.Video;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Builds the ETag and Last-Modified validators of read endpoints, so handlers can answer
+ * conditional requests with 304 before building a response body. Validators are derived
+ * from entity state that changes on every write: updatedAt, plus the conversion progress
+ * that is updated without touching updatedAt, and the playlist and uploader a video is
+ * shown with.
+ */
+final class CacheValidators {
+
+    // Stored segments never change under a URL until the video is converted again
+    static final CacheControl IMMUTABLE_PUBLIC = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable();
+    static final CacheControl IMMUTABLE_PRIVATE = CacheControl.maxAge(365, TimeUnit.DAYS).cachePrivate().immutable();
+
+    // Responses that may be kept but must be revalidated before each use
+    static final CacheControl REVALIDATE = CacheControl.noCache().cachePrivate();
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private CacheValidators() {
+    }
+
+    /**
+     * Sets the validators and Cache-Control header of a response and checks the request's
+     * conditional headers against them. If-None-Match takes precedence over If-Modified-Since.
+     *
+     * @param request The current request
+     * @param etag ETag of the current representation
+     * @param lastModified Last modification in epoch milliseconds, or -1 to send none
+     * @param cacheControl Cache-Control of the response, sent with a 304 as well
+     * @return true if the response has been set to 304 Not Modified and needs no body
+     */
+    static boolean notModified(WebRequest request, String etag, long lastModified, CacheControl cacheControl) {
+        HttpServletResponse response = request instanceof NativeWebRequest nativeRequest
+            ? nativeRequest.getNativeResponse(HttpServletResponse.class) : null;
+        if (response != null) {
+            response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.getHeaderValue());
+        }
+        return request.checkNotModified(etag, lastModified);
+    }
+
+    /**
+     * @return A weak ETag hashing the given parts
+     */
+    static String weakTag(Object... parts) {
+        StringBuilder state = new StringBuilder();
+        for (Object part : parts) {
+            state.append(part).append('\0');
+        }
+        return "W/\"" + hash(state) + "\"";
+    }
+
+    /**
+     * @return A weak ETag over the state of every video in a result
+     */
+    static String videosTag(Collection<Video> videos, Object... extra) {
+        StringBuilder state = new StringBuilder();
+        for (Object part : extra) {
+            state.append(part).append('\0');
+        }
+        for (Video video : videos) {
+            appendVideo(state, video);
+        }
+        return "W/\"" + hash(state) + "\"";
+    }
+
+    /**
+     * @return A weak ETag over the state of every playlist in a result and of their videos
+     */
+    static String playlistsTag(Collection<Playlist> playlists, Object... extra) {
+        StringBuilder state = new StringBuilder();
+        for (Object part : extra) {
+            state.append(part).append('\0');
+        }
+        for (Playlist playlist : playlists) {
+            state.append(playlist.getId()).append('\0').append(playlist.getUpdatedAt()).append('\0');
+            if (playlist.getVideos() != null) {
+                for (Video video : playlist.getVideos()) {
+                    appendVideo(state, video);
+                }
+            }
+        }
+        return "W/\"" + hash(state) + "\"";
+    }
+
+    /**
+     * @return A strong ETag for a file that is only ever replaced, never modified in place
+     */
+    static String fileTag(long size, long lastModifiedMillis, String variant) {
+        return "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModifiedMillis)
+            + (variant != null ? "-" + variant : "") + "\"";
+    }
+
+    /**
+     * @return Last modification of a video in epoch milliseconds, or -1 while it converts,
+     *         since progress updates do not touch updatedAt
+     */
+    static long lastModified(Video video) {
+        return video.getConversionStatus() == ConversionStatus.IN_PROGRESS ? -1 : lastModified(video.getUpdatedAt());
+    }
+
+    /**
+     * @return Epoch milliseconds of a timestamp, or -1 when there is none
+     */
+    static long lastModified(LocalDateTime timestamp) {
+        return timestamp != null ? timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : -1;
+    }
+
+    /**
+     * Appends a video's own state and that of the playlist and uploader shown with it;
+     * renaming either does not touch the video's updatedAt.
+     */
+    private static void appendVideo(StringBuilder state, Video video) {
+        Playlist playlist = video.getPlaylist();
+        state.append(video.getId()).append('\0')
+            .append(video.getUpdatedAt()).append('\0')
+            .append(video.getConversionStatus()).append('\0')
+            .append(video.getConversionProgress()).append('\0')
+            .append(playlist != null ? playlist.getId() : null).append('\0')
+            .append(playlist != null ? playlist.getUpdatedAt() : null).append('\0')
+            .append(video.getUploadedBy() != null ? video.getUploadedBy().getUsername() : null).append('\0');
+    }
+
+    private static String hash(CharSequence state) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                .digest(state.toString().getBytes(StandardCharsets.UTF_8));
+            return HEX.formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.coraybennett.spillway.controller;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -19,12 +20,18 @@ import com.coraybennett.spillway.annotation.SecuredVideoResource;
 import com.coraybennett.spillway.annotation.UserAction;
 import com.coraybennett.spillway.dto.VideoResponse;
 import com.coraybennett.spillway.dto.VideoUploadRequest;
+import com.coraybennett.spillway.exception.TranscodeQueueFullException;
+import com.coraybennett.spillway.exception.UnsupportedMediaException;
 import com.coraybennett.spillway.exception.VideoConversionException;
 import com.coraybennett.spillway.model.User;
 import com.coraybennett.spillway.model.Video;
+import com.coraybennett.spillway.service.api.StorageService.StoredFile;
+import com.coraybennett.spillway.service.api.TranscodeJobService;
+import com.coraybennett.spillway.service.api.TranscodeJobService.QueueStatus;
 import com.coraybennett.spillway.service.api.VideoEncryptionService;
 import com.coraybennett.spillway.service.api.VideoService;
 
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
@@ -38,6 +45,7 @@ import lombok.extern.slf4j.Slf4j;
 public class FileUploadController {
     private final VideoService videoService;
     private final VideoEncryptionService encryptionService;
+    private final TranscodeJobService transcodeJobService;
 
     @PostMapping("/video/metadata")
     @UserAction
@@ -87,11 +95,23 @@ public class FileUploadController {
                         .body("Encryption key required for encrypted video");
                 }
             
+            // The container has already spooled the multipart body by now; turning the
+            // upload away when nothing more can be queued only saves copying it to storage
+            QueueStatus queueStatus = transcodeJobService.getQueueStatus();
+            if (queueStatus.isFull()) {
+                return queueFull(videoId, queueStatus.retryAfterSeconds());
+            }
+            
             videoService.uploadAndConvertVideo(videoId, videoFile, encryptionKey);
             
+            // Saturated means the job waits in the queue rather than starting right away
             return ResponseEntity.accepted()
                 .header("X-Video-Encrypted", String.valueOf(video.isEncrypted()))
+                .header("X-Transcode-Queued", String.valueOf(queueStatus.saturated()))
+                .header("X-Transcode-Queue-Depth", String.valueOf(queueStatus.queuedJobs() + 1))
                 .build();
+        } catch (TranscodeQueueFullException e) {
+            return queueFull(videoId, e.getRetryAfterSeconds());
         } catch (VideoConversionException e) {
             log.error("Video conversion error for {}: {}", videoId, e.getMessage());
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
@@ -103,6 +123,74 @@ public class FileUploadController {
         }
     }
     
+    /**
+     * Upload a video file as a raw request body. The body is written straight to its
+     * final location while its size and SHA-256 are computed, so the file is written
+     * to disk once and conversion can be queued as soon as the last byte arrives.
+     */
+    @PostMapping(value = "/video/{videoId}/stream",
+                 consumes = {MediaType.APPLICATION_OCTET_STREAM_VALUE, "video/*"})
+    @SecuredVideoResource(requireWrite = true, idParameter = "videoId")
+    @Loggable(entryMessage = "Stream video file", includeResult = true)
+    public ResponseEntity<?> streamVideoFile(
+            @PathVariable("videoId") String videoId,
+            @RequestHeader("X-Filename") String filename,
+            @RequestHeader(value = "X-Content-SHA256", required = false) String expectedSha256,
+            @RequestHeader(value = "X-Encryption-Key", required = false) String encryptionKey,
+            @CurrentUser User user,
+            @ResolvedResource Video video,
+            HttpServletRequest request
+    ) {
+        try {
+            if (video.isEncrypted() && encryptionKey == null) {
+                log.error("Encryption key not found for encrypted video: {}", videoId);
+                return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("Encryption key required for encrypted video");
+            }
+            
+            // Checked before the body is read, so a rejected upload costs no disk writes
+            QueueStatus queueStatus = transcodeJobService.getQueueStatus();
+            if (queueStatus.isFull()) {
+                return queueFull(videoId, queueStatus.retryAfterSeconds());
+            }
+            
+            StoredFile stored = videoService.streamAndConvertVideo(
+                videoId, request.getInputStream(), filename, request.getContentLengthLong(),
+                expectedSha256, encryptionKey);
+            
+            return ResponseEntity.accepted()
+                .header("X-Video-Encrypted", String.valueOf(video.isEncrypted()))
+                .header("X-Content-SHA256", stored.sha256())
+                .header("X-Content-Size", String.valueOf(stored.size()))
+                .header("X-Transcode-Queued", String.valueOf(queueStatus.saturated()))
+                .header("X-Transcode-Queue-Depth", String.valueOf(queueStatus.queuedJobs() + 1))
+                .build();
+        } catch (TranscodeQueueFullException e) {
+            return queueFull(videoId, e.getRetryAfterSeconds());
+        } catch (VideoConversionException e) {
+            if (e.getCause() instanceof UnsupportedMediaException) {
+                // The rest of the body is not read; closing stops the client sending it
+                return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE)
+                    .header(HttpHeaders.CONNECTION, "close")
+                    .body(e.getMessage());
+            }
+            log.error("Streamed upload error for {}: {}", videoId, e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("Error uploading video file: " + e.getMessage());
+        } catch (Exception e) {
+            log.error("Internal error streaming video {}: {}", videoId, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Internal Server Error: " + e.getMessage());
+        }
+    }
+
+    private ResponseEntity<String> queueFull(String videoId, int retryAfterSeconds) {
+        log.warn("Transcode queue full, asking client to retry upload for {} in {}s", videoId, retryAfterSeconds);
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+            .body("The conversion queue is full, try again later");
+    }
+    
     /**
      * Generate a new encryption key for video upload.
      * This endpoint helps clients generate secure encryption keys.
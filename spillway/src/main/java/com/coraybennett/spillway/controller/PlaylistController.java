@@ -9,6 +9,7 @@ import jakarta.validation.Valid;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import com.coraybennett.spillway.annotation.CurrentUser;
 import com.coraybennett.spillway.annotation.Loggable;
@@ -76,8 +77,13 @@ public class PlaylistController {
     public ResponseEntity<PlaylistResponse> getPlaylist(
             @PathVariable("id") String id, 
             @CurrentUser(required = false) User user,
-            @ResolvedResource Playlist playlist) {
+            @ResolvedResource Playlist playlist,
+            WebRequest webRequest) {
         
+        if (CacheValidators.notModified(webRequest, CacheValidators.playlistsTag(List.of(playlist)), -1,
+                CacheValidators.REVALIDATE)) {
+            return null;
+        }
         return ResponseEntity.ok(new PlaylistResponse(playlist));
     }
 
@@ -91,10 +97,17 @@ public class PlaylistController {
     public ResponseEntity<List<VideoListResponse>> getPlaylistVideos(
             @PathVariable("id") String id, 
             @CurrentUser(required = false) User user,
-            @ResolvedResource Playlist playlist) {
+            @ResolvedResource Playlist playlist,
+            WebRequest webRequest) {
         
         try {
             List<Video> videos = playlistService.getPlaylistVideos(id);
+            // Video responses carry the playlist name
+            if (CacheValidators.notModified(webRequest, CacheValidators.videosTag(videos, playlist.getUpdatedAt()), -1,
+                    CacheValidators.REVALIDATE)) {
+                return null;
+            }
+            
             List<VideoListResponse> videoResponses = videos.stream()
                 .map(VideoListResponse::new)
                 .collect(Collectors.toList());
@@ -111,8 +124,13 @@ public class PlaylistController {
     @GetMapping("/my-playlists")
     @UserAction
     @Loggable(entryMessage = "Get user playlists", includeParameters = true)
-    public ResponseEntity<List<PlaylistResponse>> getMyPlaylists(@CurrentUser User user) {
+    public ResponseEntity<List<PlaylistResponse>> getMyPlaylists(@CurrentUser User user, WebRequest webRequest) {
         List<Playlist> playlists = playlistService.listPlaylists(user.getId());
+        if (CacheValidators.notModified(webRequest, CacheValidators.playlistsTag(playlists), -1,
+                CacheValidators.REVALIDATE)) {
+            return null;
+        }
+        
         List<PlaylistResponse> playlistResponses = playlists.stream()
             .map(PlaylistResponse::new)
             .collect(Collectors.toList());
@@ -6,6 +6,7 @@ import java.util.stream.Collectors;
 import org.springframework.data.domain.Page;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import com.coraybennett.spillway.annotation.CurrentUser;
 import com.coraybennett.spillway.annotation.Loggable;
@@ -35,20 +36,7 @@ public class SearchController {
             @CurrentUser User user) {
         
         Page<Video> videoPage = searchService.searchVideos(request, user);
-        
-        List<VideoListResponse> videoResponses = videoPage.getContent().stream()
-            .map(VideoListResponse::new)
-            .collect(Collectors.toList());
-        
-        SearchResponse<VideoListResponse> response = new SearchResponse<>(
-            videoResponses,
-            videoPage.getTotalElements(),
-            videoPage.getTotalPages(),
-            videoPage.getNumber(),
-            videoPage.getSize()
-        );
-        
-        return ResponseEntity.ok(response);
+        return ResponseEntity.ok(toSearchResponse(videoPage));
     }
 
     @PostMapping("/playlists")
@@ -78,8 +66,12 @@ public class SearchController {
     @GetMapping("/genres")
     @UserAction
     @Loggable(entryMessage = "Get genres", includeParameters = true)
-    public ResponseEntity<List<String>> getAllGenres(@CurrentUser User user) {
+    public ResponseEntity<List<String>> getAllGenres(@CurrentUser User user, WebRequest webRequest) {
         List<String> genres = searchService.getAllGenres(user);
+        if (CacheValidators.notModified(webRequest, CacheValidators.weakTag(genres.toArray()), -1,
+                CacheValidators.REVALIDATE)) {
+            return null;
+        }
         return ResponseEntity.ok(genres);
     }
 
@@ -88,9 +80,14 @@ public class SearchController {
     @Loggable(entryMessage = "Get recent videos", includeParameters = true)
     public ResponseEntity<List<VideoListResponse>> getRecentVideos(
             @RequestParam(defaultValue = "10") int limit,
-            @CurrentUser User user) {
+            @CurrentUser User user,
+            WebRequest webRequest) {
         
         List<Video> recentVideos = searchService.getRecentlyAddedVideos(limit, user);
+        if (CacheValidators.notModified(webRequest, CacheValidators.videosTag(recentVideos), -1,
+                CacheValidators.REVALIDATE)) {
+            return null;
+        }
         List<VideoListResponse> responses = recentVideos.stream()
             .map(VideoListResponse::new)
             .collect(Collectors.toList());
@@ -102,9 +99,14 @@ public class SearchController {
     @Loggable(entryMessage = "Get popular playlists", includeParameters = true)
     public ResponseEntity<List<PlaylistResponse>> getPopularPlaylists(
             @RequestParam(defaultValue = "10") int limit,
-            @CurrentUser User user) {
+            @CurrentUser User user,
+            WebRequest webRequest) {
         
         List<Playlist> popularPlaylists = searchService.getMostPopularPlaylists(limit, user);
+        if (CacheValidators.notModified(webRequest, CacheValidators.playlistsTag(popularPlaylists), -1,
+                CacheValidators.REVALIDATE)) {
+            return null;
+        }
         List<PlaylistResponse> responses = popularPlaylists.stream()
             .map(PlaylistResponse::new)
             .collect(Collectors.toList());
@@ -118,13 +120,34 @@ public class SearchController {
             @RequestParam String q,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "20") int size,
-            @CurrentUser User user) {
+            @CurrentUser User user,
+            WebRequest webRequest) {
         
         VideoSearchRequest request = new VideoSearchRequest();
         request.setQuery(q);
         request.setPage(page);
         request.setSize(size);
         
-        return searchVideos(request, user);
+        Page<Video> videoPage = searchService.searchVideos(request, user);
+        String etag = CacheValidators.videosTag(videoPage.getContent(),
+            videoPage.getTotalElements(), videoPage.getNumber(), videoPage.getSize());
+        if (CacheValidators.notModified(webRequest, etag, -1, CacheValidators.REVALIDATE)) {
+            return null;
+        }
+        return ResponseEntity.ok(toSearchResponse(videoPage));
+    }
+    
+    private SearchResponse<VideoListResponse> toSearchResponse(Page<Video> videoPage) {
+        List<VideoListResponse> videoResponses = videoPage.getContent().stream()
+            .map(VideoListResponse::new)
+            .collect(Collectors.toList());
+        
+        return new SearchResponse<>(
+            videoResponses,
+            videoPage.getTotalElements(),
+            videoPage.getTotalPages(),
+            videoPage.getNumber(),
+            videoPage.getSize()
+        );
     }
 }
\ No newline at end of file
@@ -0,0 +1,165 @@
+package com.coraybennett.spillway.controller;
+
+import java.io.IOException;
+import java.net.URI;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.coraybennett.spillway.annotation.CurrentUser;
+import com.coraybennett.spillway.annotation.Loggable;
+import com.coraybennett.spillway.annotation.ResolvedResource;
+import com.coraybennett.spillway.annotation.SecuredVideoResource;
+import com.coraybennett.spillway.dto.UploadSessionResponse;
+import com.coraybennett.spillway.exception.TranscodeQueueFullException;
+import com.coraybennett.spillway.exception.UnsupportedMediaException;
+import com.coraybennett.spillway.exception.VideoConversionException;
+import com.coraybennett.spillway.model.UploadSession;
+import com.coraybennett.spillway.model.User;
+import com.coraybennett.spillway.model.Video;
+import com.coraybennett.spillway.service.api.UploadSessionService;
+
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Controller for resumable, chunked uploads, modelled on the tus protocol.
+ * A session is created with the total length, chunks are sent with PATCH at any offset
+ * and in any order, HEAD reports what has arrived, and a completion call hands the
+ * assembled file to conversion.
+ */
+@RestController
+@RequestMapping("/upload")
+@RequiredArgsConstructor
+@Slf4j
+public class UploadSessionController {
+    private static final String TUS_RESUMABLE = "Tus-Resumable";
+    private static final String TUS_VERSION = "1.0.0";
+    private static final String UPLOAD_LENGTH = "Upload-Length";
+    private static final String UPLOAD_OFFSET = "Upload-Offset";
+    private static final String UPLOAD_RANGES = "Upload-Ranges";
+
+    private final UploadSessionService uploadSessionService;
+
+    @PostMapping("/video/{videoId}/sessions")
+    @SecuredVideoResource(requireWrite = true, idParameter = "videoId")
+    @Loggable(entryMessage = "Create upload session", includeParameters = true)
+    public ResponseEntity<?> createSession(
+            @PathVariable("videoId") String videoId,
+            @RequestHeader(UPLOAD_LENGTH) long length,
+            @RequestHeader("X-Filename") String filename,
+            @CurrentUser User user,
+            @ResolvedResource Video video
+    ) {
+        try {
+            UploadSession session = uploadSessionService.createSession(video, user, filename, length);
+            return ResponseEntity.created(URI.create("/upload/sessions/" + session.getId()))
+                .headers(sessionHeaders(session))
+                .body(new UploadSessionResponse(session));
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid upload session for video {}: {}", videoId, e.getMessage());
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            log.error("Failed to create upload session for video {}: {}", videoId, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body("Internal Server Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Report the received length and ranges, so an interrupted client knows what to resend.
+     */
+    @RequestMapping(value = "/sessions/{sessionId}", method = {RequestMethod.HEAD, RequestMethod.GET})
+    public ResponseEntity<UploadSessionResponse> getSession(
+            @PathVariable("sessionId") String sessionId,
+            @CurrentUser User user
+    ) {
+        UploadSession session = uploadSessionService.getSession(sessionId, user);
+        return ResponseEntity.ok()
+            .headers(sessionHeaders(session))
+            .header(HttpHeaders.CACHE_CONTROL, "no-store")
+            .body(new UploadSessionResponse(session));
+    }
+
+    /**
+     * Write one chunk. The body is written at Upload-Offset, which may be anywhere in
+     * the file; chunks for different offsets can be sent in parallel.
+     */
+    @PatchMapping("/sessions/{sessionId}")
+    public ResponseEntity<?> writeChunk(
+            @PathVariable("sessionId") String sessionId,
+            @RequestHeader(UPLOAD_OFFSET) long offset,
+            @CurrentUser User user,
+            HttpServletRequest request
+    ) {
+        try {
+            UploadSession session = uploadSessionService.writeChunk(sessionId, user, offset, request.getInputStream());
+            return ResponseEntity.noContent().headers(sessionHeaders(session)).build();
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        } catch (UnsupportedMediaException e) {
+            return ResponseEntity.status(HttpStatus.UNSUPPORTED_MEDIA_TYPE)
+                .header(HttpHeaders.CONNECTION, "close")
+                .body(e.getMessage());
+        } catch (IOException e) {
+            log.warn("Chunk write for upload session {} failed: {}", sessionId, e.getMessage());
+            return ResponseEntity.badRequest().body("Chunk upload failed: " + e.getMessage());
+        }
+    }
+
+    @PostMapping("/sessions/{sessionId}/complete")
+    @Loggable(entryMessage = "Complete upload session", includeParameters = true)
+    public ResponseEntity<?> completeSession(
+            @PathVariable("sessionId") String sessionId,
+            @RequestHeader(value = "X-Encryption-Key", required = false) String encryptionKey,
+            @CurrentUser User user
+    ) {
+        try {
+            UploadSession session = uploadSessionService.completeSession(sessionId, user, encryptionKey);
+            return ResponseEntity.accepted()
+                .headers(sessionHeaders(session))
+                .body(new UploadSessionResponse(session));
+        } catch (TranscodeQueueFullException e) {
+            // The assembled file is kept, so the client only has to retry the completion
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body("The conversion queue is full, try again later");
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        } catch (VideoConversionException e) {
+            log.warn("Cannot complete upload session {}: {}", sessionId, e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        }
+    }
+
+    @DeleteMapping("/sessions/{sessionId}")
+    @Loggable(entryMessage = "Abort upload session", includeParameters = true)
+    public ResponseEntity<Void> abortSession(
+            @PathVariable("sessionId") String sessionId,
+            @CurrentUser User user
+    ) {
+        uploadSessionService.abortSession(sessionId, user);
+        return ResponseEntity.noContent().header(TUS_RESUMABLE, TUS_VERSION).build();
+    }
+
+    private HttpHeaders sessionHeaders(UploadSession session) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(TUS_RESUMABLE, TUS_VERSION);
+        headers.set(UPLOAD_LENGTH, String.valueOf(session.getLength()));
+        headers.set(UPLOAD_OFFSET, String.valueOf(session.getUploadOffset()));
+        headers.set(UPLOAD_RANGES, session.getReceivedRanges() == null ? "" : session.getReceivedRanges());
+        return headers;
+    }
+}
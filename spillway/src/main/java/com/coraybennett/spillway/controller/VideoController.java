@@ -1,22 +1,30 @@
 package com.coraybennett.spillway.controller;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.MessageDigest;
-import java.util.Base64;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 
+import javax.crypto.SecretKey;
+
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -26,6 +34,9 @@ import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import com.coraybennett.spillway.annotation.CurrentUser;
 import com.coraybennett.spillway.annotation.Loggable;
@@ -38,11 +49,20 @@ import com.coraybennett.spillway.dto.VideoListResponse;
 import com.coraybennett.spillway.dto.VideoMetadataResponse;
 import com.coraybennett.spillway.dto.VideoUpdateRequest;
 import com.coraybennett.spillway.dto.VideoUpdateResponse;
+import com.coraybennett.spillway.exception.VideoConversionException;
 import com.coraybennett.spillway.model.ConversionStatus;
 import com.coraybennett.spillway.model.User;
 import com.coraybennett.spillway.model.Video;
 import com.coraybennett.spillway.repository.VideoRepository;
-import com.coraybennett.spillway.service.api.StorageService;
+import com.coraybennett.spillway.security.SegmentUrlSigner;
+import com.coraybennett.spillway.service.api.ContentDeliveryService;
+import com.coraybennett.spillway.service.api.ConversionProgressStreamService;
+import com.coraybennett.spillway.service.api.ManifestService;
+import com.coraybennett.spillway.service.api.ManifestService.Rendition;
+import com.coraybennett.spillway.service.api.PlaybackSessionService;
+import com.coraybennett.spillway.service.api.PlaybackSessionService.PlaybackSession;
+import com.coraybennett.spillway.service.api.SegmentCacheService.SegmentKey;
+import com.coraybennett.spillway.service.api.SegmentPrefetchService;
 import com.coraybennett.spillway.service.api.VideoAccessService;
 import com.coraybennett.spillway.service.api.VideoEncryptionService;
 import com.coraybennett.spillway.service.api.VideoService;
@@ -60,12 +80,26 @@ import lombok.extern.slf4j.Slf4j;
 public class VideoController {
     private final VideoService videoService;
     private final VideoRepository videoRepository;
-    private final StorageService storageService;
     private final VideoAccessService videoAccessService;
     private final VideoEncryptionService videoEncryptionService;
+    private final ContentDeliveryService contentDeliveryService;
+    private final ConversionProgressStreamService progressStreamService;
+    private final PlaybackSessionService playbackSessionService;
+    private final SegmentPrefetchService segmentPrefetchService;
+    private final SegmentUrlSigner segmentUrlSigner;
+    private final ManifestService manifestService;
+    
+    private static final MediaType SEGMENT_CONTENT_TYPE = MediaType.parseMediaType("video/mp2t");
+    private static final String PLAYBACK_SESSION_HEADER = "X-Playback-Session";
+    
+    // Signed segment URLs stay valid for at least this long after the playlist is served,
+    // and at most twice as long: expiry is rounded up to a multiple of it
+    @Value("${video.segment-url.ttl-seconds:300}")
+    private long segmentUrlTtlSeconds;
 
     /**
      * Get video metadata including ownership and encryption information.
+     * Answers conditional requests from the resolved video before loading its relationships.
      */
     @GetMapping("/{id}")
     @SecuredVideoResource
@@ -74,7 +108,8 @@ public class VideoController {
     public ResponseEntity<VideoMetadataResponse> getVideoMetadata(
         @PathVariable("id") String id, 
         @ResolvedResource Video video,
-        @CurrentUser User user
+        @CurrentUser User user,
+        WebRequest webRequest
     ) {
         if (!videoAccessService.canAccessVideo(video, user)) {
             log.warn("Access denied for video {} to user {}", 
@@ -82,6 +117,14 @@ public class VideoController {
             return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
         }
         
+        // The playlist is loaded with the video, and its name is part of the response
+        String etag = CacheValidators.videosTag(List.of(video),
+            video.getPlaylist() != null ? video.getPlaylist().getUpdatedAt() : null);
+        if (CacheValidators.notModified(webRequest, etag, CacheValidators.lastModified(video),
+                CacheValidators.REVALIDATE)) {
+            return null;
+        }
+        
         // Load the video with required relationships (uploadedBy and playlist)
         Video fullVideo = videoRepository.findWithRelationshipsById(id)
             .orElseThrow(() -> new IllegalArgumentException("Video not found: " + id));
@@ -103,10 +146,80 @@ public class VideoController {
         }
         return ResponseEntity.ok(progress);
     }
+
+    /**
+     * Stream video conversion status as Server-Sent Events until the conversion
+     * completes or fails.
+     */
+    @GetMapping(value = "/{id}/status/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @Loggable(entryMessage = "Stream conversion status", includeParameters = true)
+    public ResponseEntity<SseEmitter> streamConversionStatus(
+            @PathVariable @org.hibernate.validator.constraints.UUID String id) {
+        VideoService.ConversionProgress progress = videoService.getConversionProgress(id);
+        if (progress == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+            .header(HttpHeaders.CACHE_CONTROL, "no-cache")
+            // Stops reverse proxies from buffering the stream
+            .header("X-Accel-Buffering", "no")
+            .body(progressStreamService.subscribe(id, progress));
+    }
+    
+    /**
+     * Open a playback session for an encrypted video. The decryption key is validated
+     * once here; playlist, key and segment requests then carry the returned token in
+     * the X-Playback-Session header instead of the key.
+     */
+    @PostMapping("/{id}/playback-session")
+    @Loggable(entryMessage = "Open playback session")
+    @SecuredVideoResource
+    public ResponseEntity<Map<String, Object>> openPlaybackSession(
+        @PathVariable("id") String id,
+        @ResolvedResource Video video,
+        @CurrentUser User user,
+        @RequestHeader(value = "X-Decryption-Key", required = false) String decryptionKey
+    ) {
+        if (!videoAccessService.canAccessVideo(video, user)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        if (!video.isEncrypted()) {
+            return ResponseEntity.badRequest().build();
+        }
+        
+        Optional<PlaybackSession> session = playbackSessionService.open(video, decryptionKey);
+        if (session.isEmpty()) {
+            log.warn("Invalid or missing decryption key for playback session of video: {}", id);
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                .header("X-Encryption-Required", "true")
+                .build();
+        }
+        
+        return ResponseEntity.status(HttpStatus.CREATED)
+            .header(HttpHeaders.CACHE_CONTROL, "no-store, private")
+            .body(Map.of("token", session.get().token(),
+                         "videoId", id,
+                         "idleTimeoutSeconds", session.get().ttlSeconds()));
+    }
+
+    /**
+     * Close a playback session before it times out.
+     */
+    @DeleteMapping("/{id}/playback-session")
+    @SecuredVideoResource(handling = ResourceHandling.VERIFY_ONLY)
+    public ResponseEntity<Void> closePlaybackSession(
+        @PathVariable("id") String id,
+        @RequestHeader(value = PLAYBACK_SESSION_HEADER, required = false) String sessionToken
+    ) {
+        if (playbackSessionService.get(sessionToken, id).isPresent()) {
+            playbackSessionService.close(sessionToken);
+        }
+        return ResponseEntity.noContent().build();
+    }
     
     /**
      * Get video master playlist for HLS streaming.
-     * Encrypted videos require the decryption key in the header.
+     * Encrypted videos require a playback session token or the decryption key in the header.
      */
     @GetMapping("/{id}/playlist")
     @Loggable(entryMessage = "Get video master playlist", includeParameters = true)
@@ -116,7 +229,10 @@ public class VideoController {
         @PathVariable("id") String id,
         @ResolvedResource Video video,
         @CurrentUser User user,
-        @RequestHeader(value = "X-Decryption-Key", required = false) String decryptionKey
+        @RequestHeader(value = PLAYBACK_SESSION_HEADER, required = false) String sessionToken,
+        @RequestHeader(value = "X-Decryption-Key", required = false) String decryptionKey,
+        HttpServletRequest request,
+        HttpServletResponse response
     ) throws IOException {
         if (!videoAccessService.canAccessVideo(video, user)) {
             log.warn("Access denied for playlist {} to user {}", 
@@ -128,9 +244,9 @@ public class VideoController {
             return ResponseEntity.status(HttpStatus.ACCEPTED).build();
         }
         
-        // Check if video is encrypted and validate decryption key
+        // Check if video is encrypted and resolve its playback session
         if (video.isEncrypted()) {
-            if (decryptionKey == null || !validateDecryptionKey(decryptionKey, video)) {
+            if (resolvePlaybackSession(video, sessionToken, decryptionKey, response).isEmpty()) {
                 log.warn("Invalid or missing decryption key for encrypted video: {}", id);
                 return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                     .header("X-Encryption-Required", "true")
@@ -138,10 +254,14 @@ public class VideoController {
             }
         }
 
+        // The master playlist only changes when the video is converted again
+        if (CacheValidators.notModified(new ServletWebRequest(request, response),
+                CacheValidators.weakTag(id, video.getUpdatedAt()), CacheValidators.lastModified(video),
+                CacheValidators.REVALIDATE)) {
+            return null;
+        }
+        
         String playlistFile = id + ".m3u8";
-        Path playlistPath = Paths.get(videoService.getVideoConversionService().getOutputDirectory().toString(), 
-                                    id, 
-                                    playlistFile);
         
         final HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.parseMediaType("application/vnd.apple.mpegurl"));
@@ -153,14 +273,13 @@ public class VideoController {
         }
         
         try {
-            if (!storageService.exists(playlistPath)) {
+            // Rendered from the in-memory manifest with URIs relative to this endpoint
+            Optional<byte[]> playlist = manifestService.renderMasterPlaylist(id);
+            if (playlist.isEmpty()) {
                 return ResponseEntity.notFound().build();
             }
             
-            ByteArrayResource resource = new ByteArrayResource(
-                Files.readAllBytes(playlistPath));
-            
-            return new ResponseEntity<>(resource, headers, HttpStatus.OK);
+            return new ResponseEntity<>(new ByteArrayResource(playlist.get()), headers, HttpStatus.OK);
         } catch (IOException e) {
             log.error("Error reading playlist file for video {}: {}", id, e.getMessage());
             return ResponseEntity.internalServerError().build();
@@ -168,7 +287,8 @@ public class VideoController {
     }
 
     /**
-     * Get video quality-specific playlist.
+     * Get video quality-specific playlist. Its segment URLs are signed for this video,
+     * so segment requests are authorized without a user or video lookup.
      */
     @GetMapping("/{id}/playlist/{quality}")
     @Loggable(entryMessage = "Get video playlist of specific quality", includeParameters = true)
@@ -177,7 +297,9 @@ public class VideoController {
             @PathVariable("id") String id,
             @ResolvedResource Video video,
             @PathVariable String quality,
-            @RequestHeader(value = "X-Decryption-Key", required = false) String decryptionKey
+            @RequestHeader(value = PLAYBACK_SESSION_HEADER, required = false) String sessionToken,
+            @RequestHeader(value = "X-Decryption-Key", required = false) String decryptionKey,
+            HttpServletResponse response
     ) throws IOException {
         if (video.getConversionStatus() != ConversionStatus.COMPLETED) {
             return ResponseEntity.status(HttpStatus.ACCEPTED).build();
@@ -185,7 +307,7 @@ public class VideoController {
         
         // Check if video is encrypted
         if (video.isEncrypted()) {
-            if (decryptionKey == null || !validateDecryptionKey(decryptionKey, video)) {
+            if (resolvePlaybackSession(video, sessionToken, decryptionKey, response).isEmpty()) {
                 log.warn("Invalid or missing decryption key for encrypted video: {}", id);
                 return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
                     .header("X-Encryption-Required", "true")
@@ -199,27 +321,37 @@ public class VideoController {
         }
         
         String playlistFile = quality + ".m3u8";
-        Path playlistPath = Paths.get(videoService.getVideoConversionService().getOutputDirectory().toString(), 
-                                    id, 
-                                    playlistFile);
         
         final HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.parseMediaType("application/vnd.apple.mpegurl"));
         headers.set("Content-Disposition", "inline;filename=" + playlistFile);
+        // Signed segment URIs change with every TTL window, so media playlists are never revalidated
+        headers.setCacheControl("no-store, private");
         
         if (video.isEncrypted()) {
             headers.set("X-Encrypted-Content", "true");
         }
         
         try {
-            if (!storageService.exists(playlistPath)) {
+            Optional<Rendition> rendition = manifestService.getManifest(id)
+                .flatMap(manifest -> manifest.rendition(quality));
+            if (rendition.isEmpty()) {
                 return ResponseEntity.notFound().build();
             }
             
-            ByteArrayResource resource = new ByteArrayResource(
-                Files.readAllBytes(playlistPath));
+            // Signed URLs expire after a fixed short TTL; the player reloads the playlist
+            // when a segment request is rejected. Rounding the expiry up to the next TTL
+            // boundary gives every viewer in the same window the same segment URLs, so
+            // shared caches can serve them.
+            boolean decrypt = video.isEncrypted() && !video.usesHlsEncryption();
+            long expiresAt = expiryWindowEnd(System.currentTimeMillis() / 1000);
+            Optional<byte[]> playlist = manifestService.renderMediaPlaylist(id, quality,
+                segmentUrlSigner.sign(id, decrypt, expiresAt));
+            if (playlist.isEmpty()) {
+                return ResponseEntity.notFound().build();
+            }
             
-            return new ResponseEntity<>(resource, headers, HttpStatus.OK);
+            return new ResponseEntity<>(new ByteArrayResource(playlist.get()), headers, HttpStatus.OK);
         } catch (IOException e) {
             log.error("Error reading quality playlist for video {} quality {}: {}", 
                       id, quality, e.getMessage());
@@ -228,15 +360,98 @@ public class VideoController {
     }
 
     /**
-     * Get video segment for HLS streaming.
-     * Encrypted segments are decrypted on-the-fly if the correct key is provided.
+     * Get the HLS AES-128 key of a video, referenced by the EXT-X-KEY tag of its playlists.
+     * Only handed out to viewers who can access the video and present its encryption key.
+     */
+    @GetMapping("/{id}/key")
+    @SecuredVideoResource
+    public ResponseEntity<byte[]> getHlsKey(
+            @PathVariable("id") String id,
+            @ResolvedResource Video video,
+            @CurrentUser User user,
+            @RequestHeader(value = PLAYBACK_SESSION_HEADER, required = false) String sessionToken,
+            @RequestHeader(value = "X-Decryption-Key", required = false) String decryptionKey,
+            HttpServletResponse response
+    ) {
+        if (!videoAccessService.canAccessVideo(video, user)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        if (!video.usesHlsEncryption()) {
+            return ResponseEntity.notFound().build();
+        }
+        Optional<PlaybackSession> session = resolvePlaybackSession(video, sessionToken, decryptionKey, response);
+        if (session.isEmpty()) {
+            log.warn("Invalid or missing decryption key for HLS key of video: {}", id);
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                .header("X-Encryption-Required", "true")
+                .build();
+        }
+        
+        try {
+            return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header(HttpHeaders.CACHE_CONTROL, "no-store, private")
+                .body(videoEncryptionService.deriveHlsKey(session.get().secretKey()));
+        } catch (Exception e) {
+            log.error("Failed to derive HLS key for video {}: {}", id, e.getMessage());
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Get a video segment through a signed URL from a quality playlist. The signature
+     * stands in for the user and video checks, so the request touches no database;
+     * server-decrypted segments still need the playback session the playlist was
+     * fetched with. Expired or invalid signatures get 401, and the player reloads
+     * the playlist for fresh URLs.
+     */
+    @GetMapping(value = "/{id}/segments/{filename}",
+                params = { SegmentUrlSigner.EXPIRES_PARAM, SegmentUrlSigner.SIGNATURE_PARAM })
+    public ResponseEntity<Resource> getSignedVideoSegment(
+            @PathVariable("id") String id,
+            @PathVariable String filename,
+            @RequestParam(SegmentUrlSigner.EXPIRES_PARAM) String expires,
+            @RequestParam(SegmentUrlSigner.SIGNATURE_PARAM) String signature,
+            @RequestParam(value = SegmentUrlSigner.DECRYPT_PARAM, required = false) String decryptParam,
+            @RequestHeader(value = PLAYBACK_SESSION_HEADER, required = false) String sessionToken,
+            HttpServletRequest request,
+            HttpServletResponse response
+    ) throws IOException {
+        boolean decrypt = "1".equals(decryptParam);
+        if (!segmentUrlSigner.verify(id, decrypt, expires, signature)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        
+        SecretKey secretKey = null;
+        if (decrypt) {
+            Optional<PlaybackSession> session = playbackSessionService.get(sessionToken, id);
+            if (session.isEmpty()) {
+                log.warn("Missing or expired playback session for signed segment: {}/{}", id, filename);
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .header("X-Encryption-Required", "true")
+                    .build();
+            }
+            secretKey = session.get().secretKey();
+        }
+        
+        return sendSegment(id, filename, secretKey, true, request, response);
+    }
+
+    /**
+     * Get video segment for HLS streaming, for players requesting segments without a
+     * signed URL. Unencrypted segments are streamed straight from disk with HTTP Range
+     * support. Encrypted segments are decrypted on-the-fly if the correct key is provided,
+     * also with HTTP Range support. Segments of HLS AES-128 videos are sent as stored.
      */
     @GetMapping("/{id}/segments/{filename}")
     @SecuredVideoResource(handling = ResourceHandling.VERIFY_ONLY)
-    public ResponseEntity<ByteArrayResource> getVideoSegment(
+    public ResponseEntity<Resource> getVideoSegment(
             @PathVariable("id") String id,
             @PathVariable String filename,
-            @RequestHeader(value = "X-Decryption-Key", required = false) String decryptionKey
+            @RequestHeader(value = PLAYBACK_SESSION_HEADER, required = false) String sessionToken,
+            @RequestHeader(value = "X-Decryption-Key", required = false) String decryptionKey,
+            HttpServletRequest request,
+            HttpServletResponse response
     ) throws IOException {
         // Get video to check if it's encrypted
         Video video = videoRepository.findById(id)
@@ -246,47 +461,86 @@ public class VideoController {
             return ResponseEntity.notFound().build();
         }
         
+        // HLS AES-128 segments are decrypted by the player, so they are served as stored
+        if (!video.isEncrypted() || video.usesHlsEncryption()) {
+            return sendSegment(id, filename, null, false, request, response);
+        }
+        
+        // The session holds the key ready to use, so segments skip key validation
+        Optional<PlaybackSession> session = resolvePlaybackSession(video, sessionToken, decryptionKey, response);
+        if (session.isEmpty()) {
+            log.warn("Invalid or missing decryption key for encrypted segment: {}/{}", id, filename);
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                .header("X-Encryption-Required", "true")
+                .build();
+        }
+        
+        return sendSegment(id, filename, session.get().secretKey(), false, request, response);
+    }
+
+    /**
+     * Writes a segment to the response, decrypting it with the given key when there is one.
+     * Segments are immutable under their URL, so a conditional request is answered from
+     * the file's attributes alone. Stored segments behind a signed URL may be kept by
+     * shared caches; anything else only by the viewer's browser.
+     *
+     * @return null once the response has been written, or the error response to send
+     */
+    private ResponseEntity<Resource> sendSegment(String id, String filename, SecretKey secretKey, boolean signed,
+            HttpServletRequest request, HttpServletResponse response) throws IOException {
+        // Validate segment filename to prevent directory traversal
+        if (!filename.matches("^[a-zA-Z0-9_]+\\.ts$")) {
+            return ResponseEntity.badRequest().build();
+        }
+        
         Path segmentPath = Paths.get(videoService.getVideoConversionService().getOutputDirectory().toString(),
                                    id,
                                    filename);
         
-        HttpHeaders headers = new HttpHeaders();
-        headers.set("Content-Type", "video/mp2t");
-        headers.set("Content-Disposition", "inline;filename=" + filename);
-        
         try {
-            if (!storageService.exists(segmentPath)) {
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(segmentPath, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
                 return ResponseEntity.notFound().build();
             }
             
-            byte[] segmentData;
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            String etag = CacheValidators.fileTag(attributes.size(), lastModified, secretKey != null ? "dec" : null);
+            if (CacheValidators.notModified(new ServletWebRequest(request, response), etag, lastModified,
+                    secretKey == null && signed ? CacheValidators.IMMUTABLE_PUBLIC : CacheValidators.IMMUTABLE_PRIVATE)) {
+                return null;
+            }
+            
+            segmentPrefetchService.segmentServed(id, segmentPath, secretKey != null);
+            response.setHeader("Content-Disposition", "inline;filename=" + filename);
             
-            if (video.isEncrypted()) {
-                // Validate decryption key
-                if (decryptionKey == null || !validateDecryptionKey(decryptionKey, video)) {
-                    log.warn("Invalid or missing decryption key for encrypted segment: {}/{}", id, filename);
-                    return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
-                        .header("X-Encryption-Required", "true")
-                        .build();
-                }
-                
-                // Decrypt the segment
-                try {
-                    segmentData = videoEncryptionService.decryptFile(segmentPath, decryptionKey);
-                    headers.set("X-Decrypted-Content", "true");
-                } catch (Exception e) {
-                    log.error("Failed to decrypt segment {}/{}: {}", id, filename, e.getMessage());
-                    return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
-                }
-            } else {
-                // Read unencrypted segment
-                segmentData = Files.readAllBytes(segmentPath);
+            if (secretKey == null) {
+                // Segments sent as stored go from the page cache to the socket
+                contentDeliveryService.sendFile(segmentPath, SEGMENT_CONTENT_TYPE, request, response);
+                return null;
             }
             
-            ByteArrayResource resource = new ByteArrayResource(segmentData);
-            return new ResponseEntity<>(resource, headers, HttpStatus.OK);
+            response.setHeader("X-Decrypted-Content", "true");
+            
+            // Frames are decrypted into the response as they are read
+            try {
+                contentDeliveryService.sendDecryptedSegment(SegmentKey.of(id, filename), segmentPath,
+                                                            SEGMENT_CONTENT_TYPE, secretKey, request, response);
+                return null;
+            } catch (Exception e) {
+                log.error("Failed to decrypt segment {}/{}: {}", id, filename, e.getMessage());
+                if (response.isCommitted()) {
+                    throw new IOException("Decryption failed part way through segment " + filename, e);
+                }
+                response.reset();
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+            }
             
         } catch (IOException e) {
+            if (response.isCommitted()) {
+                throw e;
+            }
             log.error("Error reading segment for video {} segment {}: {}", 
                       id, filename, e.getMessage());
             return ResponseEntity.internalServerError().build();
@@ -299,8 +553,13 @@ public class VideoController {
     @GetMapping("/my-videos")
     @Loggable(entryMessage = "Get user videos", includeParameters = true)
     @UserAction
-    public ResponseEntity<List<VideoListResponse>> getMyVideos(@CurrentUser User user) {
+    public ResponseEntity<List<VideoListResponse>> getMyVideos(@CurrentUser User user, WebRequest webRequest) {
         List<Video> myVideos = videoService.listVideos(user.getId());
+        if (CacheValidators.notModified(webRequest, CacheValidators.videosTag(myVideos), -1,
+                CacheValidators.REVALIDATE)) {
+            return null;
+        }
+        
         List<VideoListResponse> videoResponses = myVideos.stream()
             .map(VideoListResponse::new)
             .collect(Collectors.toList());
@@ -308,6 +567,35 @@ public class VideoController {
         return ResponseEntity.ok(videoResponses);
     }
 
+    /**
+     * Rewrite an encrypted video's single-frame segments in the framed format.
+     * Segments already framed are left alone, so the call can be repeated.
+     */
+    @PostMapping("/{id}/encryption/migrate")
+    @Loggable(level = LogLevel.INFO, entryMessage = "Migrate encrypted segments", includeResult = true)
+    @SecuredVideoResource(requireWrite = true)
+    public ResponseEntity<?> migrateEncryptedSegments(
+        @PathVariable("id") String id,
+        @ResolvedResource Video video,
+        @RequestHeader(value = "X-Decryption-Key", required = false) String decryptionKey
+    ) {
+        if (!video.isEncrypted() || video.usesHlsEncryption()) {
+            return ResponseEntity.badRequest().body("Video has no server-side encrypted segments");
+        }
+        if (decryptionKey == null || !playbackSessionService.isValidKey(video, decryptionKey)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                .header("X-Encryption-Required", "true")
+                .build();
+        }
+        
+        try {
+            int migrated = videoService.migrateEncryptedSegments(video, decryptionKey);
+            return ResponseEntity.ok(Map.of("videoId", id, "migratedSegments", migrated));
+        } catch (VideoConversionException e) {
+            return ResponseEntity.internalServerError().body(e.getMessage());
+        }
+    }
+
     /**
      * Update video metadata.
      */
@@ -371,30 +659,32 @@ public class VideoController {
             return ResponseEntity.ok(true);
         }
         
-        boolean isValid = validateDecryptionKey(decryptionKey, video);
+        boolean isValid = playbackSessionService.isValidKey(video, decryptionKey);
         return ResponseEntity.ok(isValid);
     }
     
     /**
-     * Validates a decryption key against the stored hash.
+     * Resolves the playback session of a request for an encrypted video. A live session
+     * token is used as is; otherwise a decryption key opens a new session, and its token
+     * is sent back in the X-Playback-Session header for the player to use from then on.
      */
-    private boolean validateDecryptionKey(String decryptionKey, Video video) {
-        if (!video.isEncrypted() || video.getEncryptionKeyHash() == null) {
-            return true;
-        }
-        
-        if (decryptionKey == null || !videoEncryptionService.isValidKey(decryptionKey)) {
-            return false;
+    private Optional<PlaybackSession> resolvePlaybackSession(Video video, String sessionToken,
+            String decryptionKey, HttpServletResponse response) {
+        Optional<PlaybackSession> session = playbackSessionService.get(sessionToken, video.getId());
+        if (session.isPresent() || decryptionKey == null) {
+            return session;
         }
         
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(decryptionKey.getBytes(StandardCharsets.UTF_8));
-            String keyHash = Base64.getEncoder().encodeToString(hash);
-            return keyHash.equals(video.getEncryptionKeyHash());
-        } catch (Exception e) {
-            log.error("Failed to validate decryption key", e);
-            return false;
-        }
+        session = playbackSessionService.open(video, decryptionKey);
+        session.ifPresent(s -> response.setHeader(PLAYBACK_SESSION_HEADER, s.token()));
+        return session;
+    }
+
+    /**
+     * Gets the first multiple of the segment URL TTL at least one TTL from now.
+     */
+    private long expiryWindowEnd(long nowSeconds) {
+        long ttl = Math.max(1, segmentUrlTtlSeconds);
+        return (nowSeconds + 2 * ttl - 1) / ttl * ttl;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,39 @@
+package com.coraybennett.spillway.dto;
+
+import java.time.LocalDateTime;
+
+import com.coraybennett.spillway.model.UploadSession;
+import com.coraybennett.spillway.model.UploadSession.Status;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Response DTO for resumable upload session state.
+ */
+@Data
+@NoArgsConstructor
+public class UploadSessionResponse {
+    private String id;
+    private String videoId;
+    private String filename;
+    private long length;
+    private long uploadOffset;
+    private long receivedBytes;
+    private String receivedRanges;
+    private Status status;
+    private LocalDateTime createdAt;
+    private LocalDateTime updatedAt;
+    
+    public UploadSessionResponse(UploadSession session) {
+        this.id = session.getId();
+        this.videoId = session.getVideoId();
+        this.filename = session.getFilename();
+        this.length = session.getLength();
+        this.uploadOffset = session.getUploadOffset();
+        this.receivedBytes = session.getReceivedBytes();
+        this.receivedRanges = session.getReceivedRanges();
+        this.status = session.getStatus();
+        this.createdAt = session.getCreatedAt();
+        this.updatedAt = session.getUpdatedAt();
+    }
+}
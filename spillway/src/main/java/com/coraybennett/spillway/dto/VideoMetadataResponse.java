@@ -1,6 +1,7 @@
 package com.coraybennett.spillway.dto;
 
 import com.coraybennett.spillway.model.ConversionStatus;
+import com.coraybennett.spillway.model.EncryptionMode;
 import com.coraybennett.spillway.model.Video;
 import com.coraybennett.spillway.model.VideoType;
 import lombok.Data;
@@ -31,6 +32,7 @@ public class VideoMetadataResponse {
     
     // Encryption information
     private boolean encrypted;
+    private EncryptionMode encryptionMode;
     
     // Ownership information
     private UploadedByInfo uploadedBy;
@@ -80,6 +82,7 @@ public class VideoMetadataResponse {
         
         // Set encryption status
         this.encrypted = video.isEncrypted();
+        this.encryptionMode = video.isEncrypted() ? video.getEncryptionMode() : null;
         
         // Set ownership information
         if (video.getUploadedBy() != null) {
@@ -1,5 +1,6 @@
 package com.coraybennett.spillway.dto;
 
+import com.coraybennett.spillway.model.EncryptionMode;
 import com.coraybennett.spillway.model.VideoType;
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -21,4 +22,5 @@ public class VideoUploadRequest {
     // New field for encryption
     private boolean encrypted = false;
     private String encryptionKey; // Base64 encoded symmetric key provided by client
+    private EncryptionMode encryptionMode; // Defaults to SERVER_SIDE
 }
\ No newline at end of file
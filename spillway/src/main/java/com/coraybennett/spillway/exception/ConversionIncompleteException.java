@@ -0,0 +1,28 @@
+package com.coraybennett.spillway.exception;
+
+import java.util.List;
+
+/**
+ * Exception thrown when a conversion failed after checkpointing part of its work. The
+ * source file and the checkpointed output are kept, so a retry only converts what is
+ * missing. Renditions that completed may already be live.
+ */
+public class ConversionIncompleteException extends VideoConversionException {
+    private final List<String> completedRenditions;
+    private final List<String> missingRenditions;
+
+    public ConversionIncompleteException(String message, List<String> completedRenditions,
+                                         List<String> missingRenditions, Throwable cause) {
+        super(message, cause);
+        this.completedRenditions = List.copyOf(completedRenditions);
+        this.missingRenditions = List.copyOf(missingRenditions);
+    }
+
+    public List<String> getCompletedRenditions() {
+        return completedRenditions;
+    }
+
+    public List<String> getMissingRenditions() {
+        return missingRenditions;
+    }
+}
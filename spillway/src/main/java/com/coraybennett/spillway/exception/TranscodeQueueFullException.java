@@ -0,0 +1,17 @@
+package com.coraybennett.spillway.exception;
+
+/**
+ * Exception thrown when the transcode queue is saturated and cannot accept another job.
+ */
+public class TranscodeQueueFullException extends VideoConversionException {
+    private final int retryAfterSeconds;
+
+    public TranscodeQueueFullException(String message, int retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,14 @@
+package com.coraybennett.spillway.exception;
+
+import java.io.IOException;
+
+/**
+ * Exception thrown when an upload turns out not to be a video that can be decoded.
+ * It is an IOException so it can stop an upload from inside the write path.
+ */
+public class UnsupportedMediaException extends IOException {
+
+    public UnsupportedMediaException(String message) {
+        super(message);
+    }
+}
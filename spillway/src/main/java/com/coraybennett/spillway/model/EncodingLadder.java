@@ -0,0 +1,32 @@
+package com.coraybennett.spillway.model;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Record class holding the per-title ladder of a video: the video bitrate chosen for each
+ * encoded quality level from CRF probe encodes of sampled scenes, next to the bitrate the
+ * fixed ladder would have used. Bitrates are in bits per second. The predicted savings
+ * compare the sum of the chosen bitrates with the sum of the fixed ones.
+ */
+public record EncodingLadder(
+    int crf,
+    double sampledSeconds,
+    List<Rung> rungs,
+    int predictedSavingsPercent
+) {
+    /**
+     * Record class holding one quality level of the ladder. The probe bitrate is what the
+     * CRF encode of the samples needed at this quality level.
+     */
+    public static record Rung(String name, int height, long bitrate, long fixedBitrate, long probeBitrate) {
+    }
+
+    /**
+     * @param name Quality level name, such as "720p"
+     * @return The rung, or empty if the ladder has none with that name
+     */
+    public Optional<Rung> rung(String name) {
+        return rungs.stream().filter(r -> r.name().equals(name)).findFirst();
+    }
+}
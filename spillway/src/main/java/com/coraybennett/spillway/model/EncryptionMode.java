@@ -0,0 +1,6 @@
+package com.coraybennett.spillway.model;
+
+public enum EncryptionMode {
+    SERVER_SIDE,  // AES-GCM segments, decrypted by the server for each request
+    HLS_AES_128   // Standard HLS AES-128 segments, decrypted by the player
+}
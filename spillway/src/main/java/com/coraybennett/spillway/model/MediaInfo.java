@@ -0,0 +1,52 @@
+package com.coraybennett.spillway.model;
+
+/**
+ * Record class holding what ffprobe found in a source file: the container, the first
+ * video stream and the first audio stream. Numeric fields are 0 and text fields null
+ * when ffprobe did not report them. Rotation is in clockwise degrees, 0 to 359.
+ */
+public record MediaInfo(
+    String formatName,
+    double durationSeconds,
+    long bitRate,
+    String videoCodec,
+    int width,
+    int height,
+    double frameRate,
+    String pixelFormat,
+    long videoBitRate,
+    int rotation,
+    String audioCodec,
+    int audioChannels,
+    String channelLayout,
+    int sampleRate,
+    long audioBitRate
+) {
+    /**
+     * @return Width of the picture as played, after rotation
+     */
+    public int displayWidth() {
+        return rotation % 180 == 0 ? width : height;
+    }
+
+    /**
+     * @return Height of the picture as played, after rotation
+     */
+    public int displayHeight() {
+        return rotation % 180 == 0 ? height : width;
+    }
+
+    /**
+     * @return true if the source has a video stream with known dimensions
+     */
+    public boolean hasVideo() {
+        return videoCodec != null && width > 0 && height > 0;
+    }
+
+    /**
+     * @return true if the source has an audio stream
+     */
+    public boolean hasAudio() {
+        return audioCodec != null;
+    }
+}
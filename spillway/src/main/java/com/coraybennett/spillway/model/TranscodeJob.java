@@ -0,0 +1,116 @@
+package com.coraybennett.spillway.model;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.PreUpdate;
+import jakarta.persistence.Table;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Entity representing a queued or running video conversion.
+ * Jobs are claimed by workers under a lease that is renewed by heartbeats, so a job
+ * whose worker dies is picked up again once its lease runs out.
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(name = "transcode_jobs", indexes = {
+    @Index(name = "idx_transcode_jobs_status_lane_created", columnList = "status, lane, createdAt"),
+    @Index(name = "idx_transcode_jobs_video", columnList = "videoId")
+})
+@Slf4j
+public class TranscodeJob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private String id;
+
+    @Column(nullable = false)
+    private String videoId;
+
+    @Column(nullable = false, length = 1024)
+    private String sourcePath;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Status status = Status.QUEUED;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Lane lane = Lane.LONG;
+
+    // Source duration used to pick the lane, null when it could not be probed
+    private Integer durationSeconds;
+
+    // Set while the job converts a source that is still being uploaded
+    @Column(nullable = false)
+    private boolean sourceUploading = false;
+
+    @Column(nullable = false)
+    private int attempts = 0;
+
+    // Node holding the job's encryption key in memory, the only node allowed to claim it;
+    // null for jobs any node can run
+    private String requiredNode;
+
+    // Node currently holding the lease, null while queued
+    private String leaseOwner;
+
+    private LocalDateTime leaseExpiresAt;
+
+    private LocalDateTime heartbeatAt;
+
+    @Column(length = 2000)
+    private String lastError;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+
+    private LocalDateTime updatedAt;
+
+    private LocalDateTime startedAt;
+
+    private LocalDateTime finishedAt;
+
+    public TranscodeJob(String videoId, String sourcePath, Lane lane, Integer durationSeconds) {
+        this.videoId = videoId;
+        this.sourcePath = sourcePath;
+        this.lane = lane;
+        this.durationSeconds = durationSeconds;
+    }
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+        updatedAt = LocalDateTime.now();
+        log.debug("Creating transcode job for video: {}", videoId);
+    }
+
+    @PreUpdate
+    protected void onUpdate() {
+        updatedAt = LocalDateTime.now();
+    }
+
+    public enum Status {
+        QUEUED,    // Waiting for a worker
+        RUNNING,   // Leased by a worker
+        COMPLETED, // Conversion finished
+        FAILED     // Conversion failed or ran out of attempts
+    }
+
+    public enum Lane {
+        SHORT, // Short clips, dispatched ahead of long jobs
+        LONG   // Feature-length or unknown-length sources
+    }
+}
@@ -0,0 +1,106 @@
+package com.coraybennett.spillway.model;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Lob;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.PreUpdate;
+import jakarta.persistence.Table;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Entity representing a resumable, chunked upload of a video source file.
+ * Chunks may arrive in any order; the byte ranges received so far are recorded so an
+ * interrupted client can resume by sending only the gaps.
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(name = "upload_sessions", indexes = {
+    @Index(name = "idx_upload_sessions_status_updated", columnList = "status, updatedAt")
+})
+@Slf4j
+public class UploadSession {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private String id;
+
+    @Column(nullable = false)
+    private String videoId;
+
+    @Column(nullable = false)
+    private String userId;
+
+    @Column(nullable = false)
+    private String filename;
+
+    // Sparse file the chunks are written into
+    @Column(nullable = false, length = 1024)
+    private String path;
+
+    @Column(nullable = false)
+    private long length;
+
+    @Column(nullable = false)
+    private long receivedBytes = 0;
+
+    // Number of leading bytes received without gaps, the tus Upload-Offset
+    @Column(nullable = false)
+    private long uploadOffset = 0;
+
+    // Received ranges as "start-end" pairs (end exclusive), comma separated and merged
+    @Lob
+    private String receivedRanges = "";
+
+    // Set once the head of the file has been probed and found decodable
+    @Column(nullable = false)
+    private boolean probed = false;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Status status = Status.ACTIVE;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt;
+
+    private LocalDateTime updatedAt;
+
+    public UploadSession(String videoId, String userId, String filename, long length) {
+        this.videoId = videoId;
+        this.userId = userId;
+        this.filename = filename;
+        this.length = length;
+    }
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+        updatedAt = LocalDateTime.now();
+        log.debug("Creating upload session for video: {}", videoId);
+    }
+
+    @PreUpdate
+    protected void onUpdate() {
+        updatedAt = LocalDateTime.now();
+    }
+
+    public boolean isComplete() {
+        return receivedBytes == length;
+    }
+
+    public enum Status {
+        ACTIVE,    // Accepting chunks
+        COMPLETED  // Handed to conversion
+    }
+}
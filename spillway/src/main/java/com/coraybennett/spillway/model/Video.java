@@ -2,7 +2,11 @@ package com.coraybennett.spillway.model;
 
 import java.time.LocalDateTime;
 
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
 import com.fasterxml.jackson.annotation.JsonBackReference;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
@@ -80,6 +84,29 @@ public class Video {
     
     @Column(name = "encryption_key_hash")
     private String encryptionKeyHash;
+    
+    // How encrypted segments are protected; null for videos from before modes existed
+    @Enumerated(EnumType.STRING)
+    @Column(name = "encryption_mode")
+    private EncryptionMode encryptionMode;
+    
+    // ffprobe analysis of the source, reused when the same source is converted again
+    @JdbcTypeCode(SqlTypes.JSON)
+    @Column(name = "media_info")
+    @JsonIgnore
+    private MediaInfo mediaInfo;
+    
+    // Per-title bitrates chosen for the source, with their predicted savings
+    @JdbcTypeCode(SqlTypes.JSON)
+    @Column(name = "encoding_ladder")
+    private EncodingLadder encodingLadder;
+    
+    /**
+     * @return true if the player decrypts the segments with a key from the key endpoint
+     */
+    public boolean usesHlsEncryption() {
+        return encrypted && encryptionMode == EncryptionMode.HLS_AES_128;
+    }
 
     @PrePersist
     protected void onCreate() {
@@ -0,0 +1,63 @@
+package com.coraybennett.spillway.repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.coraybennett.spillway.model.TranscodeJob;
+
+/**
+ * Repository for the durable transcode job queue.
+ * The claim queries lock rows with SKIP LOCKED so concurrent workers never
+ * wait on, or pick up, a job another worker is claiming.
+ */
+@Repository
+public interface TranscodeJobRepository extends JpaRepository<TranscodeJob, String> {
+
+    /**
+     * Lock the oldest queued job in a lane that the given node may run. Must be called
+     * inside a transaction.
+     */
+    @Query(value = "SELECT * FROM transcode_jobs WHERE status = 'QUEUED' AND lane = :lane " +
+                   "AND (required_node IS NULL OR required_node = :node) " +
+                   "ORDER BY created_at LIMIT 1 FOR UPDATE SKIP LOCKED",
+           nativeQuery = true)
+    Optional<TranscodeJob> lockNextQueuedJob(@Param("lane") String lane, @Param("node") String node);
+
+    long countByStatus(TranscodeJob.Status status);
+
+    /**
+     * Lock running jobs whose lease has run out. Must be called inside a transaction.
+     */
+    @Query(value = "SELECT * FROM transcode_jobs WHERE status = 'RUNNING' " +
+                   "AND lease_expires_at < :now FOR UPDATE SKIP LOCKED",
+           nativeQuery = true)
+    List<TranscodeJob> lockExpiredRunningJobs(@Param("now") LocalDateTime now);
+
+    /**
+     * Lock running jobs leased by a node. Must be called inside a transaction.
+     */
+    @Query(value = "SELECT * FROM transcode_jobs WHERE status = 'RUNNING' " +
+                   "AND lease_owner = :owner FOR UPDATE SKIP LOCKED",
+           nativeQuery = true)
+    List<TranscodeJob> lockRunningJobsOwnedBy(@Param("owner") String owner);
+
+    /**
+     * Extend the leases of jobs still held by a node.
+     */
+    @Modifying
+    @Query("UPDATE TranscodeJob j SET j.heartbeatAt = :now, j.leaseExpiresAt = :expiresAt " +
+           "WHERE j.id IN :ids AND j.leaseOwner = :owner " +
+           "AND j.status = com.coraybennett.spillway.model.TranscodeJob.Status.RUNNING")
+    int renewLeases(@Param("ids") Collection<String> ids,
+                    @Param("owner") String owner,
+                    @Param("now") LocalDateTime now,
+                    @Param("expiresAt") LocalDateTime expiresAt);
+}
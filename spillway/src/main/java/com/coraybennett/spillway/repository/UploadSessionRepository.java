@@ -0,0 +1,32 @@
+package com.coraybennett.spillway.repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import com.coraybennett.spillway.model.UploadSession;
+
+import jakarta.persistence.LockModeType;
+
+/**
+ * Repository for resumable upload sessions.
+ */
+@Repository
+public interface UploadSessionRepository extends JpaRepository<UploadSession, String> {
+
+    /**
+     * Lock a session so concurrent chunks record their ranges one at a time.
+     * Must be called inside a transaction.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s FROM UploadSession s WHERE s.id = :id")
+    Optional<UploadSession> findByIdForUpdate(@Param("id") String id);
+
+    List<UploadSession> findByStatusAndUpdatedAtBefore(UploadSession.Status status, LocalDateTime cutoff);
+}
@@ -6,9 +6,11 @@ import java.util.Optional;
 import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.coraybennett.spillway.model.User;
 import com.coraybennett.spillway.model.Video;
@@ -54,4 +56,13 @@ public interface VideoRepository extends JpaRepository<Video, String>, JpaSpecif
      */
     @Query("SELECT v FROM Video v LEFT JOIN FETCH v.uploadedBy LEFT JOIN FETCH v.playlist WHERE v.uploadedBy.id = :userId ORDER BY v.createdAt DESC")
     List<Video> findAllByUserIdWithRelationships(@Param("userId") String userId);
+
+    /**
+     * Write the progress of a running conversion without loading or merging the entity.
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE Video v SET v.conversionProgress = :progress " +
+           "WHERE v.id = :id AND v.conversionStatus = com.coraybennett.spillway.model.ConversionStatus.IN_PROGRESS")
+    int updateConversionProgress(@Param("id") String id, @Param("progress") int progress);
 }
\ No newline at end of file
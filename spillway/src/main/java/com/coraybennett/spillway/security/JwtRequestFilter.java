@@ -25,6 +25,15 @@ public class JwtRequestFilter extends OncePerRequestFilter {
     @Autowired
     private JwtUtil jwtUtil;
 
+    /**
+     * Signed segment requests are authorized by their URL signature, so they skip the
+     * user lookup entirely.
+     */
+    @Override
+    protected boolean shouldNotFilter(@NonNull HttpServletRequest request) {
+        return SegmentUrlSigner.isSignedSegmentRequest(request);
+    }
+
     @Override
     protected void doFilterInternal(
         @NonNull HttpServletRequest request, 
@@ -0,0 +1,132 @@
+package com.coraybennett.spillway.security;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Signs and verifies HLS segment URLs. A signature is an HMAC-SHA256 over the video ID,
+ * the expiry time and whether segments are decrypted by the server, so a signed segment
+ * request can be checked without loading the user or the video.
+ */
+@Component
+@Slf4j
+public class SegmentUrlSigner {
+    public static final String EXPIRES_PARAM = "exp";
+    public static final String SIGNATURE_PARAM = "sig";
+    public static final String DECRYPT_PARAM = "dec";
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final String SEGMENT_PATH_PATTERN = "/video/*/segments/*";
+    private static final AntPathMatcher PATH_MATCHER = new AntPathMatcher();
+
+    // HMAC keys shorter than the SHA-256 output weaken the signature
+    private static final int MIN_SECRET_BYTES = 32;
+
+    private final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+    private final Base64.Decoder decoder = Base64.getUrlDecoder();
+    private final ThreadLocal<Mac> macs;
+
+    public SegmentUrlSigner(@Value("${video.segment-url.secret:}") String secret,
+                            @Value("${video.segment-url.require-secret:false}") boolean requireSecret) {
+        byte[] keyBytes;
+        if (secret == null || secret.isBlank()) {
+            if (requireSecret) {
+                throw new IllegalStateException("video.segment-url.secret must be set");
+            }
+            // Without a shared secret, URLs signed before a restart or by another node fail
+            // verification and the player reloads its playlist
+            keyBytes = new byte[32];
+            new SecureRandom().nextBytes(keyBytes);
+            log.warn("No video.segment-url.secret set, signing segment URLs with a random key");
+        } else {
+            keyBytes = secret.getBytes(StandardCharsets.UTF_8);
+            if (keyBytes.length < MIN_SECRET_BYTES) {
+                throw new IllegalStateException(
+                    "video.segment-url.secret must be at least " + MIN_SECRET_BYTES + " bytes");
+            }
+        }
+
+        SecretKeySpec key = new SecretKeySpec(keyBytes, HMAC_ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HMAC-SHA256 is not available", e);
+            }
+        });
+    }
+
+    /**
+     * Builds the query string authorizing requests for any segment of a video until it expires.
+     *
+     * @param videoId ID of the video
+     * @param decrypt Whether the server decrypts the segments for the player
+     * @param expiresAt Expiry time in epoch seconds
+     * @return Query string without the leading '?'
+     */
+    public String sign(String videoId, boolean decrypt, long expiresAt) {
+        String query = EXPIRES_PARAM + "=" + expiresAt + "&" + SIGNATURE_PARAM + "=" + signature(videoId, decrypt, expiresAt);
+        return decrypt ? DECRYPT_PARAM + "=1&" + query : query;
+    }
+
+    /**
+     * Checks a segment URL signature in constant time.
+     *
+     * @return true if the signature matches and has not expired
+     */
+    public boolean verify(String videoId, boolean decrypt, String expires, String signature) {
+        if (expires == null || signature == null) {
+            return false;
+        }
+
+        long expiresAt;
+        byte[] presented;
+        try {
+            expiresAt = Long.parseLong(expires);
+            presented = decoder.decode(signature);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+
+        if (expiresAt < System.currentTimeMillis() / 1000) {
+            return false;
+        }
+        return MessageDigest.isEqual(mac(videoId, decrypt, expiresAt), presented);
+    }
+
+    /**
+     * @return true if the request is a GET for a segment carrying an expiry and a signature
+     */
+    public static boolean isSignedSegmentRequest(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return HttpMethod.GET.matches(request.getMethod())
+            && PATH_MATCHER.match(SEGMENT_PATH_PATTERN, path)
+            && request.getParameter(EXPIRES_PARAM) != null
+            && request.getParameter(SIGNATURE_PARAM) != null;
+    }
+
+    private String signature(String videoId, boolean decrypt, long expiresAt) {
+        return encoder.encodeToString(mac(videoId, decrypt, expiresAt));
+    }
+
+    private byte[] mac(String videoId, boolean decrypt, long expiresAt) {
+        String payload = videoId + "\n" + expiresAt + "\n" + (decrypt ? "1" : "0");
+        return macs.get().doFinal(payload.getBytes(StandardCharsets.UTF_8));
+    }
+}
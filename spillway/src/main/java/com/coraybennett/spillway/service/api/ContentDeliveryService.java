@@ -0,0 +1,64 @@
+package com.coraybennett.spillway.service.api;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import javax.crypto.SecretKey;
+
+import org.springframework.http.MediaType;
+
+import com.coraybennett.spillway.service.api.SegmentCacheService.SegmentKey;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Interface defining operations for writing stored media directly to HTTP responses.
+ */
+public interface ContentDeliveryService {
+
+    /**
+     * Writes a file to the response without buffering its content on the heap.
+     * Honours a single HTTP Range request with 206 Partial Content and answers
+     * unsatisfiable ranges with 416.
+     *
+     * @param file Path to the file to send
+     * @param contentType Content type of the file
+     * @param request The current request, used to read the Range header
+     * @param response The response the file is written to
+     * @throws IOException if the file cannot be read or the response cannot be written
+     */
+    void sendFile(Path file, MediaType contentType, HttpServletRequest request, HttpServletResponse response)
+            throws IOException;
+
+    /**
+     * Decrypts an encrypted file straight to the response, a frame at a time. Range
+     * requests are answered like {@link #sendFile}, over the plaintext, and only the
+     * frames covering the range are decrypted.
+     *
+     * @param file Path to the encrypted file
+     * @param contentType Content type of the plaintext
+     * @param secretKey The decryption key
+     * @param request The current request, used to read the Range header
+     * @param response The response the plaintext is written to
+     * @throws Exception if the file cannot be decrypted or the response cannot be written
+     */
+    void sendDecryptedFile(Path file, MediaType contentType, SecretKey secretKey,
+            HttpServletRequest request, HttpServletResponse response) throws Exception;
+
+    /**
+     * Decrypts an encrypted HLS segment to the response like {@link #sendDecryptedFile}.
+     * The ciphertext is read from the segment cache, so a hit costs no disk read, and
+     * concurrent requests share one decryption, each streaming frames as they are decrypted.
+     *
+     * @param key Cache key of the segment
+     * @param file Path to the stored, encrypted segment
+     * @param contentType Content type of the plaintext
+     * @param secretKey The decryption key
+     * @param request The current request, used to read the Range header
+     * @param response The response the plaintext is written to
+     * @throws Exception if the segment cannot be decrypted or the response cannot be written
+     */
+    void sendDecryptedSegment(SegmentKey key, Path file, MediaType contentType, SecretKey secretKey,
+            HttpServletRequest request, HttpServletResponse response) throws Exception;
+}
@@ -0,0 +1,72 @@
+package com.coraybennett.spillway.service.api;
+
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import com.coraybennett.spillway.model.ConversionStatus;
+import com.coraybennett.spillway.model.Video;
+import com.coraybennett.spillway.service.api.VideoService.ConversionProgress;
+
+/**
+ * Interface defining operations for tracking conversion progress in memory.
+ * Progress ticks stay in memory and are written to the database periodically;
+ * status changes are written immediately.
+ */
+public interface ConversionProgressService {
+
+    /**
+     * Records conversion progress for a video. Progress never moves backwards
+     * while a conversion is running.
+     *
+     * @param videoId ID of the video being converted
+     * @param progress Progress percentage (0-100)
+     */
+    void updateProgress(String videoId, int progress);
+
+    /**
+     * Records which rendition (or renditions) a conversion is currently encoding.
+     *
+     * @param videoId ID of the video being converted
+     * @param rendition Name of the rendition, or a comma-separated list when several run at once
+     */
+    void updateRendition(String videoId, String rendition);
+
+    /**
+     * Records the encode speed reported by FFmpeg, as a multiple of real time.
+     *
+     * @param videoId ID of the video being converted
+     * @param speed Encode speed
+     */
+    void updateSpeed(String videoId, double speed);
+
+    /**
+     * Records a status change and saves the video with its latest progress.
+     *
+     * @param video The video whose status changed
+     * @param status The new conversion status
+     * @param error Error message for failed conversions, null otherwise
+     * @return The saved video
+     */
+    Video transition(Video video, ConversionStatus status, String error);
+
+    /**
+     * Gets the progress of a conversion running on this node.
+     *
+     * @param videoId ID of the video
+     * @return The tracked progress, or empty if the video is not being converted on this node
+     */
+    Optional<ConversionProgress> getProgress(String videoId);
+
+    /**
+     * Registers a listener notified with the ID of every video whose progress changes.
+     * Listeners run on conversion threads and must return quickly.
+     *
+     * @param listener Listener to notify
+     */
+    void addListener(Consumer<String> listener);
+
+    /**
+     * Writes pending progress updates to the database.
+     */
+    void flush();
+}
@@ -0,0 +1,21 @@
+package com.coraybennett.spillway.service.api;
+
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.coraybennett.spillway.service.api.VideoService.ConversionProgress;
+
+/**
+ * Interface defining operations for pushing conversion progress to connected clients.
+ */
+public interface ConversionProgressStreamService {
+
+    /**
+     * Opens a progress stream for a video. The stream receives the given snapshot right
+     * away, then every change until the conversion completes or fails.
+     *
+     * @param videoId ID of the video to watch
+     * @param current Current progress of the video
+     * @return The emitter to return from the controller
+     */
+    SseEmitter subscribe(String videoId, ConversionProgress current);
+}
@@ -0,0 +1,32 @@
+package com.coraybennett.spillway.service.api;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import com.coraybennett.spillway.model.EncodingLadder;
+import com.coraybennett.spillway.model.MediaInfo;
+import com.coraybennett.spillway.service.enums.QualityLevel;
+
+/**
+ * Interface for planning per-title encoding ladders, which fit the bitrate of every
+ * quality level to how hard the source is to encode.
+ */
+public interface EncodingLadderService {
+
+    /**
+     * Plans the ladder of a source by probe-encoding sampled scenes at each quality level.
+     * No chosen bitrate exceeds the fixed ladder's, and lower quality levels never get
+     * more than higher ones.
+     *
+     * @param sourceFile The source to sample
+     * @param mediaInfo Analysis of the source
+     * @param qualities Quality levels to plan, in descending order
+     * @param workDir Directory the probe encodes are written below and removed from
+     * @return The planned ladder
+     * @throws IOException if a probe encode fails
+     * @throws InterruptedException if interrupted while probing
+     */
+    EncodingLadder plan(Path sourceFile, MediaInfo mediaInfo, List<QualityLevel> qualities, Path workDir)
+        throws IOException, InterruptedException;
+}
@@ -0,0 +1,32 @@
+package com.coraybennett.spillway.service.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A source file that is still being uploaded while it is read for conversion.
+ */
+public interface LiveUpload {
+
+    /**
+     * @return Path of the file being written
+     */
+    Path getPath();
+
+    /**
+     * Opens a stream over the file that waits at the current end of the file until more
+     * bytes arrive, and ends once the upload is complete.
+     *
+     * @return A new reader starting at the beginning of the file
+     * @throws IOException if the file cannot be opened; reads fail if the upload is aborted
+     */
+    InputStream openReader() throws IOException;
+
+    /**
+     * @return A future that completes with true when the upload finishes intact,
+     *         or false when it is aborted
+     */
+    CompletableFuture<Boolean> finished();
+}
@@ -0,0 +1,112 @@
+package com.coraybennett.spillway.service.api;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Interface defining operations for the HLS manifests of converted videos. Manifests are
+ * indexed from the playlists written at conversion time and rendered per request with
+ * URIs relative to the playlist endpoints, so stored playlists never carry a host name.
+ */
+public interface ManifestService {
+
+    /**
+     * Gets the manifest of a converted video, indexing it on first use.
+     *
+     * @param videoId ID of the video
+     * @return The manifest, or empty if the video has no playlists
+     * @throws IOException if the playlists cannot be read
+     */
+    Optional<VideoManifest> getManifest(String videoId) throws IOException;
+
+    /**
+     * Renders the master playlist of a video, served from /video/{id}/playlist.
+     * Videos converted to a single rendition get that rendition's media playlist.
+     *
+     * @param videoId ID of the video
+     * @return Playlist bytes, or empty if the video has no playlists
+     * @throws IOException if the playlists cannot be read
+     */
+    Optional<byte[]> renderMasterPlaylist(String videoId) throws IOException;
+
+    /**
+     * Renders the media playlist of one rendition, served from /video/{id}/playlist/{rendition}.
+     *
+     * @param videoId ID of the video
+     * @param rendition Rendition name, such as "720p"
+     * @param segmentQuery Query string appended to every segment URI, or null for none
+     * @return Playlist bytes, or empty if the video has no such rendition
+     * @throws IOException if the playlists cannot be read
+     */
+    Optional<byte[]> renderMediaPlaylist(String videoId, String rendition, String segmentQuery) throws IOException;
+
+    /**
+     * Drops the manifest of a video. Called when its playlists are rewritten or deleted.
+     *
+     * @param videoId ID of the video
+     */
+    void invalidate(String videoId);
+
+    /**
+     * Record class holding the renditions of a converted video, in master playlist order.
+     */
+    public static record VideoManifest(String videoId, List<Rendition> renditions) {
+
+        /**
+         * @param name Rendition name
+         * @return The rendition, or empty if the video has none with that name
+         */
+        public Optional<Rendition> rendition(String name) {
+            return renditions.stream().filter(r -> r.name().equals(name)).findFirst();
+        }
+    }
+
+    /**
+     * Record class holding one rendition and its segments. The key tag is kept without
+     * its URI, which is rendered to point at the key endpoint. A rendition without the
+     * end tag is still being written.
+     */
+    public static record Rendition(
+        String name,
+        long bandwidth,
+        int width,
+        int height,
+        int version,
+        int targetDuration,
+        long mediaSequence,
+        String playlistType,
+        boolean independentSegments,
+        String keyTag,
+        List<Segment> segments,
+        boolean ended
+    ) {
+        /**
+         * @return Playback duration of the rendition in seconds
+         */
+        public double duration() {
+            return segments.stream().mapToDouble(Segment::duration).sum();
+        }
+
+        /**
+         * @return Stored size of all segments in bytes
+         */
+        public long size() {
+            return segments.isEmpty() ? 0 : segments.get(segments.size() - 1).endOffset();
+        }
+    }
+
+    /**
+     * Record class holding one segment: its file name, duration in seconds, stored size
+     * and byte offset from the start of the rendition.
+     */
+    public static record Segment(String filename, double duration, long size, long offset) {
+
+        /**
+         * @return Offset of the byte following this segment
+         */
+        public long endOffset() {
+            return offset + size;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.coraybennett.spillway.service.api;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import com.coraybennett.spillway.model.MediaInfo;
+
+/**
+ * Interface for inspecting media files before they are converted.
+ */
+public interface MediaProbeService {
+
+    /**
+     * Probes the container and codecs from the first bytes of a file that may still be
+     * receiving data.
+     *
+     * @param file The file being received
+     * @param available Number of leading bytes that are on disk
+     * @return The probe result
+     */
+    ProbeResult probeHead(Path file, long available);
+
+    /**
+     * Analyzes the streams and container of a file. Conversions store the result on the
+     * video and reuse it, so each source is analyzed once.
+     *
+     * @param file The file to analyze
+     * @return Stream and container details
+     * @throws IOException if ffprobe fails or the file cannot be read as media
+     */
+    MediaInfo analyze(Path file) throws IOException;
+
+    /**
+     * Reads the video packets of a file, without decoding them, to check where its
+     * keyframes fall against a segment grid and how large each segment would be.
+     *
+     * @param file The file to profile
+     * @param segmentDuration Target segment duration in seconds
+     * @param frameRate Frame rate of the video stream, or 0 if unknown
+     * @return Keyframe alignment and peak segment bitrate of the video stream
+     * @throws IOException if ffprobe fails or the file cannot be read as media
+     */
+    SegmentProfile profileSegments(Path file, int segmentDuration, double frameRate) throws IOException;
+
+    /**
+     * Record class describing what a probe found.
+     */
+    public static record ProbeResult(
+        Verdict verdict,
+        String formatName,
+        String videoCodec,
+        String audioCodec,
+        String error
+    ) {
+        public static ProbeResult inconclusive(String reason) {
+            return new ProbeResult(Verdict.INCONCLUSIVE, null, null, null, reason);
+        }
+
+        public boolean isUndecodable() {
+            return verdict == Verdict.UNDECODABLE;
+        }
+    }
+
+    /**
+     * Record class describing how a file's video stream would split into segments.
+     * A keyframe on the grid is one at or less than a frame after a multiple of the
+     * segment duration, where an encode with forced keyframes would start its segment.
+     */
+    public static record SegmentProfile(
+        boolean keyframesOnGrid,
+        long peakVideoBitRate
+    ) {
+    }
+
+    public enum Verdict {
+        DECODABLE,    // A video stream with a known codec was found
+        UNDECODABLE,  // The bytes are not a video FFmpeg can read
+        INCONCLUSIVE  // The head alone cannot tell, e.g. an MP4 with its index at the end
+    }
+}
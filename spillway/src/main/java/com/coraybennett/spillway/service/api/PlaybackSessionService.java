@@ -0,0 +1,62 @@
+package com.coraybennett.spillway.service.api;
+
+import java.util.Optional;
+
+import javax.crypto.SecretKey;
+
+import com.coraybennett.spillway.model.Video;
+
+/**
+ * Interface defining operations for playback sessions of encrypted videos.
+ * A session is opened once with the video's decryption key; the player then sends
+ * the session token with each playlist and segment request, so the key is not
+ * validated and rebuilt on every request.
+ */
+public interface PlaybackSessionService {
+
+    /**
+     * Validates a decryption key against a video's stored key hash and opens a session
+     * holding the ready-to-use key.
+     *
+     * @param video The encrypted video to play
+     * @param decryptionKey Base64 encoded decryption key presented by the viewer
+     * @return The new session, or empty if the key does not match the video
+     */
+    Optional<PlaybackSession> open(Video video, String decryptionKey);
+
+    /**
+     * Looks up a live session for a video and extends its lifetime.
+     *
+     * @param token Session token handed to the player
+     * @param videoId ID of the video being requested
+     * @return The session, or empty if the token is unknown, expired, evicted or
+     *         belongs to another video
+     */
+    Optional<PlaybackSession> get(String token, String videoId);
+
+    /**
+     * Ends a session before it expires.
+     *
+     * @param token Session token handed to the player
+     */
+    void close(String token);
+
+    /**
+     * Checks a decryption key against a video's stored key hash without opening a session.
+     *
+     * @param video The video the key is for
+     * @param decryptionKey Base64 encoded decryption key
+     * @return true if the key matches, or the video is not encrypted
+     */
+    boolean isValidKey(Video video, String decryptionKey);
+
+    /**
+     * Record class for an open playback session.
+     */
+    public static record PlaybackSession(
+        String token,
+        String videoId,
+        SecretKey secretKey,
+        long ttlSeconds
+    ) {}
+}
@@ -0,0 +1,115 @@
+package com.coraybennett.spillway.service.api;
+
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Interface defining operations for the in-memory cache of HLS segments that the server
+ * decrypts. Segments are cached as stored ciphertext, so decryption keys never decide
+ * what is shared between viewers. Segments sent as stored are not cached; the page
+ * cache already holds them for sendfile.
+ */
+public interface SegmentCacheService {
+
+    /**
+     * Gets a cached segment, reading it from disk into the cache on a miss. Concurrent
+     * misses for the same segment share a single disk read. The returned segment stays
+     * readable until it is closed, even if it is evicted in the meantime.
+     *
+     * @param key Cache key of the segment
+     * @param file Path to the stored segment, read on a miss
+     * @return The cached segment, or empty if the cache is disabled or the segment
+     *         does not fit in it
+     * @throws IOException if the segment cannot be read on a miss
+     */
+    Optional<CachedSegment> get(SegmentKey key, Path file) throws IOException;
+
+    /**
+     * Loads a segment into the cache ahead of a request. Unlike {@link #get}, this does
+     * not count as a hit or miss.
+     *
+     * @param key Cache key of the segment
+     * @param file Path to the stored segment
+     * @return true if the segment is cached afterwards
+     * @throws IOException if the segment cannot be read
+     */
+    boolean warm(SegmentKey key, Path file) throws IOException;
+
+    /**
+     * Drops every cached segment of a video. Called when its segments are rewritten
+     * or deleted.
+     *
+     * @param videoId ID of the video
+     */
+    void invalidateVideo(String videoId);
+
+    /**
+     * Gets the cache counters.
+     *
+     * @return Current cache statistics
+     */
+    CacheStats getStats();
+
+    /**
+     * A segment held in the cache. Must be closed once the response has been written.
+     */
+    interface CachedSegment extends AutoCloseable {
+
+        /**
+         * @return Length of the stored segment in bytes
+         */
+        long length();
+
+        /**
+         * Opens a read-only channel over the cached bytes, for readers that need random access.
+         *
+         * @return A new channel positioned at the start of the segment
+         */
+        SeekableByteChannel openChannel();
+
+        @Override
+        void close();
+    }
+
+    /**
+     * Record class identifying a segment: the video, the rendition it belongs to and
+     * the segment file name.
+     */
+    public static record SegmentKey(String videoId, String rendition, String segment) {
+
+        /**
+         * Builds a key from a segment file name such as "720p_003.ts".
+         *
+         * @param videoId ID of the video
+         * @param filename Segment file name
+         * @return The key
+         */
+        public static SegmentKey of(String videoId, String filename) {
+            int separator = filename.lastIndexOf('_');
+            String rendition = separator > 0 ? filename.substring(0, separator) : "";
+            return new SegmentKey(videoId, rendition, filename);
+        }
+    }
+
+    /**
+     * Record class holding cache counters.
+     */
+    public static record CacheStats(
+        long hits,
+        long misses,
+        long evictions,
+        long entries,
+        long usedBytes,
+        long capacityBytes
+    ) {
+        /**
+         * @return Share of lookups answered from the cache, between 0 and 1
+         */
+        public double hitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+    }
+}
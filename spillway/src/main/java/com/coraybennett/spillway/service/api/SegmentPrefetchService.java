@@ -0,0 +1,22 @@
+package com.coraybennett.spillway.service.api;
+
+import java.nio.file.Path;
+
+/**
+ * Interface defining operations for warming segments before players request them.
+ */
+public interface SegmentPrefetchService {
+
+    /**
+     * Records that a segment is being served and warms the segments likely to be
+     * requested next: the following segments of the same rendition and, near the end of
+     * an episode, the first segments of the next episode in its playlist. Returns at once;
+     * warming happens in the background and is dropped when the node is busy.
+     *
+     * @param videoId ID of the video the segment belongs to
+     * @param segmentFile Path to the segment being served
+     * @param decrypted true if the server decrypts the video's segments, which are then
+     *                  warmed into the segment cache rather than the page cache
+     */
+    void segmentServed(String videoId, Path segmentFile, boolean decrypted);
+}
@@ -63,4 +63,55 @@ public interface StorageService {
      * @return true if the file exists, false otherwise
      */
     boolean exists(Path path);
+
+    /**
+     * Streams an InputStream straight to its destination file, computing the SHA-256
+     * digest and size as the bytes are written.
+     * 
+     * @param inputStream The input stream to read from, typically a request body
+     * @param filename The filename to use
+     * @param destinationPath Path where the file should be stored
+     * @param maxBytes Maximum number of bytes to accept
+     * @return The stored file with its size and digest
+     * @throws IOException if storing fails or the stream is larger than maxBytes
+     */
+    StoredFile storeWithDigest(InputStream inputStream, String filename, String destinationPath, long maxBytes)
+            throws IOException;
+
+    /**
+     * Streams an InputStream straight to its destination file like
+     * {@link #storeWithDigest(InputStream, String, String, long)}, reporting the number
+     * of bytes on disk after each write so the file can be read while it grows.
+     * 
+     * @param inputStream The input stream to read from, typically a request body
+     * @param filename The filename to use
+     * @param destinationPath Path where the file should be stored
+     * @param maxBytes Maximum number of bytes to accept
+     * @param listener Called on the writing thread after each write
+     * @return The stored file with its size and digest
+     * @throws IOException if storing fails, the stream is larger than maxBytes, or the
+     *         listener rejects the upload
+     */
+    StoredFile storeWithDigest(InputStream inputStream, String filename, String destinationPath, long maxBytes,
+            WriteListener listener) throws IOException;
+
+    /**
+     * Callback for storeWithDigest, told how much of the file has been written.
+     * Throwing stops the upload and deletes the partial file.
+     */
+    @FunctionalInterface
+    public static interface WriteListener {
+        WriteListener NONE = (path, written) -> {};
+
+        void onWritten(Path path, long written) throws IOException;
+    }
+
+    /**
+     * Record class describing a file stored by storeWithDigest.
+     */
+    public static record StoredFile(
+        Path path,
+        long size,
+        String sha256
+    ) {}
 }
\ No newline at end of file
@@ -0,0 +1,66 @@
+package com.coraybennett.spillway.service.api;
+
+import java.nio.file.Path;
+
+import com.coraybennett.spillway.exception.TranscodeQueueFullException;
+import com.coraybennett.spillway.model.TranscodeJob;
+import com.coraybennett.spillway.model.Video;
+
+/**
+ * Interface defining operations for the durable transcode job queue.
+ */
+public interface TranscodeJobService {
+
+    /**
+     * Queues a conversion for a stored source file. The job survives restarts;
+     * the encryption key is only held in memory and is never persisted.
+     *
+     * @param video The video the source file belongs to
+     * @param sourceFile Path to the stored source file
+     * @param encryptionKey Encryption key for encrypted videos, null otherwise
+     * @return The queued job
+     * @throws TranscodeQueueFullException If the queue cannot accept another job
+     */
+    TranscodeJob enqueue(Video video, Path sourceFile, String encryptionKey) throws TranscodeQueueFullException;
+
+    /**
+     * Starts converting a source that is still being uploaded, if this node has cores to
+     * spare right now. If the live conversion fails while the upload later completes intact,
+     * the job falls back to the queue and converts the finished file.
+     *
+     * @param video The video the upload belongs to
+     * @param upload The source upload in progress
+     * @param encryptionKey Encryption key for encrypted videos, null otherwise
+     * @return The running job, or null if it could not start now and the finished file
+     *         should be queued instead
+     */
+    TranscodeJob startLive(Video video, LiveUpload upload, String encryptionKey);
+
+    /**
+     * Gets a snapshot of the queue and of this node's core budget, used to decide
+     * whether an upload can be admitted.
+     *
+     * @return Current queue status
+     */
+    QueueStatus getQueueStatus();
+
+    /**
+     * Record class describing how saturated the transcode queue is. A saturated queue
+     * still accepts jobs, but they wait instead of starting right away.
+     */
+    public static record QueueStatus(
+        long queuedJobs,
+        int maxQueuedJobs,
+        int freeCores,
+        int totalCores,
+        boolean saturated,
+        int retryAfterSeconds
+    ) {
+        /**
+         * @return true if no more jobs can be queued
+         */
+        public boolean isFull() {
+            return queuedJobs >= maxQueuedJobs;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.coraybennett.spillway.service.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.coraybennett.spillway.exception.VideoConversionException;
+import com.coraybennett.spillway.model.UploadSession;
+import com.coraybennett.spillway.model.User;
+import com.coraybennett.spillway.model.Video;
+
+/**
+ * Interface defining operations for resumable, chunked uploads.
+ */
+public interface UploadSessionService {
+
+    /**
+     * Creates an upload session and a sparse file of the declared length to write chunks into.
+     *
+     * @param video The video the upload belongs to
+     * @param user The uploading user, the only one allowed to use the session
+     * @param filename Original filename, used for the container format
+     * @param length Total size of the file in bytes
+     * @return The new session
+     * @throws IOException if the file cannot be created
+     */
+    UploadSession createSession(Video video, User user, String filename, long length) throws IOException;
+
+    /**
+     * Gets a session owned by the user.
+     *
+     * @param sessionId ID of the session
+     * @param user The requesting user
+     * @return The session
+     */
+    UploadSession getSession(String sessionId, User user);
+
+    /**
+     * Writes a chunk at its offset. Chunks may be written concurrently and in any order.
+     *
+     * @param sessionId ID of the session
+     * @param user The requesting user
+     * @param offset Position of the first byte of the chunk
+     * @param chunk The chunk data
+     * @return The session with the chunk recorded
+     * @throws IOException if the chunk cannot be written or runs past the declared length
+     */
+    UploadSession writeChunk(String sessionId, User user, long offset, InputStream chunk) throws IOException;
+
+    /**
+     * Hands a fully received file to conversion.
+     *
+     * @param sessionId ID of the session
+     * @param user The requesting user
+     * @param encryptionKey optional encryption key for encrypted videos
+     * @return The completed session
+     * @throws VideoConversionException if the upload is incomplete or cannot be queued
+     */
+    UploadSession completeSession(String sessionId, User user, String encryptionKey) throws VideoConversionException;
+
+    /**
+     * Abandons a session and deletes its partial file.
+     *
+     * @param sessionId ID of the session
+     * @param user The requesting user
+     */
+    void abortSession(String sessionId, User user);
+}
@@ -1,5 +1,7 @@
 package com.coraybennett.spillway.service.api;
 
+import java.io.OutputStream;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Path;
 import javax.crypto.SecretKey;
 
@@ -16,7 +18,9 @@ public interface VideoEncryptionService {
     String generateEncryptionKey();
     
     /**
-     * Encrypts a video file or segment.
+     * Encrypts a video file or segment in the framed format: fixed-size frames, each
+     * with its own nonce and authentication tag, so any part of the file can be
+     * decrypted without reading the rest.
      * 
      * @param inputPath Path to the input file
      * @param outputPath Path where the encrypted file should be saved
@@ -26,7 +30,20 @@ public interface VideoEncryptionService {
     void encryptFile(Path inputPath, Path outputPath, String encryptionKey) throws Exception;
     
     /**
-     * Decrypts a video file or segment.
+     * Encrypts a file in the framed format with a key that has already been built, so a
+     * batch of segments does not rebuild the key for every file.
+     * 
+     * @param inputPath Path to the input file
+     * @param outputPath Path where the encrypted file should be saved
+     * @param secretKey The encryption key
+     * @throws Exception if encryption fails
+     * @see #encryptFile(Path, Path, String)
+     */
+    void encryptFile(Path inputPath, Path outputPath, SecretKey secretKey) throws Exception;
+    
+    /**
+     * Decrypts a whole video file or segment into memory. Reads both the framed format
+     * and the older single-frame format.
      * 
      * @param inputPath Path to the encrypted file
      * @param encryptionKey Base64 encoded encryption key
@@ -35,6 +52,85 @@ public interface VideoEncryptionService {
      */
     byte[] decryptFile(Path inputPath, String encryptionKey) throws Exception;
     
+    /**
+     * Decrypts a byte range of a file straight to an output stream. Framed files only
+     * read and decrypt the frames covering the range; single-frame files are decrypted
+     * whole and the range is cut from the result.
+     * 
+     * @param inputPath Path to the encrypted file
+     * @param encryptionKey Base64 encoded encryption key
+     * @param start First plaintext byte to write
+     * @param end Last plaintext byte to write, inclusive
+     * @param out Stream the plaintext is written to
+     * @throws Exception if decryption fails or the file has been tampered with
+     */
+    void decryptRange(Path inputPath, String encryptionKey, long start, long end, OutputStream out) throws Exception;
+    
+    /**
+     * Decrypts a byte range of a file with a key that has already been built, as held
+     * by a playback session.
+     * 
+     * @param inputPath Path to the encrypted file
+     * @param secretKey The decryption key
+     * @param start First plaintext byte to write
+     * @param end Last plaintext byte to write, inclusive
+     * @param out Stream the plaintext is written to
+     * @throws Exception if decryption fails or the file has been tampered with
+     * @see #decryptRange(Path, String, long, long, OutputStream)
+     */
+    void decryptRange(Path inputPath, SecretKey secretKey, long start, long end, OutputStream out) throws Exception;
+    
+    /**
+     * Decrypts a byte range of encrypted bytes read from a channel, such as a segment
+     * held in the segment cache.
+     * 
+     * @param in Channel over the encrypted bytes
+     * @param secretKey The decryption key
+     * @param start First plaintext byte to write
+     * @param end Last plaintext byte to write, inclusive
+     * @param out Stream the plaintext is written to
+     * @throws Exception if decryption fails or the data has been tampered with
+     */
+    void decryptRange(SeekableByteChannel in, SecretKey secretKey, long start, long end, OutputStream out)
+            throws Exception;
+    
+    /**
+     * Gets the length of the plaintext an encrypted file decrypts to, without decrypting it.
+     * 
+     * @param inputPath Path to the encrypted file
+     * @return Plaintext length in bytes
+     * @throws Exception if the file cannot be read
+     */
+    long getPlaintextLength(Path inputPath) throws Exception;
+    
+    /**
+     * Gets the plaintext length of encrypted bytes read from a channel.
+     * 
+     * @param in Channel over the encrypted bytes
+     * @return Plaintext length in bytes
+     * @throws Exception if the channel cannot be read
+     */
+    long getPlaintextLength(SeekableByteChannel in) throws Exception;
+    
+    /**
+     * Checks whether an encrypted file uses the framed format.
+     * 
+     * @param inputPath Path to the encrypted file
+     * @return true for framed files, false for single-frame files
+     * @throws Exception if the file cannot be read
+     */
+    boolean isFramed(Path inputPath) throws Exception;
+    
+    /**
+     * Rewrites a single-frame file in the framed format, replacing it atomically.
+     * 
+     * @param inputPath Path to the encrypted file
+     * @param encryptionKey Base64 encoded encryption key
+     * @return true if the file was rewritten, false if it was already framed
+     * @throws Exception if decryption or encryption fails
+     */
+    boolean migrateFile(Path inputPath, String encryptionKey) throws Exception;
+    
     /**
      * Encrypts data in memory.
      * 
@@ -55,6 +151,25 @@ public interface VideoEncryptionService {
      */
     byte[] decryptData(byte[] encryptedData, String encryptionKey) throws Exception;
     
+    /**
+     * Derives the 128-bit key used for standard HLS AES-128 encryption from a video's
+     * encryption key. The video key itself is never handed to players.
+     * 
+     * @param encryptionKey Base64 encoded encryption key
+     * @return 16 key bytes
+     * @throws Exception if key derivation fails
+     */
+    byte[] deriveHlsKey(String encryptionKey) throws Exception;
+    
+    /**
+     * Derives the HLS AES-128 key from a key that has already been built.
+     * 
+     * @param secretKey The video's encryption key
+     * @return 16 key bytes
+     * @throws Exception if key derivation fails
+     */
+    byte[] deriveHlsKey(SecretKey secretKey) throws Exception;
+    
     /**
      * Validates an encryption key.
      * 
@@ -1,5 +1,7 @@
 package com.coraybennett.spillway.service.api;
 
+import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Optional;
 
@@ -11,6 +13,7 @@ import com.coraybennett.spillway.exception.VideoConversionException;
 import com.coraybennett.spillway.model.ConversionStatus;
 import com.coraybennett.spillway.model.User;
 import com.coraybennett.spillway.model.Video;
+import com.coraybennett.spillway.service.api.StorageService.StoredFile;
 
 /**
  * Interface defining operations for video management.
@@ -36,6 +39,45 @@ public interface VideoService {
      */
     void uploadAndConvertVideo(String videoId, MultipartFile videoFile, String encryptionKey) 
             throws VideoConversionException;
+
+    /**
+     * Streams a raw request body to storage and queues it for conversion, without
+     * multipart buffering.
+     * 
+     * @param videoId ID of the video to associate the file with
+     * @param body The request body containing the video data
+     * @param filename Original filename, used for the container format
+     * @param expectedLength Declared body length, or -1 if unknown
+     * @param expectedSha256 Hex SHA-256 the client expects, or null to skip verification
+     * @param encryptionKey optional encryption key for encrypted videos
+     * @return The stored file with its size and digest
+     * @throws VideoConversionException if the upload is incomplete, corrupt or cannot be queued
+     */
+    StoredFile streamAndConvertVideo(String videoId, InputStream body, String filename, long expectedLength,
+            String expectedSha256, String encryptionKey) throws VideoConversionException;
+
+    /**
+     * Queues an already stored source file for conversion. The file is handed over to
+     * the conversion job, which deletes it when done; it is left in place if the job
+     * cannot be queued.
+     * 
+     * @param videoId ID of the video the file belongs to
+     * @param sourceFile Path to the stored source file
+     * @param encryptionKey optional encryption key for encrypted videos
+     * @throws VideoConversionException if the conversion cannot be queued
+     */
+    void convertStoredVideo(String videoId, Path sourceFile, String encryptionKey) throws VideoConversionException;
+    
+    /**
+     * Rewrites the encrypted segments of a video that are still in the single-frame
+     * format in the framed format, so they can be streamed and served by range.
+     * 
+     * @param video The encrypted video
+     * @param encryptionKey The video's encryption key
+     * @return Number of segments rewritten
+     * @throws VideoConversionException if a segment cannot be rewritten
+     */
+    int migrateEncryptedSegments(Video video, String encryptionKey) throws VideoConversionException;
     
     /**
      * Retrieves a video by its ID.
@@ -78,10 +120,17 @@ public interface VideoService {
     
     /**
      * Record class for tracking video conversion progress.
+     * Rendition and speed are only known while this node is running the conversion.
      */
     public static record ConversionProgress(
         ConversionStatus status,
         Integer progress,
-        String error
-    ) {}
+        String error,
+        String rendition,
+        Double speed
+    ) {
+        public ConversionProgress(ConversionStatus status, Integer progress, String error) {
+            this(status, progress, error, null, null);
+        }
+    }
 }
\ No newline at end of file
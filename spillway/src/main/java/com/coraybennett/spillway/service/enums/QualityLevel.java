@@ -71,6 +71,47 @@ public class QualityLevel {
             .orElse(null);
     }
     
+    /**
+     * Creates a copy of this quality level with another video bitrate, keeping the max rate
+     * and buffer size in the same proportion to it as the fixed ladder does
+     * 
+     * @param bitsPerSecond Video bitrate of the copy
+     * @return The quality level with the new bitrate
+     */
+    public QualityLevel withBitrate(long bitsPerSecond) {
+        long kbps = Math.max(1, bitsPerSecond / 1000);
+        long maxRateKbps = kbps * 107 / 100;
+        long bufSizeKbps = kbps * 3 / 2;
+        return new QualityLevel(name, height, width, kbps + "k", maxRateKbps + "k", bufSizeKbps + "k",
+                audioBitrate, (int) (maxRateKbps * 1000));
+    }
+    
+    /**
+     * Gets the video bitrate of this quality level
+     * 
+     * @return Bits per second
+     */
+    public long getBitsPerSecond() {
+        return parseBitrate(bitrate);
+    }
+    
+    /**
+     * Parses an FFmpeg bitrate such as "192k" or "5M"
+     * 
+     * @param bitrate The bitrate
+     * @return Bits per second
+     */
+    public static long parseBitrate(String bitrate) {
+        char unit = Character.toLowerCase(bitrate.charAt(bitrate.length() - 1));
+        if (unit == 'k') {
+            return Long.parseLong(bitrate.substring(0, bitrate.length() - 1)) * 1000;
+        }
+        if (unit == 'm') {
+            return Long.parseLong(bitrate.substring(0, bitrate.length() - 1)) * 1000000;
+        }
+        return Long.parseLong(bitrate);
+    }
+    
     /**
      * Determines if a quality level is HD (720p or higher)
      * 
@@ -0,0 +1,80 @@
+package com.coraybennett.spillway.service.impl;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sorted, merged set of half-open byte ranges, stored as "start-end,start-end".
+ * Used to track which parts of a chunked upload have arrived.
+ */
+final class ByteRanges {
+
+    // Range start to exclusive end; ranges never overlap or touch
+    private final TreeMap<Long, Long> ranges = new TreeMap<>();
+
+    private ByteRanges() {
+    }
+
+    static ByteRanges parse(String value) {
+        ByteRanges result = new ByteRanges();
+        if (value == null || value.isBlank()) {
+            return result;
+        }
+        for (String range : value.split(",")) {
+            int dash = range.indexOf('-');
+            result.add(Long.parseLong(range.substring(0, dash)), Long.parseLong(range.substring(dash + 1)));
+        }
+        return result;
+    }
+
+    /**
+     * Adds [start, end), merging it with any range it overlaps or touches.
+     */
+    void add(long start, long end) {
+        if (end <= start) {
+            return;
+        }
+
+        Map.Entry<Long, Long> before = ranges.floorEntry(start);
+        if (before != null && before.getValue() >= start) {
+            start = before.getKey();
+            end = Math.max(end, before.getValue());
+        }
+
+        Map.Entry<Long, Long> next = ranges.ceilingEntry(start);
+        while (next != null && next.getKey() <= end) {
+            end = Math.max(end, next.getValue());
+            ranges.remove(next.getKey());
+            next = ranges.ceilingEntry(start);
+        }
+
+        ranges.put(start, end);
+    }
+
+    /**
+     * @return Total number of bytes covered
+     */
+    long total() {
+        return ranges.entrySet().stream().mapToLong(range -> range.getValue() - range.getKey()).sum();
+    }
+
+    /**
+     * @return End of the range starting at zero, i.e. how many leading bytes have arrived
+     */
+    long contiguousEnd() {
+        Long end = ranges.get(0L);
+        return end == null ? 0 : end;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder value = new StringBuilder();
+        ranges.forEach((start, end) -> {
+            if (value.length() > 0) {
+                value.append(',');
+            }
+            value.append(start).append('-').append(end);
+        });
+        return value.toString();
+    }
+}
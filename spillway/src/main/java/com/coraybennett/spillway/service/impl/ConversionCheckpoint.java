@@ -0,0 +1,94 @@
+package com.coraybennett.spillway.service.impl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Records which units of a conversion have completed, so a retry against the retained
+ * source only redoes the missing work. Units are rendition names and, in chunked mode,
+ * chunk names. The checkpoint is a file in the conversion's working directory that is
+ * replaced atomically on every change, so a crash leaves either the old or the new list.
+ */
+@Slf4j
+class ConversionCheckpoint {
+
+    static final String FILE_NAME = "_checkpoint";
+
+    private final Path file;
+    private final Set<String> completed = new LinkedHashSet<>();
+
+    private ConversionCheckpoint(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Opens the checkpoint of a working directory, loading the units an earlier attempt completed.
+     *
+     * @param workDir Working directory of the conversion
+     * @return The checkpoint, empty if no earlier attempt recorded one
+     * @throws IOException if an existing checkpoint cannot be read
+     */
+    static ConversionCheckpoint open(Path workDir) throws IOException {
+        ConversionCheckpoint checkpoint = new ConversionCheckpoint(workDir.resolve(FILE_NAME));
+        if (Files.exists(checkpoint.file)) {
+            for (String line : Files.readAllLines(checkpoint.file)) {
+                if (!line.isBlank()) {
+                    checkpoint.completed.add(line.trim());
+                }
+            }
+        }
+        return checkpoint;
+    }
+
+    synchronized boolean isEmpty() {
+        return completed.isEmpty();
+    }
+
+    synchronized boolean isCompleted(String unit) {
+        return completed.contains(unit);
+    }
+
+    /**
+     * @return Completed units in the order they completed
+     */
+    synchronized List<String> getCompleted() {
+        return new ArrayList<>(completed);
+    }
+
+    /**
+     * Records a completed unit. Must only be called once the unit's output is on disk.
+     *
+     * @param unit Rendition or chunk name
+     * @throws IOException if the checkpoint cannot be written
+     */
+    synchronized void markCompleted(String unit) throws IOException {
+        if (!completed.add(unit)) {
+            return;
+        }
+
+        Path temp = file.resolveSibling(FILE_NAME + ".tmp");
+        Files.write(temp, completed);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.debug("Checkpointed {} in {}", unit, file.getParent());
+    }
+
+    /**
+     * Removes the checkpoint once the conversion no longer needs to be resumed.
+     */
+    synchronized void delete() {
+        try {
+            Files.deleteIfExists(file);
+            completed.clear();
+        } catch (IOException e) {
+            log.warn("Could not delete checkpoint {}: {}", file, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.coraybennett.spillway.service.impl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.coraybennett.spillway.model.EncodingLadder;
+import com.coraybennett.spillway.model.MediaInfo;
+import com.coraybennett.spillway.service.api.EncodingLadderService;
+import com.coraybennett.spillway.service.api.StorageService;
+import com.coraybennett.spillway.service.enums.QualityLevel;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * EncodingLadderService that encodes short samples spread over the source at a constant
+ * rate factor. The bitrate x264 needs to hold that quality on the samples, plus headroom
+ * for scenes the samples missed, becomes the quality level's bitrate, capped at the fixed
+ * ladder's. Static or simple content ends up well below the fixed ladder; hard content
+ * keeps the fixed bitrates.
+ */
+@Service
+@Slf4j
+public class CrfProbeEncodingLadderService implements EncodingLadderService {
+
+    private static final String PROBE_DIRECTORY = "_ladder";
+
+    // Margin over the sampled CRF bitrate for scenes harder than the samples
+    private static final double HEADROOM = 1.25;
+
+    // No quality level goes below this share of its fixed bitrate
+    private static final double MIN_BITRATE_FRACTION = 0.15;
+
+    private final StorageService storageService;
+
+    @Value("${video.encoding.per-title.crf:23}")
+    private int crf;
+
+    @Value("${video.encoding.per-title.samples:3}")
+    private int sampleCount;
+
+    @Value("${video.encoding.per-title.sample-seconds:4}")
+    private int sampleSeconds;
+
+    @Value("${video.encoding.preset:veryfast}")
+    private String encodingPreset;
+
+    @Value("${video.encoding.ffmpeg-timeout-minutes:120}")
+    private int ffmpegTimeoutMinutes;
+
+    @Value("${video.conversion.scheduler.cores-per-job:4}")
+    private int coresPerJob;
+
+    @Autowired
+    public CrfProbeEncodingLadderService(StorageService storageService) {
+        this.storageService = storageService;
+    }
+
+    @Override
+    public EncodingLadder plan(Path sourceFile, MediaInfo mediaInfo, List<QualityLevel> qualities, Path workDir)
+            throws IOException, InterruptedException {
+        Path probeDir = workDir.resolve(PROBE_DIRECTORY);
+        Files.createDirectories(probeDir);
+
+        try {
+            double duration = mediaInfo.durationSeconds();
+            int samples = duration > (double) sampleSeconds * sampleCount ? sampleCount : 1;
+            double sampleLength = duration > 0 ? Math.min(sampleSeconds, duration) : sampleSeconds;
+
+            long[] probeBytes = new long[qualities.size()];
+            for (int i = 0; i < samples; i++) {
+                // Samples are centred in equal parts of the source, away from intros and credits
+                double start = Math.max(0, Math.min(duration * (i + 0.5) / samples - sampleLength / 2,
+                    duration - sampleLength));
+                probeSample(sourceFile, probeDir, start, sampleLength, qualities, i, probeBytes);
+            }
+
+            double sampledSeconds = sampleLength * samples;
+            return buildLadder(qualities, probeBytes, sampledSeconds);
+        } finally {
+            storageService.delete(probeDir);
+        }
+    }
+
+    /**
+     * Encodes one sample at every quality level with one FFmpeg process, so the sample is
+     * decoded once, and adds the size of each encode to the totals.
+     */
+    private void probeSample(Path sourceFile, Path probeDir, double start, double length,
+                             List<QualityLevel> qualities, int index, long[] probeBytes)
+            throws IOException, InterruptedException {
+        List<Path> outputs = new ArrayList<>();
+        List<String> command = new ArrayList<>();
+        command.add("ffmpeg");
+        command.add("-y");
+        command.add("-ss");
+        command.add(String.format(Locale.ROOT, "%.3f", start));
+        command.add("-t");
+        command.add(String.format(Locale.ROOT, "%.3f", length));
+        command.add("-i");
+        command.add(sourceFile.toAbsolutePath().toString());
+
+        // Every output runs its own encoder, so the job's cores are divided between them
+        int threadsPerOutput = Math.max(1, coresPerJob / qualities.size());
+
+        for (QualityLevel quality : qualities) {
+            Path output = probeDir.resolve(quality.name + "_" + index + ".ts");
+            outputs.add(output);
+            command.add("-map");
+            command.add("0:V:0");
+            command.add("-vf");
+            command.add("scale=-2:" + quality.height);
+            command.add("-c:v");
+            command.add("libx264");
+            command.add("-preset");
+            command.add(encodingPreset);
+            command.add("-crf");
+            command.add(String.valueOf(crf));
+            command.add("-threads");
+            command.add(String.valueOf(threadsPerOutput));
+            command.add("-an");
+            command.add("-f");
+            command.add("mpegts");
+            command.add(output.toString());
+        }
+
+        log.debug("FFmpeg command for ladder probe {}: {}", index, String.join(" ", command));
+
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+        processBuilder.redirectErrorStream(true);
+        processBuilder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        Process process = processBuilder.start();
+
+        try {
+            if (!process.waitFor(ffmpegTimeoutMinutes, TimeUnit.MINUTES)) {
+                throw new IOException("Ladder probe timed out after " + ffmpegTimeoutMinutes + " minutes");
+            }
+            if (process.exitValue() != 0) {
+                throw new IOException("Ladder probe failed with exit code: " + process.exitValue());
+            }
+        } finally {
+            if (process.isAlive()) {
+                process.destroyForcibly();
+            }
+        }
+
+        for (int i = 0; i < outputs.size(); i++) {
+            probeBytes[i] += Files.size(outputs.get(i));
+        }
+    }
+
+    /**
+     * Turns the probe sizes into bitrates, clamped between the floor and the fixed ladder,
+     * and keeps them descending with the quality levels.
+     */
+    private EncodingLadder buildLadder(List<QualityLevel> qualities, long[] probeBytes, double sampledSeconds) {
+        List<EncodingLadder.Rung> rungs = new ArrayList<>();
+        long fixedTotal = 0;
+        long chosenTotal = 0;
+        long ceiling = Long.MAX_VALUE;
+
+        for (int i = 0; i < qualities.size(); i++) {
+            QualityLevel quality = qualities.get(i);
+            long fixed = quality.getBitsPerSecond();
+            long probe = (long) (probeBytes[i] * 8 / sampledSeconds);
+
+            long chosen = (long) (probe * HEADROOM);
+            chosen = Math.max(chosen, (long) (fixed * MIN_BITRATE_FRACTION));
+            chosen = Math.min(chosen, Math.min(fixed, ceiling));
+            ceiling = chosen;
+
+            rungs.add(new EncodingLadder.Rung(quality.name, quality.height, chosen, fixed, probe));
+            fixedTotal += fixed;
+            chosenTotal += chosen;
+        }
+
+        int savings = fixedTotal > 0 ? (int) Math.round(100.0 * (fixedTotal - chosenTotal) / fixedTotal) : 0;
+        return new EncodingLadder(crf, sampledSeconds, rungs, savings);
+    }
+}
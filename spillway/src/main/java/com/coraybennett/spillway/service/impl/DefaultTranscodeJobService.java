@@ -0,0 +1,615 @@
+package com.coraybennett.spillway.service.impl;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.coraybennett.spillway.exception.ConversionIncompleteException;
+import com.coraybennett.spillway.exception.TranscodeQueueFullException;
+import com.coraybennett.spillway.model.ConversionStatus;
+import com.coraybennett.spillway.model.MediaInfo;
+import com.coraybennett.spillway.model.TranscodeJob;
+import com.coraybennett.spillway.model.Video;
+import com.coraybennett.spillway.repository.TranscodeJobRepository;
+import com.coraybennett.spillway.repository.VideoRepository;
+import com.coraybennett.spillway.service.api.ConversionProgressService;
+import com.coraybennett.spillway.service.api.LiveUpload;
+import com.coraybennett.spillway.service.api.MediaProbeService;
+import com.coraybennett.spillway.service.api.TranscodeJobService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Database-backed implementation of TranscodeJobService.
+ * Workers claim queued jobs with SELECT ... FOR UPDATE SKIP LOCKED, hold them under a
+ * lease renewed by heartbeats, and re-queue jobs whose worker stopped heart-beating.
+ * Each running job reserves a fixed number of CPU cores from the node's budget. Short
+ * clips are claimed ahead of long sources, and long sources can never take the cores
+ * held back for short clips. A conversion that fails after checkpointing part of its
+ * work is queued again and resumes from the checkpoint. Encryption keys are only held in
+ * the memory of the node that queued the job, so encrypted jobs are pinned to that node.
+ */
+@Service
+@Slf4j
+public class DefaultTranscodeJobService implements TranscodeJobService {
+
+    private final TranscodeJobRepository jobRepository;
+    private final VideoRepository videoRepository;
+    private final EncryptedVideoConversionService videoConversionService;
+    private final ConversionProgressService progressService;
+    private final MediaProbeService mediaProbeService;
+    private final TransactionTemplate transactionTemplate;
+
+    // Jobs this node is currently running, by job ID
+    private final Map<String, TranscodeJob> runningJobs = new ConcurrentHashMap<>();
+
+    // Encryption keys are never persisted, so they only live here until the job ends
+    private final Map<String, String> encryptionKeys = new ConcurrentHashMap<>();
+
+    @Value("${video.conversion.jobs.node-id:}")
+    private String configuredNodeId;
+
+    @Value("${video.conversion.thread-pool.max-size:5}")
+    private int maxRunningJobs;
+
+    @Value("${video.conversion.scheduler.total-cores:0}")
+    private int configuredTotalCores;
+
+    @Value("${video.conversion.scheduler.cores-per-job:4}")
+    private int coresPerJob;
+
+    @Value("${video.conversion.scheduler.long-lane-max-cores:0}")
+    private int configuredLongLaneMaxCores;
+
+    @Value("${video.conversion.scheduler.short-clip-seconds:600}")
+    private int shortClipSeconds;
+
+    @Value("${video.conversion.scheduler.max-queued-jobs:20}")
+    private int maxQueuedJobs;
+
+    @Value("${video.conversion.scheduler.retry-after-seconds:60}")
+    private int retryAfterSeconds;
+
+    @Value("${video.conversion.jobs.lease-seconds:120}")
+    private int leaseSeconds;
+
+    @Value("${video.conversion.jobs.max-attempts:3}")
+    private int maxAttempts;
+
+    private String nodeId;
+
+    @Autowired
+    public DefaultTranscodeJobService(
+        TranscodeJobRepository jobRepository,
+        VideoRepository videoRepository,
+        EncryptedVideoConversionService videoConversionService,
+        ConversionProgressService progressService,
+        MediaProbeService mediaProbeService,
+        PlatformTransactionManager transactionManager
+    ) {
+        this.jobRepository = jobRepository;
+        this.videoRepository = videoRepository;
+        this.videoConversionService = videoConversionService;
+        this.progressService = progressService;
+        this.mediaProbeService = mediaProbeService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Override
+    public TranscodeJob enqueue(Video video, Path sourceFile, String encryptionKey) throws TranscodeQueueFullException {
+        long queued = jobRepository.countByStatus(TranscodeJob.Status.QUEUED);
+        if (queued >= maxQueuedJobs) {
+            log.warn("Rejecting transcode job for video {}: {} jobs already queued", video.getId(), queued);
+            throw new TranscodeQueueFullException(
+                "The conversion queue is full, try again later", retryAfterSeconds);
+        }
+
+        Integer durationSeconds = analyzeSource(video, sourceFile, true);
+        videoRepository.save(video);
+        TranscodeJob.Lane lane = laneFor(durationSeconds);
+
+        TranscodeJob job = new TranscodeJob(
+            video.getId(), sourceFile.toAbsolutePath().toString(), lane, durationSeconds);
+        if (encryptionKey != null) {
+            job.setRequiredNode(getNodeId());
+        }
+        job = jobRepository.save(job);
+
+        if (encryptionKey != null) {
+            encryptionKeys.put(job.getId(), encryptionKey);
+        }
+
+        log.info("Queued transcode job {} for video {} in {} lane", job.getId(), video.getId(), lane);
+        return job;
+    }
+
+    @Override
+    public synchronized TranscodeJob startLive(Video video, LiveUpload upload, String encryptionKey) {
+        // Only the header has arrived, which is usually enough to read the duration
+        Integer durationSeconds = analyzeSource(video, upload.getPath(), false);
+        TranscodeJob.Lane lane = laneFor(durationSeconds);
+        if (!hasCapacityFor(lane)) {
+            log.info("No cores free for live conversion of video {}, it will be queued after upload", video.getId());
+            return null;
+        }
+
+        TranscodeJob job = transactionTemplate.execute(status -> {
+            LocalDateTime now = LocalDateTime.now();
+            TranscodeJob created = new TranscodeJob(
+                video.getId(), upload.getPath().toAbsolutePath().toString(), lane, durationSeconds);
+            created.setStatus(TranscodeJob.Status.RUNNING);
+            created.setSourceUploading(true);
+            if (encryptionKey != null) {
+                created.setRequiredNode(getNodeId());
+            }
+            created.setAttempts(1);
+            created.setLeaseOwner(getNodeId());
+            created.setLeaseExpiresAt(now.plusSeconds(leaseSeconds));
+            created.setHeartbeatAt(now);
+            created.setStartedAt(now);
+            return jobRepository.save(created);
+        });
+
+        runningJobs.put(job.getId(), job);
+        if (encryptionKey != null) {
+            encryptionKeys.put(job.getId(), encryptionKey);
+        }
+
+        CompletableFuture<Void> conversion;
+        try {
+            conversion = videoConversionService.convertToHls(upload, video, encryptionKey);
+        } catch (TaskRejectedException e) {
+            log.warn("Conversion pool is full, video {} will be queued after upload", video.getId());
+            runningJobs.remove(job.getId());
+            encryptionKeys.remove(job.getId());
+            jobRepository.deleteById(job.getId());
+            return null;
+        }
+
+        log.info("Started live transcode job {} for video {} while it uploads", job.getId(), video.getId());
+
+        upload.finished().thenAccept(intact -> markSourceUploaded(job.getId()));
+        conversion.whenComplete((result, error) -> {
+            if (error == null) {
+                finishJob(job.getId(), null);
+                return;
+            }
+            // Decide once the upload is over whether the finished file can still be converted
+            upload.finished().thenAccept(intact -> {
+                if (intact) {
+                    requeueLiveJob(job.getId(), error);
+                } else {
+                    finishJob(job.getId(), error);
+                    videoRepository.findById(job.getVideoId())
+                        .ifPresent(failed -> failVideo(failed, "Upload did not complete"));
+                }
+            });
+        });
+
+        return job;
+    }
+
+    @Override
+    public QueueStatus getQueueStatus() {
+        long queued = jobRepository.countByStatus(TranscodeJob.Status.QUEUED);
+        int freeCores = getTotalCores() - usedCores(null);
+        boolean saturated = queued > 0 || !hasCapacityFor(TranscodeJob.Lane.SHORT);
+        return new QueueStatus(queued, maxQueuedJobs, freeCores, getTotalCores(), saturated, retryAfterSeconds);
+    }
+
+    /**
+     * Re-queues the jobs this node was running before it stopped, and any job whose
+     * lease ran out while no node was watching.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverInterruptedJobs() {
+        String owner = getNodeId();
+        int recovered = transactionTemplate.execute(status -> {
+            List<TranscodeJob> orphaned = jobRepository.lockRunningJobsOwnedBy(owner);
+            orphaned.forEach(this::requeueOrFail);
+            return orphaned.size();
+        });
+
+        if (recovered > 0) {
+            log.info("Recovered {} transcode jobs interrupted on node {}", recovered, owner);
+        }
+
+        requeueExpiredJobs();
+    }
+
+    /**
+     * Claims queued jobs while this node has cores to spare and starts converting them.
+     * The short lane is always tried first.
+     */
+    @Scheduled(fixedDelayString = "${video.conversion.jobs.poll-interval-ms:2000}")
+    public synchronized void dispatchQueuedJobs() {
+        while (hasCapacityFor(TranscodeJob.Lane.SHORT)) {
+            TranscodeJob job = claimNextJob(TranscodeJob.Lane.SHORT);
+            if (job == null && hasCapacityFor(TranscodeJob.Lane.LONG)) {
+                job = claimNextJob(TranscodeJob.Lane.LONG);
+            }
+            if (job == null) {
+                return;
+            }
+            startJob(job);
+        }
+    }
+
+    /**
+     * Extends the leases of the jobs running on this node.
+     */
+    @Scheduled(fixedDelayString = "${video.conversion.jobs.heartbeat-interval-ms:30000}")
+    public void heartbeat() {
+        if (runningJobs.isEmpty()) {
+            return;
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        int renewed = transactionTemplate.execute(status -> jobRepository.renewLeases(
+            runningJobs.keySet(), getNodeId(), now, now.plusSeconds(leaseSeconds)));
+
+        if (renewed < runningJobs.size()) {
+            log.warn("Renewed {} of {} transcode job leases; some jobs were taken over",
+                     renewed, runningJobs.size());
+        }
+    }
+
+    /**
+     * Re-queues jobs whose worker stopped heart-beating. An encrypted job whose key was
+     * held by another node cannot be taken over and is failed instead.
+     */
+    @Scheduled(fixedDelayString = "${video.conversion.jobs.lease-check-interval-ms:60000}")
+    public void requeueExpiredJobs() {
+        int expired = transactionTemplate.execute(status -> {
+            List<TranscodeJob> jobs = jobRepository.lockExpiredRunningJobs(LocalDateTime.now());
+            jobs.forEach(this::requeueOrFail);
+            return jobs.size();
+        });
+
+        if (expired > 0) {
+            log.warn("Re-queued {} transcode jobs with expired leases", expired);
+        }
+    }
+
+    private TranscodeJob claimNextJob(TranscodeJob.Lane lane) {
+        return transactionTemplate.execute(status -> jobRepository.lockNextQueuedJob(lane.name(), getNodeId())
+            .map(job -> {
+                LocalDateTime now = LocalDateTime.now();
+                job.setStatus(TranscodeJob.Status.RUNNING);
+                job.setAttempts(job.getAttempts() + 1);
+                job.setLeaseOwner(getNodeId());
+                job.setLeaseExpiresAt(now.plusSeconds(leaseSeconds));
+                job.setHeartbeatAt(now);
+                job.setStartedAt(now);
+                return jobRepository.save(job);
+            })
+            .orElse(null));
+    }
+
+    private void startJob(TranscodeJob job) {
+        Video video = videoRepository.findById(job.getVideoId()).orElse(null);
+        if (video == null) {
+            finishJob(job.getId(), new IllegalStateException("Video no longer exists: " + job.getVideoId()));
+            return;
+        }
+
+        String encryptionKey = encryptionKeys.get(job.getId());
+        if (video.isEncrypted() && encryptionKey == null) {
+            finishJob(job.getId(), new IllegalStateException("Encryption key not available for job " + job.getId()));
+            videoConversionService.abandonConversion(video, Paths.get(job.getSourcePath()),
+                "Encryption key is no longer available; upload the video again");
+            return;
+        }
+
+        runningJobs.put(job.getId(), job);
+        log.info("Starting transcode job {} (attempt {}) for video {}",
+                 job.getId(), job.getAttempts(), video.getId());
+
+        CompletableFuture<Void> conversion;
+        try {
+            conversion = videoConversionService.convertToHls(Paths.get(job.getSourcePath()), video, encryptionKey);
+        } catch (TaskRejectedException e) {
+            log.warn("Conversion pool is full, returning transcode job {} to the queue", job.getId());
+            releaseJob(job.getId());
+            return;
+        } catch (Exception e) {
+            conversion = CompletableFuture.failedFuture(e);
+        }
+
+        conversion.whenComplete((result, error) -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                ? error.getCause()
+                : error;
+            if (cause instanceof ConversionIncompleteException incomplete) {
+                retryIncompleteJob(job.getId(), incomplete);
+            } else {
+                finishJob(job.getId(), error);
+            }
+        });
+    }
+
+    private void finishJob(String jobId, Throwable error) {
+        runningJobs.remove(jobId);
+        encryptionKeys.remove(jobId);
+
+        Throwable cause = error instanceof CompletionException && error.getCause() != null
+            ? error.getCause()
+            : error;
+
+        transactionTemplate.executeWithoutResult(status -> jobRepository.findById(jobId).ifPresent(job -> {
+            job.setStatus(cause == null ? TranscodeJob.Status.COMPLETED : TranscodeJob.Status.FAILED);
+            job.setLastError(cause == null ? null : truncate(cause.getMessage()));
+            job.setLeaseOwner(null);
+            job.setLeaseExpiresAt(null);
+            job.setFinishedAt(LocalDateTime.now());
+            jobRepository.save(job);
+        }));
+
+        if (cause == null) {
+            log.info("Transcode job {} completed", jobId);
+        } else {
+            log.error("Transcode job {} failed: {}", jobId, cause.getMessage());
+        }
+    }
+
+    /**
+     * Queues another attempt at the renditions an incomplete conversion is missing. The
+     * source and the checkpoint were kept, so the retry only converts what failed, while
+     * the renditions that completed may already be live. Once the attempts run out, the
+     * conversion is given up.
+     */
+    private void retryIncompleteJob(String jobId, ConversionIncompleteException incomplete) {
+        runningJobs.remove(jobId);
+
+        TranscodeJob job = jobRepository.findById(jobId).orElse(null);
+        Video video = job == null ? null : videoRepository.findById(job.getVideoId()).orElse(null);
+        if (video == null || job.getAttempts() >= maxAttempts) {
+            finishJob(jobId, incomplete);
+            if (video != null) {
+                videoConversionService.abandonConversion(video, Paths.get(job.getSourcePath()), incomplete.getMessage());
+            }
+            return;
+        }
+
+        transactionTemplate.executeWithoutResult(status -> jobRepository.findById(jobId).ifPresent(queued -> {
+            queued.setStatus(TranscodeJob.Status.QUEUED);
+            queued.setLastError(truncate(incomplete.getMessage()));
+            queued.setLeaseOwner(null);
+            queued.setLeaseExpiresAt(null);
+            queued.setStartedAt(null);
+            jobRepository.save(queued);
+        }));
+
+        log.warn("Transcode job {} is missing {}, queued attempt {} of {}",
+                 jobId, incomplete.getMissingRenditions(), job.getAttempts() + 1, maxAttempts);
+
+        // A video that went live stays playable while the missing renditions are retried
+        if (video.getConversionStatus() != ConversionStatus.COMPLETED) {
+            progressService.transition(video, ConversionStatus.PENDING, null);
+        }
+    }
+
+    /**
+     * Returns a claimed job that never started to the queue without counting the attempt.
+     */
+    private void releaseJob(String jobId) {
+        runningJobs.remove(jobId);
+
+        transactionTemplate.executeWithoutResult(status -> jobRepository.findById(jobId).ifPresent(job -> {
+            job.setStatus(TranscodeJob.Status.QUEUED);
+            job.setAttempts(Math.max(0, job.getAttempts() - 1));
+            job.setLeaseOwner(null);
+            job.setLeaseExpiresAt(null);
+            job.setStartedAt(null);
+            jobRepository.save(job);
+        }));
+    }
+
+    private void markSourceUploaded(String jobId) {
+        transactionTemplate.executeWithoutResult(status -> jobRepository.findById(jobId).ifPresent(job -> {
+            job.setSourceUploading(false);
+            jobRepository.save(job);
+        }));
+    }
+
+    /**
+     * Returns a failed live job to the queue so the completed upload is converted from
+     * the file. The failed attempt is not counted.
+     */
+    private void requeueLiveJob(String jobId, Throwable error) {
+        runningJobs.remove(jobId);
+        log.warn("Live transcode job {} failed ({}), converting the finished upload instead",
+                 jobId, error.getMessage());
+
+        TranscodeJob job = jobRepository.findById(jobId).orElse(null);
+        Video video = job == null ? null : videoRepository.findById(job.getVideoId()).orElse(null);
+        if (video == null) {
+            finishJob(jobId, error);
+            return;
+        }
+
+        // The whole file is on disk now, so the lane can be picked from its real duration
+        Integer durationSeconds = analyzeSource(video, Paths.get(job.getSourcePath()), true);
+        transactionTemplate.executeWithoutResult(status -> jobRepository.findById(jobId).ifPresent(queued -> {
+            queued.setStatus(TranscodeJob.Status.QUEUED);
+            queued.setSourceUploading(false);
+            queued.setAttempts(0);
+            queued.setLane(laneFor(durationSeconds));
+            queued.setDurationSeconds(durationSeconds);
+            queued.setLeaseOwner(null);
+            queued.setLeaseExpiresAt(null);
+            queued.setStartedAt(null);
+            jobRepository.save(queued);
+        }));
+
+        videoConversionService.cleanupVideoFiles(video.getId());
+        progressService.transition(video, ConversionStatus.PENDING, null);
+    }
+
+    /**
+     * Puts an interrupted job back in the queue, or fails it when it cannot be retried.
+     * Runs inside the transaction that locked the job.
+     */
+    private void requeueOrFail(TranscodeJob job) {
+        Video video = videoRepository.findById(job.getVideoId()).orElse(null);
+        String reason = null;
+
+        if (video == null) {
+            reason = "Video no longer exists";
+        } else if (job.isSourceUploading()) {
+            reason = "Source upload was interrupted; upload the video again";
+        } else if (job.getAttempts() >= maxAttempts) {
+            reason = "Conversion was interrupted " + job.getAttempts() + " times";
+        } else if (!Files.exists(Paths.get(job.getSourcePath()))) {
+            reason = "Source file is no longer available; upload the video again";
+        } else if ((video.isEncrypted() || job.getRequiredNode() != null)
+                && !encryptionKeys.containsKey(job.getId())) {
+            reason = "Encryption key is no longer available; upload the video again";
+        }
+
+        job.setLeaseOwner(null);
+        job.setLeaseExpiresAt(null);
+
+        if (reason != null) {
+            log.warn("Failing interrupted transcode job {}: {}", job.getId(), reason);
+            job.setStatus(TranscodeJob.Status.FAILED);
+            job.setLastError(reason);
+            job.setFinishedAt(LocalDateTime.now());
+            jobRepository.save(job);
+            if (video != null && job.isSourceUploading()) {
+                // The upload may still be resumed into the same file
+                failVideo(video, reason);
+            } else if (video != null) {
+                videoConversionService.abandonConversion(video, Paths.get(job.getSourcePath()), reason);
+            }
+            return;
+        }
+
+        log.info("Re-queueing interrupted transcode job {} for video {}", job.getId(), video.getId());
+        job.setStatus(TranscodeJob.Status.QUEUED);
+        jobRepository.save(job);
+
+        // Output of the interrupted run is kept: the retry resumes from its checkpoint and
+        // overwrites whatever was not checkpointed. A video that went live stays playable.
+        if (video.getConversionStatus() != ConversionStatus.COMPLETED) {
+            progressService.transition(video, ConversionStatus.PENDING, null);
+        }
+    }
+
+    private void failVideo(Video video, String reason) {
+        progressService.transition(video, ConversionStatus.FAILED, reason);
+    }
+
+    /**
+     * Checks whether a job from the given lane fits in this node's remaining core budget.
+     */
+    private boolean hasCapacityFor(TranscodeJob.Lane lane) {
+        if (runningJobs.size() >= maxRunningJobs) {
+            return false;
+        }
+        int jobCores = getJobCores();
+        if (usedCores(null) + jobCores > getTotalCores()) {
+            return false;
+        }
+        return lane == TranscodeJob.Lane.SHORT
+            || usedCores(TranscodeJob.Lane.LONG) + jobCores <= getLongLaneMaxCores();
+    }
+
+    /**
+     * Cores reserved by running jobs, optionally restricted to one lane.
+     */
+    private int usedCores(TranscodeJob.Lane lane) {
+        long jobs = runningJobs.values().stream()
+            .filter(job -> lane == null || job.getLane() == lane)
+            .count();
+        return (int) jobs * getJobCores();
+    }
+
+    private int getTotalCores() {
+        return configuredTotalCores > 0 ? configuredTotalCores : Runtime.getRuntime().availableProcessors();
+    }
+
+    private int getJobCores() {
+        return Math.max(1, Math.min(coresPerJob, getTotalCores()));
+    }
+
+    private int getLongLaneMaxCores() {
+        if (configuredLongLaneMaxCores > 0) {
+            return Math.min(configuredLongLaneMaxCores, getTotalCores());
+        }
+        // Hold one job's worth of cores back for short clips, unless that would leave none
+        return Math.max(getJobCores(), getTotalCores() - getJobCores());
+    }
+
+    /**
+     * Analyzes a source and gets its duration in seconds for lane selection, falling back
+     * to the length recorded on the video. Returns null when neither is known. The analysis
+     * of a complete source is kept on the video for the conversion to reuse; the caller saves it.
+     */
+    private Integer analyzeSource(Video video, Path sourceFile, boolean complete) {
+        MediaInfo mediaInfo = null;
+        try {
+            mediaInfo = mediaProbeService.analyze(sourceFile);
+        } catch (IOException e) {
+            log.warn("Could not analyze the source of video {}: {}", video.getId(), e.getMessage());
+        }
+        if (complete) {
+            // A new source needs a new per-title ladder as well
+            video.setMediaInfo(mediaInfo);
+            video.setEncodingLadder(null);
+        }
+
+        int duration = mediaInfo != null ? (int) Math.round(mediaInfo.durationSeconds()) : 0;
+        if (duration > 0) {
+            return duration;
+        }
+        return video.getLength() != null && video.getLength() > 0 ? video.getLength() : null;
+    }
+
+    private TranscodeJob.Lane laneFor(Integer durationSeconds) {
+        return durationSeconds != null && durationSeconds <= shortClipSeconds
+            ? TranscodeJob.Lane.SHORT
+            : TranscodeJob.Lane.LONG;
+    }
+
+    private String getNodeId() {
+        if (nodeId == null) {
+            nodeId = configuredNodeId.isBlank() ? resolveHostName() : configuredNodeId;
+        }
+        return nodeId;
+    }
+
+    private String resolveHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            log.warn("Could not resolve host name for transcode node ID, using 'local'");
+            return "local";
+        }
+    }
+
+    private String truncate(String message) {
+        if (message == null || message.length() <= 2000) {
+            return message;
+        }
+        return message.substring(0, 2000);
+    }
+}
@@ -0,0 +1,295 @@
+package com.coraybennett.spillway.service.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import com.coraybennett.spillway.exception.ForbiddenException;
+import com.coraybennett.spillway.exception.ResourceNotFoundException;
+import com.coraybennett.spillway.exception.UnsupportedMediaException;
+import com.coraybennett.spillway.exception.VideoConversionException;
+import com.coraybennett.spillway.model.UploadSession;
+import com.coraybennett.spillway.model.User;
+import com.coraybennett.spillway.model.Video;
+import com.coraybennett.spillway.repository.UploadSessionRepository;
+import com.coraybennett.spillway.service.api.MediaProbeService;
+import com.coraybennett.spillway.service.api.MediaProbeService.ProbeResult;
+import com.coraybennett.spillway.service.api.StorageService;
+import com.coraybennett.spillway.service.api.UploadSessionService;
+import com.coraybennett.spillway.service.api.VideoService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Default implementation of UploadSessionService.
+ * Each session owns a sparse file of the declared length. Chunks are written straight
+ * into it with positional writes, so any number of chunks can be in flight at once, and
+ * the received ranges are merged under a row lock once each chunk is on disk.
+ */
+@Service
+@Slf4j
+public class DefaultUploadSessionService implements UploadSessionService {
+
+    private static final int CHUNK_BUFFER_SIZE = 256 * 1024;
+
+    private final UploadSessionRepository sessionRepository;
+    private final VideoService videoService;
+    private final StorageService storageService;
+    private final MediaProbeService mediaProbeService;
+    private final TransactionTemplate transactionTemplate;
+
+    // Sessions being handed to conversion, so a repeated completion cannot queue twice
+    private final Set<String> completing = ConcurrentHashMap.newKeySet();
+
+    @Value("${video.upload-temp-dir:temp/uploads}")
+    private String tempUploadDir;
+
+    @Value("${video.upload.max-stream-size:10GB}")
+    private DataSize maxUploadSize;
+
+    @Value("${video.upload.session-expiry-hours:24}")
+    private long sessionExpiryHours;
+
+    @Value("${video.upload.probe-enabled:true}")
+    private boolean probeEnabled;
+
+    @Value("${video.upload.probe-size:4MB}")
+    private DataSize probeSize;
+
+    @Autowired
+    public DefaultUploadSessionService(
+        UploadSessionRepository sessionRepository,
+        VideoService videoService,
+        StorageService storageService,
+        MediaProbeService mediaProbeService,
+        PlatformTransactionManager transactionManager
+    ) {
+        this.sessionRepository = sessionRepository;
+        this.videoService = videoService;
+        this.storageService = storageService;
+        this.mediaProbeService = mediaProbeService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Override
+    public UploadSession createSession(Video video, User user, String filename, long length) throws IOException {
+        if (length <= 0 || length > maxUploadSize.toBytes()) {
+            throw new IllegalArgumentException("Upload length must be between 1 and " + maxUploadSize.toBytes() + " bytes");
+        }
+
+        // The extension tells the converter the container format
+        int extensionStart = filename == null ? -1 : filename.lastIndexOf('.');
+        if (extensionStart < 0) {
+            throw new IllegalArgumentException("Filename must include the file extension: " + filename);
+        }
+
+        // The session ID is only assigned on insert and the path is required, so the
+        // file is named independently and created first
+        Path directory = Paths.get(tempUploadDir, "sessions");
+        Files.createDirectories(directory);
+        Path file = directory.resolve(UUID.randomUUID() + filename.substring(extensionStart).replaceAll("[^a-zA-Z0-9.]", ""));
+
+        // Writing the last byte sizes the file without allocating the blocks before it
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.SPARSE)) {
+            channel.write(ByteBuffer.allocate(1), length - 1);
+        } catch (IOException e) {
+            storageService.delete(file);
+            throw e;
+        }
+
+        UploadSession session = new UploadSession(video.getId(), user.getId(), filename, length);
+        session.setPath(file.toAbsolutePath().toString());
+        try {
+            session = sessionRepository.save(session);
+        } catch (RuntimeException e) {
+            storageService.delete(file);
+            throw e;
+        }
+
+        log.info("Created upload session {} for video {} ({} bytes)", session.getId(), video.getId(), length);
+        return session;
+    }
+
+    @Override
+    public UploadSession getSession(String sessionId, User user) {
+        UploadSession session = sessionRepository.findById(sessionId)
+            .orElseThrow(() -> new ResourceNotFoundException("Upload session", sessionId));
+
+        if (user == null || !session.getUserId().equals(user.getId())) {
+            throw new ForbiddenException("Upload session belongs to another user");
+        }
+        return session;
+    }
+
+    @Override
+    public UploadSession writeChunk(String sessionId, User user, long offset, InputStream chunk) throws IOException {
+        UploadSession session = getSession(sessionId, user);
+
+        if (session.getStatus() != UploadSession.Status.ACTIVE) {
+            throw new IllegalStateException("Upload session is already complete");
+        }
+        if (offset < 0 || offset >= session.getLength()) {
+            throw new IllegalArgumentException("Chunk offset " + offset + " is outside the upload");
+        }
+
+        byte[] buffer = new byte[CHUNK_BUFFER_SIZE];
+        ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+        long position = offset;
+
+        try (FileChannel channel = FileChannel.open(Paths.get(session.getPath()), StandardOpenOption.WRITE)) {
+            int read;
+            while ((read = chunk.read(buffer)) != -1) {
+                if (position + read > session.getLength()) {
+                    throw new IOException("Chunk runs past the declared upload length");
+                }
+
+                wrapped.clear().limit(read);
+                while (wrapped.hasRemaining()) {
+                    position += channel.write(wrapped, position);
+                }
+            }
+        } finally {
+            // Bytes that reached the file before a dropped connection still count, so
+            // the client only resends the rest
+            if (position > offset) {
+                session = recordRange(sessionId, offset, position);
+            }
+        }
+
+        if (needsProbe(session)) {
+            probeHead(session);
+        }
+
+        return session;
+    }
+
+    @Override
+    public UploadSession completeSession(String sessionId, User user, String encryptionKey)
+            throws VideoConversionException {
+        UploadSession session = getSession(sessionId, user);
+
+        if (session.getStatus() == UploadSession.Status.COMPLETED) {
+            return session;
+        }
+        if (!session.isComplete()) {
+            throw new VideoConversionException("Upload is incomplete: received " + session.getReceivedBytes()
+                + " of " + session.getLength() + " bytes");
+        }
+        if (!completing.add(sessionId)) {
+            throw new IllegalStateException("Upload session is already being completed");
+        }
+
+        try {
+            // The job takes ownership of the file; it stays in place if the job cannot be queued
+            videoService.convertStoredVideo(session.getVideoId(), Paths.get(session.getPath()), encryptionKey);
+
+            session.setStatus(UploadSession.Status.COMPLETED);
+            session = sessionRepository.save(session);
+            log.info("Upload session {} complete, queued video {} for conversion", sessionId, session.getVideoId());
+            return session;
+        } finally {
+            completing.remove(sessionId);
+        }
+    }
+
+    @Override
+    public void abortSession(String sessionId, User user) {
+        UploadSession session = getSession(sessionId, user);
+        deleteSession(session);
+        log.info("Aborted upload session {}", sessionId);
+    }
+
+    /**
+     * Removes sessions that have not received a chunk within the expiry period, and
+     * the records of completed sessions.
+     */
+    @Scheduled(fixedDelayString = "${video.upload.session-gc-interval-ms:3600000}")
+    public void collectAbandonedSessions() {
+        LocalDateTime cutoff = LocalDateTime.now().minusHours(sessionExpiryHours);
+
+        List<UploadSession> abandoned = sessionRepository.findByStatusAndUpdatedAtBefore(
+            UploadSession.Status.ACTIVE, cutoff);
+        abandoned.forEach(this::deleteSession);
+
+        List<UploadSession> completed = sessionRepository.findByStatusAndUpdatedAtBefore(
+            UploadSession.Status.COMPLETED, cutoff);
+        sessionRepository.deleteAll(completed);
+
+        if (!abandoned.isEmpty()) {
+            log.info("Removed {} abandoned upload sessions", abandoned.size());
+        }
+    }
+
+    /**
+     * Checks whether the leading bytes of the upload, or all of a short upload, have
+     * arrived without having been probed yet.
+     */
+    private boolean needsProbe(UploadSession session) {
+        return probeEnabled
+            && !session.isProbed()
+            && session.getUploadOffset() >= Math.min(probeSize.toBytes(), session.getLength());
+    }
+
+    /**
+     * Probes the head of the upload and removes the session if it cannot be decoded, so
+     * a bad file is rejected before the rest of it is sent.
+     */
+    private void probeHead(UploadSession session) throws UnsupportedMediaException {
+        ProbeResult probe = mediaProbeService.probeHead(Paths.get(session.getPath()), session.getUploadOffset());
+
+        if (probe.isUndecodable()) {
+            log.warn("Rejecting upload session {}: {}", session.getId(), probe.error());
+            deleteSession(session);
+            throw new UnsupportedMediaException("Upload is not a supported video: " + probe.error());
+        }
+
+        session.setProbed(true);
+        transactionTemplate.executeWithoutResult(status -> sessionRepository.findByIdForUpdate(session.getId())
+            .ifPresent(locked -> {
+                locked.setProbed(true);
+                sessionRepository.save(locked);
+            }));
+    }
+
+    private UploadSession recordRange(String sessionId, long start, long end) {
+        return transactionTemplate.execute(status -> {
+            UploadSession session = sessionRepository.findByIdForUpdate(sessionId)
+                .orElseThrow(() -> new ResourceNotFoundException("Upload session", sessionId));
+
+            ByteRanges ranges = ByteRanges.parse(session.getReceivedRanges());
+            ranges.add(start, end);
+
+            session.setReceivedRanges(ranges.toString());
+            session.setReceivedBytes(ranges.total());
+            session.setUploadOffset(ranges.contiguousEnd());
+            return sessionRepository.save(session);
+        });
+    }
+
+    private void deleteSession(UploadSession session) {
+        // Completed files belong to their conversion job
+        if (session.getStatus() == UploadSession.Status.ACTIVE && session.getPath() != null) {
+            storageService.delete(Paths.get(session.getPath()));
+        }
+        sessionRepository.delete(session);
+    }
+}
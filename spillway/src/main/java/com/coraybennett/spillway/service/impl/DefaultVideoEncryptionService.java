@@ -1,19 +1,36 @@
 package com.coraybennett.spillway.service.impl;
 
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.crypto.Cipher;
-import javax.crypto.CipherOutputStream;
 import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import com.coraybennett.spillway.service.api.VideoEncryptionService;
@@ -22,6 +39,16 @@ import lombok.extern.slf4j.Slf4j;
 
 /**
  * Default implementation of VideoEncryptionService using AES-GCM encryption.
+ * 
+ * Files are written in a framed format:
+ * <pre>
+ * header: "SPWF" | version (1 byte) | frame size (int) | plaintext length (long)
+ * frame:  nonce (12 bytes) | ciphertext (up to frame size) | tag (16 bytes)
+ * </pre>
+ * Every frame is authenticated together with the header and its own index, so frames
+ * cannot be reordered, dropped or moved between files. Files from before the framed
+ * format are a single nonce followed by one ciphertext and tag; they are still read,
+ * and can be rewritten with {@link #migrateFile(Path, String)}.
  */
 @Service
 @Slf4j
@@ -32,7 +59,34 @@ public class DefaultVideoEncryptionService implements VideoEncryptionService {
     private static final int KEY_SIZE = 256;
     private static final int GCM_IV_LENGTH = 12;
     private static final int GCM_TAG_LENGTH = 128;
-    private static final int BUFFER_SIZE = 8192;
+    private static final int GCM_TAG_BYTES = GCM_TAG_LENGTH / 8;
+    
+    private static final byte[] FRAMED_MAGIC = {'S', 'P', 'W', 'F'};
+    private static final byte FRAMED_VERSION = 1;
+    private static final int FRAMED_HEADER_LENGTH = FRAMED_MAGIC.length + 1 + Integer.BYTES + Long.BYTES;
+    private static final int FRAME_OVERHEAD = GCM_IV_LENGTH + GCM_TAG_BYTES;
+    
+    private static final String HLS_KEY_DERIVATION = "HmacSHA256";
+    private static final byte[] HLS_KEY_CONTEXT = "spillway-hls-aes-128".getBytes(StandardCharsets.US_ASCII);
+    private static final int HLS_KEY_LENGTH = 16;
+    
+    private final SecureRandom random = new SecureRandom();
+    
+    // Ciphers are re-initialised for every frame, so one instance serves any key; pooling
+    // them skips the provider lookup in Cipher.getInstance on every segment request
+    private final Queue<Cipher> cipherPool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledCiphers = new AtomicInteger();
+    
+    @Value("${video.encryption.cipher-pool-size:32}")
+    private int cipherPoolSize;
+    
+    // Plaintext bytes per frame; a Range request decrypts at most two partial frames
+    @Value("${video.encryption.frame-size:65536}")
+    private int frameSize;
+    
+    // Encryption runs on a small fixed pool, so each thread keeps its frame buffers
+    // instead of allocating them for every segment
+    private final ThreadLocal<FrameBuffers> frameBuffers = ThreadLocal.withInitial(() -> new FrameBuffers(frameSize));
     
     @Override
     public String generateEncryptionKey() {
@@ -49,33 +103,19 @@ public class DefaultVideoEncryptionService implements VideoEncryptionService {
     
     @Override
     public void encryptFile(Path inputPath, Path outputPath, String encryptionKey) throws Exception {
+        encryptFile(inputPath, outputPath, getSecretKey(encryptionKey));
+    }
+    
+    @Override
+    public void encryptFile(Path inputPath, Path outputPath, SecretKey secretKey) throws Exception {
         log.debug("Encrypting file from {} to {}", inputPath, outputPath);
         
-        SecretKey secretKey = getSecretKey(encryptionKey);
-        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
-        
-        byte[] iv = new byte[GCM_IV_LENGTH];
-        SecureRandom random = new SecureRandom();
-        random.nextBytes(iv);
-        
-        GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-        cipher.init(Cipher.ENCRYPT_MODE, secretKey, parameterSpec);
-        
         Files.createDirectories(outputPath.getParent());
         
-        try (FileInputStream fis = new FileInputStream(inputPath.toFile());
-             FileOutputStream fos = new FileOutputStream(outputPath.toFile())) {
-            
-            fos.write(iv);
-            
-            // Encrypt the file content
-            try (CipherOutputStream cos = new CipherOutputStream(fos, cipher)) {
-                byte[] buffer = new byte[BUFFER_SIZE];
-                int bytesRead;
-                while ((bytesRead = fis.read(buffer)) != -1) {
-                    cos.write(buffer, 0, bytesRead);
-                }
-            }
+        try (FileChannel in = FileChannel.open(inputPath, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(outputPath,
+                 StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFramed(in, in.size(), out, secretKey);
         }
         
         log.debug("File encrypted successfully");
@@ -87,21 +127,278 @@ public class DefaultVideoEncryptionService implements VideoEncryptionService {
         
         SecretKey secretKey = getSecretKey(encryptionKey);
         
-        byte[] encryptedData = Files.readAllBytes(inputPath);
+        try (FileChannel in = FileChannel.open(inputPath, StandardOpenOption.READ)) {
+            FramedHeader header = readHeader(in);
+            if (header == null) {
+                return decryptSingleFrame(in, secretKey);
+            }
+            
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) header.plaintextLength());
+            if (header.plaintextLength() > 0) {
+                decryptFrames(in, header, secretKey, 0, header.plaintextLength() - 1, out);
+            }
+            return out.toByteArray();
+        }
+    }
+    
+    @Override
+    public void decryptRange(Path inputPath, String encryptionKey, long start, long end, OutputStream out)
+            throws Exception {
+        decryptRange(inputPath, getSecretKey(encryptionKey), start, end, out);
+    }
+    
+    @Override
+    public void decryptRange(Path inputPath, SecretKey secretKey, long start, long end, OutputStream out)
+            throws Exception {
+        try (FileChannel in = FileChannel.open(inputPath, StandardOpenOption.READ)) {
+            decryptRange(in, secretKey, start, end, out);
+        }
+    }
+    
+    @Override
+    public void decryptRange(SeekableByteChannel in, SecretKey secretKey, long start, long end, OutputStream out)
+            throws Exception {
+        FramedHeader header = readHeader(in);
+        long length = header == null ? singleFramePlaintextLength(in.size()) : header.plaintextLength();
+        if (start < 0 || end < start || end >= length) {
+            throw new IllegalArgumentException("Range " + start + "-" + end + " is outside the plaintext");
+        }
         
-        // Extract IV from the beginning of the file
-        byte[] iv = new byte[GCM_IV_LENGTH];
-        System.arraycopy(encryptedData, 0, iv, 0, GCM_IV_LENGTH);
+        if (header == null) {
+            byte[] plaintext = decryptSingleFrame(in, secretKey);
+            out.write(plaintext, (int) start, (int) (end - start + 1));
+            return;
+        }
         
-        // Extract the actual encrypted content
-        byte[] cipherText = new byte[encryptedData.length - GCM_IV_LENGTH];
-        System.arraycopy(encryptedData, GCM_IV_LENGTH, cipherText, 0, cipherText.length);
+        decryptFrames(in, header, secretKey, start, end, out);
+    }
+    
+    @Override
+    public long getPlaintextLength(Path inputPath) throws Exception {
+        try (FileChannel in = FileChannel.open(inputPath, StandardOpenOption.READ)) {
+            return getPlaintextLength(in);
+        }
+    }
+    
+    @Override
+    public long getPlaintextLength(SeekableByteChannel in) throws Exception {
+        FramedHeader header = readHeader(in);
+        return header == null ? singleFramePlaintextLength(in.size()) : header.plaintextLength();
+    }
+    
+    @Override
+    public boolean isFramed(Path inputPath) throws Exception {
+        try (FileChannel in = FileChannel.open(inputPath, StandardOpenOption.READ)) {
+            return readHeader(in) != null;
+        }
+    }
+    
+    @Override
+    public boolean migrateFile(Path inputPath, String encryptionKey) throws Exception {
+        SecretKey secretKey = getSecretKey(encryptionKey);
+        Path migratedPath = inputPath.resolveSibling(inputPath.getFileName() + ".framed");
         
-        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
-        GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
-        cipher.init(Cipher.DECRYPT_MODE, secretKey, parameterSpec);
+        byte[] plaintext;
+        try (FileChannel in = FileChannel.open(inputPath, StandardOpenOption.READ)) {
+            if (readHeader(in) != null) {
+                return false;
+            }
+            plaintext = decryptSingleFrame(in, secretKey);
+        }
         
-        return cipher.doFinal(cipherText);
+        // The plaintext only exists in memory; the new file replaces the old in one step
+        try (ReadableByteChannel in = Channels.newChannel(new ByteArrayInputStream(plaintext));
+             FileChannel out = FileChannel.open(migratedPath,
+                 StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFramed(in, plaintext.length, out, secretKey);
+        } catch (Exception e) {
+            Files.deleteIfExists(migratedPath);
+            throw e;
+        }
+        
+        Files.move(migratedPath, inputPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.debug("Migrated {} to the framed format", inputPath);
+        return true;
+    }
+    
+    /**
+     * Writes the framed header and then one frame per frameSize bytes of input, reusing
+     * the same plaintext and frame buffers for every frame.
+     */
+    private void writeFramed(ReadableByteChannel in, long plaintextLength, WritableByteChannel out,
+            SecretKey secretKey) throws Exception {
+        FramedHeader header = new FramedHeader(frameSize, plaintextLength);
+        byte[] headerBytes = header.toBytes();
+        writeFully(out, ByteBuffer.wrap(headerBytes));
+        
+        Cipher cipher = borrowCipher();
+        FrameBuffers buffers = frameBuffers.get();
+        byte[] iv = buffers.iv;
+        byte[] plaintext = buffers.plaintext;
+        byte[] frame = buffers.frame;
+        
+        try {
+            for (long index = 0; index < header.frameCount(); index++) {
+                int length = header.frameLength(index);
+                readFully(in, ByteBuffer.wrap(plaintext, 0, length));
+                
+                random.nextBytes(iv);
+                System.arraycopy(iv, 0, frame, 0, GCM_IV_LENGTH);
+                cipher.init(Cipher.ENCRYPT_MODE, secretKey, new GCMParameterSpec(GCM_TAG_LENGTH, iv));
+                cipher.updateAAD(frameAad(headerBytes, index));
+                int encrypted = cipher.doFinal(plaintext, 0, length, frame, GCM_IV_LENGTH);
+                
+                writeFully(out, ByteBuffer.wrap(frame, 0, GCM_IV_LENGTH + encrypted));
+            }
+        } finally {
+            returnCipher(cipher);
+        }
+    }
+    
+    /**
+     * Decrypts the frames covering a plaintext range and writes the covered bytes.
+     */
+    private void decryptFrames(SeekableByteChannel in, FramedHeader header, SecretKey secretKey,
+            long start, long end, OutputStream out) throws Exception {
+        byte[] headerBytes = header.toBytes();
+        Cipher cipher = borrowCipher();
+        byte[] frame = new byte[header.frameSize() + FRAME_OVERHEAD];
+        byte[] plaintext = new byte[header.frameSize()];
+        
+        long firstFrame = start / header.frameSize();
+        long lastFrame = end / header.frameSize();
+        
+        try {
+            for (long index = firstFrame; index <= lastFrame; index++) {
+                int length = header.frameLength(index);
+                long offset = FRAMED_HEADER_LENGTH + index * (header.frameSize() + (long) FRAME_OVERHEAD);
+                readFully(in, ByteBuffer.wrap(frame, 0, length + FRAME_OVERHEAD), offset);
+                
+                cipher.init(Cipher.DECRYPT_MODE, secretKey,
+                            new GCMParameterSpec(GCM_TAG_LENGTH, frame, 0, GCM_IV_LENGTH));
+                cipher.updateAAD(frameAad(headerBytes, index));
+                int decrypted = cipher.doFinal(frame, GCM_IV_LENGTH, length + GCM_TAG_BYTES, plaintext, 0);
+                
+                long frameStart = index * header.frameSize();
+                int from = index == firstFrame ? (int) (start - frameStart) : 0;
+                int to = index == lastFrame ? (int) (end - frameStart) + 1 : decrypted;
+                out.write(plaintext, from, to - from);
+            }
+        } finally {
+            returnCipher(cipher);
+        }
+    }
+    
+    /**
+     * Decrypts a file in the single-frame format: a nonce, then one ciphertext and tag.
+     */
+    private byte[] decryptSingleFrame(SeekableByteChannel in, SecretKey secretKey) throws Exception {
+        long size = in.size();
+        if (size < GCM_IV_LENGTH + GCM_TAG_BYTES || size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid encrypted file");
+        }
+        
+        byte[] encryptedData = new byte[(int) size];
+        readFully(in, ByteBuffer.wrap(encryptedData), 0);
+        
+        // The nonce and ciphertext are read in place, without copying them out
+        Cipher cipher = borrowCipher();
+        try {
+            GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH, encryptedData, 0, GCM_IV_LENGTH);
+            cipher.init(Cipher.DECRYPT_MODE, secretKey, parameterSpec);
+            
+            return cipher.doFinal(encryptedData, GCM_IV_LENGTH, encryptedData.length - GCM_IV_LENGTH);
+        } finally {
+            returnCipher(cipher);
+        }
+    }
+    
+    private Cipher borrowCipher() throws Exception {
+        Cipher cipher = cipherPool.poll();
+        if (cipher == null) {
+            return Cipher.getInstance(TRANSFORMATION);
+        }
+        pooledCiphers.decrementAndGet();
+        return cipher;
+    }
+    
+    /**
+     * Puts a cipher back in the pool. Every use starts with init, so whatever state it was
+     * left in, including after a failed tag check, does not carry over.
+     */
+    private void returnCipher(Cipher cipher) {
+        if (pooledCiphers.incrementAndGet() <= cipherPoolSize) {
+            cipherPool.offer(cipher);
+        } else {
+            pooledCiphers.decrementAndGet();
+        }
+    }
+    
+    private long singleFramePlaintextLength(long fileSize) {
+        return Math.max(0, fileSize - GCM_IV_LENGTH - GCM_TAG_BYTES);
+    }
+    
+    /**
+     * Reads the framed header, or returns null for a single-frame file. A single-frame
+     * file starts with a random nonce, so the file size must also match the header.
+     */
+    private FramedHeader readHeader(SeekableByteChannel in) throws IOException {
+        long size = in.size();
+        if (size < FRAMED_HEADER_LENGTH) {
+            return null;
+        }
+        
+        ByteBuffer buffer = ByteBuffer.allocate(FRAMED_HEADER_LENGTH);
+        readFully(in, buffer, 0);
+        buffer.flip();
+        
+        byte[] magic = new byte[FRAMED_MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, FRAMED_MAGIC) || buffer.get() != FRAMED_VERSION) {
+            return null;
+        }
+        
+        int headerFrameSize = buffer.getInt();
+        long plaintextLength = buffer.getLong();
+        if (headerFrameSize <= 0 || plaintextLength < 0) {
+            return null;
+        }
+        
+        FramedHeader header = new FramedHeader(headerFrameSize, plaintextLength);
+        return header.encryptedLength() == size ? header : null;
+    }
+    
+    /**
+     * Additional authenticated data for a frame: the file header and the frame index.
+     */
+    private byte[] frameAad(byte[] headerBytes, long index) {
+        return ByteBuffer.allocate(headerBytes.length + Long.BYTES)
+            .put(headerBytes)
+            .putLong(index)
+            .array();
+    }
+    
+    private void readFully(ReadableByteChannel in, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) == -1) {
+                throw new EOFException("Unexpected end of input");
+            }
+        }
+    }
+    
+    private void readFully(SeekableByteChannel in, ByteBuffer buffer, long position) throws IOException {
+        in.position(position);
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) == -1) {
+                throw new EOFException("Encrypted file is truncated");
+            }
+        }
+    }
+    
+    private void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
     }
     
     @Override
@@ -111,7 +408,6 @@ public class DefaultVideoEncryptionService implements VideoEncryptionService {
         
         // Generate random IV
         byte[] iv = new byte[GCM_IV_LENGTH];
-        SecureRandom random = new SecureRandom();
         random.nextBytes(iv);
         
         GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
@@ -150,6 +446,19 @@ public class DefaultVideoEncryptionService implements VideoEncryptionService {
         return cipher.doFinal(cipherText);
     }
     
+    @Override
+    public byte[] deriveHlsKey(String encryptionKey) throws Exception {
+        return deriveHlsKey(getSecretKey(encryptionKey));
+    }
+    
+    @Override
+    public byte[] deriveHlsKey(SecretKey secretKey) throws Exception {
+        Mac mac = Mac.getInstance(HLS_KEY_DERIVATION);
+        mac.init(new SecretKeySpec(secretKey.getEncoded(), HLS_KEY_DERIVATION));
+        byte[] derived = mac.doFinal(HLS_KEY_CONTEXT);
+        return Arrays.copyOf(derived, HLS_KEY_LENGTH);
+    }
+    
     @Override
     public boolean isValidKey(String encryptionKey) {
         if (encryptionKey == null || encryptionKey.trim().isEmpty()) {
@@ -174,4 +483,45 @@ public class DefaultVideoEncryptionService implements VideoEncryptionService {
         byte[] keyBytes = Base64.getDecoder().decode(encryptionKey);
         return new SecretKeySpec(keyBytes, 0, keyBytes.length, ALGORITHM);
     }
-}
\ No newline at end of file
+    
+    /**
+     * Per-thread buffers for writing frames.
+     */
+    private static class FrameBuffers {
+        final byte[] iv = new byte[GCM_IV_LENGTH];
+        final byte[] plaintext;
+        final byte[] frame;
+        
+        FrameBuffers(int frameSize) {
+            this.plaintext = new byte[frameSize];
+            this.frame = new byte[frameSize + FRAME_OVERHEAD];
+        }
+    }
+    
+    /**
+     * Header of a framed file.
+     */
+    private record FramedHeader(int frameSize, long plaintextLength) {
+        
+        long frameCount() {
+            return (plaintextLength + frameSize - 1) / frameSize;
+        }
+        
+        int frameLength(long index) {
+            return (int) Math.min(frameSize, plaintextLength - index * frameSize);
+        }
+        
+        long encryptedLength() {
+            return FRAMED_HEADER_LENGTH + frameCount() * FRAME_OVERHEAD + plaintextLength;
+        }
+        
+        byte[] toBytes() {
+            return ByteBuffer.allocate(FRAMED_HEADER_LENGTH)
+                .put(FRAMED_MAGIC)
+                .put(FRAMED_VERSION)
+                .putInt(frameSize)
+                .putLong(plaintextLength)
+                .array();
+        }
+    }
+}
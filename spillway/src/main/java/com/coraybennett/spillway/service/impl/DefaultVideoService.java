@@ -1,7 +1,12 @@
 package com.coraybennett.spillway.service.impl;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.MessageDigest;
 import java.util.Base64;
 import java.util.List;
@@ -11,19 +16,30 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 
 import com.coraybennett.spillway.dto.VideoResponse;
 import com.coraybennett.spillway.dto.VideoUploadRequest;
+import com.coraybennett.spillway.exception.TranscodeQueueFullException;
+import com.coraybennett.spillway.exception.UnsupportedMediaException;
 import com.coraybennett.spillway.exception.VideoConversionException;
 import com.coraybennett.spillway.model.ConversionStatus;
+import com.coraybennett.spillway.model.EncryptionMode;
 import com.coraybennett.spillway.model.Playlist;
 import com.coraybennett.spillway.model.User;
 import com.coraybennett.spillway.model.Video;
 import com.coraybennett.spillway.repository.PlaylistRepository;
 import com.coraybennett.spillway.repository.VideoRepository;
+import com.coraybennett.spillway.service.api.ConversionProgressService;
+import com.coraybennett.spillway.service.api.MediaProbeService;
+import com.coraybennett.spillway.service.api.MediaProbeService.ProbeResult;
+import com.coraybennett.spillway.service.api.SegmentCacheService;
 import com.coraybennett.spillway.service.api.StorageService;
+import com.coraybennett.spillway.service.api.StorageService.StoredFile;
+import com.coraybennett.spillway.service.api.TranscodeJobService;
 import com.coraybennett.spillway.service.api.VideoConversionService;
+import com.coraybennett.spillway.service.api.VideoEncryptionService;
 import com.coraybennett.spillway.service.api.VideoService;
 
 import lombok.extern.slf4j.Slf4j;
@@ -39,6 +55,11 @@ public class DefaultVideoService implements VideoService {
     private final VideoRepository videoRepository;
     private final PlaylistRepository playlistRepository;
     private final StorageService storageService;
+    private final TranscodeJobService transcodeJobService;
+    private final ConversionProgressService progressService;
+    private final MediaProbeService mediaProbeService;
+    private final VideoEncryptionService encryptionService;
+    private final SegmentCacheService segmentCache;
     
     @Value("${server.base-url:http://localhost:8081}")
     private String baseUrl;
@@ -46,17 +67,44 @@ public class DefaultVideoService implements VideoService {
     @Value("${video.upload-temp-dir:temp/uploads}")
     private String tempUploadDir;
 
+    @Value("${video.upload.max-stream-size:10GB}")
+    private DataSize maxStreamUploadSize;
+
+    @Value("${video.upload.live-transcode:false}")
+    private boolean liveTranscodeEnabled;
+
+    // Bytes to receive before the container is checked and a live conversion is tried
+    @Value("${video.upload.live-transcode-start-size:4MB}")
+    private DataSize liveTranscodeStartSize;
+
+    @Value("${video.upload.probe-enabled:true}")
+    private boolean probeEnabled;
+
+    // Bytes to receive before the head of the upload is probed
+    @Value("${video.upload.probe-size:4MB}")
+    private DataSize probeSize;
+
     @Autowired
     public DefaultVideoService(
         EncryptedVideoConversionService videoConversionService, 
         VideoRepository videoRepository, 
         PlaylistRepository playlistRepository,
-        StorageService storageService
+        StorageService storageService,
+        TranscodeJobService transcodeJobService,
+        ConversionProgressService progressService,
+        MediaProbeService mediaProbeService,
+        VideoEncryptionService encryptionService,
+        SegmentCacheService segmentCache
     ) {
         this.videoConversionService = videoConversionService;
         this.videoRepository = videoRepository;
         this.playlistRepository = playlistRepository;
         this.storageService = storageService;
+        this.transcodeJobService = transcodeJobService;
+        this.progressService = progressService;
+        this.mediaProbeService = mediaProbeService;
+        this.encryptionService = encryptionService;
+        this.segmentCache = segmentCache;
     }
 
     @Override
@@ -79,6 +127,9 @@ public class DefaultVideoService implements VideoService {
         if (metadata.isEncrypted()) {
             video.setEncrypted(true);
             video.setEncryptionKeyHash(hashEncryptionKey(metadata.getEncryptionKey()));
+            video.setEncryptionMode(metadata.getEncryptionMode() != null
+                ? metadata.getEncryptionMode()
+                : EncryptionMode.SERVER_SIDE);
             log.info("Video will be encrypted during processing");
         }
         
@@ -110,32 +161,159 @@ public class DefaultVideoService implements VideoService {
         Video video = videoRepository.findById(videoId)
                 .orElseThrow(() -> new VideoConversionException("Video not found: " + videoId));
         
+        Path tempFilePath = null;
         try {
-            Path tempFilePath = storageService.store(videoFile, tempUploadDir);
+            tempFilePath = storageService.store(videoFile, tempUploadDir);
             log.debug("Video file temporarily stored at: {}", tempFilePath);
             
-            video.setConversionStatus(ConversionStatus.IN_PROGRESS);
-            videoRepository.save(video);
-            
             if (video.isEncrypted()) {
                 if (encryptionKey == null) {
                     throw new VideoConversionException("Encryption key not found for encrypted video");
                 }
             }
             
-            videoConversionService.convertToHls(tempFilePath, video, encryptionKey);
+            // The video stays PENDING until a worker claims the job
+            progressService.transition(video, ConversionStatus.PENDING, null);
             
-            log.info("Video conversion initiated for video ID: {}", videoId);
+            transcodeJobService.enqueue(video, tempFilePath, encryptionKey);
             
+            log.info("Video conversion queued for video ID: {}", videoId);
+            
+        } catch (TranscodeQueueFullException e) {
+            // Not a conversion failure: the upload is dropped and the client retries later
+            log.warn("Transcode queue full, rejecting upload for video {}", videoId);
+            storageService.delete(tempFilePath);
+            throw e;
         } catch (Exception e) {
             log.error("Failed to upload/convert video {}: {}", videoId, e.getMessage(), e);
-            video.setConversionStatus(ConversionStatus.FAILED);
-            video.setConversionError(e.getMessage());
-            videoRepository.save(video);
+            progressService.transition(video, ConversionStatus.FAILED, e.getMessage());
             throw new VideoConversionException("Video conversion failed: " + e.getMessage(), e);
         }
     }
 
+    @Override
+    public StoredFile streamAndConvertVideo(String videoId, InputStream body, String filename, long expectedLength,
+            String expectedSha256, String encryptionKey) throws VideoConversionException {
+        log.info("Starting streamed video upload for video ID: {}", videoId);
+        
+        Video video = videoRepository.findById(videoId)
+                .orElseThrow(() -> new VideoConversionException("Video not found: " + videoId));
+        
+        // The extension tells the converter the container format
+        int extensionStart = filename == null ? -1 : filename.lastIndexOf('.');
+        if (extensionStart < 0) {
+            throw new VideoConversionException("Filename must include the file extension: " + filename);
+        }
+        if (video.isEncrypted() && encryptionKey == null) {
+            throw new VideoConversionException("Encryption key not found for encrypted video");
+        }
+        
+        // Named after the video so concurrent uploads of same-named files cannot collide
+        String storedName = videoId + filename.substring(extensionStart);
+        
+        StreamedUploadListener live = new StreamedUploadListener(video, encryptionKey);
+        StoredFile stored;
+        try {
+            stored = storageService.storeWithDigest(body, storedName, tempUploadDir, maxStreamUploadSize.toBytes(),
+                probeEnabled || liveTranscodeEnabled ? live : StorageService.WriteListener.NONE);
+        } catch (UnsupportedMediaException e) {
+            live.abort();
+            log.warn("Rejected streamed upload for video {}: {}", videoId, e.getMessage());
+            throw new VideoConversionException(e.getMessage(), e);
+        } catch (IOException e) {
+            live.abort();
+            log.error("Failed to store streamed upload for video {}: {}", videoId, e.getMessage());
+            throw new VideoConversionException("Upload failed: " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            live.abort();
+            throw e;
+        }
+        
+        String problem = null;
+        if (stored.size() == 0) {
+            problem = "Upload is empty";
+        } else if (expectedLength >= 0 && stored.size() != expectedLength) {
+            problem = "Upload is incomplete: received " + stored.size() + " of " + expectedLength + " bytes";
+        } else if (expectedSha256 != null && !expectedSha256.equalsIgnoreCase(stored.sha256())) {
+            problem = "Upload checksum mismatch";
+        }
+        
+        if (problem != null) {
+            live.abort();
+            storageService.delete(stored.path());
+            throw new VideoConversionException(problem);
+        }
+        
+        if (live.complete()) {
+            log.info("Streamed upload finished while converting for video ID: {} ({} bytes)", videoId, stored.size());
+            return stored;
+        }
+        
+        try {
+            queueStoredVideo(video, stored.path(), encryptionKey);
+        } catch (TranscodeQueueFullException e) {
+            log.warn("Transcode queue full, rejecting streamed upload for video {}", videoId);
+            storageService.delete(stored.path());
+            throw e;
+        }
+        
+        log.info("Streamed upload queued for conversion for video ID: {} ({} bytes)", videoId, stored.size());
+        return stored;
+    }
+
+    @Override
+    public void convertStoredVideo(String videoId, Path sourceFile, String encryptionKey)
+            throws VideoConversionException {
+        Video video = videoRepository.findById(videoId)
+                .orElseThrow(() -> new VideoConversionException("Video not found: " + videoId));
+        
+        if (video.isEncrypted() && encryptionKey == null) {
+            throw new VideoConversionException("Encryption key not found for encrypted video");
+        }
+        
+        queueStoredVideo(video, sourceFile, encryptionKey);
+        log.info("Stored upload queued for conversion for video ID: {}", videoId);
+    }
+
+    @Override
+    public int migrateEncryptedSegments(Video video, String encryptionKey) throws VideoConversionException {
+        if (!video.isEncrypted()) {
+            throw new VideoConversionException("Video is not encrypted: " + video.getId());
+        }
+        if (video.usesHlsEncryption()) {
+            throw new VideoConversionException("Video uses HLS AES-128 segments, which are not framed: " + video.getId());
+        }
+        
+        Path videoDirectory = Paths.get(videoConversionService.getOutputDirectory().toString(), video.getId());
+        int migrated = 0;
+        
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(videoDirectory, "*.ts")) {
+            for (Path segment : segments) {
+                if (encryptionService.migrateFile(segment, encryptionKey)) {
+                    migrated++;
+                }
+            }
+        } catch (Exception e) {
+            log.error("Failed to migrate segments of video {} after {} segments: {}", 
+                      video.getId(), migrated, e.getMessage());
+            throw new VideoConversionException("Segment migration failed: " + e.getMessage(), e);
+        } finally {
+            segmentCache.invalidateVideo(video.getId());
+        }
+        
+        log.info("Migrated {} segments of video {} to the framed format", migrated, video.getId());
+        return migrated;
+    }
+
+    /**
+     * Resets the video to PENDING and queues its stored source file for conversion.
+     */
+    private void queueStoredVideo(Video video, Path sourceFile, String encryptionKey)
+            throws TranscodeQueueFullException {
+        progressService.transition(video, ConversionStatus.PENDING, null);
+        transcodeJobService.enqueue(video, sourceFile, encryptionKey);
+    }
+
     @Override
     @Transactional(readOnly = true)
     public Optional<Video> getVideoById(String id) {
@@ -144,10 +322,16 @@ public class DefaultVideoService implements VideoService {
     }
 
     @Override
-    @Transactional(readOnly = true)
     public ConversionProgress getConversionProgress(String id) {
         log.debug("Checking conversion progress for video ID: {}", id);
         
+        // Conversions running on this node are answered without touching the database;
+        // queued and finished videos may be claimed or converted again by any node
+        Optional<ConversionProgress> tracked = progressService.getProgress(id);
+        if (tracked.isPresent()) {
+            return tracked.get();
+        }
+        
         Optional<Video> videoOpt = videoRepository.findById(id);
         if (videoOpt.isEmpty()) {
             log.warn("Video not found for progress check: {}", id);
@@ -190,6 +374,83 @@ public class DefaultVideoService implements VideoService {
         return videoConversionService;
     }
     
+    /**
+     * Write listener for streamed uploads, run on the upload thread. Once the first
+     * megabytes have arrived it probes them and stops uploads that cannot be decoded,
+     * then starts converting the upload while it arrives, if the container can be decoded
+     * from the front and the transcode scheduler has cores free.
+     */
+    private class StreamedUploadListener implements StorageService.WriteListener {
+        private final Video video;
+        private final String encryptionKey;
+        private GrowingFileUpload upload;
+        private boolean probed;
+        private boolean checked;
+
+        StreamedUploadListener(Video video, String encryptionKey) {
+            this.video = video;
+            this.encryptionKey = encryptionKey;
+        }
+
+        @Override
+        public void onWritten(Path path, long written) throws IOException {
+            if (upload != null) {
+                upload.advance(written);
+                return;
+            }
+
+            if (probeEnabled && !probed) {
+                if (written < probeSize.toBytes()) {
+                    return;
+                }
+                probed = true;
+                rejectUndecodable(path, written);
+            }
+
+            if (!liveTranscodeEnabled || checked || written < liveTranscodeStartSize.toBytes()) {
+                return;
+            }
+
+            checked = true;
+            if (!StreamableContainers.isStreamable(path, written)) {
+                log.info("Container of video {} needs the whole file, converting after upload", video.getId());
+                return;
+            }
+
+            GrowingFileUpload candidate = new GrowingFileUpload(path);
+            candidate.advance(written);
+            if (transcodeJobService.startLive(video, candidate, encryptionKey) != null) {
+                upload = candidate;
+            }
+        }
+
+        /**
+         * @return true if a live conversion was running and now has the whole file
+         */
+        boolean complete() {
+            if (upload == null) {
+                return false;
+            }
+            upload.complete();
+            return true;
+        }
+
+        void abort() {
+            if (upload != null) {
+                upload.abort();
+            }
+        }
+
+        private void rejectUndecodable(Path path, long written) throws UnsupportedMediaException {
+            ProbeResult probe = mediaProbeService.probeHead(path, written);
+            if (probe.isUndecodable()) {
+                throw new UnsupportedMediaException("Upload is not a supported video: " + probe.error());
+            }
+            log.info("Probed upload for video {}: {} ({}/{}, {})", video.getId(), probe.verdict(),
+                     probe.videoCodec(), probe.audioCodec(), probe.formatName());
+        }
+    }
+
     /**
      * Hashes an encryption key using SHA-256 for storage.
      * We never store the actual encryption key in the database.
@@ -29,6 +29,7 @@ import com.coraybennett.spillway.exception.VideoConversionException;
 import com.coraybennett.spillway.model.ConversionStatus;
 import com.coraybennett.spillway.model.Video;
 import com.coraybennett.spillway.repository.VideoRepository;
+import com.coraybennett.spillway.service.api.LiveUpload;
 import com.coraybennett.spillway.service.api.StorageService;
 import com.coraybennett.spillway.service.api.VideoEncryptionService;
 
@@ -69,6 +70,13 @@ public class EncryptedFFmpegVideoConversionService implements EncryptedVideoConv
         return convertToHls(sourceFile, video, null);
     }
 
+    @Override
+    public CompletableFuture<Void> convertToHls(LiveUpload upload, Video video, String encryptionKey) {
+        // This converter always reads a complete file; the caller converts once the upload ends
+        return CompletableFuture.failedFuture(
+            new VideoConversionException("Live conversion is not supported by this converter"));
+    }
+
     @Override
     @Async("videoConversionExecutor")
     public CompletableFuture<Void> convertToHls(Path sourceFile, Video video, String encryptionKey) {
@@ -218,6 +226,16 @@ public class EncryptedFFmpegVideoConversionService implements EncryptedVideoConv
         }
     }
 
+    @Override
+    public void abandonConversion(Video video, Path sourceFile, String reason) {
+        // This converter keeps no partial output, so there is nothing to go live with
+        storageService.delete(sourceFile);
+        cleanupVideoFiles(video.getId());
+        video.setConversionStatus(ConversionStatus.FAILED);
+        video.setConversionError(reason);
+        videoRepository.save(video);
+    }
+
     @Override
     public boolean cancelConversion(String videoId) {
         Process process = activeConversions.get(videoId);
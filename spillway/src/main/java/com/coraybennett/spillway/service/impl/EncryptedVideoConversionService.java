@@ -4,6 +4,7 @@ import java.nio.file.Path;
 import java.util.concurrent.CompletableFuture;
 
 import com.coraybennett.spillway.model.Video;
+import com.coraybennett.spillway.service.api.LiveUpload;
 import com.coraybennett.spillway.service.api.VideoConversionService;
 
 /**
@@ -20,4 +21,28 @@ public interface EncryptedVideoConversionService extends VideoConversionService
      * @return CompletableFuture that completes when the conversion is done
      */
     CompletableFuture<Void> convertToHls(Path sourceFile, Video video, String encryptionKey);
-}
\ No newline at end of file
+
+    /**
+     * Converts a video to HLS while its source is still being uploaded, reading the
+     * growing file from the front. The returned future fails without marking the video
+     * FAILED and without deleting the source, so the caller can fall back to a normal
+     * conversion once the upload has finished.
+     * 
+     * @param upload The source upload in progress
+     * @param video The Video entity associated with this file
+     * @param encryptionKey The encryption key to use (null for unencrypted videos)
+     * @return CompletableFuture that completes when the conversion is done
+     */
+    CompletableFuture<Void> convertToHls(LiveUpload upload, Video video, String encryptionKey);
+
+    /**
+     * Gives up on a conversion that failed with a ConversionIncompleteException and will not
+     * be retried. The retained source file is deleted. A video that went live with some
+     * renditions keeps them; any other video has its output deleted and is marked FAILED.
+     * 
+     * @param video The Video entity associated with the conversion
+     * @param sourceFile The retained source file
+     * @param reason Why the conversion is given up
+     */
+    void abandonConversion(Video video, Path sourceFile, String reason);
+}
@@ -0,0 +1,451 @@
+package com.coraybennett.spillway.service.impl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import com.coraybennett.spillway.model.MediaInfo;
+import com.coraybennett.spillway.service.api.MediaProbeService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * MediaProbeService that runs ffprobe. Head probes pipe in only the leading bytes, so
+ * ffprobe never reads past what has been received; analyses read the file directly.
+ */
+@Service
+@Slf4j
+public class FFprobeMediaProbeService implements MediaProbeService {
+
+    private static final int PROBE_TIMEOUT_SECONDS = 15;
+    private static final int PACKET_SCAN_TIMEOUT_MINUTES = 10;
+    private static final int MAX_ERROR_BYTES = 4096;
+
+    // Fallbacks when the frame rate is unknown, and for timestamp rounding
+    private static final double DEFAULT_FRAME_INTERVAL = 1.0 / 24;
+    private static final double TIMESTAMP_TOLERANCE = 0.001;
+
+    private final ObjectMapper objectMapper;
+
+    @Value("${video.upload.probe-size:4MB}")
+    private DataSize probeSize;
+
+    @Autowired
+    public FFprobeMediaProbeService(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public ProbeResult probeHead(Path file, long available) {
+        if (StreamableContainers.requiresTail(file, available)) {
+            return ProbeResult.inconclusive("Stream index is at the end of the file");
+        }
+
+        long length = Math.min(available, probeSize.toBytes());
+
+        try {
+            List<String> command = new ArrayList<>();
+            command.add("ffprobe");
+            command.add("-v");
+            command.add("error");
+            command.add("-show_entries");
+            command.add("format=format_name:stream=codec_type,codec_name");
+            command.add("-of");
+            command.add("compact");
+            command.add("-i");
+            command.add("pipe:0");
+
+            ProbeOutput output;
+            try (FfprobeRun run = runFfprobe(command, file, length, PROBE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                if (run.timedOut()) {
+                    log.warn("ffprobe timed out probing {}", file.getFileName());
+                    return ProbeResult.inconclusive("Probe timed out");
+                }
+                try (InputStream in = Files.newInputStream(run.output())) {
+                    output = readOutput(in);
+                }
+                for (String line : run.errors().split("\n")) {
+                    if (!line.isBlank()) {
+                        output.errors.add(line.trim());
+                    }
+                }
+            }
+
+            if (output.videoCodec == null) {
+                String error = output.errors.isEmpty()
+                    ? "No video stream found"
+                    : String.join("; ", output.errors);
+                return new ProbeResult(Verdict.UNDECODABLE, output.formatName, null, output.audioCodec, error);
+            }
+
+            return new ProbeResult(Verdict.DECODABLE, output.formatName, output.videoCodec, output.audioCodec, null);
+        } catch (IOException e) {
+            // ffprobe missing or failing to start is a server problem, not a bad upload
+            log.warn("Could not probe {}: {}", file.getFileName(), e.getMessage());
+            return ProbeResult.inconclusive(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ProbeResult.inconclusive("Probe interrupted");
+        }
+    }
+
+    @Override
+    public MediaInfo analyze(Path file) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add("ffprobe");
+        command.add("-v");
+        command.add("error");
+        command.add("-print_format");
+        command.add("json");
+        command.add("-show_streams");
+        command.add("-show_format");
+        command.add(file.toString());
+
+        try (FfprobeRun run = runFfprobe(command, PROBE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            if (run.timedOut()) {
+                throw new IOException("ffprobe timed out analyzing " + file.getFileName());
+            }
+            if (run.exitCode() != 0) {
+                throw new IOException("ffprobe failed on " + file.getFileName()
+                    + (run.errors().isEmpty() ? "" : ": " + run.errors()));
+            }
+
+            MediaInfo mediaInfo = parseAnalysis(objectMapper.readTree(run.output().toFile()));
+            log.debug("Analyzed {}: {}", file.getFileName(), mediaInfo);
+            return mediaInfo;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted analyzing " + file.getFileName(), e);
+        }
+    }
+
+    @Override
+    public SegmentProfile profileSegments(Path file, int segmentDuration, double frameRate) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add("ffprobe");
+        command.add("-v");
+        command.add("error");
+        command.add("-select_streams");
+        command.add("V:0");
+        command.add("-show_entries");
+        command.add("packet=pts_time,size,flags");
+        command.add("-of");
+        command.add("csv=p=0");
+        command.add(file.toString());
+
+        try (FfprobeRun run = runFfprobe(command, PACKET_SCAN_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+            if (run.timedOut()) {
+                throw new IOException("ffprobe timed out reading the packets of " + file.getFileName());
+            }
+
+            List<Double> keyframes = new ArrayList<>();
+            Map<Long, Long> segmentBytes = new HashMap<>();
+            double start = Double.MAX_VALUE;
+
+            // Packets come in decode order, one "pts_time,size,flags" line each
+            List<double[]> packets = new ArrayList<>();
+            try (BufferedReader reader = Files.newBufferedReader(run.output(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split(",");
+                    if (fields.length < 3) {
+                        continue;
+                    }
+                    try {
+                        double pts = Double.parseDouble(fields[0]);
+                        long size = Long.parseLong(fields[1]);
+                        packets.add(new double[] { pts, size });
+                        start = Math.min(start, pts);
+                        if (fields[2].startsWith("K")) {
+                            keyframes.add(pts);
+                        }
+                    } catch (NumberFormatException e) {
+                        // Packets without a timestamp cannot be placed in a segment
+                    }
+                }
+            }
+
+            if (run.exitCode() != 0 || packets.isEmpty()) {
+                throw new IOException("ffprobe could not read the packets of " + file.getFileName());
+            }
+
+            long lastSegment = 0;
+            for (double[] packet : packets) {
+                long segment = (long) Math.floor((packet[0] - start + TIMESTAMP_TOLERANCE) / segmentDuration);
+                segmentBytes.merge(segment, (long) packet[1], Long::sum);
+                lastSegment = Math.max(lastSegment, segment);
+            }
+
+            long peakBytes = segmentBytes.values().stream().mapToLong(Long::longValue).max().orElse(0);
+            long peakVideoBitRate = peakBytes * 8 / segmentDuration;
+
+            // Every segment after the first has to start on a keyframe at its grid point
+            double frameInterval = frameRate > 0 ? 1 / frameRate : DEFAULT_FRAME_INTERVAL;
+            List<Double> offsets = new ArrayList<>();
+            for (double keyframe : keyframes) {
+                offsets.add(keyframe - start);
+            }
+            offsets.sort(null);
+            boolean keyframesOnGrid = true;
+            int next = 0;
+            for (long segment = 1; segment <= lastSegment && keyframesOnGrid; segment++) {
+                double boundary = (double) segment * segmentDuration;
+                while (next < offsets.size() && offsets.get(next) < boundary - TIMESTAMP_TOLERANCE) {
+                    next++;
+                }
+                keyframesOnGrid = next < offsets.size() && offsets.get(next) < boundary + frameInterval - TIMESTAMP_TOLERANCE;
+            }
+
+            SegmentProfile profile = new SegmentProfile(keyframesOnGrid, peakVideoBitRate);
+            log.debug("Profiled segments of {}: {}", file.getFileName(), profile);
+            return profile;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted profiling " + file.getFileName(), e);
+        }
+    }
+
+    private FfprobeRun runFfprobe(List<String> command, long timeout, TimeUnit unit)
+            throws IOException, InterruptedException {
+        return runFfprobe(command, null, 0, timeout, unit);
+    }
+
+    /**
+     * Runs ffprobe with its output and errors going to temporary files, so neither pipe
+     * can fill up and stall it, and kills it once the timeout runs out. The head of a file
+     * is fed to its input from a thread of its own, so a stalled ffprobe cannot hold the
+     * caller beyond the timeout either. The caller closes the result, which deletes the
+     * output file.
+     *
+     * @param headFile File whose first bytes are piped in, or null for no input
+     * @param headLength Number of bytes to pipe in
+     */
+    private FfprobeRun runFfprobe(List<String> command, Path headFile, long headLength, long timeout, TimeUnit unit)
+            throws IOException, InterruptedException {
+        Path output = Files.createTempFile("ffprobe-", ".out");
+        Path errors = Files.createTempFile("ffprobe-", ".err");
+        Process process = null;
+        try {
+            ProcessBuilder processBuilder = new ProcessBuilder(command);
+            processBuilder.redirectOutput(output.toFile());
+            processBuilder.redirectError(errors.toFile());
+            process = processBuilder.start();
+
+            if (headFile != null) {
+                OutputStream input = process.getOutputStream();
+                Thread writer = new Thread(() -> writeHead(headFile, headLength, input),
+                    "ProbeHead-" + headFile.getFileName());
+                writer.setDaemon(true);
+                writer.start();
+            } else {
+                process.getOutputStream().close();
+            }
+
+            boolean completed = process.waitFor(timeout, unit);
+            if (!completed) {
+                process.destroyForcibly();
+            }
+            return new FfprobeRun(!completed, completed ? process.exitValue() : -1, output, readErrors(errors));
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            Files.deleteIfExists(output);
+            throw e;
+        } finally {
+            if (process != null && process.isAlive()) {
+                process.destroyForcibly();
+            }
+            Files.deleteIfExists(errors);
+        }
+    }
+
+    /**
+     * Reads the start of ffprobe's error output; a damaged file can produce a lot of it.
+     */
+    private static String readErrors(Path errors) throws IOException {
+        try (InputStream in = Files.newInputStream(errors)) {
+            return new String(in.readNBytes(MAX_ERROR_BYTES), StandardCharsets.UTF_8).trim();
+        }
+    }
+
+    /**
+     * Builds the analysis from ffprobe's JSON output, taking the first video stream that
+     * is not cover art and the first audio stream. ffprobe reports most numbers as strings.
+     */
+    private MediaInfo parseAnalysis(JsonNode root) {
+        JsonNode video = null;
+        JsonNode audio = null;
+        for (JsonNode stream : root.path("streams")) {
+            String type = stream.path("codec_type").asText();
+            if ("video".equals(type) && video == null && stream.path("disposition").path("attached_pic").asInt() == 0) {
+                video = stream;
+            } else if ("audio".equals(type) && audio == null) {
+                audio = stream;
+            }
+        }
+
+        JsonNode format = root.path("format");
+        JsonNode v = video != null ? video : objectMapper.missingNode();
+        JsonNode a = audio != null ? audio : objectMapper.missingNode();
+
+        double frameRate = parseRate(v.path("avg_frame_rate").asText());
+        if (frameRate <= 0) {
+            frameRate = parseRate(v.path("r_frame_rate").asText());
+        }
+
+        return new MediaInfo(
+            text(format, "format_name"),
+            format.path("duration").asDouble(),
+            format.path("bit_rate").asLong(),
+            text(v, "codec_name"),
+            v.path("width").asInt(),
+            v.path("height").asInt(),
+            frameRate,
+            text(v, "pix_fmt"),
+            v.path("bit_rate").asLong(),
+            parseRotation(v),
+            text(a, "codec_name"),
+            a.path("channels").asInt(),
+            text(a, "channel_layout"),
+            a.path("sample_rate").asInt(),
+            a.path("bit_rate").asLong()
+        );
+    }
+
+    private static String text(JsonNode node, String field) {
+        JsonNode value = node.path(field);
+        return value.isMissingNode() || value.isNull() || value.asText().isBlank() ? null : value.asText();
+    }
+
+    /**
+     * Parses a frame rate such as "30000/1001". ffprobe reports "0/0" when it is unknown.
+     */
+    private static double parseRate(String rate) {
+        int separator = rate.indexOf('/');
+        try {
+            if (separator < 0) {
+                return rate.isBlank() ? 0 : Double.parseDouble(rate);
+            }
+            double denominator = Double.parseDouble(rate.substring(separator + 1));
+            return denominator == 0 ? 0 : Double.parseDouble(rate.substring(0, separator)) / denominator;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Gets the clockwise rotation of a video stream. Older files carry it as a "rotate"
+     * tag; newer ffprobe versions report a display matrix whose rotation is counter-clockwise.
+     */
+    private static int parseRotation(JsonNode stream) {
+        int rotation = 0;
+        JsonNode tag = stream.path("tags").path("rotate");
+        if (!tag.isMissingNode()) {
+            rotation = tag.asInt();
+        } else {
+            for (JsonNode sideData : stream.path("side_data_list")) {
+                if (sideData.has("rotation")) {
+                    rotation = -sideData.path("rotation").asInt();
+                    break;
+                }
+            }
+        }
+        return ((rotation % 360) + 360) % 360;
+    }
+
+    /**
+     * Copies the first bytes of the file to ffprobe's input. ffprobe may stop reading once
+     * it has seen enough, which shows up here as a broken pipe and is not an error.
+     */
+    private void writeHead(Path file, long length, OutputStream processInput) {
+        try (InputStream in = Files.newInputStream(file); OutputStream out = processInput) {
+            byte[] buffer = new byte[64 * 1024];
+            long remaining = length;
+            int read;
+            while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+        } catch (IOException e) {
+            log.debug("ffprobe stopped reading input early: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Parses compact output lines such as "stream|codec_name=h264|codec_type=video".
+     * Any other line is an error message from ffprobe.
+     */
+    private ProbeOutput readOutput(InputStream processOutput) throws IOException {
+        ProbeOutput output = new ProbeOutput();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(processOutput));
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            if (!line.startsWith("stream|") && !line.startsWith("format|")) {
+                output.errors.add(line.trim());
+                continue;
+            }
+
+            Map<String, String> fields = new HashMap<>();
+            for (String field : line.split("\\|")) {
+                int separator = field.indexOf('=');
+                if (separator > 0) {
+                    fields.put(field.substring(0, separator), field.substring(separator + 1));
+                }
+            }
+
+            if (line.startsWith("format|")) {
+                output.formatName = fields.get("format_name");
+                continue;
+            }
+
+            String codec = fields.get("codec_name");
+            if (codec == null || codec.isBlank() || "unknown".equals(codec)) {
+                continue;
+            }
+            if ("video".equals(fields.get("codec_type")) && output.videoCodec == null) {
+                output.videoCodec = codec;
+            } else if ("audio".equals(fields.get("codec_type")) && output.audioCodec == null) {
+                output.audioCodec = codec;
+            }
+        }
+
+        return output;
+    }
+
+    /**
+     * Record class holding the result of an ffprobe run.
+     */
+    private record FfprobeRun(boolean timedOut, int exitCode, Path output, String errors) implements AutoCloseable {
+
+        @Override
+        public void close() throws IOException {
+            Files.deleteIfExists(output);
+        }
+    }
+
+    private static class ProbeOutput {
+        String formatName;
+        String videoCodec;
+        String audioCodec;
+        List<String> errors = new ArrayList<>();
+    }
+}
@@ -0,0 +1,296 @@
+package com.coraybennett.spillway.service.impl;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.crypto.SecretKey;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import com.coraybennett.spillway.service.api.ContentDeliveryService;
+import com.coraybennett.spillway.service.api.SegmentCacheService;
+import com.coraybennett.spillway.service.api.SegmentCacheService.CachedSegment;
+import com.coraybennett.spillway.service.api.SegmentCacheService.SegmentKey;
+import com.coraybennett.spillway.service.api.VideoEncryptionService;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * ContentDeliveryService that moves file bytes to the socket without copying them
+ * through the Java heap. Uses the servlet container's sendfile support when it is
+ * available and falls back to FileChannel.transferTo otherwise. Encrypted files are
+ * decrypted frame by frame into the response, so only one frame is held at a time.
+ * Encrypted HLS segments go through the segment cache first and only fall back to
+ * the file when they cannot be cached. Concurrent requests for one segment share a
+ * single read of its ciphertext and a single decryption: the first request decrypts
+ * the frames into a shared plaintext and the others stream each frame as it lands.
+ * Segments sent as stored never use the cache: the page cache and sendfile serve them
+ * without a copy.
+ */
+@Service
+@Slf4j
+public class FileChannelContentDeliveryService implements ContentDeliveryService {
+
+    // Request attributes understood by Tomcat's NIO/NIO2 connectors
+    private static final String SENDFILE_SUPPORTED_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    private final VideoEncryptionService encryptionService;
+    private final SegmentCacheService segmentCache;
+    private final ConcurrentHashMap<DecryptionKey, SharedPlaintext> decryptions = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+
+    @Value("${video.delivery.enable-sendfile:true}")
+    private boolean sendfileEnabled;
+
+    // Small bodies are cheaper to write directly than to hand to the poller
+    @Value("${video.delivery.sendfile-min-size:49152}")
+    private long sendfileMinSize;
+
+    // Larger segments are decrypted per request rather than held on the heap
+    @Value("${video.delivery.shared-decrypt-max-size:33554432}")
+    private long sharedDecryptMaxSize;
+
+    @Value("${video.delivery.shared-decrypt-wait:10s}")
+    private Duration sharedDecryptWait;
+
+    @Autowired
+    public FileChannelContentDeliveryService(VideoEncryptionService encryptionService,
+            SegmentCacheService segmentCache, MeterRegistry meterRegistry) {
+        this.encryptionService = encryptionService;
+        this.segmentCache = segmentCache;
+
+        FunctionCounter.builder("spillway.segment.coalesced", coalesced, LongAdder::sum)
+            .description("Segment requests that waited for another request's work")
+            .tag("stage", "decrypt")
+            .register(meterRegistry);
+    }
+
+    @Override
+    public void sendFile(Path file, MediaType contentType, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        long length = Files.size(file);
+        long[] range = prepareResponse(length, contentType, request, response);
+        if (range == null) {
+            return;
+        }
+
+        long start = range[0];
+        long count = range[1] - start + 1;
+
+        if (canUseSendfile(request, count)) {
+            request.setAttribute(SENDFILE_FILENAME_ATTR, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START_ATTR, start);
+            request.setAttribute(SENDFILE_END_ATTR, start + count);
+            return;
+        }
+
+        transfer(file, start, count, response);
+    }
+
+    @Override
+    public void sendDecryptedFile(Path file, MediaType contentType, SecretKey secretKey,
+            HttpServletRequest request, HttpServletResponse response) throws Exception {
+        long length = encryptionService.getPlaintextLength(file);
+        long[] range = prepareResponse(length, contentType, request, response);
+        if (range == null) {
+            return;
+        }
+
+        encryptionService.decryptRange(file, secretKey, range[0], range[1], response.getOutputStream());
+    }
+
+    @Override
+    public void sendDecryptedSegment(SegmentKey key, Path file, MediaType contentType, SecretKey secretKey,
+            HttpServletRequest request, HttpServletResponse response) throws Exception {
+        // Viewers of one segment share one decryption. The key hash is part of the flight
+        // key, so a request only ever reads plaintext decrypted with its own key.
+        DecryptionKey flightKey = new DecryptionKey(key, hashKey(secretKey));
+        SharedPlaintext running = decryptions.get(flightKey);
+        if (running != null) {
+            streamShared(running, contentType, request, response);
+            return;
+        }
+
+        Optional<CachedSegment> cached = segmentCache.get(key, file);
+        if (cached.isEmpty()) {
+            sendDecryptedFile(file, contentType, secretKey, request, response);
+            return;
+        }
+
+        try (CachedSegment segment = cached.get(); SeekableByteChannel in = segment.openChannel()) {
+            long length = encryptionService.getPlaintextLength(in);
+            if (length == 0 || length > sharedDecryptMaxSize) {
+                long[] range = prepareResponse(length, contentType, request, response);
+                if (range != null) {
+                    encryptionService.decryptRange(in, secretKey, range[0], range[1], response.getOutputStream());
+                }
+                return;
+            }
+
+            SharedPlaintext plaintext = new SharedPlaintext((int) length);
+            running = decryptions.putIfAbsent(flightKey, plaintext);
+            if (running != null) {
+                streamShared(running, contentType, request, response);
+                return;
+            }
+
+            try {
+                encryptionService.decryptRange(in, secretKey, 0, length - 1, plaintext.sink());
+                plaintext.finish();
+            } catch (Throwable e) {
+                plaintext.fail(e);
+                throw e;
+            } finally {
+                decryptions.remove(flightKey, plaintext);
+            }
+
+            long[] range = prepareResponse(length, contentType, request, response);
+            if (range != null) {
+                plaintext.copyTo(range[0], range[1], response.getOutputStream(), sharedDecryptWait.toMillis());
+            }
+        }
+    }
+
+    /**
+     * Sends the requested range of a segment another request is decrypting, writing
+     * each frame as soon as it has been decrypted.
+     */
+    private void streamShared(SharedPlaintext plaintext, MediaType contentType,
+            HttpServletRequest request, HttpServletResponse response) throws Exception {
+        coalesced.increment();
+        long[] range = prepareResponse(plaintext.length(), contentType, request, response);
+        if (range == null) {
+            return;
+        }
+        plaintext.copyTo(range[0], range[1], response.getOutputStream(), sharedDecryptWait.toMillis());
+    }
+
+    /**
+     * Identifies a key without keeping its material in the flight map.
+     */
+    private String hashKey(SecretKey secretKey) throws Exception {
+        byte[] encoded = secretKey.getEncoded();
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(encoded));
+        } finally {
+            Arrays.fill(encoded, (byte) 0);
+        }
+    }
+
+    /**
+     * Sets the status, range and length headers for a body of the given length.
+     *
+     * @return First and last byte to send, or null if there is no body to write
+     */
+    private long[] prepareResponse(long length, MediaType contentType,
+            HttpServletRequest request, HttpServletResponse response) {
+        long start = 0;
+        long end = length - 1;
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setContentType(contentType.toString());
+
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader != null && length > 0) {
+            List<HttpRange> ranges = parseRanges(rangeHeader);
+
+            // Multiple ranges are never requested by HLS players; serving the whole
+            // body is a valid response to them
+            if (ranges.size() == 1) {
+                HttpRange range = ranges.get(0);
+                try {
+                    start = range.getRangeStart(length);
+                    end = range.getRangeEnd(length);
+                } catch (IllegalArgumentException e) {
+                    response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                    return null;
+                }
+
+                response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+                response.setHeader(HttpHeaders.CONTENT_RANGE,
+                    String.format("bytes %d-%d/%d", start, end, length));
+            }
+        }
+
+        long count = length == 0 ? 0 : end - start + 1;
+        response.setContentLengthLong(count);
+
+        if (HttpMethod.HEAD.matches(request.getMethod()) || count == 0) {
+            return null;
+        }
+        return new long[] { start, end };
+    }
+
+    private boolean canUseSendfile(HttpServletRequest request, long count) {
+        return sendfileEnabled
+            && count >= sendfileMinSize
+            && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTR));
+    }
+
+    /**
+     * Copies a region of the file to the response with FileChannel.transferTo,
+     * which only needs a small, reused transfer buffer regardless of file size.
+     */
+    private void transfer(Path file, long start, long count, HttpServletResponse response) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long remaining = count;
+
+            while (remaining > 0) {
+                long transferred = channel.transferTo(position, remaining, out);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+                remaining -= transferred;
+            }
+
+            if (remaining > 0) {
+                log.warn("File {} shrank while being sent, {} bytes not written", file, remaining);
+            }
+        }
+    }
+
+    private List<HttpRange> parseRanges(String rangeHeader) {
+        try {
+            return HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            // A malformed Range header is ignored and the full body is served
+            log.debug("Ignoring invalid Range header: {}", rangeHeader);
+            return List.of();
+        }
+    }
+
+    private record DecryptionKey(SegmentKey segment, String keyHash) {
+    }
+}
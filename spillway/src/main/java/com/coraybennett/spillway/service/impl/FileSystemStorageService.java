@@ -11,6 +11,9 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
@@ -33,6 +36,7 @@ public class FileSystemStorageService implements StorageService {
     private static final Logger logger = LoggerFactory.getLogger(FileSystemStorageService.class);
     private static final Pattern FILENAME_SANITIZER = Pattern.compile("[^a-zA-Z0-9.-]");
     private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int STREAM_BUFFER_SIZE = 256 * 1024;
     
     // Cache for directory existence checks to avoid repeated filesystem operations
     private final ConcurrentHashMap<String, Boolean> directoryExistsCache = new ConcurrentHashMap<>();
@@ -68,22 +72,11 @@ public class FileSystemStorageService implements StorageService {
         Path destinationFile = Paths.get(destinationPath, filename);
         
         if (enableNioTransfer) {
-            try (ReadableByteChannel inChannel = Channels.newChannel(file.getInputStream());
-                 FileChannel outChannel = FileChannel.open(destinationFile, 
-                     StandardOpenOption.CREATE, 
-                     StandardOpenOption.TRUNCATE_EXISTING, 
-                     StandardOpenOption.WRITE)) {
-                
-                ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
-                
-                while ((inChannel.read(buffer)) != -1) {
-                    buffer.flip();
-                    outChannel.write(buffer);
-                    buffer.clear();
-                }
-                
-                logger.info("Stored file: {} in {} using NIO", filename, destinationPath);
-            }
+            // The container moves its multipart temp file into place when both are on the
+            // same file system, instead of writing the upload a second time
+            Files.deleteIfExists(destinationFile);
+            file.transferTo(destinationFile.toAbsolutePath().toFile());
+            logger.info("Stored file: {} in {} using multipart transfer", filename, destinationPath);
         } else {
             try (InputStream inputStream = file.getInputStream()) {
                 Files.copy(inputStream, destinationFile, StandardCopyOption.REPLACE_EXISTING);
@@ -126,6 +119,58 @@ public class FileSystemStorageService implements StorageService {
         return destinationFile;
     }
 
+    @Override
+    public StoredFile storeWithDigest(InputStream inputStream, String filename, String destinationPath, long maxBytes)
+            throws IOException {
+        return storeWithDigest(inputStream, filename, destinationPath, maxBytes, WriteListener.NONE);
+    }
+
+    @Override
+    public StoredFile storeWithDigest(InputStream inputStream, String filename, String destinationPath, long maxBytes,
+            WriteListener listener) throws IOException {
+        ensureDirectoryExists(destinationPath);
+        
+        filename = sanitizeFilename(filename);
+        Path destinationFile = Paths.get(destinationPath, filename);
+        MessageDigest digest = newSha256Digest();
+        
+        // One heap buffer per upload: the servlet stream fills it, the digest reads it,
+        // and the channel writes it at an explicit position
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+        long position = 0;
+        
+        try (FileChannel outChannel = FileChannel.open(destinationFile,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                if (position + read > maxBytes) {
+                    throw new IOException("Upload exceeds the maximum size of " + maxBytes + " bytes");
+                }
+                
+                digest.update(buffer, 0, read);
+                
+                wrapped.clear().limit(read);
+                while (wrapped.hasRemaining()) {
+                    position += outChannel.write(wrapped, position);
+                }
+                
+                listener.onWritten(destinationFile, position);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(destinationFile);
+            throw e;
+        }
+        
+        String sha256 = HexFormat.of().formatHex(digest.digest());
+        logger.info("Streamed file: {} in {} ({} bytes, sha256 {})", filename, destinationPath, position, sha256);
+        
+        return new StoredFile(destinationFile, position, sha256);
+    }
+
     @Override
     public Resource loadAsResource(Path path) {
         try {
@@ -198,6 +243,14 @@ public class FileSystemStorageService implements StorageService {
         directoryExistsCache.put(directoryPath, true);
     }
     
+    private MessageDigest newSha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+    
     /**
      * Sanitizes a filename to ensure it's safe for filesystem storage.
      * Using pre-compiled pattern for better performance.
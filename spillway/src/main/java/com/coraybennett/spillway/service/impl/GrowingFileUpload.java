@@ -0,0 +1,148 @@
+package com.coraybennett.spillway.service.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.coraybennett.spillway.service.api.LiveUpload;
+
+/**
+ * LiveUpload over a file the upload thread is appending to. The writer reports how
+ * far the file has been written; readers block at that point until it moves on, the
+ * upload completes, or it is aborted.
+ */
+class GrowingFileUpload implements LiveUpload {
+
+    private final Path path;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final CompletableFuture<Boolean> finished = new CompletableFuture<>();
+
+    private long written;
+    private boolean complete;
+    private boolean aborted;
+
+    GrowingFileUpload(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Records that the file now holds this many bytes.
+     */
+    void advance(long length) {
+        lock.lock();
+        try {
+            written = length;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the upload as intact; readers reach end of stream at the last byte.
+     */
+    void complete() {
+        lock.lock();
+        try {
+            complete = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        finished.complete(true);
+    }
+
+    /**
+     * Marks the upload as failed; blocked and future reads throw.
+     */
+    void abort() {
+        lock.lock();
+        try {
+            aborted = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        finished.complete(false);
+    }
+
+    @Override
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> finished() {
+        return finished;
+    }
+
+    @Override
+    public InputStream openReader() throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+
+        return new InputStream() {
+            private long position;
+
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                int read = read(single, 0, 1);
+                return read == -1 ? -1 : single[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                if (length == 0) {
+                    return 0;
+                }
+
+                long available = awaitAvailable(position);
+                if (available < 0) {
+                    return -1;
+                }
+
+                int read = channel.read(ByteBuffer.wrap(buffer, offset, (int) Math.min(length, available)), position);
+                if (read > 0) {
+                    position += read;
+                }
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    /**
+     * Waits until there are bytes past the position.
+     *
+     * @return Number of readable bytes, or -1 at the end of a complete upload
+     */
+    private long awaitAvailable(long position) throws IOException {
+        lock.lock();
+        try {
+            while (!aborted && !complete && written <= position) {
+                changed.await();
+            }
+            if (aborted) {
+                throw new IOException("Upload was aborted");
+            }
+            return written > position ? written - position : -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for upload data");
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.coraybennett.spillway.service.impl;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.coraybennett.spillway.model.ConversionStatus;
+import com.coraybennett.spillway.model.Video;
+import com.coraybennett.spillway.repository.VideoRepository;
+import com.coraybennett.spillway.service.api.ConversionProgressService;
+import com.coraybennett.spillway.service.api.VideoService.ConversionProgress;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * ConversionProgressService backed by a lock-free map of progress entries.
+ * FFmpeg progress ticks only touch atomics; a scheduled flush writes the latest
+ * percentage of each running conversion with a single-column update. Only running
+ * conversions are answered from memory: once a video leaves IN_PROGRESS, any node
+ * may claim or convert it next, so the database is the only reliable source.
+ */
+@Service
+@Slf4j
+public class InMemoryConversionProgressService implements ConversionProgressService {
+
+    private final VideoRepository videoRepository;
+    private final Map<String, ProgressEntry> entries = new ConcurrentHashMap<>();
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+
+    @Autowired
+    public InMemoryConversionProgressService(VideoRepository videoRepository) {
+        this.videoRepository = videoRepository;
+    }
+
+    @Override
+    public void updateProgress(String videoId, int progress) {
+        ProgressEntry entry = getOrCreateEntry(videoId);
+
+        int clamped = Math.max(0, Math.min(100, progress));
+        int previous = entry.progress.getAndAccumulate(clamped, Math::max);
+        if (clamped > previous) {
+            entry.dirty.set(true);
+            notifyListeners(videoId);
+        }
+    }
+
+    @Override
+    public void updateRendition(String videoId, String rendition) {
+        ProgressEntry entry = getOrCreateEntry(videoId);
+        entry.rendition = rendition;
+        notifyListeners(videoId);
+    }
+
+    @Override
+    public void updateSpeed(String videoId, double speed) {
+        // Speed changes on every FFmpeg status line; listeners hear about it with the next progress change
+        getOrCreateEntry(videoId).speed = speed;
+    }
+
+    @Override
+    public void addListener(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public Video transition(Video video, ConversionStatus status, String error) {
+        ProgressEntry entry = entries.computeIfAbsent(video.getId(), id -> new ProgressEntry(status, 0));
+
+        int progress = switch (status) {
+            case PENDING -> 0;
+            case COMPLETED -> 100;
+            default -> Math.max(entry.progress.get(), video.getConversionProgress() == null ? 0 : video.getConversionProgress());
+        };
+
+        entry.progress.set(progress);
+        entry.status = status;
+        entry.error = error;
+        if (status != ConversionStatus.IN_PROGRESS) {
+            entry.rendition = null;
+            entry.speed = null;
+        }
+        entry.dirty.set(false);
+
+        video.setConversionStatus(status);
+        video.setConversionProgress(progress);
+        video.setConversionError(error);
+        Video saved = videoRepository.save(video);
+
+        notifyListeners(video.getId());
+        return saved;
+    }
+
+    @Override
+    public Optional<ConversionProgress> getProgress(String videoId) {
+        ProgressEntry entry = entries.get(videoId);
+        if (entry == null || entry.status != ConversionStatus.IN_PROGRESS) {
+            return Optional.empty();
+        }
+        return Optional.of(new ConversionProgress(
+            entry.status, entry.progress.get(), entry.error, entry.rendition, entry.speed));
+    }
+
+    @Override
+    @Scheduled(fixedDelayString = "${video.conversion.progress.flush-interval-ms:5000}")
+    public void flush() {
+        entries.forEach((videoId, entry) -> {
+            if (entry.status == ConversionStatus.IN_PROGRESS && entry.dirty.compareAndSet(true, false)) {
+                try {
+                    videoRepository.updateConversionProgress(videoId, entry.progress.get());
+                } catch (Exception e) {
+                    entry.dirty.set(true);
+                    log.warn("Failed to flush conversion progress for video {}: {}", videoId, e.getMessage());
+                }
+            } else if (entry.status != ConversionStatus.IN_PROGRESS) {
+                entries.remove(videoId, entry);
+            }
+        });
+    }
+
+    private ProgressEntry getOrCreateEntry(String videoId) {
+        ProgressEntry entry = entries.get(videoId);
+        if (entry == null) {
+            entry = entries.computeIfAbsent(videoId, id -> new ProgressEntry(ConversionStatus.IN_PROGRESS, 0));
+        }
+        return entry;
+    }
+
+    private void notifyListeners(String videoId) {
+        for (Consumer<String> listener : listeners) {
+            try {
+                listener.accept(videoId);
+            } catch (Exception e) {
+                log.warn("Conversion progress listener failed for video {}: {}", videoId, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Writes outstanding progress before the node shuts down.
+     */
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+
+    /**
+     * Progress of one video. Fields are written by conversion threads and read by
+     * request threads without locking.
+     */
+    private static final class ProgressEntry {
+        private final AtomicInteger progress;
+        private final AtomicBoolean dirty = new AtomicBoolean(false);
+        private volatile ConversionStatus status;
+        private volatile String error;
+        private volatile String rendition;
+        private volatile Double speed;
+
+        private ProgressEntry(ConversionStatus status, int progress) {
+            this.status = status;
+            this.progress = new AtomicInteger(progress);
+        }
+    }
+}
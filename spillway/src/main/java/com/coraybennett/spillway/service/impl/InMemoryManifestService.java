@@ -0,0 +1,396 @@
+package com.coraybennett.spillway.service.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.coraybennett.spillway.service.api.ManifestService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * ManifestService that indexes a video's playlists into memory on first use and keeps
+ * the rendered playlists next to the index. Media playlists are kept in pieces split
+ * after each segment URI, so a per-request query string is joined in without parsing.
+ * The number of cached videos is bounded; the longest idle one is dropped first.
+ */
+@Service
+@Slf4j
+public class InMemoryManifestService implements ManifestService {
+
+    // Attribute lists of tags such as EXT-X-STREAM-INF and EXT-X-KEY
+    private static final Pattern ATTRIBUTE = Pattern.compile("([A-Z0-9-]+)=(\"[^\"]*\"|[^,]*)");
+
+    // URIs relative to the endpoint each playlist is served from
+    private static final String MASTER_RENDITION_PREFIX = "playlist/";
+    private static final String MEDIA_SEGMENT_PREFIX = "../segments/";
+    private static final String MEDIA_KEY_URI = "../key";
+    private static final String MASTER_SEGMENT_PREFIX = "segments/";
+    private static final String MASTER_KEY_URI = "key";
+
+    // Indexing reads a few playlists; a waiter this far behind gives up rather than pile up
+    private static final Duration LOAD_WAIT_TIMEOUT = Duration.ofSeconds(10);
+
+    private final Path outputDirectory;
+    private final Map<String, CachedManifest> manifests = new ConcurrentHashMap<>();
+    private final SingleFlight<String, CachedManifest> loads = new SingleFlight<>(LOAD_WAIT_TIMEOUT);
+
+    // Bumped on every invalidation, so a load that raced with one is not cached
+    private final AtomicLong invalidations = new AtomicLong();
+
+    @Value("${video.manifest.max-cached-videos:2000}")
+    private int maxCachedVideos;
+
+    public InMemoryManifestService(@Value("${video.output-directory:content}") String outputDirectory) {
+        this.outputDirectory = Paths.get(outputDirectory).toAbsolutePath().normalize();
+    }
+
+    @Override
+    public Optional<VideoManifest> getManifest(String videoId) throws IOException {
+        return cached(videoId).map(cached -> cached.manifest);
+    }
+
+    @Override
+    public Optional<byte[]> renderMasterPlaylist(String videoId) throws IOException {
+        return cached(videoId).map(CachedManifest::master);
+    }
+
+    @Override
+    public Optional<byte[]> renderMediaPlaylist(String videoId, String rendition, String segmentQuery)
+            throws IOException {
+        Optional<CachedManifest> cached = cached(videoId);
+        if (cached.isEmpty()) {
+            return Optional.empty();
+        }
+        return cached.get().media(rendition).map(parts -> join(parts, segmentQuery));
+    }
+
+    @Override
+    public void invalidate(String videoId) {
+        invalidations.incrementAndGet();
+        if (manifests.remove(videoId) != null) {
+            log.debug("Dropped manifest of video {}", videoId);
+        }
+    }
+
+    private Optional<CachedManifest> cached(String videoId) throws IOException {
+        CachedManifest cached = manifests.get(videoId);
+        if (cached != null) {
+            cached.lastAccess = System.currentTimeMillis();
+            return Optional.of(cached);
+        }
+
+        // Players fetch the master and media playlists back to back, so the first
+        // requests for a video usually arrive together and share one load
+        try {
+            return Optional.ofNullable(loads.execute(videoId, () -> load(videoId)));
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to load manifest of video " + videoId, e);
+        }
+    }
+
+    private CachedManifest load(String videoId) throws IOException {
+        long generation = invalidations.get();
+        Optional<VideoManifest> manifest = index(videoId);
+        if (manifest.isEmpty()) {
+            return null;
+        }
+
+        CachedManifest cached = new CachedManifest(manifest.get());
+        if (invalidations.get() == generation) {
+            if (manifests.size() >= maxCachedVideos) {
+                evictIdlest();
+            }
+            manifests.put(videoId, cached);
+        }
+        return cached;
+    }
+
+    private void evictIdlest() {
+        manifests.entrySet().stream()
+            .min((a, b) -> Long.compare(a.getValue().lastAccess, b.getValue().lastAccess))
+            .ifPresent(idlest -> manifests.remove(idlest.getKey(), idlest.getValue()));
+    }
+
+    /**
+     * Reads the playlists written at conversion time. Older playlists carry absolute
+     * URIs; only the file names are kept, so they index the same as new ones.
+     */
+    private Optional<VideoManifest> index(String videoId) throws IOException {
+        Path directory = outputDirectory.resolve(videoId).normalize();
+        if (!directory.getParent().equals(outputDirectory)) {
+            return Optional.empty();
+        }
+
+        List<String> master;
+        try {
+            master = Files.readAllLines(directory.resolve(videoId + ".m3u8"), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        }
+
+        // Single-rendition conversions write a media playlist in place of the master
+        if (master.stream().noneMatch(line -> line.startsWith("#EXT-X-STREAM-INF:"))) {
+            return Optional.of(new VideoManifest(videoId,
+                List.of(indexRendition(directory, "", 0, 0, 0, master))));
+        }
+
+        List<Rendition> renditions = new ArrayList<>();
+        Map<String, String> variant = null;
+        for (String line : master) {
+            line = line.trim();
+            if (line.startsWith("#EXT-X-STREAM-INF:")) {
+                variant = attributes(line.substring("#EXT-X-STREAM-INF:".length()));
+            } else if (variant != null && !line.isEmpty() && !line.startsWith("#")) {
+                String name = fileName(line);
+                if (name.endsWith(".m3u8")) {
+                    name = name.substring(0, name.length() - ".m3u8".length());
+                }
+
+                int width = 0;
+                int height = 0;
+                String resolution = variant.get("RESOLUTION");
+                if (resolution != null && resolution.indexOf('x') > 0) {
+                    width = Integer.parseInt(resolution.substring(0, resolution.indexOf('x')));
+                    height = Integer.parseInt(resolution.substring(resolution.indexOf('x') + 1));
+                }
+
+                List<String> media = Files.readAllLines(directory.resolve(name + ".m3u8"), StandardCharsets.UTF_8);
+                renditions.add(indexRendition(directory, name,
+                    Long.parseLong(variant.getOrDefault("BANDWIDTH", "0")), width, height, media));
+                variant = null;
+            }
+        }
+
+        log.debug("Indexed manifest of video {} with {} renditions", videoId, renditions.size());
+        return Optional.of(new VideoManifest(videoId, Collections.unmodifiableList(renditions)));
+    }
+
+    private Rendition indexRendition(Path directory, String name, long bandwidth, int width, int height,
+            List<String> lines) throws IOException {
+        int version = 3;
+        int targetDuration = 0;
+        long mediaSequence = 0;
+        String playlistType = null;
+        boolean independentSegments = false;
+        boolean ended = false;
+        String keyTag = null;
+
+        List<Segment> segments = new ArrayList<>();
+        double duration = 0;
+        long offset = 0;
+
+        for (String line : lines) {
+            line = line.trim();
+            if (line.startsWith("#EXTINF:")) {
+                int comma = line.indexOf(',');
+                duration = Double.parseDouble(line.substring("#EXTINF:".length(), comma < 0 ? line.length() : comma));
+            } else if (line.startsWith("#EXT-X-VERSION:")) {
+                version = Integer.parseInt(line.substring("#EXT-X-VERSION:".length()));
+            } else if (line.startsWith("#EXT-X-TARGETDURATION:")) {
+                targetDuration = Integer.parseInt(line.substring("#EXT-X-TARGETDURATION:".length()));
+            } else if (line.startsWith("#EXT-X-MEDIA-SEQUENCE:")) {
+                mediaSequence = Long.parseLong(line.substring("#EXT-X-MEDIA-SEQUENCE:".length()));
+            } else if (line.startsWith("#EXT-X-PLAYLIST-TYPE:")) {
+                playlistType = line.substring("#EXT-X-PLAYLIST-TYPE:".length());
+            } else if (line.equals("#EXT-X-INDEPENDENT-SEGMENTS")) {
+                independentSegments = true;
+            } else if (line.equals("#EXT-X-ENDLIST")) {
+                ended = true;
+            } else if (line.startsWith("#EXT-X-KEY:") && keyTag == null) {
+                keyTag = keyTagWithoutUri(line);
+            } else if (!line.isEmpty() && !line.startsWith("#")) {
+                String filename = fileName(line);
+                long size = segmentSize(directory.resolve(filename));
+                segments.add(new Segment(filename, duration, size, offset));
+                offset += size;
+                duration = 0;
+            }
+        }
+
+        return new Rendition(name, bandwidth, width, height, version, targetDuration, mediaSequence,
+            playlistType, independentSegments, keyTag, Collections.unmodifiableList(segments), ended);
+    }
+
+    private long segmentSize(Path segment) throws IOException {
+        try {
+            return Files.size(segment);
+        } catch (NoSuchFileException e) {
+            log.warn("Segment {} is listed in its playlist but missing", segment);
+            return 0;
+        }
+    }
+
+    /**
+     * Keeps the attributes of an EXT-X-KEY tag except its URI, or null for METHOD=NONE.
+     */
+    private String keyTagWithoutUri(String line) {
+        Map<String, String> attributes = attributes(line.substring("#EXT-X-KEY:".length()));
+        if ("NONE".equals(attributes.get("METHOD"))) {
+            return null;
+        }
+
+        StringBuilder tag = new StringBuilder("#EXT-X-KEY:");
+        attributes.forEach((attribute, value) -> {
+            if (!attribute.equals("URI")) {
+                tag.append(tag.length() > "#EXT-X-KEY:".length() ? "," : "").append(attribute).append('=').append(value);
+            }
+        });
+        return tag.toString();
+    }
+
+    private Map<String, String> attributes(String list) {
+        Map<String, String> attributes = new LinkedHashMap<>();
+        Matcher matcher = ATTRIBUTE.matcher(list);
+        while (matcher.find()) {
+            attributes.put(matcher.group(1), matcher.group(2));
+        }
+        return attributes;
+    }
+
+    private String fileName(String uri) {
+        int query = uri.indexOf('?');
+        if (query >= 0) {
+            uri = uri.substring(0, query);
+        }
+        return uri.substring(uri.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Renders a media playlist in pieces, each ending right after a segment URI.
+     */
+    private static List<byte[]> renderMedia(Rendition rendition, String segmentPrefix, String keyUri) {
+        List<byte[]> parts = new ArrayList<>(rendition.segments().size() + 1);
+        StringBuilder playlist = new StringBuilder(256);
+
+        playlist.append("#EXTM3U\n");
+        playlist.append("#EXT-X-VERSION:").append(rendition.version()).append('\n');
+        playlist.append("#EXT-X-TARGETDURATION:").append(rendition.targetDuration()).append('\n');
+        playlist.append("#EXT-X-MEDIA-SEQUENCE:").append(rendition.mediaSequence()).append('\n');
+        if (rendition.playlistType() != null) {
+            playlist.append("#EXT-X-PLAYLIST-TYPE:").append(rendition.playlistType()).append('\n');
+        }
+        if (rendition.independentSegments()) {
+            playlist.append("#EXT-X-INDEPENDENT-SEGMENTS\n");
+        }
+        if (rendition.keyTag() != null) {
+            playlist.append(rendition.keyTag()).append(",URI=\"").append(keyUri).append("\"\n");
+        }
+
+        for (Segment segment : rendition.segments()) {
+            playlist.append("#EXTINF:").append(String.format(Locale.ROOT, "%.6f", segment.duration())).append(",\n");
+            playlist.append(segmentPrefix).append(segment.filename());
+            parts.add(playlist.toString().getBytes(StandardCharsets.UTF_8));
+            playlist.setLength(0);
+            playlist.append('\n');
+        }
+
+        if (rendition.ended()) {
+            playlist.append("#EXT-X-ENDLIST\n");
+        }
+        parts.add(playlist.toString().getBytes(StandardCharsets.UTF_8));
+        return parts;
+    }
+
+    private static byte[] renderMaster(VideoManifest manifest) {
+        StringBuilder playlist = new StringBuilder(256);
+        playlist.append("#EXTM3U\n");
+        playlist.append("#EXT-X-VERSION:3\n");
+        if (manifest.renditions().stream().allMatch(Rendition::independentSegments)) {
+            playlist.append("#EXT-X-INDEPENDENT-SEGMENTS\n");
+        }
+
+        for (Rendition rendition : manifest.renditions()) {
+            playlist.append("#EXT-X-STREAM-INF:BANDWIDTH=").append(rendition.bandwidth());
+            if (rendition.width() > 0 && rendition.height() > 0) {
+                playlist.append(",RESOLUTION=").append(rendition.width()).append('x').append(rendition.height());
+            }
+            playlist.append('\n').append(MASTER_RENDITION_PREFIX).append(rendition.name()).append('\n');
+        }
+        return playlist.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Joins rendered pieces, appending the query string after every segment URI.
+     */
+    private static byte[] join(List<byte[]> parts, String segmentQuery) {
+        byte[] query = segmentQuery == null ? new byte[0] : ("?" + segmentQuery).getBytes(StandardCharsets.UTF_8);
+        int length = query.length * (parts.size() - 1);
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+        for (int i = 0; i < parts.size(); i++) {
+            out.writeBytes(parts.get(i));
+            if (i < parts.size() - 1) {
+                out.writeBytes(query);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * A manifest with the playlists rendered from it so far.
+     */
+    private static final class CachedManifest {
+        private final VideoManifest manifest;
+        private final Map<String, List<byte[]>> media = new ConcurrentHashMap<>();
+        private volatile byte[] master;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        private CachedManifest(VideoManifest manifest) {
+            this.manifest = manifest;
+        }
+
+        private byte[] master() {
+            byte[] rendered = master;
+            if (rendered == null) {
+                Rendition single = singleRendition();
+                rendered = single != null
+                    ? join(renderMedia(single, MASTER_SEGMENT_PREFIX, MASTER_KEY_URI), null)
+                    : renderMaster(manifest);
+                master = rendered;
+            }
+            return rendered;
+        }
+
+        private Optional<List<byte[]>> media(String name) {
+            if (singleRendition() != null) {
+                return Optional.empty();
+            }
+            return manifest.rendition(name)
+                .map(rendition -> media.computeIfAbsent(name,
+                    n -> renderMedia(rendition, MEDIA_SEGMENT_PREFIX, MEDIA_KEY_URI)));
+        }
+
+        /**
+         * @return The rendition of a single-rendition conversion, served as the master playlist
+         */
+        private Rendition singleRendition() {
+            List<Rendition> renditions = manifest.renditions();
+            return renditions.size() == 1 && renditions.get(0).name().isEmpty() ? renditions.get(0) : null;
+        }
+    }
+}
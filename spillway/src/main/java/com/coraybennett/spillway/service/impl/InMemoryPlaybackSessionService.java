@@ -0,0 +1,181 @@
+package com.coraybennett.spillway.service.impl;
+
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.SecretKey;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.coraybennett.spillway.model.Video;
+import com.coraybennett.spillway.service.api.PlaybackSessionService;
+import com.coraybennett.spillway.service.api.VideoEncryptionService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * PlaybackSessionService backed by a bounded in-memory map. Sessions expire after a
+ * sliding idle timeout, and are held through soft references so the garbage collector
+ * can drop them under memory pressure; a dropped session is simply reopened with the key.
+ */
+@Service
+@Slf4j
+public class InMemoryPlaybackSessionService implements PlaybackSessionService {
+
+    private static final int TOKEN_BYTES = 32;
+
+    private final VideoEncryptionService encryptionService;
+    private final Map<String, SessionEntry> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+
+    // Idle time after which a session is dropped; every request made with it resets the clock
+    @Value("${video.playback.session-ttl-seconds:1800}")
+    private long ttlSeconds;
+
+    @Value("${video.playback.max-sessions:10000}")
+    private int maxSessions;
+
+    @Autowired
+    public InMemoryPlaybackSessionService(VideoEncryptionService encryptionService) {
+        this.encryptionService = encryptionService;
+    }
+
+    @Override
+    public Optional<PlaybackSession> open(Video video, String decryptionKey) {
+        if (!video.isEncrypted() || !isValidKey(video, decryptionKey)) {
+            return Optional.empty();
+        }
+
+        SecretKey secretKey;
+        try {
+            secretKey = encryptionService.getSecretKey(decryptionKey);
+        } catch (Exception e) {
+            log.warn("Could not build key for playback session of video {}: {}", video.getId(), e.getMessage());
+            return Optional.empty();
+        }
+
+        if (sessions.size() >= maxSessions) {
+            makeRoom();
+        }
+
+        String token = newToken();
+        PlaybackSession session = new PlaybackSession(token, video.getId(), secretKey, ttlSeconds);
+        sessions.put(token, new SessionEntry(session));
+
+        log.debug("Opened playback session for video {}", video.getId());
+        return Optional.of(session);
+    }
+
+    @Override
+    public Optional<PlaybackSession> get(String token, String videoId) {
+        if (token == null || token.isBlank()) {
+            return Optional.empty();
+        }
+
+        SessionEntry entry = sessions.get(token);
+        if (entry == null) {
+            return Optional.empty();
+        }
+
+        PlaybackSession session = entry.session.get();
+        if (session == null || entry.isExpired(System.currentTimeMillis())) {
+            sessions.remove(token, entry);
+            return Optional.empty();
+        }
+        if (!session.videoId().equals(videoId)) {
+            return Optional.empty();
+        }
+
+        entry.touch();
+        return Optional.of(session);
+    }
+
+    @Override
+    public void close(String token) {
+        if (token != null) {
+            sessions.remove(token);
+        }
+    }
+
+    @Override
+    public boolean isValidKey(Video video, String decryptionKey) {
+        if (!video.isEncrypted() || video.getEncryptionKeyHash() == null) {
+            return true;
+        }
+        if (decryptionKey == null || !encryptionService.isValidKey(decryptionKey)) {
+            return false;
+        }
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(decryptionKey.getBytes(StandardCharsets.UTF_8));
+            byte[] expected = Base64.getDecoder().decode(video.getEncryptionKeyHash());
+            return MessageDigest.isEqual(hash, expected);
+        } catch (Exception e) {
+            log.error("Failed to validate decryption key", e);
+            return false;
+        }
+    }
+
+    /**
+     * Drops expired and garbage-collected sessions.
+     */
+    @Scheduled(fixedDelayString = "${video.playback.sweep-interval-ms:60000}")
+    public void sweepExpiredSessions() {
+        long now = System.currentTimeMillis();
+        int before = sessions.size();
+        sessions.entrySet().removeIf(e -> e.getValue().session.get() == null || e.getValue().isExpired(now));
+
+        int removed = before - sessions.size();
+        if (removed > 0) {
+            log.debug("Dropped {} playback sessions, {} open", removed, sessions.size());
+        }
+    }
+
+    /**
+     * Frees a slot for a new session: expired sessions go first, then the one idle longest.
+     */
+    private void makeRoom() {
+        sweepExpiredSessions();
+        if (sessions.size() < maxSessions) {
+            return;
+        }
+
+        sessions.entrySet().stream()
+            .min(Comparator.comparingLong(e -> e.getValue().lastAccess))
+            .ifPresent(e -> sessions.remove(e.getKey(), e.getValue()));
+    }
+
+    private String newToken() {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private class SessionEntry {
+        final SoftReference<PlaybackSession> session;
+        volatile long lastAccess = System.currentTimeMillis();
+
+        SessionEntry(PlaybackSession session) {
+            this.session = new SoftReference<>(session);
+        }
+
+        void touch() {
+            lastAccess = System.currentTimeMillis();
+        }
+
+        boolean isExpired(long now) {
+            return now - lastAccess > ttlSeconds * 1000;
+        }
+    }
+}
@@ -1,22 +1,32 @@
 package com.coraybennett.spillway.service.impl;
 
 import java.io.BufferedReader;
-import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -24,15 +34,26 @@ import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Primary;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
+import com.coraybennett.spillway.exception.ConversionIncompleteException;
 import com.coraybennett.spillway.exception.VideoConversionException;
 import com.coraybennett.spillway.model.ConversionStatus;
+import com.coraybennett.spillway.model.EncodingLadder;
+import com.coraybennett.spillway.model.MediaInfo;
 import com.coraybennett.spillway.model.Video;
 import com.coraybennett.spillway.repository.VideoRepository;
+import com.coraybennett.spillway.service.api.ConversionProgressService;
+import com.coraybennett.spillway.service.api.EncodingLadderService;
+import com.coraybennett.spillway.service.api.LiveUpload;
+import com.coraybennett.spillway.service.api.ManifestService;
+import com.coraybennett.spillway.service.api.MediaProbeService;
+import com.coraybennett.spillway.service.api.MediaProbeService.SegmentProfile;
+import com.coraybennett.spillway.service.api.SegmentCacheService;
 import com.coraybennett.spillway.service.api.StorageService;
 import com.coraybennett.spillway.service.api.VideoEncryptionService;
 import com.coraybennett.spillway.service.enums.QualityLevel;
@@ -40,7 +61,11 @@ import com.coraybennett.spillway.service.enums.QualityLevel;
 /**
  * FFmpeg-based implementation of VideoConversionService.
  * Supports multiple video file formats and adaptive bitrate streaming with better performance.
- * Uses separate FFmpeg processes for each quality level and supports any number of quality levels.
+ * Uses separate FFmpeg processes for each quality level and supports any number of quality levels,
+ * or a single FFmpeg process that decodes the source once and encodes every quality level from it.
+ * Long sources can also be split into chunks that are encoded concurrently and stitched back together.
+ * Quality levels that match the source are remuxed from the source's video stream instead of encoded,
+ * and the bitrates of the others can be fitted to the source with a per-title ladder.
  */
 @Service
 @Primary
@@ -50,7 +75,18 @@ public class MultistreamFFmpegVideoConversionService implements EncryptedVideoCo
     private final VideoRepository videoRepository;
     private final StorageService storageService;
     private final VideoEncryptionService encryptionService;
+    private final ConversionProgressService progressService;
+    private final SegmentCacheService segmentCache;
+    private final ManifestService manifestService;
+    private final MediaProbeService mediaProbeService;
+    private final EncodingLadderService encodingLadderService;
     private final Map<String, Process> activeConversions = new ConcurrentHashMap<>();
+    // Retries of videos that are already live, whose progress is not reported
+    private final Set<String> backgroundConversions = ConcurrentHashMap.newKeySet();
+    // Cancelled conversions are cleaned up rather than kept for a retry
+    private final Set<String> cancelledConversions = ConcurrentHashMap.newKeySet();
+    private final Executor renditionExecutor;
+    private final Executor segmentEncryptionExecutor;
     
     private final String outputDirectory;
     
@@ -58,16 +94,16 @@ public class MultistreamFFmpegVideoConversionService implements EncryptedVideoCo
         ".mp4", ".mov", ".avi", ".mkv", ".webm", ".flv", ".wmv", ".m4v"
     );
 
-    // Video resolution patterns for detecting source resolution
-    private static final Pattern RESOLUTION_PATTERN = Pattern.compile("Stream .* Video:.* (\\d+)x(\\d+)[,\\s]");
-    
     // FFmpeg progress patterns
-    private static final Pattern DURATION_PATTERN = Pattern.compile("Duration: (\\d+):(\\d+):(\\d+\\.\\d+)");
     private static final Pattern PROGRESS_PATTERN = Pattern.compile("time=(\\d+):(\\d+):(\\d+\\.\\d+)");
+    private static final Pattern SPEED_PATTERN = Pattern.compile("speed=\\s*(\\d+(?:\\.\\d+)?)x");
     
-    private static final int FFPROBE_TIMEOUT_SECONDS = 30;
     private static final int HWACC_TEST_TIMEOUT_SECONDS = 20;
     
+    // Working directory of chunked encoding, below the output directory but not watched
+    // by the segment encryption pipeline
+    private static final String CHUNK_DIRECTORY = "_chunks";
+    
     @Value("${server.base-url:http://localhost:8081}")
     private String baseUrl;
     
@@ -85,6 +121,31 @@ public class MultistreamFFmpegVideoConversionService implements EncryptedVideoCo
     
     @Value("${video.encoding.parallel-quality-conversion:false}")
     private boolean parallelQualityConversion;
+    
+    @Value("${video.encoding.single-pass-ladder:false}")
+    private boolean singlePassLadder;
+
+    // Split-and-stitch encoding of sources longer than one chunk
+    @Value("${video.encoding.chunked.enabled:false}")
+    private boolean chunkedEncoding;
+
+    @Value("${video.encoding.chunked.chunk-duration-seconds:120}")
+    private int chunkDurationSeconds;
+
+    @Value("${video.encoding.chunked.threads-per-chunk:2}")
+    private int threadsPerChunk;
+
+    // Remuxing of quality levels the source already matches
+    @Value("${video.encoding.passthrough.enabled:true}")
+    private boolean passthroughEnabled;
+
+    // Per-title bitrates from CRF probe encodes of sampled scenes
+    @Value("${video.encoding.per-title.enabled:false}")
+    private boolean perTitleEncoding;
+
+    // CPU cores the transcode scheduler reserves for one job; FFmpeg threads are capped to it
+    @Value("${video.conversion.scheduler.cores-per-job:4}")
+    private int coresPerJob;
 
     // Hardware acceleration cache to avoid repeated checks
     private String cachedHardwareAcceleration = null;
@@ -97,8 +158,22 @@ public class MultistreamFFmpegVideoConversionService implements EncryptedVideoCo
             VideoRepository videoRepository, 
             StorageService storageService,
             VideoEncryptionService videoEncryptionService,
+            ConversionProgressService progressService,
+            SegmentCacheService segmentCache,
+            ManifestService manifestService,
+            MediaProbeService mediaProbeService,
+            EncodingLadderService encodingLadderService,
+            @Qualifier("renditionExecutor") Executor renditionExecutor,
+            @Qualifier("segmentEncryptionExecutor") Executor segmentEncryptionExecutor,
             @Value("${video.output-directory:content}") String outputDirectory) {
         this.videoRepository = videoRepository;
+        this.renditionExecutor = renditionExecutor;
+        this.segmentEncryptionExecutor = segmentEncryptionExecutor;
+        this.progressService = progressService;
+        this.segmentCache = segmentCache;
+        this.manifestService = manifestService;
+        this.mediaProbeService = mediaProbeService;
+        this.encodingLadderService = encodingLadderService;
         this.storageService = storageService;
         this.outputDirectory = outputDirectory;
         this.encryptionService = videoEncryptionService;
@@ -113,17 +188,55 @@ public class MultistreamFFmpegVideoConversionService implements EncryptedVideoCo
     @Override
     @Async("videoConversionExecutor")
     public CompletableFuture<Void> convertToHls(Path sourceFile, Video video, String encryptionKey) {
+        return convert(sourceFile, null, video, encryptionKey);
+    }
+
+    @Override
+    @Async("videoConversionExecutor")
+    public CompletableFuture<Void> convertToHls(LiveUpload upload, Video video, String encryptionKey) {
+        return convert(upload.getPath(), upload, video, encryptionKey);
+    }
+
+    /**
+     * Runs a conversion. With a live upload the source is piped to a single-pass FFmpeg
+     * process as it arrives; the source file is kept and the video is not marked FAILED
+     * on error, since the caller falls back to a normal conversion of the finished file.
+     * Conversions of a stored source checkpoint every completed rendition and resume from
+     * the checkpoint of an earlier attempt. If one fails after checkpointing some work,
+     * the source and the checkpointed output are kept for a retry, and the video goes
+     * live with the renditions that completed.
+     */
+    private CompletableFuture<Void> convert(Path sourceFile, LiveUpload upload, Video video, String encryptionKey) {
         Path outputPath = null;
-        boolean encrypt = video.isEncrypted() && encryptionKey != null;
+        Path keyInfoFile = null;
+        SegmentEncryptionPipeline encryptionPipeline = null;
+        ConversionCheckpoint checkpoint = null;
+        List<QualityLevel> targetQualityLevels = null;
+        SegmentProfile segmentProfile = null;
+        boolean hlsEncrypt = video.usesHlsEncryption() && encryptionKey != null;
+        boolean encrypt = video.isEncrypted() && encryptionKey != null && !hlsEncrypt;
+        
+        // A video that went live with part of its ladder stays playable while the rest is retried
+        boolean retryingLive = upload == null && video.getConversionStatus() == ConversionStatus.COMPLETED;
         
         try {
             String filename = sourceFile.getFileName().toString();
             if (!isVideoFileTypeSupported(filename)) {
                 throw new VideoConversionException("Unsupported video file format: " + filename);
             }
+            if (upload != null && !supportsSinglePassLadder()) {
+                throw new VideoConversionException("Live conversion requires a single-pass capable encoder");
+            }
             
-            video.setConversionStatus(ConversionStatus.IN_PROGRESS);
-            videoRepository.save(video);
+            // Analyzed before the transition, which stores the analysis with the video
+            logger.info("Starting video analysis for video: {}", video.getId());
+            MediaInfo mediaInfo = analyzeSource(sourceFile, upload, video);
+            
+            if (retryingLive) {
+                backgroundConversions.add(video.getId());
+            } else {
+                progressService.transition(video, ConversionStatus.IN_PROGRESS, null);
+            }
             
             if(encrypt) {
                 outputPath = Paths.get(getOutputDirectory().toString(), video.getId(), "_temp");
@@ -133,43 +246,101 @@ public class MultistreamFFmpegVideoConversionService implements EncryptedVideoCo
             
             Files.createDirectories(outputPath);
             
-            logger.info("Starting video analysis for video: {}", video.getId());
+            if (upload == null) {
+                checkpoint = ConversionCheckpoint.open(outputPath);
+            }
+            if (checkpoint == null || checkpoint.isEmpty()) {
+                // A re-conversion rewrites the segments and playlists under the same names
+                segmentCache.invalidateVideo(video.getId());
+            } else {
+                logger.info("Resuming conversion of video {} after {}", video.getId(), checkpoint.getCompleted());
+            }
+            manifestService.invalidate(video.getId());
             
-            int[] resolution = getVideoResolution(sourceFile.toAbsolutePath().toString());
-            if (resolution == null) {
-                throw new VideoConversionException("Failed to determine video resolution");
+            if (hlsEncrypt) {
+                keyInfoFile = writeKeyInfoFile(video.getId(), encryptionKey);
             }
             
-            int sourceWidth = resolution[0];
-            int sourceHeight = resolution[1];
-            logger.info("Source video resolution: {}x{}", sourceWidth, sourceHeight);
+            // Segments are encrypted as FFmpeg closes them rather than after the whole ladder
+            if (encrypt) {
+                encryptionPipeline = new SegmentEncryptionPipeline(
+                    outputPath,
+                    outputPath.getParent(),
+                    encryptionService.getSecretKey(encryptionKey),
+                    encryptionService,
+                    segmentEncryptionExecutor);
+                encryptionPipeline.start("SegmentWatcher-" + video.getId());
+            }
+            
+            // Rotated sources are played, and scaled by FFmpeg, in their display orientation
+            int sourceWidth = mediaInfo.displayWidth();
+            int sourceHeight = mediaInfo.displayHeight();
+            logger.info("Source video: {}x{} {} at {} fps, {} seconds", sourceWidth, sourceHeight,
+                mediaInfo.videoCodec(), String.format("%.2f", mediaInfo.frameRate()), mediaInfo.durationSeconds());
             
-            List<QualityLevel> targetQualityLevels = getTargetQualityLevels(sourceWidth, sourceHeight);
+            targetQualityLevels = getTargetQualityLevels(sourceWidth, sourceHeight);
             
             if (targetQualityLevels.isEmpty()) {
                 throw new VideoConversionException("No suitable quality levels found for source resolution");
             }
             
-            int totalQualityLevels = targetQualityLevels.size();
+            // Live uploads are never remuxed
+            if (upload == null) {
+                segmentProfile = profileSource(sourceFile, mediaInfo, targetQualityLevels, video.getId());
+            }
             
-            if (parallelQualityConversion && totalQualityLevels > 1) {
-                processQualityLevelsInParallel(sourceFile, outputPath, video, targetQualityLevels);
+            if (perTitleEncoding && upload == null) {
+                targetQualityLevels = applyEncodingLadder(sourceFile, outputPath, video, targetQualityLevels, segmentProfile);
+            }
+            
+            List<QualityLevel> pendingQualityLevels = getPendingQualityLevels(targetQualityLevels, outputPath, checkpoint);
+            
+            // Quality levels that match the source are remuxed first; any that cannot be are encoded
+            if (upload == null) {
+                pendingQualityLevels = processQualityLevelsPassthrough(
+                    sourceFile, outputPath, keyInfoFile, video, pendingQualityLevels, segmentProfile, checkpoint);
+            }
+            int totalQualityLevels = pendingQualityLevels.size();
+            
+            // HLS AES-128 derives segment IVs from sequence numbers, which chunks restart
+            int sourceDuration = chunkedEncoding && upload == null && keyInfoFile == null
+                ? (int) mediaInfo.durationSeconds() : 0;
+            
+            if (upload != null) {
+                processQualityLevelsSinglePass(sourceFile, upload, outputPath, keyInfoFile, video, pendingQualityLevels, null);
+                awaitUpload(upload);
+            } else if (pendingQualityLevels.isEmpty()) {
+                logger.info("No quality levels of video {} are left to encode", video.getId());
+            } else if (sourceDuration > chunkDuration()) {
+                processQualityLevelsChunked(sourceFile, outputPath, video, pendingQualityLevels, sourceDuration, checkpoint);
+            } else if (singlePassLadder && totalQualityLevels > 1 && supportsSinglePassLadder()) {
+                processQualityLevelsSinglePass(sourceFile, null, outputPath, keyInfoFile, video, pendingQualityLevels, checkpoint);
+            } else if (parallelQualityConversion && totalQualityLevels > 1) {
+                processQualityLevelsInParallel(sourceFile, outputPath, keyInfoFile, video, pendingQualityLevels, checkpoint);
             } else {
-                processQualityLevelsSequentially(sourceFile, outputPath, video, targetQualityLevels);
+                processQualityLevelsSequentially(sourceFile, outputPath, keyInfoFile, video, pendingQualityLevels, checkpoint);
             }
             
-            createMasterPlaylist(outputPath.toAbsolutePath().toString(), video.getId(), targetQualityLevels);
+            // Live uploads are never remuxed, so their quality levels keep the ladder's bandwidths
+            createMasterPlaylist(outputPath.toAbsolutePath().toString(), video.getId(), targetQualityLevels,
+                mediaInfo, segmentProfile);
             
-            video.setConversionStatus(ConversionStatus.COMPLETED);
-            video.setConversionProgress(100);
             video.setPlaylistUrl(String.format("%s/video/%s/playlist", baseUrl, video.getId()));
 
             if(encrypt) {
                 Path finalOutputPath = Paths.get(getOutputDirectory().toString(), video.getId());
-                encryptSegments(outputPath, finalOutputPath, video.getId(), encryptionKey);
+                encryptSegments(encryptionPipeline, outputPath, finalOutputPath, video.getId());
+            } else if (checkpoint != null) {
+                checkpoint.delete();
+                storageService.delete(outputPath.resolve(CHUNK_DIRECTORY));
             }
 
-            videoRepository.save(video);
+            deleteKeyInfoFile(keyInfoFile);
+            backgroundConversions.remove(video.getId());
+            progressService.transition(video, ConversionStatus.COMPLETED, null);
+            
+            // Drops a manifest indexed from partial playlists by a request that raced the transition
+            manifestService.invalidate(video.getId());
             
             logger.info("Completed FFmpeg conversion for video: {}", video.getId());
             
@@ -181,47 +352,325 @@ public class MultistreamFFmpegVideoConversionService implements EncryptedVideoCo
             logger.error("Error during video conversion: {}", e.getMessage(), e);
             
             activeConversions.remove(video.getId());
+            backgroundConversions.remove(video.getId());
+            boolean cancelled = cancelledConversions.remove(video.getId());
+            deleteKeyInfoFile(keyInfoFile);
+            
+            if (!cancelled && checkpoint != null && !checkpoint.isEmpty()) {
+                try {
+                    return CompletableFuture.failedFuture(keepIncompleteConversion(
+                        video, outputPath, encrypt, encryptionPipeline, checkpoint, targetQualityLevels, segmentProfile, e));
+                } catch (Exception publishError) {
+                    logger.error("Could not keep the checkpointed output of video {}: {}", 
+                                video.getId(), publishError.getMessage());
+                }
+            }
+            
+            if (encryptionPipeline != null) {
+                encryptionPipeline.abort();
+            }
+            
+            if (upload != null) {
+                cleanupOnError(null, outputPath);
+                return CompletableFuture.failedFuture(e);
+            }
+            
+            if (retryingLive) {
+                // The renditions that are live stay; only this retry is given up
+                abandonConversion(video, sourceFile, e.getMessage());
+                return CompletableFuture.failedFuture(e);
+            }
+            
             cleanupOnError(sourceFile, outputPath);
             
-            video.setConversionStatus(ConversionStatus.FAILED);
-            video.setConversionError(e.getMessage());
-            videoRepository.save(video);
+            progressService.transition(video, ConversionStatus.FAILED, e.getMessage());
             
             return CompletableFuture.failedFuture(e);
         }
     }
 
     /**
-     * Process quality levels sequentially with progress tracking
+     * Replaces the fixed bitrates of the quality levels that are encoded with the video's
+     * per-title ladder. The ladder is planned on the first conversion of a source and kept
+     * on the video, so retries encode the missing quality levels at the same bitrates.
+     * A ladder that cannot be planned leaves the fixed bitrates in place.
+     */
+    private List<QualityLevel> applyEncodingLadder(Path sourceFile, Path outputPath, Video video,
+                                                   List<QualityLevel> qualities, SegmentProfile segmentProfile)
+            throws InterruptedException {
+        MediaInfo mediaInfo = video.getMediaInfo();
+        // Remuxed quality levels keep the source's bitrate, so they are not planned
+        List<QualityLevel> encoded = qualities.stream()
+            .filter(quality -> !canPassThrough(quality, mediaInfo, segmentProfile))
+            .collect(Collectors.toList());
+        if (encoded.isEmpty()) {
+            return qualities;
+        }
+        
+        EncodingLadder ladder = video.getEncodingLadder();
+        if (ladder == null || encoded.stream().anyMatch(quality -> ladder.rung(quality.name).isEmpty())) {
+            reportRendition(video.getId(), "ladder analysis");
+            try {
+                EncodingLadder planned = encodingLadderService.plan(sourceFile, mediaInfo, encoded, outputPath);
+                video.setEncodingLadder(planned);
+                videoRepository.save(video);
+                logger.info("Per-title ladder for video {}: {}, {}% below the fixed ladder", video.getId(),
+                    planned.rungs().stream()
+                        .map(rung -> rung.name() + " " + rung.bitrate() / 1000 + "k")
+                        .collect(Collectors.joining(", ")),
+                    planned.predictedSavingsPercent());
+                return withLadder(qualities, planned);
+            } catch (IOException e) {
+                logger.warn("Could not plan a per-title ladder for video {}, using the fixed ladder: {}",
+                    video.getId(), e.getMessage());
+                return qualities;
+            }
+        }
+        
+        return withLadder(qualities, ladder);
+    }
+    
+    private static List<QualityLevel> withLadder(List<QualityLevel> qualities, EncodingLadder ladder) {
+        return qualities.stream()
+            .map(quality -> ladder.rung(quality.name)
+                .map(rung -> quality.withBitrate(rung.bitrate()))
+                .orElse(quality))
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Gets the ffprobe analysis of a source, reusing the one stored on the video when the
+     * same source is converted again. A live upload is analyzed from the part received so
+     * far, and its analysis is replaced once the upload is complete.
+     */
+    private MediaInfo analyzeSource(Path sourceFile, LiveUpload upload, Video video) throws VideoConversionException {
+        MediaInfo mediaInfo = upload == null ? video.getMediaInfo() : null;
+        if (mediaInfo == null) {
+            try {
+                mediaInfo = mediaProbeService.analyze(sourceFile);
+            } catch (IOException e) {
+                throw new VideoConversionException("Failed to analyze video: " + e.getMessage(), e);
+            }
+            video.setMediaInfo(mediaInfo);
+        }
+        if (!mediaInfo.hasVideo()) {
+            throw new VideoConversionException("Failed to determine video resolution");
+        }
+        return mediaInfo;
+    }
+
+    /**
+     * Gets the quality levels an earlier attempt has not completed. A checkpointed
+     * rendition counts as completed only while its playlist is still on disk.
+     */
+    private List<QualityLevel> getPendingQualityLevels(List<QualityLevel> targetQualityLevels, Path outputPath,
+                                                       ConversionCheckpoint checkpoint) {
+        return targetQualityLevels.stream()
+            .filter(quality -> checkpoint == null || !checkpoint.isCompleted(quality.name)
+                || !Files.exists(outputPath.resolve(quality.name + ".m3u8")))
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Keeps the source and the checkpointed output of a failed conversion for a retry.
+     * If some renditions completed, the video goes live with them: the master playlist
+     * lists only those, and their segments are encrypted and published.
+     *
+     * @return The exception the conversion fails with, naming the missing renditions
+     */
+    private ConversionIncompleteException keepIncompleteConversion(Video video, Path outputPath, boolean encrypt,
+            SegmentEncryptionPipeline encryptionPipeline, ConversionCheckpoint checkpoint,
+            List<QualityLevel> targetQualityLevels, SegmentProfile segmentProfile, Exception cause) throws Exception {
+        String videoId = video.getId();
+        List<QualityLevel> completed = targetQualityLevels == null ? List.of() : targetQualityLevels.stream()
+            .filter(quality -> checkpoint.isCompleted(quality.name))
+            .collect(Collectors.toList());
+        List<String> completedNames = completed.stream().map(quality -> quality.name).collect(Collectors.toList());
+        List<String> missingNames = targetQualityLevels == null ? List.of() : targetQualityLevels.stream()
+            .filter(quality -> !checkpoint.isCompleted(quality.name))
+            .map(quality -> quality.name)
+            .collect(Collectors.toList());
+        
+        if (completed.isEmpty()) {
+            // Only chunks were checkpointed; nothing can be played yet
+            if (encryptionPipeline != null) {
+                encryptionPipeline.finish();
+            }
+        } else {
+            createMasterPlaylist(outputPath.toAbsolutePath().toString(), videoId, completed,
+                video.getMediaInfo(), segmentProfile);
+            
+            if (encrypt) {
+                int encrypted = encryptionPipeline.finish();
+                logger.info("Encrypted {} segments for video: {}", encrypted, videoId);
+                
+                Path finalOutputPath = outputPath.getParent();
+                Files.copy(outputPath.resolve(videoId + ".m3u8"), finalOutputPath.resolve(videoId + ".m3u8"),
+                           StandardCopyOption.REPLACE_EXISTING);
+                for (QualityLevel quality : completed) {
+                    Files.copy(outputPath.resolve(quality.name + ".m3u8"), finalOutputPath.resolve(quality.name + ".m3u8"),
+                               StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            
+            video.setPlaylistUrl(String.format("%s/video/%s/playlist", baseUrl, videoId));
+            progressService.transition(video, ConversionStatus.COMPLETED, 
+                "Live without " + String.join(", ", missingNames) + ", which will be retried: " + cause.getMessage());
+            manifestService.invalidate(videoId);
+            
+            logger.warn("Video {} is live with {} while {} failed", videoId, completedNames, missingNames);
+        }
+        
+        String missing = missingNames.isEmpty() ? "" : ", missing " + String.join(", ", missingNames);
+        return new ConversionIncompleteException(
+            "Conversion incomplete" + missing + ": " + cause.getMessage(), completedNames, missingNames, cause);
+    }
+
+    @Override
+    public void abandonConversion(Video video, Path sourceFile, String reason) {
+        String videoId = video.getId();
+        if (sourceFile != null) {
+            storageService.delete(sourceFile);
+        }
+        
+        if (video.getConversionStatus() != ConversionStatus.COMPLETED) {
+            cleanupVideoFiles(videoId);
+            progressService.transition(video, ConversionStatus.FAILED, reason);
+            return;
+        }
+        
+        // Only the retry state goes: the working directory of encrypted conversions, or
+        // the checkpoint and chunks kept next to the published output
+        Path videoPath = Paths.get(getOutputDirectory().toString(), videoId);
+        storageService.delete(videoPath.resolve("_temp"));
+        storageService.delete(videoPath.resolve(CHUNK_DIRECTORY));
+        storageService.delete(videoPath.resolve(ConversionCheckpoint.FILE_NAME));
+        
+        progressService.transition(video, ConversionStatus.COMPLETED, "Some renditions could not be converted: " + reason);
+        logger.warn("Gave up on the missing renditions of video {}: {}", videoId, reason);
+    }
+
+    /**
+     * Remuxes the quality levels the source already matches, copying its video stream into
+     * HLS segments that are cut at the source's keyframes, which lie on the same segment
+     * grid as the encoded renditions' forced keyframes. A quality level whose remux fails
+     * is left to be encoded.
+     *
+     * @return The quality levels that still have to be encoded
+     */
+    private List<QualityLevel> processQualityLevelsPassthrough(
+            Path sourceFile, 
+            Path outputPath, 
+            Path keyInfoFile,
+            Video video, 
+            List<QualityLevel> targetQualityLevels,
+            SegmentProfile segmentProfile,
+            ConversionCheckpoint checkpoint) throws IOException, InterruptedException, VideoConversionException {
+        
+        MediaInfo mediaInfo = video.getMediaInfo();
+        String videoId = video.getId();
+        List<QualityLevel> remaining = new ArrayList<>();
+        
+        for (QualityLevel quality : targetQualityLevels) {
+            if (!canPassThrough(quality, mediaInfo, segmentProfile)) {
+                remaining.add(quality);
+                continue;
+            }
+            
+            List<String> command = buildPassthroughFfmpegCommand(sourceFile.toAbsolutePath().toString(),
+                outputPath.toAbsolutePath().toString(), keyInfoFile, quality, mediaInfo);
+            reportRendition(videoId, quality.name);
+            logger.info("Remuxing quality level {} from the source of video {}", quality.name, videoId);
+            logger.info("FFmpeg command for {}: {}", quality.name, String.join(" ", command));
+            
+            ProcessBuilder processBuilder = new ProcessBuilder(command);
+            processBuilder.redirectErrorStream(true);
+            Process process = processBuilder.start();
+            activeConversions.put(videoId, process);
+            
+            try {
+                parseFFmpegOutputWithCallback(process, videoId, mediaInfo.durationSeconds(), progress -> { });
+                
+                boolean completed = process.waitFor(ffmpegTimeoutMinutes, TimeUnit.MINUTES);
+                if (!completed) {
+                    process.destroyForcibly();
+                    throw new VideoConversionException("FFmpeg remux for " + quality.name + " timed out after " + ffmpegTimeoutMinutes + " minutes");
+                }
+                if (process.exitValue() != 0) {
+                    throw new VideoConversionException("FFmpeg remux for " + quality.name + " failed with exit code: " + process.exitValue());
+                }
+                if (!Files.exists(outputPath.resolve(quality.name + ".m3u8"))) {
+                    throw new VideoConversionException("Remux failed: " + quality.name + " playlist file not found");
+                }
+                
+                markCompleted(checkpoint, quality.name);
+                logger.info("{} HLS playlist remuxed from the source", quality.name);
+            } catch (VideoConversionException e) {
+                if (cancelledConversions.contains(videoId)) {
+                    throw e;
+                }
+                logger.warn("Could not remux quality level {}, encoding it instead: {}", quality.name, e.getMessage());
+                remaining.add(quality);
+            } finally {
+                activeConversions.remove(videoId);
+            }
+        }
+        
+        return remaining;
+    }
+
+    /**
+     * Process quality levels sequentially with progress tracking. A failed quality level
+     * does not stop the others when there is a checkpoint to record them in.
      */
     private void processQualityLevelsSequentially(
             Path sourceFile, 
             Path outputPath, 
+            Path keyInfoFile,
             Video video, 
-            List<QualityLevel> targetQualityLevels) throws IOException, InterruptedException, VideoConversionException {
+            List<QualityLevel> targetQualityLevels,
+            ConversionCheckpoint checkpoint) throws IOException, InterruptedException, VideoConversionException {
         
         int totalQualityLevels = targetQualityLevels.size();
         int processedQualityLevels = 0;
+        Exception failure = null;
         
         for (QualityLevel quality : targetQualityLevels) {
             logger.info("Processing quality level {} ({} of {})", 
                        quality.name, processedQualityLevels + 1, totalQualityLevels);
+            reportRendition(video.getId(), quality.name);
             
             int baseProgress = (processedQualityLevels * 100) / totalQualityLevels;
             int maxProgress = ((processedQualityLevels + 1) * 100) / totalQualityLevels;
             
-            convertQuality(
-                sourceFile.toAbsolutePath().toString(),
-                outputPath.toAbsolutePath().toString(),
-                video.getId(),
-                quality,
-                video,
-                baseProgress,
-                maxProgress - 1
-            );
+            try {
+                convertQuality(
+                    sourceFile.toAbsolutePath().toString(),
+                    outputPath.toAbsolutePath().toString(),
+                    keyInfoFile,
+                    video.getId(),
+                    quality,
+                    video,
+                    baseProgress,
+                    maxProgress - 1
+                );
+                markCompleted(checkpoint, quality.name);
+            } catch (IOException | VideoConversionException e) {
+                if (checkpoint == null || cancelledConversions.contains(video.getId())) {
+                    throw e;
+                }
+                logger.error("Quality level {} failed, continuing with the others: {}", quality.name, e.getMessage());
+                if (failure == null) {
+                    failure = e;
+                }
+            }
             
             processedQualityLevels++;
         }
+        
+        if (failure != null) {
+            throw new VideoConversionException("Failed to convert one or more quality levels: " + failure.getMessage(), failure);
+        }
     }
 
     /**
@@ -230,8 +679,10 @@ public class MultistreamFFmpegVideoConversionService implements EncryptedVideoCo
     private void processQualityLevelsInParallel(
             Path sourceFile, 
             Path outputPath, 
+            Path keyInfoFile,
             Video video, 
-            List<QualityLevel> targetQualityLevels) throws IOException, InterruptedException, VideoConversionException {
+            List<QualityLevel> targetQualityLevels,
+            ConversionCheckpoint checkpoint) throws IOException, InterruptedException, VideoConversionException {
         
         String sourceFilePath = sourceFile.toAbsolutePath().toString();
         String outputPathString = outputPath.toAbsolutePath().toString();
@@ -249,7 +700,13 @@ public class MultistreamFFmpegVideoConversionService implements EncryptedVideoCo
             qualityProgress.put(quality.name, 0);
         }
         
-        // Start each quality conversion as a separate CompletableFuture
+        reportRendition(videoId, joinQualityNames(targetQualityLevels));
+        
+        // The job's core budget is shared between the concurrent FFmpeg processes
+        int threadsPerRendition = Math.max(1, coresPerJob / totalQualityLevels);
+        
+        // Start each quality conversion as a separate CompletableFuture on the rendition pool,
+        // which keeps the blocking FFmpeg waits off the common ForkJoinPool
         for (int i = 0; i < totalQualityLevels; i++) {
             QualityLevel quality = targetQualityLevels.get(i);
             
@@ -261,9 +718,11 @@ public class MultistreamFFmpegVideoConversionService implements EncryptedVideoCo
                     convertQualityWithProgressCallback(
                         sourceFilePath,
                         outputPathString,
+                        keyInfoFile,
                         videoId,
                         quality,
                         video,
+                        threadsPerRendition,
                         (progress) -> {
                             qualityProgress.put(quality.name, progress);
                             
@@ -277,16 +736,16 @@ public class MultistreamFFmpegVideoConversionService implements EncryptedVideoCo
                             int currentOverall = overallProgress.get();
                             if (avgProgress > currentOverall) {
                                 overallProgress.set(avgProgress);
-                                video.setConversionProgress(avgProgress);
-                                videoRepository.save(video);
+                                reportProgress(videoId, avgProgress);
                                 logger.debug("Overall conversion progress: {}%", avgProgress);
                             }
                         }
                     );
+                    markCompleted(checkpoint, quality.name);
                 } catch (Exception e) {
                     throw new RuntimeException("Failed to convert quality " + quality.name, e);
                 }
-            });
+            }, renditionExecutor);
             
             futures.add(future);
         }
@@ -300,18 +759,568 @@ public class MultistreamFFmpegVideoConversionService implements EncryptedVideoCo
         logger.info("All quality levels processed in parallel for video: {}", videoId);
     }
 
+    /**
+     * Process all quality levels with one FFmpeg process. The source is decoded once,
+     * the frames are split and scaled per quality level, and every rendition is written
+     * as its own HLS variant stream. With a live upload, FFmpeg reads the source from
+     * its standard input, which is fed from the growing file.
+     */
+    private void processQualityLevelsSinglePass(
+            Path sourceFile, 
+            LiveUpload upload,
+            Path outputPath, 
+            Path keyInfoFile,
+            Video video, 
+            List<QualityLevel> targetQualityLevels,
+            ConversionCheckpoint checkpoint) throws IOException, InterruptedException, VideoConversionException {
+        
+        String sourceFilePath = sourceFile.toAbsolutePath().toString();
+        String outputPathString = outputPath.toAbsolutePath().toString();
+        String videoId = video.getId();
+        
+        MediaInfo mediaInfo = video.getMediaInfo();
+        List<String> command = buildSinglePassFfmpegCommand(upload != null ? "pipe:0" : sourceFilePath, 
+                                                            outputPathString, keyInfoFile, targetQualityLevels, mediaInfo);
+        
+        reportRendition(videoId, joinQualityNames(targetQualityLevels));
+        logger.info("Starting single-pass conversion of {} quality levels for video: {}", 
+                   targetQualityLevels.size(), videoId);
+        logger.info("FFmpeg command for single pass: {}", String.join(" ", command));
+        
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+        processBuilder.redirectErrorStream(true);
+        Process process = processBuilder.start();
+        activeConversions.put(videoId, process);
+        
+        try {
+            if (upload != null) {
+                startUploadPump(upload, process, videoId);
+            }
+            
+            parseFFmpegOutputWithCallback(process, videoId, mediaInfo.durationSeconds(),
+                progress -> reportProgress(videoId, progress));
+            
+            boolean completed = process.waitFor(ffmpegTimeoutMinutes, TimeUnit.MINUTES);
+            if (!completed) {
+                process.destroyForcibly();
+                throw new VideoConversionException("FFmpeg single-pass conversion timed out after " + ffmpegTimeoutMinutes + " minutes");
+            }
+            
+            int exitCode = process.exitValue();
+            if (exitCode != 0) {
+                throw new VideoConversionException("FFmpeg single-pass conversion failed with exit code: " + exitCode);
+            }
+            
+            for (QualityLevel quality : targetQualityLevels) {
+                Path playlistPath = Paths.get(outputPathString, quality.name + ".m3u8");
+                if (!Files.exists(playlistPath)) {
+                    throw new VideoConversionException("Conversion failed: " + quality.name + " playlist file not found");
+                }
+                
+                logger.info("{} HLS playlist created successfully at {}", quality.name, playlistPath);
+            }
+            
+            for (QualityLevel quality : targetQualityLevels) {
+                markCompleted(checkpoint, quality.name);
+            }
+        } finally {
+            activeConversions.remove(videoId);
+            // FFmpeg reading a live upload would otherwise wait on its input forever
+            if (process.isAlive()) {
+                process.destroyForcibly();
+            }
+        }
+        
+        logger.info("All quality levels processed in a single pass for video: {}", videoId);
+    }
+
+    /**
+     * Process quality levels by splitting the source into chunks that are encoded concurrently
+     * and stitched back into one media playlist per quality level. Chunks start at exact
+     * multiples of the chunk duration, which is a whole number of segments, and keyframes are
+     * forced at every segment boundary, so the segments of consecutive chunks line up. Each
+     * chunk's timestamps are shifted to its position in the source, so they run on across
+     * chunk boundaries and the stitched playlist needs no discontinuities. Chunks carry video
+     * only: audio is encoded once per bitrate over the whole source, while the chunks encode,
+     * and muxed with the stitched video into the final segments, so the AAC stream is not
+     * primed and padded at every chunk boundary. Completed chunks and audio tracks are
+     * checkpointed and skipped on a retry; a failed chunk only stops its own quality level.
+     */
+    private void processQualityLevelsChunked(
+            Path sourceFile, 
+            Path outputPath, 
+            Video video, 
+            List<QualityLevel> targetQualityLevels,
+            int sourceDuration,
+            ConversionCheckpoint checkpoint) throws IOException, InterruptedException, VideoConversionException {
+        
+        String sourceFilePath = sourceFile.toAbsolutePath().toString();
+        String videoId = video.getId();
+        Path chunkDir = outputPath.resolve(CHUNK_DIRECTORY);
+        Files.createDirectories(chunkDir);
+        
+        int chunkDuration = chunkDuration();
+        int chunkCount = (sourceDuration + chunkDuration - 1) / chunkDuration;
+        
+        // Each chunk contributes to the total progress by its share of the encoded seconds
+        double totalSeconds = (double) sourceDuration * targetQualityLevels.size();
+        final Map<EncodeChunk, Integer> chunkProgress = new ConcurrentHashMap<>();
+        final AtomicInteger overallProgress = new AtomicInteger(0);
+        
+        // Chunks are queued in source order, so the renditions of the start of the video finish first
+        Queue<EncodeChunk> pending = new ConcurrentLinkedQueue<>();
+        int resumed = 0;
+        for (int index = 0; index < chunkCount; index++) {
+            int start = index * chunkDuration;
+            for (QualityLevel quality : targetQualityLevels) {
+                EncodeChunk chunk = new EncodeChunk(quality, index, start,
+                    Math.min(chunkDuration, sourceDuration - start), index == chunkCount - 1);
+                if (isChunkCompleted(checkpoint, chunkDir, chunk)) {
+                    chunkProgress.put(chunk, 100);
+                    resumed++;
+                } else {
+                    pending.add(chunk);
+                }
+            }
+        }
+        
+        Map<Process, String> running = new ConcurrentHashMap<>();
+        Set<String> failedQualities = ConcurrentHashMap.newKeySet();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        
+        // The job's core budget is shared between the concurrent FFmpeg processes
+        int threads = Math.max(1, Math.min(threadsPerChunk, coresPerJob));
+        int workers = Math.max(1, Math.min(pending.size(), coresPerJob / threads));
+        
+        // One audio track per audio bitrate in the ladder
+        List<String> audioBitrates = video.getMediaInfo().hasAudio()
+            ? targetQualityLevels.stream().map(quality -> quality.audioBitrate).distinct().collect(Collectors.toList())
+            : List.of();
+        
+        reportRendition(videoId, joinQualityNames(targetQualityLevels));
+        logger.info("Starting chunked conversion of {} quality levels in {} chunks of {}s ({} done earlier) with {} workers for video: {}", 
+                   targetQualityLevels.size(), chunkCount, chunkDuration, resumed, workers, videoId);
+        
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < workers && !pending.isEmpty(); i++) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                EncodeChunk chunk;
+                while ((chunk = pending.poll()) != null) {
+                    EncodeChunk current = chunk;
+                    String qualityName = current.quality().name;
+                    if (failedQualities.contains(qualityName)) {
+                        continue;
+                    }
+                    try {
+                        encodeChunk(sourceFilePath, chunkDir, videoId, current, video.getMediaInfo(), threads, running, failedQualities, progress -> {
+                            chunkProgress.put(current, progress);
+                            
+                            double encodedSeconds = chunkProgress.entrySet().stream()
+                                .mapToDouble(e -> e.getKey().duration() * e.getValue() / 100.0)
+                                .sum();
+                            int totalProgress = Math.min((int) (encodedSeconds * 100 / totalSeconds), 99);
+                            
+                            // Only update if progress increased
+                            int currentOverall = overallProgress.get();
+                            if (totalProgress > currentOverall && overallProgress.compareAndSet(currentOverall, totalProgress)) {
+                                reportProgress(videoId, totalProgress);
+                            }
+                        });
+                        markCompleted(checkpoint, current.name());
+                    } catch (Exception e) {
+                        logger.error("Chunk {} of video {} failed: {}", current.name(), videoId, e.getMessage());
+                        failure.compareAndSet(null, e);
+                        
+                        // Stops the other chunks of the quality level, which can no longer be completed,
+                        // or every chunk when the conversion was cancelled or cannot be resumed
+                        boolean stopAll = checkpoint == null || cancelledConversions.contains(videoId);
+                        if (stopAll) {
+                            targetQualityLevels.forEach(quality -> failedQualities.add(quality.name));
+                        } else {
+                            failedQualities.add(qualityName);
+                        }
+                        running.forEach((process, quality) -> {
+                            if (stopAll || quality.equals(qualityName)) {
+                                process.destroy();
+                            }
+                        });
+                    }
+                }
+            }, renditionExecutor));
+        }
+        
+        // The audio is light next to the video, so it is encoded on this thread while the workers run
+        Set<String> failedAudio = new HashSet<>();
+        for (String audioBitrate : audioBitrates) {
+            if (isAudioCompleted(checkpoint, chunkDir, audioBitrate)) {
+                continue;
+            }
+            List<String> audioQualities = targetQualityLevels.stream()
+                .filter(quality -> quality.audioBitrate.equals(audioBitrate))
+                .map(quality -> quality.name)
+                .collect(Collectors.toList());
+            if (failedQualities.containsAll(audioQualities)) {
+                continue;
+            }
+            try {
+                encodeAudio(sourceFilePath, chunkDir, videoId, audioBitrate, video.getMediaInfo(), running);
+                markCompleted(checkpoint, audioName(audioBitrate));
+            } catch (Exception e) {
+                logger.error("Audio track {} of video {} failed: {}", audioName(audioBitrate), videoId, e.getMessage());
+                failure.compareAndSet(null, e);
+                
+                // The quality levels using the track cannot be completed in this attempt, but
+                // their chunks are still encoded for a retry unless it cannot be resumed
+                failedAudio.add(audioBitrate);
+                if (checkpoint == null || cancelledConversions.contains(videoId)) {
+                    targetQualityLevels.forEach(quality -> failedQualities.add(quality.name));
+                    running.keySet().forEach(Process::destroy);
+                }
+            }
+        }
+        
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        
+        for (QualityLevel quality : targetQualityLevels) {
+            if (!failedQualities.contains(quality.name) && !failedAudio.contains(quality.audioBitrate)) {
+                stitchChunks(chunkDir, quality, chunkCount);
+                Path audioFile = audioBitrates.isEmpty() ? null : chunkDir.resolve(audioName(quality.audioBitrate) + ".m4a");
+                muxChunks(chunkDir, outputPath, videoId, quality, audioFile, video.getMediaInfo());
+                markCompleted(checkpoint, quality.name);
+            }
+        }
+        
+        if (failure.get() != null) {
+            throw new VideoConversionException("Failed to convert one or more chunks: " + failure.get().getMessage(), failure.get());
+        }
+        storageService.delete(chunkDir);
+        
+        logger.info("All quality levels processed in {} chunks for video: {}", chunkCount, videoId);
+    }
+
+    /**
+     * @return true if an earlier attempt checkpointed the chunk and its playlist is still on disk
+     */
+    private boolean isChunkCompleted(ConversionCheckpoint checkpoint, Path chunkDir, EncodeChunk chunk) {
+        return checkpoint != null && checkpoint.isCompleted(chunk.name())
+            && Files.exists(chunkDir.resolve(chunk.name() + ".m3u8"));
+    }
+
+    /**
+     * @return true if an earlier attempt checkpointed the audio track and it is still on disk
+     */
+    private boolean isAudioCompleted(ConversionCheckpoint checkpoint, Path chunkDir, String audioBitrate) {
+        return checkpoint != null && checkpoint.isCompleted(audioName(audioBitrate))
+            && Files.exists(chunkDir.resolve(audioName(audioBitrate) + ".m4a"));
+    }
+
+    /**
+     * Encodes the audio of the whole source once, at one of the ladder's audio bitrates,
+     * into a file in the chunk directory.
+     */
+    private void encodeAudio(
+            String sourceFile,
+            Path chunkDir,
+            String videoId,
+            String audioBitrate,
+            MediaInfo mediaInfo,
+            Map<Process, String> running) 
+            throws IOException, InterruptedException, VideoConversionException {
+        
+        List<String> command = new ArrayList<>();
+        command.add("ffmpeg");
+        command.add("-y");
+        command.add("-i");
+        command.add(sourceFile);
+        command.add("-vn");
+        command.add("-c:a");
+        command.add("aac");
+        command.add("-b:a");
+        command.add(audioBitrate);
+        addStereoDownmix(command, mediaInfo);
+        command.add(chunkDir.resolve(audioName(audioBitrate) + ".m4a").toString());
+        
+        logger.debug("FFmpeg command for audio track {}: {}", audioName(audioBitrate), String.join(" ", command));
+        
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+        processBuilder.redirectErrorStream(true);
+        Process process = processBuilder.start();
+        running.put(process, audioName(audioBitrate));
+        activeConversions.putIfAbsent(videoId, process);
+        
+        try {
+            parseFFmpegOutputWithCallback(process, videoId, mediaInfo.durationSeconds(), progress -> { });
+            
+            boolean completed = process.waitFor(ffmpegTimeoutMinutes, TimeUnit.MINUTES);
+            if (!completed) {
+                process.destroyForcibly();
+                throw new VideoConversionException("FFmpeg encoding of audio track " + audioName(audioBitrate) + " timed out after " + ffmpegTimeoutMinutes + " minutes");
+            }
+            if (process.exitValue() != 0) {
+                throw new VideoConversionException("FFmpeg encoding of audio track " + audioName(audioBitrate) + " failed with exit code: " + process.exitValue());
+            }
+        } finally {
+            running.remove(process);
+            activeConversions.remove(videoId, process);
+            running.keySet().stream().findAny().ifPresent(other -> activeConversions.putIfAbsent(videoId, other));
+        }
+    }
+
+    /**
+     * Muxes the stitched video of a quality level with its audio track into the quality
+     * level's final HLS segments and playlist. Both streams are copied, and the video's
+     * keyframes lie on the segment grid, so the segments are cut where the chunks were.
+     * Writing the segments into the output directory also hands them to the segment
+     * encryption pipeline.
+     *
+     * @param audioFile The encoded audio track, or null if the source has no audio
+     */
+    private void muxChunks(Path chunkDir, Path outputPath, String videoId, QualityLevel quality, Path audioFile,
+                           MediaInfo mediaInfo) throws IOException, InterruptedException, VideoConversionException {
+        List<String> command = new ArrayList<>();
+        command.add("ffmpeg");
+        command.add("-y");
+        command.add("-i");
+        command.add(chunkDir.resolve(quality.name + ".m3u8").toString());
+        if (audioFile != null) {
+            command.add("-i");
+            command.add(audioFile.toString());
+        }
+        command.add("-map");
+        command.add("0:v:0");
+        if (audioFile != null) {
+            command.add("-map");
+            command.add("1:a:0");
+        }
+        command.add("-c");
+        command.add("copy");
+        
+        command.add("-hls_time");
+        command.add(String.valueOf(segmentDuration));
+        command.add("-hls_playlist_type");
+        command.add("vod");
+        command.add("-hls_segment_type");
+        command.add("mpegts");
+        command.add("-hls_flags");
+        // temp_file: segments only appear under their final name once closed
+        command.add("independent_segments+temp_file");
+        command.add("-hls_segment_filename");
+        command.add(outputPath.resolve(quality.name + "_%03d.ts").toString());
+        command.add("-hls_list_size");
+        command.add("0");
+        command.add(outputPath.resolve(quality.name + ".m3u8").toString());
+        
+        logger.debug("FFmpeg command for muxing {}: {}", quality.name, String.join(" ", command));
+        
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+        processBuilder.redirectErrorStream(true);
+        Process process = processBuilder.start();
+        activeConversions.put(videoId, process);
+        
+        try {
+            parseFFmpegOutputWithCallback(process, videoId, mediaInfo.durationSeconds(), progress -> { });
+            
+            boolean completed = process.waitFor(ffmpegTimeoutMinutes, TimeUnit.MINUTES);
+            if (!completed) {
+                process.destroyForcibly();
+                throw new VideoConversionException("FFmpeg mux of " + quality.name + " timed out after " + ffmpegTimeoutMinutes + " minutes");
+            }
+            if (process.exitValue() != 0) {
+                throw new VideoConversionException("FFmpeg mux of " + quality.name + " failed with exit code: " + process.exitValue());
+            }
+            if (!Files.exists(outputPath.resolve(quality.name + ".m3u8"))) {
+                throw new VideoConversionException("Conversion failed: " + quality.name + " playlist file not found");
+            }
+        } finally {
+            activeConversions.remove(videoId, process);
+        }
+        
+        logger.info("{} HLS playlist muxed from its chunks", quality.name);
+    }
+
+    /**
+     * Encodes one chunk of one quality level into its own HLS playlist in the chunk directory.
+     */
+    private void encodeChunk(
+            String sourceFile,
+            Path chunkDir,
+            String videoId,
+            EncodeChunk chunk,
+            MediaInfo mediaInfo,
+            int threads,
+            Map<Process, String> running,
+            Set<String> failedQualities,
+            ProgressCallback progressCallback) 
+            throws IOException, InterruptedException, VideoConversionException {
+        
+        List<String> command = buildChunkFfmpegCommand(sourceFile, chunkDir, chunk, mediaInfo, threads);
+        
+        logger.debug("FFmpeg command for chunk {}: {}", chunk.name(), String.join(" ", command));
+        
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+        processBuilder.redirectErrorStream(true);
+        Process process = processBuilder.start();
+        running.put(process, chunk.quality().name);
+        activeConversions.put(videoId, process);
+        if (failedQualities.contains(chunk.quality().name)) {
+            process.destroy();
+        }
+        
+        try {
+            parseFFmpegOutputWithCallback(process, videoId, chunk.duration(), progressCallback);
+            
+            boolean completed = process.waitFor(ffmpegTimeoutMinutes, TimeUnit.MINUTES);
+            if (!completed) {
+                process.destroyForcibly();
+                throw new VideoConversionException("FFmpeg conversion of chunk " + chunk.name() + " timed out after " + ffmpegTimeoutMinutes + " minutes");
+            }
+            
+            int exitCode = process.exitValue();
+            if (exitCode != 0) {
+                throw new VideoConversionException("FFmpeg conversion of chunk " + chunk.name() + " failed with exit code: " + exitCode);
+            }
+            
+            progressCallback.onProgress(100);
+            
+        } finally {
+            running.remove(process);
+            
+            // Keeps another running chunk registered, so the conversion can still be cancelled
+            activeConversions.remove(videoId, process);
+            running.keySet().stream().findAny().ifPresent(other -> activeConversions.putIfAbsent(videoId, other));
+        }
+    }
+
+    /**
+     * Joins the chunk playlists of a quality level into one video playlist in the chunk
+     * directory, referring to the chunk segments where they are.
+     */
+    private void stitchChunks(Path chunkDir, QualityLevel quality, int chunkCount) 
+            throws IOException, VideoConversionException {
+        List<String> header = new ArrayList<>();
+        int targetDurationLine = 1;
+        List<String> segments = new ArrayList<>();
+        double maxSegmentDuration = 0;
+        
+        for (int index = 0; index < chunkCount; index++) {
+            Path chunkPlaylist = chunkDir.resolve(chunkName(quality, index) + ".m3u8");
+            if (!Files.exists(chunkPlaylist)) {
+                throw new VideoConversionException("Conversion failed: playlist of chunk " + chunkName(quality, index) + " not found");
+            }
+            
+            String extinf = null;
+            for (String line : Files.readAllLines(chunkPlaylist)) {
+                if (line.startsWith("#EXTINF:")) {
+                    extinf = line;
+                    int comma = line.indexOf(',');
+                    maxSegmentDuration = Math.max(maxSegmentDuration, 
+                        Double.parseDouble(line.substring("#EXTINF:".length(), comma < 0 ? line.length() : comma)));
+                } else if (extinf != null && !line.isEmpty() && !line.startsWith("#")) {
+                    segments.add(extinf);
+                    segments.add(line);
+                    extinf = null;
+                } else if (index == 0 && segments.isEmpty() && extinf == null && !line.isEmpty()
+                        && !line.startsWith("#EXT-X-ENDLIST")) {
+                    // Header tags are taken from the first chunk, as FFmpeg wrote them
+                    if (line.startsWith("#EXT-X-TARGETDURATION:")) {
+                        targetDurationLine = header.size();
+                    } else {
+                        header.add(line);
+                    }
+                }
+            }
+        }
+        
+        if (segments.isEmpty()) {
+            throw new VideoConversionException("Conversion failed: no segments in the chunks of " + quality.name);
+        }
+        
+        List<String> playlist = new ArrayList<>(header);
+        playlist.add(Math.min(targetDurationLine, playlist.size()), "#EXT-X-TARGETDURATION:" + (int) Math.ceil(maxSegmentDuration));
+        playlist.addAll(segments);
+        playlist.add("#EXT-X-ENDLIST");
+        
+        Files.write(chunkDir.resolve(quality.name + ".m3u8"), playlist);
+        logger.debug("{} video stitched from {} chunks", quality.name, chunkCount);
+    }
+
+    /**
+     * @return Chunk duration in seconds, rounded up to a whole number of segments
+     */
+    private int chunkDuration() {
+        int segments = Math.max(1, (chunkDurationSeconds + segmentDuration - 1) / segmentDuration);
+        return segments * segmentDuration;
+    }
+
+    private static void markCompleted(ConversionCheckpoint checkpoint, String unit) throws IOException {
+        if (checkpoint != null) {
+            checkpoint.markCompleted(unit);
+        }
+    }
+
+    private static String chunkName(QualityLevel quality, int index) {
+        return quality.name + "_c" + index;
+    }
+
+    private static String audioName(String audioBitrate) {
+        return "audio_" + audioBitrate;
+    }
+
+    /**
+     * Starts feeding a live upload to FFmpeg on a thread of its own. FFmpeg stalls until
+     * its input arrives, so the pump must never wait behind, or be rejected by, a shared
+     * pool; live conversions are few, being limited by the transcode scheduler.
+     */
+    private void startUploadPump(LiveUpload upload, Process process, String videoId) {
+        Thread pump = new Thread(() -> pumpUpload(upload, process, videoId), "UploadPump-" + videoId);
+        pump.setDaemon(true);
+        pump.start();
+    }
+
+    /**
+     * Copies a live upload into FFmpeg's standard input as the bytes arrive. Closing the
+     * pipe tells FFmpeg the source has ended; an aborted upload stops FFmpeg.
+     */
+    private void pumpUpload(LiveUpload upload, Process process, String videoId) {
+        try (InputStream in = upload.openReader(); OutputStream out = process.getOutputStream()) {
+            in.transferTo(out);
+        } catch (IOException e) {
+            if (process.isAlive()) {
+                logger.warn("Stopping live conversion for video {}: {}", videoId, e.getMessage());
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    /**
+     * Waits for a live upload to finish before its conversion is published, since FFmpeg
+     * can stop reading before the upload has been checked.
+     */
+    private void awaitUpload(LiveUpload upload) throws InterruptedException, VideoConversionException {
+        boolean intact;
+        try {
+            intact = upload.finished().get(ffmpegTimeoutMinutes, TimeUnit.MINUTES);
+        } catch (ExecutionException | TimeoutException e) {
+            intact = false;
+        }
+        if (!intact) {
+            throw new VideoConversionException("Upload did not complete");
+        }
+    }
+
     @Override
     public boolean cancelConversion(String videoId) {
         Process process = activeConversions.get(videoId);
         if (process != null && process.isAlive()) {
+            cancelledConversions.add(videoId);
             process.destroy();
             activeConversions.remove(videoId);
             
-            videoRepository.findById(videoId).ifPresent(video -> {
-                video.setConversionStatus(ConversionStatus.FAILED);
-                video.setConversionError("Conversion cancelled by user");
-                videoRepository.save(video);
-            });
+            // A cancelled retry leaves the live renditions as they are
+            if (!backgroundConversions.contains(videoId)) {
+                videoRepository.findById(videoId).ifPresent(video ->
+                    progressService.transition(video, ConversionStatus.FAILED, "Conversion cancelled by user"));
+            }
             
             return true;
         }
@@ -325,6 +1334,8 @@ public class MultistreamFFmpegVideoConversionService implements EncryptedVideoCo
 
     @Override
     public boolean cleanupVideoFiles(String videoId) {
+        segmentCache.invalidateVideo(videoId);
+        manifestService.invalidate(videoId);
         try {
             Path videoPath = Paths.get(getOutputDirectory().toString(), videoId);
             return storageService.delete(videoPath);
@@ -337,189 +1348,128 @@ public class MultistreamFFmpegVideoConversionService implements EncryptedVideoCo
     @Override
     public int getVideoDuration(Path videoPath) {
         try {
-            List<String> command = new ArrayList<>();
-            command.add("ffprobe");
-            command.add("-v");
-            command.add("error");
-            command.add("-show_entries");
-            command.add("format=duration");
-            command.add("-of");
-            command.add("default=noprint_wrappers=1:nokey=1");
-            command.add(videoPath.toString());
-            
-            ProcessBuilder processBuilder = new ProcessBuilder(command);
-            Process process = processBuilder.start();
-            
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            String durationStr = reader.readLine();
-            
-            boolean completed = process.waitFor(FFPROBE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-            if (!completed) {
-                process.destroyForcibly();
-                logger.warn("ffprobe timed out when determining duration");
-                return 0;
-            }
-            
-            int exitCode = process.exitValue();
-            if (exitCode != 0 || durationStr == null) {
-                logger.warn("Failed to get duration, process exited with code: {}", exitCode);
-                return 0;
-            }
-            
-            double durationDouble = Double.parseDouble(durationStr);
-            return (int) Math.round(durationDouble);
-            
-        } catch (Exception e) {
+            return (int) Math.round(mediaProbeService.analyze(videoPath).durationSeconds());
+        } catch (IOException e) {
             logger.warn("Error determining video duration: {}", e.getMessage());
             return 0;
         }
     }
     
     /**
-     * Gets appropriate quality levels based on source resolution.
-     * This method ensures we don't create quality levels higher than the source.
+     * Checks whether a quality level can be produced by copying the source's video stream:
+     * H.264 in 8-bit 4:2:0, which every HLS player decodes, at exactly the quality's height.
+     * Rotated sources are excluded because MPEG-TS cannot carry the rotation.
      */
-    private List<QualityLevel> getTargetQualityLevels(int sourceWidth, int sourceHeight) {
-        List<QualityLevel> targetQualityLevels = new ArrayList<>();
-        int maxDimension = Math.max(sourceWidth, sourceHeight);
-        
-        for (QualityLevel quality : ALL_QUALITY_LEVELS) {
-            if (quality.height <= maxDimension) {
-                targetQualityLevels.add(quality);
-            }
-        }
-        
-        // Always ensure at least one quality level
-        if (targetQualityLevels.isEmpty() && ALL_QUALITY_LEVELS.length > 0) {
-            targetQualityLevels.add(ALL_QUALITY_LEVELS[ALL_QUALITY_LEVELS.length - 1]);
-        }
-        
-        return targetQualityLevels;
+    private boolean isPassthroughCandidate(QualityLevel quality, MediaInfo mediaInfo) {
+        return passthroughEnabled
+            && mediaInfo != null
+            && "h264".equals(mediaInfo.videoCodec())
+            && "yuv420p".equals(mediaInfo.pixelFormat())
+            && mediaInfo.rotation() == 0
+            && mediaInfo.height() == quality.height;
     }
     
     /**
-     * Checks if the video file type is supported for conversion.
+     * Checks whether a quality level is remuxed from the source. Besides matching it, the
+     * source must have a keyframe at every segment boundary the encoded renditions force,
+     * so that all renditions switch at the same points.
      */
-    public boolean isVideoFileTypeSupported(String filename) {
-        return SUPPORTED_VIDEO_EXTENSIONS.stream()
-                .anyMatch(ext -> filename.toLowerCase().endsWith(ext));
+    private boolean canPassThrough(QualityLevel quality, MediaInfo mediaInfo, SegmentProfile segmentProfile) {
+        return isPassthroughCandidate(quality, mediaInfo)
+            && segmentProfile != null
+            && segmentProfile.keyframesOnGrid()
+            && segmentProfile.peakVideoBitRate() > 0;
     }
-
+    
     /**
-     * Gets the resolution of the source video with standardized timeout handling
+     * Profiles the source's keyframes and segment sizes when one of the quality levels
+     * could be remuxed from it. Returns null when none could, or when profiling fails,
+     * in which case every quality level is encoded.
      */
-    private int[] getVideoResolution(String videoPath) {
+    private SegmentProfile profileSource(Path sourceFile, MediaInfo mediaInfo, List<QualityLevel> qualities,
+                                         String videoId) {
+        if (qualities.stream().noneMatch(quality -> isPassthroughCandidate(quality, mediaInfo))) {
+            return null;
+        }
         try {
-            List<String> command = new ArrayList<>();
-            command.add("ffprobe");
-            command.add("-v");
-            command.add("error");
-            command.add("-show_entries");
-            command.add("stream=width,height");
-            command.add("-select_streams");
-            command.add("v:0");
-            command.add("-of");
-            command.add("default=noprint_wrappers=1");
-            command.add(videoPath);
-            
-            ProcessBuilder processBuilder = new ProcessBuilder(command);
-            Process process = processBuilder.start();
-            
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            String line;
-            int width = 0;
-            int height = 0;
-            
-            while ((line = reader.readLine()) != null) {
-                if (line.startsWith("width=")) {
-                    width = Integer.parseInt(line.substring(6));
-                } else if (line.startsWith("height=")) {
-                    height = Integer.parseInt(line.substring(7));
-                }
-                
-                if (width > 0 && height > 0) {
-                    break;
-                }
-            }
-            
-            boolean completed = process.waitFor(FFPROBE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-            if (!completed) {
-                process.destroyForcibly();
-                logger.warn("ffprobe timed out when determining resolution");
-                return getVideoResolutionAlternative(videoPath);
+            SegmentProfile profile = mediaProbeService.profileSegments(sourceFile, segmentDuration, mediaInfo.frameRate());
+            if (!profile.keyframesOnGrid()) {
+                logger.info("Keyframes of video {} are off the {}s segment grid, encoding every quality level",
+                    videoId, segmentDuration);
             }
-            
-            int exitCode = process.exitValue();
-            if (exitCode != 0 || width == 0 || height == 0) {
-                return getVideoResolutionAlternative(videoPath);
-            }
-            
-            return new int[] { width, height };
-            
-        } catch (Exception e) {
-            logger.warn("Error determining video resolution with ffprobe: {}", e.getMessage());
-            return getVideoResolutionAlternative(videoPath);
+            return profile;
+        } catch (IOException e) {
+            logger.warn("Could not profile the source of video {}, encoding every quality level: {}",
+                videoId, e.getMessage());
+            return null;
         }
     }
     
     /**
-     * Alternative method to get video resolution if ffprobe fails.
+     * Checks whether the source's audio can be copied into a remuxed rendition: AAC with
+     * no more channels than the stereo the encoded renditions carry.
+     */
+    private boolean canCopyAudio(MediaInfo mediaInfo) {
+        return "aac".equals(mediaInfo.audioCodec()) && mediaInfo.audioChannels() <= 2;
+    }
+    
+    /**
+     * Gets the bandwidth of a remuxed rendition: the peak segment bitrate of the source's
+     * video, as HLS requires, plus the audio bitrate.
+     */
+    private long getPassthroughBandwidth(QualityLevel quality, MediaInfo mediaInfo, SegmentProfile segmentProfile) {
+        long audioBitRate = !mediaInfo.hasAudio() ? 0
+            : canCopyAudio(mediaInfo) && mediaInfo.audioBitRate() > 0 ? mediaInfo.audioBitRate()
+            : QualityLevel.parseBitrate(quality.audioBitrate);
+        
+        return segmentProfile.peakVideoBitRate() + audioBitRate;
+    }
+    
+    /**
+     * Gets appropriate quality levels based on source resolution.
+     * This method ensures we don't create quality levels higher than the source.
      */
-    private int[] getVideoResolutionAlternative(String videoPath) {
-        ProcessBuilder processBuilder = null;
-        Process process = null;
+    private List<QualityLevel> getTargetQualityLevels(int sourceWidth, int sourceHeight) {
+        List<QualityLevel> targetQualityLevels = new ArrayList<>();
+        int maxDimension = Math.max(sourceWidth, sourceHeight);
         
-        try {
-            List<String> command = new ArrayList<>();
-            command.add("ffmpeg");
-            command.add("-i");
-            command.add(videoPath);
-            command.add("-hide_banner");
-            
-            processBuilder = new ProcessBuilder(command);
-            process = processBuilder.start();
-            
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getErrorStream()));
-            String line;
-            
-            long startTime = System.currentTimeMillis();
-            while ((line = reader.readLine()) != null) {
-                if (System.currentTimeMillis() - startTime > FFPROBE_TIMEOUT_SECONDS * 1000) {
-                    break;
-                }
-                
-                Matcher matcher = RESOLUTION_PATTERN.matcher(line);
-                if (matcher.find()) {
-                    int width = Integer.parseInt(matcher.group(1));
-                    int height = Integer.parseInt(matcher.group(2));
-                    return new int[] { width, height };
-                }
-            }
-        } catch (Exception e) {
-            logger.error("Error determining video resolution with alternative method: {}", e.getMessage());
-        } finally {
-            if (process != null && process.isAlive()) {
-                process.destroyForcibly();
+        for (QualityLevel quality : ALL_QUALITY_LEVELS) {
+            if (quality.height <= maxDimension) {
+                targetQualityLevels.add(quality);
             }
         }
         
-        // Default to 480p if we couldn't determine resolution
-        return new int[] { 854, 480 };
+        // Always ensure at least one quality level
+        if (targetQualityLevels.isEmpty() && ALL_QUALITY_LEVELS.length > 0) {
+            targetQualityLevels.add(ALL_QUALITY_LEVELS[ALL_QUALITY_LEVELS.length - 1]);
+        }
+        
+        return targetQualityLevels;
     }
     
+    /**
+     * Checks if the video file type is supported for conversion.
+     */
+    public boolean isVideoFileTypeSupported(String filename) {
+        return SUPPORTED_VIDEO_EXTENSIONS.stream()
+                .anyMatch(ext -> filename.toLowerCase().endsWith(ext));
+    }
+
     /**
      * Converts a single quality level using FFmpeg with progress callback for parallel tracking
      */
     private void convertQualityWithProgressCallback(
             String sourceFile, 
             String outputDir, 
+            Path keyInfoFile,
             String videoId,
             QualityLevel quality, 
             Video video,
+            int threads,
             ProgressCallback progressCallback) 
             throws IOException, InterruptedException, VideoConversionException {
         
-        List<String> command = buildFfmpegCommand(sourceFile, outputDir, quality);
+        List<String> command = buildFfmpegCommand(sourceFile, outputDir, keyInfoFile, quality, video.getMediaInfo(), threads);
         
         logger.info("FFmpeg command for {}: {}", quality.name, String.join(" ", command));
         
@@ -529,7 +1479,7 @@ public class MultistreamFFmpegVideoConversionService implements EncryptedVideoCo
         activeConversions.put(videoId, process);
         
         try {
-            parseFFmpegOutputWithCallback(process, progressCallback);
+            parseFFmpegOutputWithCallback(process, videoId, video.getMediaInfo().durationSeconds(), progressCallback);
             
             boolean completed = process.waitFor(ffmpegTimeoutMinutes, TimeUnit.MINUTES);
             if (!completed) {
@@ -547,8 +1497,6 @@ public class MultistreamFFmpegVideoConversionService implements EncryptedVideoCo
                 throw new VideoConversionException("Conversion failed: " + quality.name + " playlist file not found");
             }
             
-            processPlaylistFile(playlistPath.toString(), videoId, quality.name + "_");
-            
             logger.info("{} HLS playlist created successfully at {}", quality.name, playlistPath);
             
             progressCallback.onProgress(100);
@@ -562,39 +1510,165 @@ public class MultistreamFFmpegVideoConversionService implements EncryptedVideoCo
      * Converts a single quality level using FFmpeg.
      * Updates progress within the specified range (baseProgress to maxProgress).
      */
-    private void convertQuality(String sourceFile, String outputDir, String videoId, 
+    private void convertQuality(String sourceFile, String outputDir, Path keyInfoFile, String videoId, 
                           QualityLevel quality, Video video,
                           int baseProgress, int maxProgress) 
         throws IOException, InterruptedException, VideoConversionException {
         
-        convertQualityWithProgressCallback(sourceFile, outputDir, videoId, quality, video, 
+        convertQualityWithProgressCallback(sourceFile, outputDir, keyInfoFile, videoId, quality, video, coresPerJob,
             progress -> {
                 int scaledProgress = baseProgress + (progress * (maxProgress - baseProgress) / 100);
-                video.setConversionProgress(scaledProgress);
-                videoRepository.save(video);
+                reportProgress(videoId, scaledProgress);
             }
         );
     }
 
     /**
-     * Builds FFmpeg command with appropriate encoding settings
+     * Builds FFmpeg command with appropriate encoding settings, using at most the given
+     * number of encoder threads
+     */
+    private List<String> buildFfmpegCommand(String sourceFile, String outputDir, Path keyInfoFile,
+                                            QualityLevel quality, MediaInfo mediaInfo, int threads) {
+        List<String> command = new ArrayList<>();
+        command.add("ffmpeg");
+        command.add("-i");
+        command.add(sourceFile);
+        command.add("-threads");
+        command.add(String.valueOf(threads));
+        
+        addRenditionEncoding(command, quality, mediaInfo, true);
+        
+        // Add HLS parameters with optimizations
+        command.add("-hls_time");
+        command.add(String.valueOf(segmentDuration));
+        command.add("-hls_playlist_type");
+        command.add("vod");
+        command.add("-hls_segment_type");
+        command.add("mpegts");
+        command.add("-hls_flags");
+        // temp_file: segments only appear under their final name once closed
+        command.add("independent_segments+temp_file");
+        addKeyInfo(command, keyInfoFile);
+        command.add("-hls_segment_filename");
+        command.add(Paths.get(outputDir, quality.name + "_%03d.ts").toString());
+        command.add("-hls_list_size");
+        command.add("0");
+        command.add("-movflags");
+        command.add("+faststart");
+        command.add(Paths.get(outputDir, quality.name + ".m3u8").toString());
+        
+        return command;
+    }
+
+    /**
+     * Builds the FFmpeg command for the video of one chunk of a quality level. The chunk is
+     * read with an accurate input seek, keyframes are forced on the segment grid, and output
+     * timestamps are offset by the chunk's start so they continue those of the previous chunk.
+     */
+    private List<String> buildChunkFfmpegCommand(String sourceFile, Path chunkDir, EncodeChunk chunk,
+                                                 MediaInfo mediaInfo, int threads) {
+        List<String> command = new ArrayList<>();
+        command.add("ffmpeg");
+        if (chunk.start() > 0) {
+            command.add("-ss");
+            command.add(String.valueOf(chunk.start()));
+        }
+        // The last chunk runs to the end of the source, whatever its exact duration
+        if (!chunk.last()) {
+            command.add("-t");
+            command.add(String.valueOf(chunk.duration()));
+        }
+        command.add("-i");
+        command.add(sourceFile);
+        command.add("-threads");
+        command.add(String.valueOf(threads));
+        
+        // Audio is encoded once for the whole source, not per chunk
+        addRenditionEncoding(command, chunk.quality(), mediaInfo, false);
+        
+        command.add("-force_key_frames");
+        command.add("expr:gte(t,n_forced*" + segmentDuration + ")");
+        command.add("-output_ts_offset");
+        command.add(String.valueOf(chunk.start()));
+        
+        command.add("-hls_time");
+        command.add(String.valueOf(segmentDuration));
+        command.add("-hls_playlist_type");
+        command.add("vod");
+        command.add("-hls_segment_type");
+        command.add("mpegts");
+        command.add("-hls_flags");
+        command.add("independent_segments");
+        command.add("-hls_segment_filename");
+        command.add(chunkDir.resolve(chunk.name() + "_%03d.ts").toString());
+        command.add("-hls_list_size");
+        command.add("0");
+        command.add(chunkDir.resolve(chunk.name() + ".m3u8").toString());
+        
+        return command;
+    }
+
+    /**
+     * Builds the FFmpeg command that remuxes the source into a quality level's HLS playlist.
+     * The video stream is copied, so segments can only be cut at the source's keyframes;
+     * audio is copied too unless it has to be encoded to stereo AAC.
      */
-    private List<String> buildFfmpegCommand(String sourceFile, String outputDir, QualityLevel quality) {
+    private List<String> buildPassthroughFfmpegCommand(String sourceFile, String outputDir, Path keyInfoFile,
+                                                       QualityLevel quality, MediaInfo mediaInfo) {
         List<String> command = new ArrayList<>();
         command.add("ffmpeg");
         command.add("-i");
         command.add(sourceFile);
         
-        // Only check for hardware acceleration once and cache the result
-        String hwAccel = null;
-        synchronized (this) {
-            if (!hwAccelChecked) {
-                cachedHardwareAcceleration = detectHardwareAcceleration();
-                hwAccelChecked = true;
+        // The first video stream that is not cover art, as in the source analysis
+        command.add("-map");
+        command.add("0:V:0");
+        command.add("-c:v");
+        command.add("copy");
+        
+        if (mediaInfo.hasAudio()) {
+            command.add("-map");
+            command.add("0:a:0");
+            if (canCopyAudio(mediaInfo)) {
+                command.add("-c:a");
+                command.add("copy");
+            } else {
+                command.add("-c:a");
+                command.add("aac");
+                command.add("-b:a");
+                command.add(quality.audioBitrate);
+                addStereoDownmix(command, mediaInfo);
             }
-            hwAccel = cachedHardwareAcceleration;
         }
         
+        command.add("-hls_time");
+        command.add(String.valueOf(segmentDuration));
+        command.add("-hls_playlist_type");
+        command.add("vod");
+        command.add("-hls_segment_type");
+        command.add("mpegts");
+        command.add("-hls_flags");
+        // temp_file: segments only appear under their final name once closed
+        command.add("independent_segments+temp_file");
+        addKeyInfo(command, keyInfoFile);
+        command.add("-hls_segment_filename");
+        command.add(Paths.get(outputDir, quality.name + "_%03d.ts").toString());
+        command.add("-hls_list_size");
+        command.add("0");
+        command.add(Paths.get(outputDir, quality.name + ".m3u8").toString());
+        
+        return command;
+    }
+
+    /**
+     * Adds the video encoder, audio encoder and scaling arguments of a quality level.
+     *
+     * @param withAudio false to leave out the audio, which is then encoded separately
+     */
+    private void addRenditionEncoding(List<String> command, QualityLevel quality, MediaInfo mediaInfo,
+                                      boolean withAudio) {
+        String hwAccel = getHardwareAcceleration();
+        
         if (hwAccel != null) {
             applyHardwareAcceleration(command, hwAccel, quality);
         } else {
@@ -612,18 +1686,106 @@ public class MultistreamFFmpegVideoConversionService implements EncryptedVideoCo
         }
         
         // Add audio encoding
-        command.add("-c:a");
-        command.add("aac");
-        command.add("-b:a");
-        command.add(quality.audioBitrate);
+        if (withAudio && mediaInfo.hasAudio()) {
+            command.add("-c:a");
+            command.add("aac");
+            command.add("-b:a");
+            command.add(quality.audioBitrate);
+            addStereoDownmix(command, mediaInfo);
+        } else {
+            command.add("-an");
+        }
         
         // Add scaling parameters - use -2 to maintain aspect ratio
         if (hwAccel == null || !hwAccel.equals("vaapi")) { // VAAPI has scaling in its filter
             command.add("-vf");
             command.add("scale=-2:" + quality.height);
         }
+
+    }
+
+    /**
+     * Builds the FFmpeg command for single-pass conversion: one decode, a split + scale
+     * filter graph, and one HLS variant stream per quality level named after the level.
+     */
+    private List<String> buildSinglePassFfmpegCommand(String sourceFile, String outputDir, Path keyInfoFile,
+                                                      List<QualityLevel> qualities, MediaInfo mediaInfo) {
+        int renditions = qualities.size();
+        boolean hasAudio = mediaInfo.hasAudio();
+        String hwAccel = getHardwareAcceleration();
+        
+        StringBuilder filterGraph = new StringBuilder("[0:v]split=").append(renditions);
+        for (int i = 0; i < renditions; i++) {
+            filterGraph.append("[s").append(i).append("]");
+        }
+        for (int i = 0; i < renditions; i++) {
+            filterGraph.append(";[s").append(i).append("]scale=-2:")
+                .append(qualities.get(i).height).append("[v").append(i).append("]");
+        }
         
-        // Add HLS parameters with optimizations
+        // -threads applies to every encoder of the output, so the job's cores are split
+        // between the encoders and the split/scale graph rather than given to each
+        int threadsPerStream = Math.max(1, coresPerJob / (renditions + 1));
+        
+        List<String> command = new ArrayList<>();
+        command.add("ffmpeg");
+        command.add("-i");
+        command.add(sourceFile);
+        command.add("-filter_complex_threads");
+        command.add(String.valueOf(threadsPerStream));
+        command.add("-filter_complex");
+        command.add(filterGraph.toString());
+        
+        for (int i = 0; i < renditions; i++) {
+            command.add("-map");
+            command.add("[v" + i + "]");
+        }
+        if (hasAudio) {
+            for (int i = 0; i < renditions; i++) {
+                command.add("-map");
+                command.add("0:a:0");
+            }
+        }
+        
+        applySinglePassVideoEncoder(command, hwAccel);
+        for (int i = 0; i < renditions; i++) {
+            command.add("-threads:v:" + i);
+            command.add(String.valueOf(threadsPerStream));
+        }
+        
+        // Keyframes on segment boundaries keep the renditions aligned for ABR switching
+        command.add("-force_key_frames");
+        command.add("expr:gte(t,n_forced*" + segmentDuration + ")");
+        
+        for (int i = 0; i < renditions; i++) {
+            QualityLevel quality = qualities.get(i);
+            command.add("-b:v:" + i);
+            command.add(quality.bitrate);
+            command.add("-maxrate:v:" + i);
+            command.add(quality.maxRate);
+            command.add("-bufsize:v:" + i);
+            command.add(quality.bufSize);
+        }
+        
+        if (hasAudio) {
+            command.add("-c:a");
+            command.add("aac");
+            for (int i = 0; i < renditions; i++) {
+                command.add("-b:a:" + i);
+                command.add(qualities.get(i).audioBitrate);
+            }
+            addStereoDownmix(command, mediaInfo);
+        }
+        
+        List<String> streamMap = new ArrayList<>();
+        for (int i = 0; i < renditions; i++) {
+            streamMap.add(hasAudio
+                ? String.format("v:%d,a:%d,name:%s", i, i, qualities.get(i).name)
+                : String.format("v:%d,name:%s", i, qualities.get(i).name));
+        }
+        
+        command.add("-f");
+        command.add("hls");
         command.add("-hls_time");
         command.add(String.valueOf(segmentDuration));
         command.add("-hls_playlist_type");
@@ -631,39 +1793,100 @@ public class MultistreamFFmpegVideoConversionService implements EncryptedVideoCo
         command.add("-hls_segment_type");
         command.add("mpegts");
         command.add("-hls_flags");
-        command.add("independent_segments");
-        command.add("-hls_segment_filename");
-        command.add(Paths.get(outputDir, quality.name + "_%03d.ts").toString());
+        // temp_file: segments only appear under their final name once closed
+        command.add("independent_segments+temp_file");
         command.add("-hls_list_size");
         command.add("0");
-        command.add("-movflags");
-        command.add("+faststart");
-        command.add(Paths.get(outputDir, quality.name + ".m3u8").toString());
+        command.add("-var_stream_map");
+        command.add(String.join(" ", streamMap));
+        addKeyInfo(command, keyInfoFile);
+        command.add("-hls_segment_filename");
+        command.add(Paths.get(outputDir, "%v_%03d.ts").toString());
+        command.add(Paths.get(outputDir, "%v.m3u8").toString());
         
         return command;
     }
+    
+    /**
+     * Adds the video encoder for single-pass conversion. Bitrates are set per output
+     * stream by the caller, so only the codec and its preset are added here.
+     */
+    private void applySinglePassVideoEncoder(List<String> command, String acceleration) {
+        if (acceleration == null) {
+            command.add("-c:v");
+            command.add("libx264");
+            command.add("-preset");
+            command.add(encodingPreset);
+            return;
+        }
+        
+        switch (acceleration) {
+            case "nvenc":
+                command.add("-c:v");
+                command.add("h264_nvenc");
+                command.add("-preset");
+                command.add("p4");
+                break;
+                
+            case "qsv":
+                command.add("-c:v");
+                command.add("h264_qsv");
+                command.add("-preset");
+                command.add("faster");
+                break;
+                
+            case "videotoolbox":
+                command.add("-c:v");
+                command.add("h264_videotoolbox");
+                command.add("-profile:v");
+                command.add("main");
+                break;
+        }
+    }
+    
+    /**
+     * Single-pass conversion feeds software-scaled frames to the encoders, which VAAPI's
+     * hwupload filter chain does not fit into; VAAPI keeps the per-quality processes.
+     */
+    private boolean supportsSinglePassLadder() {
+        return !"vaapi".equals(getHardwareAcceleration());
+    }
+    
+    /**
+     * Downmixes surround audio to stereo, which the AAC bitrates of the quality levels are sized for.
+     */
+    private void addStereoDownmix(List<String> command, MediaInfo mediaInfo) {
+        if (mediaInfo.audioChannels() > 2) {
+            command.add("-ac");
+            command.add("2");
+        }
+    }
+
+    /**
+     * Gets the hardware acceleration method, detecting it once and caching the result.
+     */
+    private synchronized String getHardwareAcceleration() {
+        if (!hwAccelChecked) {
+            cachedHardwareAcceleration = detectHardwareAcceleration();
+            hwAccelChecked = true;
+        }
+        return cachedHardwareAcceleration;
+    }
 
     /**
-     * Parses FFmpeg output and reports progress through callback
+     * Parses FFmpeg output and reports progress through callback, against the duration of
+     * the output from the source analysis. No progress is reported when it is unknown.
      */
-    private void parseFFmpegOutputWithCallback(Process process, ProgressCallback callback) {
+    private void parseFFmpegOutputWithCallback(Process process, String videoId, double outputSeconds,
+                                               ProgressCallback callback) {
         BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
         
-        double totalSeconds = 0;
+        double totalSeconds = outputSeconds;
         String line;
         int lastReportedProgress = -1;
         
         try {
             while ((line = reader.readLine()) != null) {
-                Matcher durationMatcher = DURATION_PATTERN.matcher(line);
-                if (durationMatcher.find() && totalSeconds == 0) {
-                    totalSeconds = parseTimeToSeconds(
-                        durationMatcher.group(1),
-                        durationMatcher.group(2),
-                        durationMatcher.group(3)
-                    );
-                }
-                
                 Matcher progressMatcher = PROGRESS_PATTERN.matcher(line);
                 if (progressMatcher.find() && totalSeconds > 0) {
                     double currentSeconds = parseTimeToSeconds(
@@ -674,6 +1897,11 @@ public class MultistreamFFmpegVideoConversionService implements EncryptedVideoCo
                     
                     int progress = Math.min((int) ((currentSeconds / totalSeconds) * 100), 99);
                     
+                    Matcher speedMatcher = SPEED_PATTERN.matcher(line);
+                    if (speedMatcher.find()) {
+                        reportSpeed(videoId, Double.parseDouble(speedMatcher.group(1)));
+                    }
+                    
                     if (progress > lastReportedProgress) {
                         lastReportedProgress = progress;
                         callback.onProgress(progress);
@@ -686,10 +1914,15 @@ public class MultistreamFFmpegVideoConversionService implements EncryptedVideoCo
     }
 
     /**
-     * Creates a master playlist that references all quality variants with fully qualified URLs.
+     * Creates a master playlist that references all quality variants by file name. Playlists
+     * are stored without host names; ManifestService renders the URIs players see. Quality
+     * levels remuxed from the source are advertised with the source's peak bitrate and resolution.
+     *
+     * @param mediaInfo Analysis of the source
+     * @param segmentProfile Segment profile of the source, or null if no quality level was remuxed
      */
-    private void createMasterPlaylist(String outputDirectory, String videoId, List<QualityLevel> qualities) 
-            throws IOException {
+    private void createMasterPlaylist(String outputDirectory, String videoId, List<QualityLevel> qualities,
+                                      MediaInfo mediaInfo, SegmentProfile segmentProfile) throws IOException {
         Path masterPlaylistPath = Paths.get(outputDirectory, videoId + ".m3u8");
         
         List<String> masterPlaylistContent = new ArrayList<>();
@@ -700,9 +1933,19 @@ public class MultistreamFFmpegVideoConversionService implements EncryptedVideoCo
             Path qualityPlaylist = Paths.get(outputDirectory, quality.name + ".m3u8");
             
             if (Files.exists(qualityPlaylist)) {
+                long bandwidth = quality.bandwidth;
+                int width = quality.width;
+                int height = quality.height;
+                
+                if (canPassThrough(quality, mediaInfo, segmentProfile)) {
+                    bandwidth = getPassthroughBandwidth(quality, mediaInfo, segmentProfile);
+                    width = mediaInfo.width();
+                    height = mediaInfo.height();
+                }
+                
                 masterPlaylistContent.add(String.format("#EXT-X-STREAM-INF:BANDWIDTH=%d,RESOLUTION=%dx%d", 
-                        quality.bandwidth, quality.width, quality.height));
-                masterPlaylistContent.add(String.format("%s/video/%s/playlist/%s", baseUrl, videoId, quality.name));
+                        bandwidth, width, height));
+                masterPlaylistContent.add(quality.name + ".m3u8");
             }
         }
         
@@ -710,29 +1953,22 @@ public class MultistreamFFmpegVideoConversionService implements EncryptedVideoCo
         logger.info("Created master playlist at {} with {} quality levels", masterPlaylistPath, qualities.size());
     }
     
-    /**
-     * Process a playlist file to update segment URLs.
-     */
-    private void processPlaylistFile(String path, String videoId, String segmentPrefix) throws IOException {
-        File playlist = new File(path);
-        if (!playlist.exists()) {
-            throw new IOException("Playlist file not found: " + path);
+    private void reportProgress(String videoId, int progress) {
+        if (!backgroundConversions.contains(videoId)) {
+            progressService.updateProgress(videoId, progress);
+        }
+    }
+
+    private void reportRendition(String videoId, String rendition) {
+        if (!backgroundConversions.contains(videoId)) {
+            progressService.updateRendition(videoId, rendition);
+        }
+    }
+
+    private void reportSpeed(String videoId, double speed) {
+        if (!backgroundConversions.contains(videoId)) {
+            progressService.updateSpeed(videoId, speed);
         }
-        
-        List<String> lines = Files.readAllLines(playlist.toPath());
-        
-        List<String> processedLines = lines.stream()
-            .map(line -> {
-                if (line.endsWith(".ts") && !line.startsWith("http")) {
-                    return String.format("%s/video/%s/segments/%s", baseUrl, videoId, line);
-                } else {
-                    return line;
-                }
-            })
-            .collect(Collectors.toList());
-        
-        Files.write(playlist.toPath(), processedLines);
-        logger.info("Processed playlist at {}", path);
     }
 
     /**
@@ -945,39 +2181,78 @@ public class MultistreamFFmpegVideoConversionService implements EncryptedVideoCo
         command.add(quality.bufSize);
     }
 
-        private void encryptSegments(Path tempPath, Path outputPath, String videoId, String encryptionKey) throws Exception {
-        logger.info("Encrypting segments for video: {}", videoId);
-        
-        // Copy and encrypt playlist file
-        Path tempPlaylist = tempPath.resolve(videoId + ".m3u8");
-        Path outputPlaylist = outputPath.resolve(videoId + ".m3u8");
-        Files.copy(tempPlaylist, outputPlaylist);
+    /**
+     * Waits for the segment encryption pipeline to catch up with FFmpeg, then publishes
+     * the playlists next to the encrypted segments and removes the working directory.
+     */
+    private void encryptSegments(SegmentEncryptionPipeline pipeline, Path tempPath, Path outputPath,
+            String videoId) throws Exception {
+        int encrypted = pipeline.finish();
+        logger.info("Encrypted {} segments for video: {}", encrypted, videoId);
         
-        // Find and encrypt all segment files (.ts files)
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(tempPath, "*.ts")) {
-            for (Path segmentFile : stream) {
-                String fileName = segmentFile.getFileName().toString();
-                Path outputSegment = outputPath.resolve(fileName);
-                
-                // Encrypt the segment
-                encryptionService.encryptFile(segmentFile, outputSegment, encryptionKey);
-                logger.debug("Encrypted segment: {}", fileName);
+        // Master playlist and quality-specific playlists
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(tempPath, "*.m3u8")) {
+            for (Path playlist : stream) {
+                Files.copy(playlist, outputPath.resolve(playlist.getFileName()), StandardCopyOption.REPLACE_EXISTING);
             }
         }
         
-        // Also handle quality-specific playlists if they exist
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(tempPath, "*p.m3u8")) {
-            for (Path qualityPlaylist : stream) {
-                String fileName = qualityPlaylist.getFileName().toString();
-                Path outputQualityPlaylist = outputPath.resolve(fileName);
-                Files.copy(qualityPlaylist, outputQualityPlaylist);
-            }
+        storageService.delete(tempPath);
+    }
+    
+    /**
+     * Writes the key and the FFmpeg key info file for HLS AES-128 encryption. The key
+     * URI is relative to the media playlist endpoint, which is how ManifestService
+     * renders it too; the files live outside the output directory so the key is never
+     * served as content.
+     */
+    private Path writeKeyInfoFile(String videoId, String encryptionKey) throws Exception {
+        Path keyDirectory = Files.createTempDirectory("hls-key-" + videoId);
+        Path keyFile = keyDirectory.resolve("segments.key");
+        Files.write(keyFile, encryptionService.deriveHlsKey(encryptionKey));
+        
+        Path keyInfoFile = keyDirectory.resolve("segments.keyinfo");
+        Files.write(keyInfoFile, List.of(
+            "../key",
+            keyFile.toAbsolutePath().toString()
+        ));
+        return keyInfoFile;
+    }
+    
+    private void deleteKeyInfoFile(Path keyInfoFile) {
+        if (keyInfoFile != null) {
+            storageService.delete(keyInfoFile.getParent());
+        }
+    }
+    
+    /**
+     * Adds HLS AES-128 encryption to an FFmpeg command when a key info file is given.
+     */
+    private void addKeyInfo(List<String> command, Path keyInfoFile) {
+        if (keyInfoFile != null) {
+            command.add("-hls_key_info_file");
+            command.add(keyInfoFile.toAbsolutePath().toString());
         }
     }
     
     /**
-     * Callback interface for progress tracking
+     * Joins quality level names for progress reporting when several renditions encode at once
      */
+    private String joinQualityNames(List<QualityLevel> qualities) {
+        return qualities.stream().map(quality -> quality.name).collect(Collectors.joining(","));
+    }
+
+    /**
+     * One chunk of one quality level: its start and duration in the source in seconds, and
+     * whether it is the last chunk, which is encoded to the end of the source.
+     */
+    private record EncodeChunk(QualityLevel quality, int index, int start, int duration, boolean last) {
+
+        String name() {
+            return chunkName(quality, index);
+        }
+    }
+
     private interface ProgressCallback {
         void onProgress(int percentage);
     }
@@ -0,0 +1,445 @@
+package com.coraybennett.spillway.service.impl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import com.coraybennett.spillway.service.api.SegmentCacheService;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * SegmentCacheService holding segments outside the Java heap. Memory is allocated as
+ * large direct slabs cut into fixed-size pages; a segment occupies as many pages as it
+ * needs, so entries of any size share the slabs without fragmenting them. Entries are
+ * evicted least recently used first. An entry being written to a response is pinned
+ * and skipped by eviction; invalidated pinned entries give their pages back once the
+ * last reader closes them.
+ */
+@Service
+@Slf4j
+public class OffHeapSegmentCacheService implements SegmentCacheService {
+
+    // A segment read takes milliseconds; a waiter this far behind gives up rather than pile up
+    private static final Duration LOAD_WAIT_TIMEOUT = Duration.ofSeconds(10);
+
+    private final Object lock = new Object();
+
+    // Access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<SegmentKey, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final Deque<ByteBuffer> freePages = new ArrayDeque<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final SingleFlight<SegmentKey, Boolean> loads = new SingleFlight<>(LOAD_WAIT_TIMEOUT);
+
+    private final boolean enabled;
+    private final int pageSize;
+    private final int pagesPerSlab;
+    private final long totalPages;
+    private final long maxEntrySize;
+
+    private long allocatedPages;
+    private long usedBytes;
+
+    // Bumped on every invalidation; a miss loaded across one is not cached
+    private long invalidations;
+
+    @Autowired
+    public OffHeapSegmentCacheService(
+            MeterRegistry meterRegistry,
+            @Value("${video.segment-cache.enabled:true}") boolean enabled,
+            @Value("${video.segment-cache.max-size:256MB}") DataSize maxSize,
+            @Value("${video.segment-cache.page-size:256KB}") DataSize pageSize,
+            @Value("${video.segment-cache.slab-size:32MB}") DataSize slabSize,
+            @Value("${video.segment-cache.max-entry-size:16MB}") DataSize maxEntrySize) {
+        this.enabled = enabled;
+        this.pageSize = (int) pageSize.toBytes();
+        this.pagesPerSlab = (int) Math.max(1, slabSize.toBytes() / this.pageSize);
+        this.totalPages = maxSize.toBytes() / this.pageSize;
+        this.maxEntrySize = Math.min(maxEntrySize.toBytes(), totalPages * this.pageSize);
+
+        registerMetrics(meterRegistry);
+    }
+
+    @Override
+    public Optional<CachedSegment> get(SegmentKey key, Path file) throws IOException {
+        if (!enabled) {
+            return Optional.empty();
+        }
+
+        synchronized (lock) {
+            Entry cached = entries.get(key);
+            if (cached != null) {
+                hits.increment();
+                return Optional.of(cached.acquire());
+            }
+        }
+        misses.increment();
+
+        // Concurrent misses for the same segment wait for a single disk read
+        loadOnce(key, file);
+
+        synchronized (lock) {
+            Entry loaded = entries.get(key);
+            return loaded == null ? Optional.empty() : Optional.of(loaded.acquire());
+        }
+    }
+
+    @Override
+    public boolean warm(SegmentKey key, Path file) throws IOException {
+        if (!enabled) {
+            return false;
+        }
+        synchronized (lock) {
+            if (entries.containsKey(key)) {
+                return true;
+            }
+        }
+        return loadOnce(key, file);
+    }
+
+    private boolean loadOnce(SegmentKey key, Path file) throws IOException {
+        try {
+            return loads.execute(key, () -> load(key, file));
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to cache segment " + key.segment(), e);
+        }
+    }
+
+    /**
+     * Reads a segment into newly allocated pages and adds it to the cache.
+     *
+     * @return true if the segment was cached
+     */
+    private boolean load(SegmentKey key, Path file) throws IOException {
+        long invalidationsBeforeLoad;
+        synchronized (lock) {
+            if (entries.containsKey(key)) {
+                return true;
+            }
+            invalidationsBeforeLoad = invalidations;
+        }
+
+        long size = Files.size(file);
+        if (size == 0 || size > maxEntrySize) {
+            return false;
+        }
+
+        ByteBuffer[] pages;
+        synchronized (lock) {
+            pages = allocate(pagesFor(size));
+        }
+        if (pages == null) {
+            return false;
+        }
+
+        try {
+            readInto(file, size, pages);
+        } catch (IOException e) {
+            synchronized (lock) {
+                free(pages);
+            }
+            throw e;
+        }
+
+        Entry loaded = new Entry(key, pages, size);
+        synchronized (lock) {
+            // A segment read across an invalidation may predate it, so it is not kept
+            if (invalidations != invalidationsBeforeLoad || entries.containsKey(key)) {
+                loaded.release();
+                return entries.containsKey(key);
+            }
+            entries.put(key, loaded);
+            usedBytes += size;
+            return true;
+        }
+    }
+
+    @Override
+    public void invalidateVideo(String videoId) {
+        int removed = 0;
+        synchronized (lock) {
+            invalidations++;
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (entry.key.videoId().equals(videoId)) {
+                    iterator.remove();
+                    usedBytes -= entry.length;
+                    entry.release();
+                    removed++;
+                }
+            }
+        }
+        if (removed > 0) {
+            log.debug("Invalidated {} cached segments of video {}", removed, videoId);
+        }
+    }
+
+    @Override
+    public CacheStats getStats() {
+        synchronized (lock) {
+            return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), entries.size(), usedBytes,
+                                  totalPages * pageSize);
+        }
+    }
+
+    /**
+     * Takes pages for a new entry, cutting a new slab if the budget allows and otherwise
+     * evicting unpinned entries from the least recently used end. Must hold the lock.
+     *
+     * @return The pages, or null if not enough could be freed
+     */
+    private ByteBuffer[] allocate(int count) {
+        while (freePages.size() < count && allocatedPages < totalPages) {
+            allocateSlab();
+        }
+
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (freePages.size() < count && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.isPinned()) {
+                continue;
+            }
+            iterator.remove();
+            usedBytes -= entry.length;
+            entry.release();
+            evictions.increment();
+        }
+
+        if (freePages.size() < count) {
+            return null;
+        }
+
+        ByteBuffer[] pages = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            pages[i] = freePages.pop();
+        }
+        return pages;
+    }
+
+    private void allocateSlab() {
+        int pages = (int) Math.min(pagesPerSlab, totalPages - allocatedPages);
+        ByteBuffer slab = ByteBuffer.allocateDirect(pages * pageSize);
+        for (int i = 0; i < pages; i++) {
+            freePages.push(slab.slice(i * pageSize, pageSize));
+        }
+        allocatedPages += pages;
+        log.debug("Allocated {} KB segment cache slab, {} of {} pages allocated",
+                  pages * (long) pageSize / 1024, allocatedPages, totalPages);
+    }
+
+    private void free(ByteBuffer[] pages) {
+        for (ByteBuffer page : pages) {
+            page.clear();
+            freePages.push(page);
+        }
+    }
+
+    private int pagesFor(long size) {
+        return (int) ((size + pageSize - 1) / pageSize);
+    }
+
+    // Package-private so tests can hold a load part way through
+    void readInto(Path file, long size, ByteBuffer[] pages) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = 0;
+            for (ByteBuffer page : pages) {
+                ByteBuffer target = page.duplicate().clear().limit((int) Math.min(pageSize, size - position));
+                while (target.hasRemaining()) {
+                    int read = channel.read(target, position);
+                    if (read == -1) {
+                        throw new EOFException("Segment " + file.getFileName() + " shrank while being cached");
+                    }
+                    position += read;
+                }
+            }
+        }
+    }
+
+    private void registerMetrics(MeterRegistry registry) {
+        FunctionCounter.builder("spillway.segment.cache.hits", hits, LongAdder::sum)
+            .description("Segment requests answered from the cache")
+            .register(registry);
+        FunctionCounter.builder("spillway.segment.cache.misses", misses, LongAdder::sum)
+            .description("Segment requests that read the segment from disk")
+            .register(registry);
+        FunctionCounter.builder("spillway.segment.cache.evictions", evictions, LongAdder::sum)
+            .description("Segments evicted to make room")
+            .register(registry);
+        FunctionCounter.builder("spillway.segment.coalesced", loads, SingleFlight::coalescedCount)
+            .description("Segment requests that waited for another request's work")
+            .tag("stage", "load")
+            .register(registry);
+        Gauge.builder("spillway.segment.cache.entries", this, cache -> cache.getStats().entries())
+            .register(registry);
+        Gauge.builder("spillway.segment.cache.used", this, cache -> cache.getStats().usedBytes())
+            .baseUnit("bytes")
+            .register(registry);
+    }
+
+    /**
+     * A cached segment and its pages. The cache holds one reference while the entry is
+     * in the map and every open reader holds another; the pages are freed when the
+     * count reaches zero.
+     */
+    private class Entry {
+        final SegmentKey key;
+        final ByteBuffer[] pages;
+        final long length;
+        final AtomicInteger references = new AtomicInteger(1);
+
+        Entry(SegmentKey key, ByteBuffer[] pages, long length) {
+            this.key = key;
+            this.pages = pages;
+            this.length = length;
+        }
+
+        CachedSegment acquire() {
+            references.incrementAndGet();
+            return new Reader(this);
+        }
+
+        boolean isPinned() {
+            return references.get() > 1;
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0) {
+                synchronized (lock) {
+                    free(pages);
+                }
+            }
+        }
+    }
+
+    private class Reader implements CachedSegment {
+        private final Entry entry;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        Reader(Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public long length() {
+            return entry.length;
+        }
+
+        @Override
+        public SeekableByteChannel openChannel() {
+            return new PageChannel(this);
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                entry.release();
+            }
+        }
+
+        /**
+         * Gets a view of the bytes from a position up to the end of its page.
+         */
+        ByteBuffer slice(long position, long max) {
+            ByteBuffer page = entry.pages[(int) (position / pageSize)];
+            int offset = (int) (position % pageSize);
+            int length = (int) Math.min(max, Math.min(pageSize - offset, entry.length - position));
+            return page.duplicate().clear().position(offset).limit(offset + length);
+        }
+    }
+
+    /**
+     * Read-only channel over the pages of a cached segment.
+     */
+    private static class PageChannel implements SeekableByteChannel {
+        private final Reader reader;
+        private long position;
+        private boolean open = true;
+
+        PageChannel(Reader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            long size = reader.length();
+            if (position >= size) {
+                return -1;
+            }
+
+            int read = 0;
+            while (dst.hasRemaining() && position < size) {
+                ByteBuffer chunk = reader.slice(position, dst.remaining());
+                int length = chunk.remaining();
+                dst.put(chunk);
+                position += length;
+                read += length;
+            }
+            return read;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public long position() {
+            return position;
+        }
+
+        @Override
+        public SeekableByteChannel position(long newPosition) {
+            position = newPosition;
+            return this;
+        }
+
+        @Override
+        public long size() {
+            return reader.length();
+        }
+
+        @Override
+        public SeekableByteChannel truncate(long size) {
+            throw new NonWritableChannelException();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+}
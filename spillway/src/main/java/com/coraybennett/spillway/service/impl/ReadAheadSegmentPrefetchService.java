@@ -0,0 +1,230 @@
+package com.coraybennett.spillway.service.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.coraybennett.spillway.model.ConversionStatus;
+import com.coraybennett.spillway.model.Video;
+import com.coraybennett.spillway.repository.VideoRepository;
+import com.coraybennett.spillway.service.api.SegmentCacheService;
+import com.coraybennett.spillway.service.api.SegmentCacheService.SegmentKey;
+import com.coraybennett.spillway.service.api.SegmentPrefetchService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * SegmentPrefetchService that reads upcoming segments ahead of the player. Segments the
+ * server decrypts are read into the segment cache; segments sent as stored, and those too
+ * large for the cache, are read through once instead, which leaves them in the operating
+ * system's page cache for the sendfile path.
+ */
+@Service
+@Slf4j
+public class ReadAheadSegmentPrefetchService implements SegmentPrefetchService {
+
+    // Segment files are named {rendition}_{index}.ts, with a zero-padded index from 0
+    private static final Pattern SEGMENT_NAME = Pattern.compile("^(.+)_(\\d+)\\.ts$");
+
+    private static final int PAGE_CACHE_READ_BUFFER = 64 * 1024;
+
+    private final SegmentCacheService segmentCache;
+    private final VideoRepository videoRepository;
+    private final Executor prefetchExecutor;
+
+    // Segments being warmed right now, so overlapping read-aheads do not repeat them
+    private final Set<Path> pending = ConcurrentHashMap.newKeySet();
+
+    // When each segment was last warmed, so each served segment only warms the one
+    // segment its window newly uncovers instead of re-reading the whole window
+    private final Map<Path, Long> warmedAt = new ConcurrentHashMap<>();
+
+    // When the next episode was last warmed from the end of a video and rendition
+    private final Map<String, Long> nextEpisodeWarmedAt = new ConcurrentHashMap<>();
+
+    private final ThreadLocal<ByteBuffer> readBuffer =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocate(PAGE_CACHE_READ_BUFFER));
+
+    @Value("${video.prefetch.enabled:true}")
+    private boolean enabled;
+
+    @Value("${video.prefetch.read-ahead-segments:3}")
+    private int readAheadSegments;
+
+    @Value("${video.prefetch.warmed-ttl-seconds:30}")
+    private long warmedTtlSeconds;
+
+    @Value("${video.prefetch.next-episode-segments:2}")
+    private int nextEpisodeSegments;
+
+    @Value("${video.prefetch.next-episode-interval-seconds:600}")
+    private long nextEpisodeIntervalSeconds;
+
+    @Autowired
+    public ReadAheadSegmentPrefetchService(
+            SegmentCacheService segmentCache,
+            VideoRepository videoRepository,
+            @Qualifier("prefetchExecutor") Executor prefetchExecutor) {
+        this.segmentCache = segmentCache;
+        this.videoRepository = videoRepository;
+        this.prefetchExecutor = prefetchExecutor;
+    }
+
+    @Override
+    public void segmentServed(String videoId, Path segmentFile, boolean decrypted) {
+        if (!enabled || readAheadSegments <= 0) {
+            return;
+        }
+
+        Matcher matcher = SEGMENT_NAME.matcher(segmentFile.getFileName().toString());
+        if (!matcher.matches()) {
+            return;
+        }
+
+        String rendition = matcher.group(1);
+        int index = Integer.parseInt(matcher.group(2));
+        int digits = matcher.group(2).length();
+
+        try {
+            prefetchExecutor.execute(() -> readAhead(videoId, segmentFile, rendition, index, digits, decrypted));
+        } catch (RejectedExecutionException e) {
+            log.debug("Prefetch pool busy, skipping read-ahead after {}", segmentFile.getFileName());
+        }
+    }
+
+    /**
+     * Drops old warmed and next-episode markers so the maps stay small.
+     */
+    @Scheduled(fixedDelayString = "${video.prefetch.sweep-interval-ms:600000}")
+    public void sweepMarkers() {
+        long now = System.currentTimeMillis();
+        long warmedCutoff = now - warmedTtlSeconds * 1000;
+        warmedAt.values().removeIf(warmed -> warmed < warmedCutoff);
+        long nextEpisodeCutoff = now - nextEpisodeIntervalSeconds * 1000;
+        nextEpisodeWarmedAt.values().removeIf(warmed -> warmed < nextEpisodeCutoff);
+    }
+
+    private void readAhead(String videoId, Path segmentFile, String rendition, int index, int digits,
+                           boolean decrypted) {
+        for (int i = 1; i <= readAheadSegments; i++) {
+            Path next = segmentFile.resolveSibling(segmentName(rendition, index + i, digits));
+            if (isRecentlyWarmed(next)) {
+                continue;
+            }
+            if (!Files.exists(next)) {
+                // Fewer than readAheadSegments left: the episode is about to end
+                warmNextEpisode(videoId, segmentFile.getParent(), rendition, digits);
+                return;
+            }
+            warm(videoId, next, decrypted);
+        }
+    }
+
+    /**
+     * Warms the first segments of the same rendition of the episode that follows this
+     * video in its playlist, at most once per interval for each video and rendition.
+     */
+    private void warmNextEpisode(String videoId, Path videoDirectory, String rendition, int digits) {
+        if (nextEpisodeSegments <= 0) {
+            return;
+        }
+
+        String marker = videoId + "/" + rendition;
+        long now = System.currentTimeMillis();
+        Long warmedAt = nextEpisodeWarmedAt.get(marker);
+        if (warmedAt != null && now - warmedAt < nextEpisodeIntervalSeconds * 1000) {
+            return;
+        }
+        nextEpisodeWarmedAt.put(marker, now);
+
+        Video video = videoRepository.findWithRelationshipsById(videoId).orElse(null);
+        if (video == null || video.getPlaylist() == null) {
+            return;
+        }
+
+        List<Video> episodes =
+            videoRepository.findByPlaylistIdOrderBySeasonNumberAscEpisodeNumberAsc(video.getPlaylist().getId());
+        Video nextEpisode = null;
+        for (int i = 0; i < episodes.size() - 1; i++) {
+            if (episodes.get(i).getId().equals(videoId)) {
+                nextEpisode = episodes.get(i + 1);
+                break;
+            }
+        }
+        if (nextEpisode == null || nextEpisode.getConversionStatus() != ConversionStatus.COMPLETED) {
+            return;
+        }
+
+        // The next episode may be protected differently from this one
+        boolean decrypted = nextEpisode.isEncrypted() && !nextEpisode.usesHlsEncryption();
+        Path nextDirectory = videoDirectory.resolveSibling(nextEpisode.getId());
+        for (int i = 0; i < nextEpisodeSegments; i++) {
+            Path segment = nextDirectory.resolve(segmentName(rendition, i, digits));
+            if (isRecentlyWarmed(segment)) {
+                continue;
+            }
+            if (!Files.exists(segment)) {
+                break;
+            }
+            warm(nextEpisode.getId(), segment, decrypted);
+        }
+        log.debug("Warmed next episode {} after video {} ({})", nextEpisode.getId(), videoId, rendition);
+    }
+
+    private void warm(String videoId, Path segment, boolean decrypted) {
+        if (!pending.add(segment)) {
+            return;
+        }
+
+        try {
+            SegmentKey key = SegmentKey.of(videoId, segment.getFileName().toString());
+            if (!decrypted || !segmentCache.warm(key, segment)) {
+                warmPageCache(segment);
+            }
+            warmedAt.put(segment, System.currentTimeMillis());
+        } catch (IOException e) {
+            log.debug("Could not warm segment {}: {}", segment, e.getMessage());
+        } finally {
+            pending.remove(segment);
+        }
+    }
+
+    private boolean isRecentlyWarmed(Path segment) {
+        Long warmed = warmedAt.get(segment);
+        return warmed != null && System.currentTimeMillis() - warmed < warmedTtlSeconds * 1000;
+    }
+
+    /**
+     * Reads a file through once and discards the bytes, leaving it in the page cache.
+     */
+    private void warmPageCache(Path file) throws IOException {
+        ByteBuffer buffer = readBuffer.get();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.clear();
+            }
+        }
+    }
+
+    private String segmentName(String rendition, int index, int digits) {
+        return String.format("%s_%0" + digits + "d.ts", rendition, index);
+    }
+}
@@ -0,0 +1,202 @@
+package com.coraybennett.spillway.service.impl;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+
+import com.coraybennett.spillway.service.api.VideoEncryptionService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Encrypts HLS segments while FFmpeg is still producing them. FFmpeg writes each
+ * segment to a ".tmp" file and renames it once the segment is closed, so a ".ts" file
+ * appearing in the working directory is complete and can be handed to the encryption
+ * pool straight away. The plaintext segment is deleted once it has been encrypted.
+ */
+@Slf4j
+class SegmentEncryptionPipeline {
+
+    private static final long POLL_INTERVAL_MS = 500;
+    private static final String SEGMENT_SUFFIX = ".ts";
+
+    private final Path sourceDir;
+    private final Path targetDir;
+    private final SecretKey secretKey;
+    private final VideoEncryptionService encryptionService;
+    private final Executor encryptionExecutor;
+    private final Map<String, CompletableFuture<Void>> segments = new ConcurrentHashMap<>();
+    private final CountDownLatch watcherStopped = new CountDownLatch(1);
+
+    private volatile boolean stopped;
+    private volatile boolean aborted;
+
+    SegmentEncryptionPipeline(Path sourceDir, Path targetDir, SecretKey secretKey,
+            VideoEncryptionService encryptionService, Executor encryptionExecutor) {
+        this.sourceDir = sourceDir;
+        this.targetDir = targetDir;
+        this.secretKey = secretKey;
+        this.encryptionService = encryptionService;
+        this.encryptionExecutor = encryptionExecutor;
+    }
+
+    /**
+     * Starts watching the working directory for finished segments. The watch loop blocks
+     * for the whole conversion, so it runs on a thread of its own rather than taking a
+     * slot in a pool that FFmpeg processes or encryption tasks wait for.
+     *
+     * @param name Name of the watcher thread
+     */
+    void start(String name) {
+        Thread watcher = new Thread(this::watch, name);
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Stops watching once FFmpeg has exited, encrypts any segments not seen yet and
+     * waits for every encryption to finish.
+     *
+     * @return Number of segments encrypted
+     * @throws Exception the first encryption failure
+     */
+    int finish() throws Exception {
+        stopWatcher();
+        scan();
+
+        try {
+            CompletableFuture.allOf(segments.values().toArray(CompletableFuture[]::new)).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+        return segments.size();
+    }
+
+    /**
+     * Stops the pipeline after a failed conversion and removes the encrypted segments
+     * it has written.
+     */
+    void abort() {
+        aborted = true;
+        stopWatcher();
+
+        for (Map.Entry<String, CompletableFuture<Void>> segment : segments.entrySet()) {
+            try {
+                segment.getValue().handle((result, e) -> null).get(1, TimeUnit.MINUTES);
+                Files.deleteIfExists(targetDir.resolve(segment.getKey()));
+            } catch (Exception e) {
+                log.warn("Could not remove encrypted segment {}: {}", segment.getKey(), e.getMessage());
+            }
+        }
+    }
+
+    private void stopWatcher() {
+        stopped = true;
+        try {
+            watcherStopped.await(POLL_INTERVAL_MS * 4, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reacts to segments being renamed into place. The directory is also rescanned on
+     * every poll timeout, which covers dropped events and file systems without native
+     * change notification.
+     */
+    private void watch() {
+        try (WatchService watchService = sourceDir.getFileSystem().newWatchService()) {
+            sourceDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
+            scan();
+
+            while (!stopped) {
+                WatchKey key = watchService.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    scan();
+                    continue;
+                }
+
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        scan();
+                    } else if (event.context() instanceof Path name) {
+                        submit(sourceDir.resolve(name));
+                    }
+                }
+                key.reset();
+            }
+        } catch (IOException e) {
+            log.warn("Cannot watch {}, segments are encrypted after conversion: {}", sourceDir, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            watcherStopped.countDown();
+        }
+    }
+
+    private void scan() {
+        List<Path> found = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(sourceDir, "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(found::add);
+        } catch (IOException e) {
+            log.debug("Could not scan {}: {}", sourceDir, e.getMessage());
+        }
+        found.forEach(this::submit);
+    }
+
+    private void submit(Path segment) {
+        String fileName = segment.getFileName().toString();
+        if (!fileName.endsWith(SEGMENT_SUFFIX)) {
+            return;
+        }
+
+        CompletableFuture<Void> task = new CompletableFuture<>();
+        if (segments.putIfAbsent(fileName, task) != null) {
+            return;
+        }
+
+        try {
+            encryptionExecutor.execute(() -> {
+                try {
+                    encrypt(segment);
+                    task.complete(null);
+                } catch (Throwable e) {
+                    task.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            task.completeExceptionally(e);
+        }
+    }
+
+    private void encrypt(Path segment) {
+        if (aborted) {
+            return;
+        }
+        Path target = targetDir.resolve(segment.getFileName());
+        try {
+            encryptionService.encryptFile(segment, target, secretKey);
+            Files.delete(segment);
+            log.debug("Encrypted segment: {}", segment.getFileName());
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to encrypt segment " + segment.getFileName(), e);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.coraybennett.spillway.service.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Plaintext of one segment, decrypted once and read by every request that arrived while
+ * the decryption ran. The decrypting request appends frames as they are authenticated;
+ * readers copy each completed run of bytes to their own response and wait for the next
+ * frame, so they start sending after the first frame instead of after the whole segment.
+ * Bytes below the written count never change, so readers copy them without the lock.
+ */
+final class SharedPlaintext {
+
+    private final byte[] data;
+    private int written;
+    private boolean finished;
+    private Throwable failure;
+
+    /**
+     * @param length Plaintext length of the segment
+     */
+    SharedPlaintext(int length) {
+        this.data = new byte[length];
+    }
+
+    int length() {
+        return data.length;
+    }
+
+    /**
+     * @return Stream the decrypting request writes the plaintext to, in order
+     */
+    OutputStream sink() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                append(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * Marks the decryption as done. A plaintext shorter than its header promised fails
+     * the readers still waiting for the missing bytes.
+     */
+    synchronized void finish() {
+        finished = true;
+        if (written < data.length && failure == null) {
+            failure = new IOException("Segment decrypted to " + written + " of " + data.length + " bytes");
+        }
+        notifyAll();
+    }
+
+    /**
+     * Fails every reader waiting for bytes that have not been written yet.
+     */
+    synchronized void fail(Throwable cause) {
+        finished = true;
+        failure = cause;
+        notifyAll();
+    }
+
+    /**
+     * Copies a range of the plaintext to a stream, waiting for frames that have not
+     * been decrypted yet.
+     *
+     * @param start First byte to copy
+     * @param end Last byte to copy, inclusive
+     * @param out Stream the bytes are written to
+     * @param waitTimeoutMillis How long to wait for the next frame before giving up
+     * @throws TimeoutException if no frame arrived within the wait timeout
+     * @throws Exception whatever failed the decryption, if it failed before the range was written
+     */
+    void copyTo(long start, long end, OutputStream out, long waitTimeoutMillis) throws Exception {
+        int position = (int) start;
+        int last = (int) end;
+
+        while (position <= last) {
+            int available = awaitBeyond(position, waitTimeoutMillis);
+            int count = Math.min(available, last + 1) - position;
+            out.write(data, position, count);
+            position += count;
+        }
+    }
+
+    private synchronized void append(byte[] b, int off, int len) throws IOException {
+        if (len > data.length - written) {
+            throw new IOException("Segment decrypted past its " + data.length + " byte length");
+        }
+        System.arraycopy(b, off, data, written, len);
+        written += len;
+        notifyAll();
+    }
+
+    /**
+     * Waits until at least one byte past the position has been written.
+     *
+     * @return Number of bytes written so far
+     */
+    private synchronized int awaitBeyond(int position, long waitTimeoutMillis) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitTimeoutMillis);
+
+        while (written <= position) {
+            if (finished) {
+                throw failure instanceof Exception cause ? cause : new IOException("Segment decryption failed", failure);
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException("No plaintext decrypted within " + waitTimeoutMillis + " ms");
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return written;
+    }
+}
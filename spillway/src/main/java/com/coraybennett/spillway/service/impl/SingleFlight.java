@@ -0,0 +1,74 @@
+package com.coraybennett.spillway.service.impl;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces concurrent calls for the same key: the first caller runs the work and
+ * every caller arriving while it runs waits for that result instead of repeating it.
+ * Nothing is kept once the call completes, so later callers run the work again.
+ * Waiting callers give up after a timeout, so a stuck run cannot hold their threads.
+ *
+ * @param <K> Key type
+ * @param <V> Result type
+ */
+final class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+    private final long waitTimeoutMillis;
+
+    /**
+     * @param waitTimeout How long a caller waits for another caller's run
+     */
+    SingleFlight(Duration waitTimeout) {
+        this.waitTimeoutMillis = waitTimeout.toMillis();
+    }
+
+    /**
+     * Runs the work for a key, or waits for the run already in progress.
+     *
+     * @param key Key identifying the work
+     * @param work The work, run only by the first caller
+     * @return The result of the run this caller took part in
+     * @throws TimeoutException if the run in progress did not finish within the wait timeout
+     * @throws Exception whatever the work threw, rethrown to every waiting caller
+     */
+    V execute(K key, Callable<V> work) throws Exception {
+        CompletableFuture<V> call = new CompletableFuture<>();
+        CompletableFuture<V> running = calls.putIfAbsent(key, call);
+
+        if (running != null) {
+            coalesced.increment();
+            try {
+                return running.get(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception cause ? cause : e;
+            }
+        }
+
+        try {
+            V result = work.call();
+            call.complete(result);
+            return result;
+        } catch (Throwable e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, call);
+        }
+    }
+
+    /**
+     * @return Number of calls that waited for another caller's run
+     */
+    long coalescedCount() {
+        return coalesced.sum();
+    }
+}
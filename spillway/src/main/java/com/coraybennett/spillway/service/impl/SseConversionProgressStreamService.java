@@ -0,0 +1,291 @@
+package com.coraybennett.spillway.service.impl;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.coraybennett.spillway.model.ConversionStatus;
+import com.coraybennett.spillway.service.api.ConversionProgressService;
+import com.coraybennett.spillway.service.api.ConversionProgressStreamService;
+import com.coraybennett.spillway.service.api.VideoService;
+import com.coraybennett.spillway.service.api.VideoService.ConversionProgress;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Server-Sent Events implementation of ConversionProgressStreamService.
+ * Conversion threads only mark a video as changed; a scheduled push serializes the
+ * latest snapshot once per video and hands it to every subscriber, so slow clients
+ * never hold up FFmpeg output parsing and bursts of ticks are coalesced.
+ * The scheduled methods never write to a client themselves: each subscriber keeps only
+ * its latest unsent event, drained by one task at a time on the stream executor, and a
+ * subscriber whose write has been stuck longer than the send timeout is dropped. A
+ * stalled client therefore holds at most one stream thread and never the scheduler.
+ */
+@Service
+@Slf4j
+public class SseConversionProgressStreamService implements ConversionProgressStreamService {
+
+    private static final String PROGRESS_EVENT = "progress";
+
+    private final ConversionProgressService progressService;
+    private final VideoService videoService;
+    private final ObjectMapper objectMapper;
+    private final Executor streamExecutor;
+
+    private final Map<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final Set<String> changedVideos = ConcurrentHashMap.newKeySet();
+
+    @Value("${video.conversion.progress.stream-timeout-ms:1800000}")
+    private long streamTimeoutMs;
+
+    @Value("${video.conversion.progress.stream-send-timeout-ms:10000}")
+    private long sendTimeoutMs;
+
+    @Autowired
+    public SseConversionProgressStreamService(
+        ConversionProgressService progressService,
+        VideoService videoService,
+        ObjectMapper objectMapper,
+        @Qualifier("progressStreamExecutor") Executor streamExecutor
+    ) {
+        this.progressService = progressService;
+        this.videoService = videoService;
+        this.objectMapper = objectMapper;
+        this.streamExecutor = streamExecutor;
+    }
+
+    @PostConstruct
+    public void registerListener() {
+        progressService.addListener(videoId -> {
+            if (subscribers.containsKey(videoId)) {
+                changedVideos.add(videoId);
+            }
+        });
+    }
+
+    @Override
+    public SseEmitter subscribe(String videoId, ConversionProgress current) {
+        SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+        Subscriber subscriber = new Subscriber(videoId, emitter);
+
+        if (isFinished(current)) {
+            subscriber.pendingJson.set(toJson(current));
+            subscriber.completeDue.set(true);
+            schedule(subscriber);
+            return emitter;
+        }
+
+        subscribers.computeIfAbsent(videoId, id -> ConcurrentHashMap.newKeySet()).add(subscriber);
+        emitter.onCompletion(() -> unsubscribe(subscriber));
+        emitter.onTimeout(() -> unsubscribe(subscriber));
+        emitter.onError(error -> unsubscribe(subscriber));
+
+        subscriber.pendingJson.set(toJson(current));
+        schedule(subscriber);
+
+        // A change between reading the snapshot and subscribing would otherwise be missed
+        changedVideos.add(videoId);
+
+        log.debug("Opened progress stream for video {} ({} subscribers)",
+                  videoId, subscribers.getOrDefault(videoId, Set.of()).size());
+        return emitter;
+    }
+
+    /**
+     * Queues the latest snapshot of every changed video for its subscribers.
+     */
+    @Scheduled(fixedDelayString = "${video.conversion.progress.stream-push-interval-ms:500}")
+    public void pushChanges() {
+        for (String videoId : changedVideos) {
+            changedVideos.remove(videoId);
+
+            Set<Subscriber> videoSubscribers = subscribers.get(videoId);
+            if (videoSubscribers == null || videoSubscribers.isEmpty()) {
+                continue;
+            }
+
+            ConversionProgress progress = videoService.getConversionProgress(videoId);
+            if (progress == null) {
+                completeAll(videoId);
+                continue;
+            }
+
+            String json = toJson(progress);
+            for (Subscriber subscriber : videoSubscribers) {
+                if (dropIfStalled(subscriber)) {
+                    continue;
+                }
+                // An unsent older snapshot is simply replaced
+                subscriber.pendingJson.set(json);
+                schedule(subscriber);
+            }
+
+            if (isFinished(progress)) {
+                completeAll(videoId);
+            }
+        }
+    }
+
+    /**
+     * Keeps idle streams open through proxies, and re-reads videos converted on other
+     * nodes, whose changes this node is never notified about.
+     */
+    @Scheduled(fixedDelayString = "${video.conversion.progress.stream-heartbeat-ms:15000}")
+    public void heartbeat() {
+        subscribers.forEach((videoId, videoSubscribers) -> {
+            if (progressService.getProgress(videoId).isEmpty()) {
+                changedVideos.add(videoId);
+            }
+            for (Subscriber subscriber : videoSubscribers) {
+                if (dropIfStalled(subscriber)) {
+                    continue;
+                }
+                subscriber.heartbeatDue.set(true);
+                schedule(subscriber);
+            }
+        });
+    }
+
+    /**
+     * Starts a drain task for a subscriber unless one is already running. A rejected task
+     * leaves the events pending for the next push to retry.
+     */
+    private void schedule(Subscriber subscriber) {
+        if (!subscriber.draining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            streamExecutor.execute(() -> drain(subscriber));
+        } catch (RejectedExecutionException e) {
+            subscriber.draining.set(false);
+            log.debug("Progress stream pool is full, deferring events for video {}", subscriber.videoId);
+        }
+    }
+
+    /**
+     * Writes a subscriber's pending events in order, then completes the stream if asked to.
+     * Runs on the stream executor, one task per subscriber at a time.
+     */
+    private void drain(Subscriber subscriber) {
+        SseEmitter emitter = subscriber.emitter;
+        try {
+            while (true) {
+                String json = subscriber.pendingJson.getAndSet(null);
+                boolean heartbeat = subscriber.heartbeatDue.getAndSet(false);
+                if (json == null && !heartbeat) {
+                    if (subscriber.completeDue.getAndSet(false)) {
+                        emitter.complete();
+                    }
+                    break;
+                }
+
+                subscriber.sendStartedAt = System.nanoTime();
+                if (json != null) {
+                    emitter.send(SseEmitter.event().name(PROGRESS_EVENT).data(json, MediaType.APPLICATION_JSON));
+                } else {
+                    emitter.send(SseEmitter.event().comment("heartbeat"));
+                }
+                subscriber.sendStartedAt = 0;
+            }
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Dropping progress stream for video {}: {}", subscriber.videoId, e.getMessage());
+            unsubscribe(subscriber);
+        } finally {
+            subscriber.sendStartedAt = 0;
+            subscriber.draining.set(false);
+        }
+
+        // Events queued after the last check, but before the drain was released
+        if (subscriber.hasPending()) {
+            schedule(subscriber);
+        }
+    }
+
+    /**
+     * Drops a subscriber whose current write has been blocked longer than the send
+     * timeout. The blocked write is left to fail on its own; no more events are queued
+     * behind it.
+     */
+    private boolean dropIfStalled(Subscriber subscriber) {
+        long startedAt = subscriber.sendStartedAt;
+        if (startedAt == 0 || System.nanoTime() - startedAt < TimeUnit.MILLISECONDS.toNanos(sendTimeoutMs)) {
+            return false;
+        }
+        log.debug("Dropping stalled progress stream for video {}", subscriber.videoId);
+        unsubscribe(subscriber);
+        return true;
+    }
+
+    private void completeAll(String videoId) {
+        Set<Subscriber> videoSubscribers = subscribers.remove(videoId);
+        if (videoSubscribers != null) {
+            for (Subscriber subscriber : videoSubscribers) {
+                subscriber.completeDue.set(true);
+                schedule(subscriber);
+            }
+        }
+    }
+
+    private void unsubscribe(Subscriber subscriber) {
+        subscribers.computeIfPresent(subscriber.videoId, (id, videoSubscribers) -> {
+            videoSubscribers.remove(subscriber);
+            return videoSubscribers.isEmpty() ? null : videoSubscribers;
+        });
+    }
+
+    private boolean isFinished(ConversionProgress progress) {
+        return progress.status() == ConversionStatus.COMPLETED || progress.status() == ConversionStatus.FAILED;
+    }
+
+    private String toJson(ConversionProgress progress) {
+        try {
+            return objectMapper.writeValueAsString(progress);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize conversion progress", e);
+        }
+    }
+
+    /**
+     * An open stream and the events waiting to be written to it.
+     */
+    private static final class Subscriber {
+        private final String videoId;
+        private final SseEmitter emitter;
+
+        // Latest unsent snapshot; older ones are overwritten
+        private final AtomicReference<String> pendingJson = new AtomicReference<>();
+        private final AtomicBoolean heartbeatDue = new AtomicBoolean();
+        private final AtomicBoolean completeDue = new AtomicBoolean();
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        // System.nanoTime() when the current write started, 0 while idle
+        private volatile long sendStartedAt;
+
+        private Subscriber(String videoId, SseEmitter emitter) {
+            this.videoId = videoId;
+            this.emitter = emitter;
+        }
+
+        private boolean hasPending() {
+            return pendingJson.get() != null || heartbeatDue.get() || completeDue.get();
+        }
+    }
+}
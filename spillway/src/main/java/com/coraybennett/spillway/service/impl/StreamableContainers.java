@@ -0,0 +1,126 @@
+package com.coraybennett.spillway.service.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Decides whether a partially written source can be decoded from the front, i.e. fed
+ * to FFmpeg through a pipe before the rest of the file arrives.
+ */
+final class StreamableContainers {
+
+    // Containers whose headers always come before the media data
+    private static final List<String> STREAMABLE_EXTENSIONS = List.of(".mkv", ".webm", ".flv", ".ts");
+
+    // MP4-family containers, streamable only when the moov atom precedes mdat
+    private static final List<String> ISO_MEDIA_EXTENSIONS = List.of(".mp4", ".mov", ".m4v");
+
+    private static final int BOX_HEADER_SIZE = 8;
+
+    private StreamableContainers() {
+    }
+
+    /**
+     * Checks the container of a file that has been written up to the given length.
+     *
+     * @param path The partially written file
+     * @param written Number of bytes on disk
+     * @return true if the file can be decoded without seeking past the written bytes
+     */
+    static boolean isStreamable(Path path, long written) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+
+        if (STREAMABLE_EXTENSIONS.stream().anyMatch(name::endsWith)) {
+            return true;
+        }
+        if (ISO_MEDIA_EXTENSIONS.stream().anyMatch(name::endsWith)) {
+            return findIndexBox(path, written) == IndexBox.MOOV_FIRST;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a file's stream layout is only known once its end has arrived, which
+     * is the case for MP4-family files whose moov atom is written after the media data, or
+     * that have not yet reached either box.
+     *
+     * @param path The partially written file
+     * @param written Number of bytes on disk
+     * @return true if the head alone cannot be probed
+     */
+    static boolean requiresTail(Path path, long written) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (!ISO_MEDIA_EXTENSIONS.stream().anyMatch(name::endsWith)) {
+            return false;
+        }
+        IndexBox box = findIndexBox(path, written);
+        return box == IndexBox.MDAT_FIRST || box == IndexBox.NOT_YET_WRITTEN;
+    }
+
+    /**
+     * Walks the top-level boxes of an ISO media file to find whether the moov box, which
+     * holds the stream index, comes before the mdat box. Files with moov first are
+     * "fast start" files; the others need the end of the file to be decoded.
+     */
+    private static IndexBox findIndexBox(Path path, long written) {
+        ByteBuffer header = ByteBuffer.allocate(BOX_HEADER_SIZE + Long.BYTES);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long offset = 0;
+
+            while (offset + BOX_HEADER_SIZE <= written) {
+                header.clear();
+                channel.read(header, offset);
+                header.flip();
+                if (header.remaining() < BOX_HEADER_SIZE) {
+                    return IndexBox.NOT_YET_WRITTEN;
+                }
+
+                long size = Integer.toUnsignedLong(header.getInt());
+                byte[] type = new byte[4];
+                header.get(type);
+                String boxType = new String(type, StandardCharsets.US_ASCII);
+
+                if ("moov".equals(boxType)) {
+                    return IndexBox.MOOV_FIRST;
+                }
+                if ("mdat".equals(boxType)) {
+                    return IndexBox.MDAT_FIRST;
+                }
+                if (!boxType.chars().allMatch(c -> c >= 0x20 && c < 0x7f)) {
+                    return IndexBox.NOT_ISO_MEDIA;
+                }
+
+                if (size == 1) {
+                    // 64-bit size follows the type
+                    if (header.remaining() < Long.BYTES) {
+                        return IndexBox.NOT_YET_WRITTEN;
+                    }
+                    size = header.getLong();
+                }
+                if (size < BOX_HEADER_SIZE) {
+                    // Size 0 runs to the end of the file, anything else is corrupt
+                    return IndexBox.NOT_ISO_MEDIA;
+                }
+                offset += size;
+            }
+        } catch (IOException e) {
+            return IndexBox.NOT_ISO_MEDIA;
+        }
+
+        return IndexBox.NOT_YET_WRITTEN;
+    }
+
+    private enum IndexBox {
+        MOOV_FIRST,
+        MDAT_FIRST,
+        NOT_YET_WRITTEN,
+        NOT_ISO_MEDIA
+    }
+}
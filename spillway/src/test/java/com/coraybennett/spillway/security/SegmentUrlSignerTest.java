@@ -0,0 +1,164 @@
+package com.coraybennett.spillway.security;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+class SegmentUrlSignerTest {
+
+    private static final String SECRET = "0123456789abcdef0123456789abcdef";
+    private static final String VIDEO_ID = "video-1";
+
+    private final SegmentUrlSigner signer = new SegmentUrlSigner(SECRET, true);
+
+    @Test
+    void verifiesItsOwnSignature() {
+        long expiresAt = inFuture();
+        Map<String, String> query = parse(signer.sign(VIDEO_ID, false, expiresAt));
+
+        assertEquals(String.valueOf(expiresAt), query.get(SegmentUrlSigner.EXPIRES_PARAM));
+        assertFalse(query.containsKey(SegmentUrlSigner.DECRYPT_PARAM));
+        assertTrue(verify(VIDEO_ID, false, query));
+    }
+
+    @Test
+    void signsTheDecryptFlag() {
+        Map<String, String> query = parse(signer.sign(VIDEO_ID, true, inFuture()));
+
+        assertEquals("1", query.get(SegmentUrlSigner.DECRYPT_PARAM));
+        assertTrue(verify(VIDEO_ID, true, query));
+    }
+
+    @Test
+    void rejectsAnAddedOrDroppedDecryptFlag() {
+        Map<String, String> stored = parse(signer.sign(VIDEO_ID, false, inFuture()));
+        Map<String, String> decrypted = parse(signer.sign(VIDEO_ID, true, inFuture()));
+
+        assertFalse(verify(VIDEO_ID, true, stored));
+        assertFalse(verify(VIDEO_ID, false, decrypted));
+    }
+
+    @Test
+    void rejectsAnotherVideo() {
+        Map<String, String> query = parse(signer.sign(VIDEO_ID, false, inFuture()));
+
+        assertFalse(verify("video-2", false, query));
+    }
+
+    @Test
+    void rejectsExpiredSignatures() {
+        long expiresAt = System.currentTimeMillis() / 1000 - 1;
+        Map<String, String> query = parse(signer.sign(VIDEO_ID, false, expiresAt));
+
+        assertFalse(verify(VIDEO_ID, false, query));
+    }
+
+    @Test
+    void rejectsAnExtendedExpiry() {
+        Map<String, String> query = parse(signer.sign(VIDEO_ID, false, inFuture()));
+        query.put(SegmentUrlSigner.EXPIRES_PARAM, String.valueOf(inFuture() + 3600));
+
+        assertFalse(verify(VIDEO_ID, false, query));
+    }
+
+    @Test
+    void rejectsMissingAndMalformedParameters() {
+        String expires = String.valueOf(inFuture());
+        String signature = parse(signer.sign(VIDEO_ID, false, inFuture())).get(SegmentUrlSigner.SIGNATURE_PARAM);
+
+        assertFalse(signer.verify(VIDEO_ID, false, null, signature));
+        assertFalse(signer.verify(VIDEO_ID, false, expires, null));
+        assertFalse(signer.verify(VIDEO_ID, false, "soon", signature));
+        assertFalse(signer.verify(VIDEO_ID, false, expires, "not base64!"));
+        assertFalse(signer.verify(VIDEO_ID, false, expires, ""));
+    }
+
+    @Test
+    void rejectsSignaturesFromAnotherSecret() {
+        SegmentUrlSigner other = new SegmentUrlSigner("fedcba9876543210fedcba9876543210", true);
+        Map<String, String> query = parse(other.sign(VIDEO_ID, false, inFuture()));
+
+        assertFalse(verify(VIDEO_ID, false, query));
+    }
+
+    @Test
+    void requiresALongEnoughSecret() {
+        assertThrows(IllegalStateException.class, () -> new SegmentUrlSigner("short", false));
+        assertThrows(IllegalStateException.class, () -> new SegmentUrlSigner("", true));
+    }
+
+    @Test
+    void signsWithARandomKeyWithoutASecret() {
+        SegmentUrlSigner random = new SegmentUrlSigner("", false);
+        Map<String, String> query = parse(random.sign(VIDEO_ID, false, inFuture()));
+
+        assertTrue(random.verify(VIDEO_ID, false,
+            query.get(SegmentUrlSigner.EXPIRES_PARAM), query.get(SegmentUrlSigner.SIGNATURE_PARAM)));
+        assertFalse(verify(VIDEO_ID, false, query));
+    }
+
+    @Test
+    void matchesSignedSegmentGets() {
+        MockHttpServletRequest request = segmentRequest("GET", "/video/video-1/segments/720p_003.ts");
+
+        assertTrue(SegmentUrlSigner.isSignedSegmentRequest(request));
+    }
+
+    @Test
+    void matchesSegmentPathsBelowAContextPath() {
+        MockHttpServletRequest request = segmentRequest("GET", "/app/video/video-1/segments/720p_003.ts");
+        request.setContextPath("/app");
+
+        assertTrue(SegmentUrlSigner.isSignedSegmentRequest(request));
+    }
+
+    @Test
+    void ignoresOtherPathsAndMethods() {
+        assertFalse(SegmentUrlSigner.isSignedSegmentRequest(segmentRequest("POST", "/video/video-1/segments/720p_003.ts")));
+        assertFalse(SegmentUrlSigner.isSignedSegmentRequest(segmentRequest("GET", "/video/video-1/playlist/720p")));
+        assertFalse(SegmentUrlSigner.isSignedSegmentRequest(segmentRequest("GET", "/video/video-1/key")));
+        assertFalse(SegmentUrlSigner.isSignedSegmentRequest(segmentRequest("GET", "/video/video-1/segments/a/b.ts")));
+    }
+
+    @Test
+    void ignoresSegmentRequestsWithoutASignature() {
+        MockHttpServletRequest unsigned = new MockHttpServletRequest("GET", "/video/video-1/segments/720p_003.ts");
+        MockHttpServletRequest noSignature = new MockHttpServletRequest("GET", "/video/video-1/segments/720p_003.ts");
+        noSignature.setParameter(SegmentUrlSigner.EXPIRES_PARAM, "1");
+
+        assertFalse(SegmentUrlSigner.isSignedSegmentRequest(unsigned));
+        assertFalse(SegmentUrlSigner.isSignedSegmentRequest(noSignature));
+    }
+
+    private boolean verify(String videoId, boolean decrypt, Map<String, String> query) {
+        return signer.verify(videoId, decrypt,
+            query.get(SegmentUrlSigner.EXPIRES_PARAM), query.get(SegmentUrlSigner.SIGNATURE_PARAM));
+    }
+
+    private MockHttpServletRequest segmentRequest(String method, String uri) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, uri);
+        request.setParameter(SegmentUrlSigner.EXPIRES_PARAM, String.valueOf(inFuture()));
+        request.setParameter(SegmentUrlSigner.SIGNATURE_PARAM, "signature");
+        return request;
+    }
+
+    private long inFuture() {
+        return System.currentTimeMillis() / 1000 + 600;
+    }
+
+    private Map<String, String> parse(String query) {
+        Map<String, String> params = new HashMap<>();
+        for (String param : query.split("&")) {
+            int equals = param.indexOf('=');
+            params.put(param.substring(0, equals), param.substring(equals + 1));
+        }
+        return params;
+    }
+}
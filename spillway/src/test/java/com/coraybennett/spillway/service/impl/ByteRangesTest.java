@@ -0,0 +1,115 @@
+package com.coraybennett.spillway.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+class ByteRangesTest {
+
+    @Test
+    void parsesEmptyValues() {
+        assertEquals("", ByteRanges.parse(null).toString());
+        assertEquals("", ByteRanges.parse(" ").toString());
+        assertEquals(0, ByteRanges.parse("").total());
+    }
+
+    @Test
+    void roundTripsThroughItsStoredForm() {
+        ByteRanges ranges = ByteRanges.parse("0-10,20-30");
+
+        assertEquals("0-10,20-30", ranges.toString());
+        assertEquals("0-10,20-30", ByteRanges.parse(ranges.toString()).toString());
+        assertEquals(20, ranges.total());
+    }
+
+    @Test
+    void keepsDisjointRangesSorted() {
+        ByteRanges ranges = ByteRanges.parse(null);
+        ranges.add(40, 50);
+        ranges.add(0, 10);
+        ranges.add(20, 30);
+
+        assertEquals("0-10,20-30,40-50", ranges.toString());
+        assertEquals(30, ranges.total());
+    }
+
+    @Test
+    void mergesTouchingRanges() {
+        ByteRanges ranges = ByteRanges.parse("0-10");
+        ranges.add(10, 20);
+
+        assertEquals("0-20", ranges.toString());
+    }
+
+    @Test
+    void mergesOverlappingRanges() {
+        ByteRanges ranges = ByteRanges.parse("0-10,20-30");
+        ranges.add(5, 25);
+
+        assertEquals("0-30", ranges.toString());
+        assertEquals(30, ranges.total());
+    }
+
+    @Test
+    void mergesEveryRangeASpanCovers() {
+        ByteRanges ranges = ByteRanges.parse("10-20,30-40,50-60,80-90");
+        ranges.add(15, 55);
+
+        assertEquals("10-60,80-90", ranges.toString());
+    }
+
+    @Test
+    void ignoresRangesInsideExistingOnes() {
+        ByteRanges ranges = ByteRanges.parse("0-100");
+        ranges.add(10, 20);
+        ranges.add(0, 100);
+
+        assertEquals("0-100", ranges.toString());
+        assertEquals(100, ranges.total());
+    }
+
+    @Test
+    void ignoresEmptyAndInvertedRanges() {
+        ByteRanges ranges = ByteRanges.parse("0-10");
+        ranges.add(20, 20);
+        ranges.add(40, 30);
+
+        assertEquals("0-10", ranges.toString());
+    }
+
+    @Test
+    void mergesRangesOutOfOrderWhenParsing() {
+        assertEquals("0-30", ByteRanges.parse("20-30,0-10,10-20").toString());
+    }
+
+    @Test
+    void contiguousEndIsZeroUntilTheFirstByteArrives() {
+        ByteRanges ranges = ByteRanges.parse("10-20");
+
+        assertEquals(0, ranges.contiguousEnd());
+    }
+
+    @Test
+    void contiguousEndStopsAtTheFirstGap() {
+        ByteRanges ranges = ByteRanges.parse("0-10,20-30");
+
+        assertEquals(10, ranges.contiguousEnd());
+    }
+
+    @Test
+    void contiguousEndAdvancesWhenAGapIsFilled() {
+        ByteRanges ranges = ByteRanges.parse("0-10,20-30");
+        ranges.add(10, 20);
+
+        assertEquals(30, ranges.contiguousEnd());
+        assertEquals("0-30", ranges.toString());
+    }
+
+    @Test
+    void contiguousEndFollowsARangeExtendedBackToZero() {
+        ByteRanges ranges = ByteRanges.parse("5-10");
+        ranges.add(0, 5);
+
+        assertEquals(10, ranges.contiguousEnd());
+    }
+}
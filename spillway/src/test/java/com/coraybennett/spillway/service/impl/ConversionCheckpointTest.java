@@ -0,0 +1,99 @@
+package com.coraybennett.spillway.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ConversionCheckpointTest {
+
+    @TempDir
+    Path workDir;
+
+    @Test
+    void startsEmptyWithoutAnEarlierAttempt() throws Exception {
+        ConversionCheckpoint checkpoint = ConversionCheckpoint.open(workDir);
+
+        assertTrue(checkpoint.isEmpty());
+        assertFalse(checkpoint.isCompleted("720p"));
+        assertFalse(Files.exists(workDir.resolve(ConversionCheckpoint.FILE_NAME)));
+    }
+
+    @Test
+    void reloadsCompletedUnitsInOrder() throws Exception {
+        ConversionCheckpoint checkpoint = ConversionCheckpoint.open(workDir);
+        checkpoint.markCompleted("chunk_0002");
+        checkpoint.markCompleted("chunk_0000");
+        checkpoint.markCompleted("720p");
+
+        ConversionCheckpoint reloaded = ConversionCheckpoint.open(workDir);
+
+        assertFalse(reloaded.isEmpty());
+        assertEquals(List.of("chunk_0002", "chunk_0000", "720p"), reloaded.getCompleted());
+        assertTrue(reloaded.isCompleted("chunk_0000"));
+        assertFalse(reloaded.isCompleted("chunk_0001"));
+    }
+
+    @Test
+    void recordsEachUnitOnce() throws Exception {
+        ConversionCheckpoint checkpoint = ConversionCheckpoint.open(workDir);
+        checkpoint.markCompleted("720p");
+        checkpoint.markCompleted("480p");
+        checkpoint.markCompleted("720p");
+
+        assertEquals(List.of("720p", "480p"), ConversionCheckpoint.open(workDir).getCompleted());
+    }
+
+    @Test
+    void continuesAnEarlierAttempt() throws Exception {
+        ConversionCheckpoint.open(workDir).markCompleted("720p");
+
+        ConversionCheckpoint retry = ConversionCheckpoint.open(workDir);
+        retry.markCompleted("480p");
+
+        assertEquals(List.of("720p", "480p"), ConversionCheckpoint.open(workDir).getCompleted());
+    }
+
+    @Test
+    void leavesNoTemporaryFileBehind() throws Exception {
+        ConversionCheckpoint checkpoint = ConversionCheckpoint.open(workDir);
+        checkpoint.markCompleted("720p");
+
+        assertTrue(Files.exists(workDir.resolve(ConversionCheckpoint.FILE_NAME)));
+        assertFalse(Files.exists(workDir.resolve(ConversionCheckpoint.FILE_NAME + ".tmp")));
+    }
+
+    @Test
+    void ignoresBlankLinesAndSurroundingSpace() throws Exception {
+        Files.writeString(workDir.resolve(ConversionCheckpoint.FILE_NAME), "720p\n\n  480p \n");
+
+        assertEquals(List.of("720p", "480p"), ConversionCheckpoint.open(workDir).getCompleted());
+    }
+
+    @Test
+    void deleteRemovesTheFileAndForgetsTheUnits() throws Exception {
+        ConversionCheckpoint checkpoint = ConversionCheckpoint.open(workDir);
+        checkpoint.markCompleted("720p");
+
+        checkpoint.delete();
+
+        assertTrue(checkpoint.isEmpty());
+        assertFalse(Files.exists(workDir.resolve(ConversionCheckpoint.FILE_NAME)));
+        assertTrue(ConversionCheckpoint.open(workDir).isEmpty());
+    }
+
+    @Test
+    void deleteWithoutAFileDoesNothing() throws Exception {
+        ConversionCheckpoint checkpoint = ConversionCheckpoint.open(workDir);
+
+        checkpoint.delete();
+
+        assertTrue(checkpoint.isEmpty());
+    }
+}
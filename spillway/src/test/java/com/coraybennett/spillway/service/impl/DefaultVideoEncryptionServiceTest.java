@@ -0,0 +1,206 @@
+package com.coraybennett.spillway.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.AEADBadTagException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class DefaultVideoEncryptionServiceTest {
+
+    // Small frames so a few hundred bytes span many of them
+    private static final int FRAME_SIZE = 16;
+    private static final int HEADER_LENGTH = 17;
+    private static final int FRAME_OVERHEAD = 28;
+
+    @TempDir
+    Path directory;
+
+    private DefaultVideoEncryptionService service;
+    private String key;
+
+    @BeforeEach
+    void setUp() {
+        service = new DefaultVideoEncryptionService();
+        ReflectionTestUtils.setField(service, "frameSize", FRAME_SIZE);
+        ReflectionTestUtils.setField(service, "cipherPoolSize", 4);
+        key = service.generateEncryptionKey();
+    }
+
+    @Test
+    void roundTripsAFile() throws Exception {
+        byte[] plaintext = randomBytes(100);
+        Path encrypted = encrypt(plaintext);
+
+        assertTrue(service.isFramed(encrypted));
+        assertEquals(100, service.getPlaintextLength(encrypted));
+        assertEquals(HEADER_LENGTH + 7 * FRAME_OVERHEAD + 100, Files.size(encrypted));
+        assertArrayEquals(plaintext, service.decryptFile(encrypted, key));
+    }
+
+    @Test
+    void roundTripsFilesOfWholeFramesAndEmptyFiles() throws Exception {
+        byte[] whole = randomBytes(FRAME_SIZE * 4);
+        assertArrayEquals(whole, service.decryptFile(encrypt(whole), key));
+
+        Path empty = encrypt(new byte[0]);
+        assertTrue(service.isFramed(empty));
+        assertEquals(0, service.getPlaintextLength(empty));
+        assertArrayEquals(new byte[0], service.decryptFile(empty, key));
+    }
+
+    @Test
+    void decryptsRangesAcrossFrameBoundaries() throws Exception {
+        byte[] plaintext = randomBytes(100);
+        Path encrypted = encrypt(plaintext);
+
+        assertRange(plaintext, encrypted, 0, 99);
+        assertRange(plaintext, encrypted, 10, 40);
+        assertRange(plaintext, encrypted, 15, 16);
+        assertRange(plaintext, encrypted, 16, 31);
+        assertRange(plaintext, encrypted, 20, 20);
+        assertRange(plaintext, encrypted, 95, 99);
+    }
+
+    @Test
+    void rejectsRangesOutsideThePlaintext() throws Exception {
+        Path encrypted = encrypt(randomBytes(100));
+
+        assertThrows(IllegalArgumentException.class,
+            () -> service.decryptRange(encrypted, key, 50, 100, new ByteArrayOutputStream()));
+        assertThrows(IllegalArgumentException.class,
+            () -> service.decryptRange(encrypted, key, 40, 30, new ByteArrayOutputStream()));
+    }
+
+    @Test
+    void failsTheTagForATamperedFrame() throws Exception {
+        Path encrypted = encrypt(randomBytes(100));
+        byte[] bytes = Files.readAllBytes(encrypted);
+        bytes[frameOffset(2) + 20] ^= 1;
+        Files.write(encrypted, bytes);
+
+        assertThrows(AEADBadTagException.class, () -> service.decryptFile(encrypted, key));
+        assertThrows(AEADBadTagException.class,
+            () -> service.decryptRange(encrypted, key, 35, 40, new ByteArrayOutputStream()));
+
+        // Frames before the tampered one still decrypt
+        assertRange(null, encrypted, 0, 31);
+    }
+
+    @Test
+    void failsTheTagForReorderedFrames() throws Exception {
+        Path encrypted = encrypt(randomBytes(100));
+        byte[] bytes = Files.readAllBytes(encrypted);
+        int frameLength = FRAME_SIZE + FRAME_OVERHEAD;
+        byte[] first = Arrays.copyOfRange(bytes, frameOffset(0), frameOffset(0) + frameLength);
+        System.arraycopy(bytes, frameOffset(1), bytes, frameOffset(0), frameLength);
+        System.arraycopy(first, 0, bytes, frameOffset(1), frameLength);
+        Files.write(encrypted, bytes);
+
+        assertThrows(AEADBadTagException.class, () -> service.decryptFile(encrypted, key));
+        assertThrows(AEADBadTagException.class,
+            () -> service.decryptRange(encrypted, key, 16, 20, new ByteArrayOutputStream()));
+    }
+
+    @Test
+    void failsTruncatedFiles() throws Exception {
+        Path encrypted = encrypt(randomBytes(100));
+        byte[] bytes = Files.readAllBytes(encrypted);
+        Files.write(encrypted, Arrays.copyOf(bytes, frameOffset(6)));
+
+        // Without its last frame the file no longer matches its header
+        assertFalse(service.isFramed(encrypted));
+        assertThrows(AEADBadTagException.class, () -> service.decryptFile(encrypted, key));
+    }
+
+    @Test
+    void failsWithTheWrongKey() throws Exception {
+        Path encrypted = encrypt(randomBytes(100));
+
+        assertThrows(AEADBadTagException.class,
+            () -> service.decryptFile(encrypted, service.generateEncryptionKey()));
+    }
+
+    @Test
+    void readsLegacySingleFrameFiles() throws Exception {
+        byte[] plaintext = randomBytes(100);
+        Path legacy = directory.resolve("legacy.ts");
+        Files.write(legacy, service.encryptData(plaintext, key));
+
+        assertFalse(service.isFramed(legacy));
+        assertEquals(100, service.getPlaintextLength(legacy));
+        assertArrayEquals(plaintext, service.decryptFile(legacy, key));
+        assertRange(plaintext, legacy, 10, 40);
+    }
+
+    @Test
+    void migratesLegacyFilesToTheFramedFormat() throws Exception {
+        byte[] plaintext = randomBytes(100);
+        Path legacy = directory.resolve("legacy.ts");
+        Files.write(legacy, service.encryptData(plaintext, key));
+
+        assertTrue(service.migrateFile(legacy, key));
+
+        assertTrue(service.isFramed(legacy));
+        assertFalse(Files.exists(directory.resolve("legacy.ts.framed")));
+        assertArrayEquals(plaintext, service.decryptFile(legacy, key));
+        assertRange(plaintext, legacy, 10, 40);
+        assertFalse(service.migrateFile(legacy, key));
+    }
+
+    @Test
+    void leavesLegacyFilesInPlaceWhenMigrationCannotDecrypt() throws Exception {
+        Path legacy = directory.resolve("legacy.ts");
+        byte[] encrypted = service.encryptData(randomBytes(100), key);
+        Files.write(legacy, encrypted);
+
+        assertThrows(AEADBadTagException.class, () -> service.migrateFile(legacy, service.generateEncryptionKey()));
+
+        assertArrayEquals(encrypted, Files.readAllBytes(legacy));
+        assertFalse(Files.exists(directory.resolve("legacy.ts.framed")));
+    }
+
+    private Path encrypt(byte[] plaintext) throws Exception {
+        Path input = Files.createTempFile(directory, "plain", ".ts");
+        Path output = Files.createTempFile(directory, "encrypted", ".ts");
+        Files.write(input, plaintext);
+        service.encryptFile(input, output, key);
+        return output;
+    }
+
+    /**
+     * Checks that a range decrypts to the expected bytes, or just that it decrypts
+     * when no plaintext is given.
+     */
+    private void assertRange(byte[] plaintext, Path encrypted, int start, int end) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.decryptRange(encrypted, key, start, end, out);
+        assertEquals(end - start + 1, out.size());
+        if (plaintext != null) {
+            assertArrayEquals(Arrays.copyOfRange(plaintext, start, end + 1), out.toByteArray());
+        }
+    }
+
+    private int frameOffset(int index) {
+        return HEADER_LENGTH + index * (FRAME_SIZE + FRAME_OVERHEAD);
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,336 @@
+package com.coraybennett.spillway.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import com.coraybennett.spillway.service.api.SegmentCacheService.CachedSegment;
+import com.coraybennett.spillway.service.api.SegmentCacheService.SegmentKey;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class OffHeapSegmentCacheServiceTest {
+
+    private static final int PAGE_SIZE = 1024;
+
+    @TempDir
+    Path directory;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void servesTheSegmentFromTheCacheAfterAMiss() throws Exception {
+        OffHeapSegmentCacheService cache = cache(4);
+        byte[] bytes = randomBytes(PAGE_SIZE * 2 + 100);
+        Path file = segment("720p_000.ts", bytes);
+
+        try (CachedSegment segment = cache.get(key("720p_000.ts"), file).orElseThrow()) {
+            assertArrayEquals(bytes, read(segment));
+        }
+        try (CachedSegment segment = cache.get(key("720p_000.ts"), file).orElseThrow()) {
+            assertEquals(bytes.length, segment.length());
+            assertArrayEquals(bytes, read(segment));
+        }
+
+        assertEquals(1, cache.getStats().misses());
+        assertEquals(1, cache.getStats().hits());
+        assertEquals(bytes.length, cache.getStats().usedBytes());
+    }
+
+    @Test
+    void readsAtAnyPositionThroughTheChannel() throws Exception {
+        OffHeapSegmentCacheService cache = cache(4);
+        byte[] bytes = randomBytes(PAGE_SIZE * 3);
+        Path file = segment("720p_000.ts", bytes);
+
+        try (CachedSegment segment = cache.get(key("720p_000.ts"), file).orElseThrow();
+             SeekableByteChannel channel = segment.openChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
+            channel.position(PAGE_SIZE - 10);
+            assertEquals(PAGE_SIZE, channel.read(buffer));
+            byte[] expected = new byte[PAGE_SIZE];
+            System.arraycopy(bytes, PAGE_SIZE - 10, expected, 0, PAGE_SIZE);
+            assertArrayEquals(expected, buffer.array());
+
+            channel.position(bytes.length);
+            assertEquals(-1, channel.read(buffer.clear()));
+        }
+    }
+
+    @Test
+    void skipsSegmentsThatDoNotFit() throws Exception {
+        OffHeapSegmentCacheService cache = cache(2);
+
+        assertTrue(cache.get(key("720p_000.ts"), segment("720p_000.ts", randomBytes(PAGE_SIZE * 3))).isEmpty());
+        assertTrue(cache.get(key("720p_001.ts"), segment("720p_001.ts", new byte[0])).isEmpty());
+        assertEquals(0, cache.getStats().entries());
+    }
+
+    @Test
+    void skipsEverythingWhenDisabled() throws Exception {
+        OffHeapSegmentCacheService cache = new OffHeapSegmentCacheService(new SimpleMeterRegistry(), false,
+            DataSize.ofBytes(PAGE_SIZE * 4), DataSize.ofBytes(PAGE_SIZE), DataSize.ofBytes(PAGE_SIZE * 4),
+            DataSize.ofBytes(PAGE_SIZE * 4));
+        Path file = segment("720p_000.ts", randomBytes(100));
+
+        assertTrue(cache.get(key("720p_000.ts"), file).isEmpty());
+        assertFalse(cache.warm(key("720p_000.ts"), file));
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedEntry() throws Exception {
+        OffHeapSegmentCacheService cache = cache(2);
+        Path first = segment("720p_000.ts", randomBytes(PAGE_SIZE));
+        Path second = segment("720p_001.ts", randomBytes(PAGE_SIZE));
+        Path third = segment("720p_002.ts", randomBytes(PAGE_SIZE));
+
+        assertTrue(cache.warm(key("720p_000.ts"), first));
+        assertTrue(cache.warm(key("720p_001.ts"), second));
+        cache.get(key("720p_000.ts"), first).orElseThrow().close();
+        assertTrue(cache.warm(key("720p_002.ts"), third));
+
+        assertEquals(1, cache.getStats().evictions());
+        assertEquals(1, cache.getStats().hits());
+        cache.get(key("720p_000.ts"), first).orElseThrow().close();
+        assertEquals(2, cache.getStats().hits());
+        cache.get(key("720p_001.ts"), second).orElseThrow().close();
+        assertEquals(1, cache.getStats().misses());
+    }
+
+    @Test
+    void neverEvictsPinnedEntries() throws Exception {
+        OffHeapSegmentCacheService cache = cache(2);
+        byte[] bytes = randomBytes(PAGE_SIZE);
+        Path first = segment("720p_000.ts", bytes);
+        Path second = segment("720p_001.ts", randomBytes(PAGE_SIZE));
+        Path third = segment("720p_002.ts", randomBytes(PAGE_SIZE));
+
+        try (CachedSegment pinned = cache.get(key("720p_000.ts"), first).orElseThrow()) {
+            assertTrue(cache.warm(key("720p_001.ts"), second));
+
+            // The pinned entry is least recently used, so the next one goes instead
+            assertTrue(cache.warm(key("720p_002.ts"), third));
+            assertEquals(1, cache.getStats().evictions());
+            assertArrayEquals(bytes, read(pinned));
+
+            // With every remaining entry pinned there is no room at all
+            try (CachedSegment alsoPinned = cache.get(key("720p_002.ts"), third).orElseThrow()) {
+                assertTrue(cache.get(key("720p_001.ts"), second).isEmpty());
+                assertArrayEquals(bytes, read(pinned));
+            }
+        }
+    }
+
+    @Test
+    void keepsInvalidatedPagesUntilTheLastReaderCloses() throws Exception {
+        OffHeapSegmentCacheService cache = cache(2);
+        byte[] bytes = randomBytes(PAGE_SIZE);
+        Path first = segment("720p_000.ts", bytes);
+        Path second = segment("720p_001.ts", randomBytes(PAGE_SIZE));
+        Path third = segment("720p_002.ts", randomBytes(PAGE_SIZE));
+
+        CachedSegment reader = cache.get(key("720p_000.ts"), first).orElseThrow();
+        cache.invalidateVideo("video");
+        assertEquals(0, cache.getStats().entries());
+        assertEquals(0, cache.getStats().usedBytes());
+
+        // The reader still holds its page, leaving room for one more segment only
+        try (CachedSegment other = cache.get(key("720p_001.ts"), second).orElseThrow()) {
+            assertTrue(cache.get(key("720p_002.ts"), third).isEmpty());
+            assertArrayEquals(bytes, read(reader));
+
+            reader.close();
+            assertTrue(cache.warm(key("720p_002.ts"), third));
+            assertEquals(2, cache.getStats().entries());
+        }
+    }
+
+    @Test
+    void closingAReaderTwiceReleasesItOnce() throws Exception {
+        OffHeapSegmentCacheService cache = cache(2);
+        Path first = segment("720p_000.ts", randomBytes(PAGE_SIZE));
+
+        CachedSegment reader = cache.get(key("720p_000.ts"), first).orElseThrow();
+        reader.close();
+        reader.close();
+
+        // A second release would have freed the cached entry's page under it
+        for (int i = 1; i <= 3; i++) {
+            String name = "720p_00" + i + ".ts";
+            cache.warm(key(name), segment(name, randomBytes(PAGE_SIZE)));
+        }
+        assertEquals(2, cache.getStats().entries());
+        assertEquals(2 * PAGE_SIZE, cache.getStats().usedBytes());
+    }
+
+    @Test
+    void invalidatesOnlyTheGivenVideo() throws Exception {
+        OffHeapSegmentCacheService cache = cache(4);
+        Path file = segment("720p_000.ts", randomBytes(100));
+
+        assertTrue(cache.warm(SegmentKey.of("video", "720p_000.ts"), file));
+        assertTrue(cache.warm(SegmentKey.of("other", "720p_000.ts"), file));
+        cache.invalidateVideo("video");
+
+        assertEquals(1, cache.getStats().entries());
+        assertEquals(100, cache.getStats().usedBytes());
+    }
+
+    @Test
+    void concurrentMissesShareOneRead() throws Exception {
+        BlockingCache cache = new BlockingCache(4);
+        byte[] bytes = randomBytes(PAGE_SIZE);
+        Path file = segment("720p_000.ts", bytes);
+
+        Future<byte[]> first = executor.submit(() -> getAndRead(cache, file));
+        assertTrue(cache.reading.await(5, TimeUnit.SECONDS));
+        Future<byte[]> second = executor.submit(() -> getAndRead(cache, file));
+        awaitMisses(cache, 2);
+        cache.proceed.countDown();
+
+        assertArrayEquals(bytes, first.get(5, TimeUnit.SECONDS));
+        assertArrayEquals(bytes, second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, cache.reads.get());
+        assertEquals(1, cache.getStats().entries());
+    }
+
+    @Test
+    void dropsASegmentLoadedAcrossAnInvalidation() throws Exception {
+        BlockingCache cache = new BlockingCache(4);
+        Path file = segment("720p_000.ts", randomBytes(PAGE_SIZE));
+
+        Future<Optional<CachedSegment>> loading = executor.submit(() -> cache.get(key("720p_000.ts"), file));
+        assertTrue(cache.reading.await(5, TimeUnit.SECONDS));
+        cache.invalidateVideo("video");
+        cache.proceed.countDown();
+
+        // The bytes may predate the invalidation, so they are neither served nor kept
+        assertTrue(loading.get(5, TimeUnit.SECONDS).isEmpty());
+        assertEquals(0, cache.getStats().entries());
+        assertEquals(0, cache.getStats().usedBytes());
+
+        try (CachedSegment segment = cache.get(key("720p_000.ts"), file).orElseThrow()) {
+            assertEquals(PAGE_SIZE, segment.length());
+        }
+        assertEquals(2, cache.reads.get());
+    }
+
+    @Test
+    void givesPagesBackWhenALoadFails() throws Exception {
+        OffHeapSegmentCacheService cache = new OffHeapSegmentCacheService(new SimpleMeterRegistry(), true,
+            DataSize.ofBytes(PAGE_SIZE * 2), DataSize.ofBytes(PAGE_SIZE), DataSize.ofBytes(PAGE_SIZE * 2),
+            DataSize.ofBytes(PAGE_SIZE * 2)) {
+            @Override
+            void readInto(Path file, long size, ByteBuffer[] pages) throws IOException {
+                if (file.getFileName().toString().equals("720p_000.ts")) {
+                    throw new IOException("read failed");
+                }
+                super.readInto(file, size, pages);
+            }
+        };
+
+        Path broken = segment("720p_000.ts", randomBytes(PAGE_SIZE * 2));
+        assertThrows(IOException.class, () -> cache.get(key("720p_000.ts"), broken));
+
+        // Both pages are free again for the next segment
+        assertTrue(cache.warm(key("720p_001.ts"), segment("720p_001.ts", randomBytes(PAGE_SIZE * 2))));
+    }
+
+    private OffHeapSegmentCacheService cache(int pages) {
+        return new OffHeapSegmentCacheService(new SimpleMeterRegistry(), true,
+            DataSize.ofBytes((long) PAGE_SIZE * pages), DataSize.ofBytes(PAGE_SIZE),
+            DataSize.ofBytes((long) PAGE_SIZE * pages), DataSize.ofBytes((long) PAGE_SIZE * pages));
+    }
+
+    private SegmentKey key(String filename) {
+        return SegmentKey.of("video", filename);
+    }
+
+    private Path segment(String name, byte[] bytes) throws IOException {
+        return Files.write(directory.resolve(name), bytes);
+    }
+
+    private byte[] getAndRead(OffHeapSegmentCacheService cache, Path file) throws Exception {
+        try (CachedSegment segment = cache.get(key("720p_000.ts"), file).orElseThrow()) {
+            return read(segment);
+        }
+    }
+
+    private byte[] read(CachedSegment segment) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) segment.length());
+        try (SeekableByteChannel channel = segment.openChannel()) {
+            while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                // Keep reading until the buffer is full
+            }
+        }
+        return buffer.array();
+    }
+
+    private void awaitMisses(OffHeapSegmentCacheService cache, long count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (cache.getStats().misses() < count && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, cache.getStats().misses());
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Cache whose first segment read waits until the test lets it continue.
+     */
+    private static class BlockingCache extends OffHeapSegmentCacheService {
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final AtomicInteger reads = new AtomicInteger();
+
+        BlockingCache(int pages) {
+            super(new SimpleMeterRegistry(), true, DataSize.ofBytes((long) PAGE_SIZE * pages),
+                  DataSize.ofBytes(PAGE_SIZE), DataSize.ofBytes((long) PAGE_SIZE * pages),
+                  DataSize.ofBytes((long) PAGE_SIZE * pages));
+        }
+
+        @Override
+        void readInto(Path file, long size, ByteBuffer[] pages) throws IOException {
+            reads.incrementAndGet();
+            reading.countDown();
+            try {
+                proceed.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            super.readInto(file, size, pages);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.coraybennett.spillway.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class SingleFlightTest {
+
+    private static final int CALLERS = 8;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void runsTheWorkOnceForConcurrentCallers() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>(Duration.ofSeconds(5));
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<String> first = executor.submit(() -> flight.execute("key", () -> {
+            runs.incrementAndGet();
+            started.countDown();
+            release.await();
+            return "result";
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        List<Future<String>> waiters = new ArrayList<>();
+        for (int i = 1; i < CALLERS; i++) {
+            waiters.add(executor.submit(() -> flight.execute("key", () -> {
+                runs.incrementAndGet();
+                return "repeated";
+            })));
+        }
+        awaitCoalesced(flight, CALLERS - 1);
+        release.countDown();
+
+        assertEquals("result", first.get(5, TimeUnit.SECONDS));
+        for (Future<String> waiter : waiters) {
+            assertEquals("result", waiter.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void runsAgainOnceTheCallHasCompleted() throws Exception {
+        SingleFlight<String, Integer> flight = new SingleFlight<>(Duration.ofSeconds(5));
+        AtomicInteger runs = new AtomicInteger();
+
+        assertEquals(1, (int) flight.execute("key", runs::incrementAndGet));
+        assertEquals(2, (int) flight.execute("key", runs::incrementAndGet));
+        assertEquals(0, flight.coalescedCount());
+    }
+
+    @Test
+    void keepsDifferentKeysApart() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>(Duration.ofSeconds(5));
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<String> blocked = executor.submit(() -> flight.execute("a", () -> {
+            release.await();
+            return "a";
+        }));
+
+        assertEquals("b", flight.execute("b", () -> "b"));
+        release.countDown();
+        assertEquals("a", blocked.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void rethrowsTheFailureToEveryWaitingCaller() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>(Duration.ofSeconds(5));
+        IOException failure = new IOException("disk gone");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<String> first = executor.submit(() -> flight.execute("key", () -> {
+            started.countDown();
+            release.await();
+            throw failure;
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Future<String> waiter = executor.submit(() -> flight.execute("key", () -> "repeated"));
+        awaitCoalesced(flight, 1);
+        release.countDown();
+
+        assertSame(failure, causeOf(first));
+        assertSame(failure, causeOf(waiter));
+
+        // A failed call is not remembered
+        assertEquals("retried", flight.execute("key", () -> "retried"));
+    }
+
+    @Test
+    void rethrowsUncheckedFailuresUnwrapped() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>(Duration.ofSeconds(5));
+
+        IllegalStateException thrown = assertThrows(IllegalStateException.class,
+            () -> flight.execute("key", () -> {
+                throw new IllegalStateException("bad state");
+            }));
+        assertEquals("bad state", thrown.getMessage());
+    }
+
+    @Test
+    void waitingCallersGiveUpAfterTheTimeout() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>(Duration.ofMillis(50));
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<String> first = executor.submit(() -> flight.execute("key", () -> {
+            started.countDown();
+            release.await();
+            return "slow";
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        assertThrows(TimeoutException.class, () -> flight.execute("key", () -> "repeated"));
+
+        // The run itself is not cut short
+        release.countDown();
+        assertEquals("slow", first.get(5, TimeUnit.SECONDS));
+    }
+
+    private void awaitCoalesced(SingleFlight<?, ?> flight, long count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (flight.coalescedCount() < count && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, flight.coalescedCount());
+    }
+
+    private Throwable causeOf(Future<?> future) throws Exception {
+        ExecutionException thrown = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        return thrown.getCause();
+    }
+}